@@ -11,10 +11,15 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
+ * May be used by several threads at once. Loaded classes are cached in a concurrent map, and a class which isn't cached yet is loaded
+ * under a lock specific to its name, so different classes are loaded in parallel but the same class is read only once.
+ *
  * @author Eugene Zhuravlev
  *         Date: 2/16/12
  */
@@ -22,13 +27,13 @@ public class InstrumentationClassFinder {
   private static final PseudoClass[] EMPTY_PSEUDOCLASS_ARRAY = new PseudoClass[0];
   private static final String CLASS_RESOURCE_EXTENSION = ".class";
   private static final URL[] URL_EMPTY_ARRAY = new URL[0];
-  private final Map<String, PseudoClass> myLoaded = new HashMap<String, PseudoClass>(); // className -> class object
+  private final ConcurrentMap<String, PseudoClass> myLoaded = new ConcurrentHashMap<String, PseudoClass>(); // className -> class object
+  private final ConcurrentMap<String, Object> myLoadingLocks = new ConcurrentHashMap<String, Object>(); // className -> lock
   private final ClassFinderClasspath myPlatformClasspath;
   private final ClassFinderClasspath myClasspath;
   private final URL[] myPlatformUrls;
   private final URL[] myClasspathUrls;
   private ClassLoader myLoader;
-  private byte[] myBuffer;
 
   public InstrumentationClassFinder(final URL[] cp) {
     this(URL_EMPTY_ARRAY, cp);
@@ -42,7 +47,7 @@ public class InstrumentationClassFinder {
   }
 
   // compatibility with legacy code requiring ClassLoader
-  public ClassLoader getLoader() {
+  public synchronized ClassLoader getLoader() {
     ClassLoader loader = myLoader;
     if (loader != null) {
       return loader;
@@ -86,11 +91,11 @@ public class InstrumentationClassFinder {
     return loader;
   }
 
-  public void releaseResources() {
+  public synchronized void releaseResources() {
     myPlatformClasspath.releaseResources();
     myClasspath.releaseResources();
     myLoaded.clear();
-    myBuffer = null;
+    myLoadingLocks.clear();
     myLoader = null;
   }
 
@@ -100,6 +105,20 @@ public class InstrumentationClassFinder {
     if (aClass != null && aClass != PseudoClass.NULL_OBJ) {
       return aClass;
     }
+    if (aClass == PseudoClass.NULL_OBJ) {
+      throw classNotFound(name);
+    }
+    synchronized (getLoadingLock(internalName)) {
+      return doLoadClass(name, internalName);
+    }
+  }
+
+  private PseudoClass doLoadClass(String name, String internalName) throws IOException, ClassNotFoundException {
+    // the class may have been loaded while this thread was waiting for the lock
+    final PseudoClass aClass = myLoaded.get(internalName);
+    if (aClass != null && aClass != PseudoClass.NULL_OBJ) {
+      return aClass;
+    }
 
     final InputStream is = aClass == null? getClassBytesStream(internalName) : null;
 
@@ -107,13 +126,7 @@ public class InstrumentationClassFinder {
       if (aClass == null) {
         myLoaded.put(internalName, PseudoClass.NULL_OBJ);
       }
-      // ensure presentable class name in error message
-      throw new ClassNotFoundException("Class not found: " + name.replace('/', '.')) {
-        @Override
-        public synchronized Throwable fillInStackTrace() {
-          return this;
-        }
-      };
+      throw classNotFound(name);
     }
 
     try {
@@ -126,6 +139,22 @@ public class InstrumentationClassFinder {
     }
   }
 
+  private static ClassNotFoundException classNotFound(String name) {
+    // ensure presentable class name in error message
+    return new ClassNotFoundException("Class not found: " + name.replace('/', '.')) {
+      @Override
+      public synchronized Throwable fillInStackTrace() {
+        return this;
+      }
+    };
+  }
+
+  private Object getLoadingLock(String internalName) {
+    final Object lock = new Object();
+    final Object existing = myLoadingLocks.putIfAbsent(internalName, lock);
+    return existing != null ? existing : lock;
+  }
+
   public void cleanCachedData(String className) {
     myLoaded.remove(className.replace('.', '/'));
   }
@@ -142,7 +171,7 @@ public class InstrumentationClassFinder {
     }
     finally {
       if (aClass == null && bytes == null) {
-        myLoaded.put(internalName, PseudoClass.NULL_OBJ);
+        myLoaded.putIfAbsent(internalName, PseudoClass.NULL_OBJ);
       }
     }
     return bytes;
@@ -460,7 +489,7 @@ public class InstrumentationClassFinder {
       return null;
     }
 
-    public void releaseResources() {
+    public synchronized void releaseResources() {
       for (Loader loader : myLoaders) {
         loader.releaseResources();
       }
@@ -646,7 +675,7 @@ public class InstrumentationClassFinder {
         myURL = url;
       }
 
-      public void releaseResources() {
+      public synchronized void releaseResources() {
         final ZipFile zipFile = myZipFile;
         if (zipFile != null) {
           myZipFile = null;
@@ -659,7 +688,7 @@ public class InstrumentationClassFinder {
         }
       }
 
-      private ZipFile acquireZipFile() throws IOException {
+      private synchronized ZipFile acquireZipFile() throws IOException {
         ZipFile zipFile = myZipFile;
         if (zipFile == null) {
           zipFile = doGetZipFile();
@@ -806,12 +835,7 @@ public class InstrumentationClassFinder {
   }
 
   public byte[] loadBytes(InputStream stream) {
-    byte[] buf = myBuffer;
-    if (buf == null) {
-      buf = new byte[512];
-      myBuffer = buf;
-    }
-
+    final byte[] buf = new byte[512];
     final ByteArrayOutputStream result = new ByteArrayOutputStream();
     try {
       while (true) {
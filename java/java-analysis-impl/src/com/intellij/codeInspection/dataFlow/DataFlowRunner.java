@@ -125,6 +125,8 @@ public class DataFlowRunner {
         }
       }
 
+      Map<Instruction, List<DfaVariableValue>> deadVariables = LiveVariablesAnalyzer.findDeadVariables(psiBlock, myInstructions, joinInstructions);
+
       if (LOG.isDebugEnabled()) {
         LOG.debug("Analyzing code block: " + psiBlock.getText());
         for (int i = 0; i < myInstructions.length; i++) {
@@ -184,6 +186,10 @@ public class DataFlowRunner {
             if (nextInstruction.getIndex() >= endOffset) {
               continue;
             }
+            List<DfaVariableValue> toFlush = deadVariables == null ? null : deadVariables.get(nextInstruction);
+            if (toFlush != null) {
+              ((DfaMemoryStateImpl)state.getMemoryState()).flushDeadVariables(toFlush);
+            }
             if (nextInstruction instanceof BranchingInstruction) {
               BranchingInstruction branching = (BranchingInstruction)nextInstruction;
               if (processedStates.get(branching).contains(state.getMemoryState()) || 
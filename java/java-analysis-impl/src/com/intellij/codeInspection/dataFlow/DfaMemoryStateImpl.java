@@ -55,6 +55,9 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
   private final Map<DfaVariableValue,DfaVariableState> myDefaultVariableStates; 
   private final Set<DfaVariableValue> myUnknownVariables;
   private boolean myEphemeral;
+  // states are looked up in hash sets several times between modifications, so the hash is computed lazily and reset on every change;
+  // zero means it has to be recomputed
+  private int myCachedHash;
 
   public DfaMemoryStateImpl(final DfaValueFactory factory) {
     myFactory = factory;
@@ -80,6 +83,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     
     myCachedDistinctClassPairs = toCopy.myCachedDistinctClassPairs;
     myCachedNonTrivialEqClasses = toCopy.myCachedNonTrivialEqClasses;
+    myCachedHash = toCopy.myCachedHash;
   }
 
   public DfaValueFactory getFactory() {
@@ -95,6 +99,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     if (obj == this) return true;
     if (!(obj instanceof DfaMemoryStateImpl)) return false;
     DfaMemoryStateImpl that = (DfaMemoryStateImpl)obj;
+    if (getStateHashCode() != that.getStateHashCode()) return false;
     return equalsSuperficially(that) && equalsByUnknownVariables(that) && equalsByRelations(that) && equalsByVariableStates(that);
   }
 
@@ -143,7 +148,15 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
   }
 
   public int hashCode() {
-    return getPartialHashCode(true, true);
+    return getStateHashCode();
+  }
+
+  private int getStateHashCode() {
+    int hash = myCachedHash;
+    if (hash == 0) {
+      myCachedHash = hash = getPartialHashCode(true, true);
+    }
+    return hash;
   }
 
   int getPartialHashCode(boolean unknowns, boolean varStates) {
@@ -199,6 +212,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
 
   @Override
   public DfaValue pop() {
+    myCachedHash = 0;
     return myStack.pop();
   }
 
@@ -210,11 +224,13 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
   @Override
   public void push(@NotNull DfaValue value) {
     myStack.push(value);
+    myCachedHash = 0;
   }
 
   @Override
   public void emptyStack() {
     myStack.clear();
+    myCachedHash = 0;
   }
 
   @Override
@@ -266,6 +282,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     EqClass aClass = new EqClass(myFactory);
     aClass.add(dfaValue.getID());
     myEqClasses.add(aClass);
+    myCachedHash = 0;
 
     return myEqClasses.size() - 1;
   }
@@ -417,6 +434,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       myDistinctClasses.add(createPair(c1Index, low(c) == c2Index ? high(c) : low(c)));
     }
     myEqClasses.set(c2Index, null);
+    myCachedHash = 0;
 
     return true;
   }
@@ -446,6 +464,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
 
   private void makeClassesDistinct(int c1Index, int c2Index) {
     myDistinctClasses.add(createPair(c1Index, c2Index));
+    myCachedHash = 0;
   }
 
   @Override
@@ -730,6 +749,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
       }
       myCachedDistinctClassPairs = null;
       myCachedNonTrivialEqClasses = null;
+      myCachedHash = 0;
     }
     else { // Not Equals
       if (c1Index.equals(c2Index)) return false;
@@ -777,6 +797,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     } else {
       myVariableStates.put(dfaVar, state);
     }
+    myCachedHash = 0;
   }
   
   public DfaVariableState getVariableState(DfaVariableValue dfaVar) {
@@ -838,6 +859,18 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     flushDependencies(variable);
     myUnknownVariables.remove(variable);
     myUnknownVariables.removeAll(myFactory.getVarFactory().getAllQualifiedBy(variable));
+    myCachedHash = 0;
+  }
+
+  /**
+   * Forgets everything about variables which aren't referenced by the rest of the method, so that states differing only in them
+   * become equal and can be deduplicated. Nothing is flushed when the stack isn't empty since stack values may refer to the variables.
+   */
+  void flushDeadVariables(@NotNull Collection<DfaVariableValue> variables) {
+    if (!myStack.isEmpty()) return;
+    for (DfaVariableValue variable : variables) {
+      flushVariable(variable);
+    }
   }
 
   public void flushDependencies(DfaVariableValue variable) {
@@ -903,6 +936,7 @@ public class DfaMemoryStateImpl implements DfaMemoryState {
     }
     myCachedNonTrivialEqClasses = null;
     myCachedDistinctClassPairs = null;
+    myCachedHash = 0;
   }
 
   private static boolean mine(int id, DfaValue value) {
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection.dataFlow;
+
+import com.intellij.codeInspection.dataFlow.instructions.*;
+import com.intellij.codeInspection.dataFlow.value.*;
+import com.intellij.psi.*;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.containers.MultiMapBasedOnSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Finds local variables and parameters which can't be referenced anymore when the control reaches a given instruction. Facts about
+ * such variables don't affect the rest of the analysis, so the runner flushes them and states differing only in them get merged.
+ * <p/>
+ * A variable is live while some path leads to an instruction which mentions it. Assignments aren't treated as kills, which keeps
+ * the analysis conservative: a variable stays live until its last mention on every path.
+ */
+class LiveVariablesAnalyzer {
+  private final Instruction[] myInstructions;
+  private final List<PsiModifierListOwner> myVariables = ContainerUtil.newArrayList();
+  private final Map<PsiModifierListOwner, Integer> myIndices = ContainerUtil.newHashMap();
+  private final MultiMapBasedOnSet<PsiModifierListOwner, DfaVariableValue> myValues =
+    new MultiMapBasedOnSet<PsiModifierListOwner, DfaVariableValue>();
+  private final Set<String> myNamesUsedInNestedClasses = ContainerUtil.newHashSet();
+  private boolean myUnsupportedValue;
+
+  private LiveVariablesAnalyzer(@NotNull Instruction[] instructions) {
+    myInstructions = instructions;
+  }
+
+  /**
+   * @return variables to be flushed before each of the given instructions, or {@code null} if nothing can be flushed
+   */
+  @Nullable
+  static Map<Instruction, List<DfaVariableValue>> findDeadVariables(@NotNull PsiElement psiBlock,
+                                                                    @NotNull Instruction[] instructions,
+                                                                    @NotNull Collection<Instruction> joinInstructions) {
+    if (joinInstructions.isEmpty()) return null;
+
+    LiveVariablesAnalyzer analyzer = new LiveVariablesAnalyzer(instructions);
+    analyzer.collectNamesUsedInNestedClasses(psiBlock);
+    BitSet[] uses = analyzer.collectUses();
+    if (uses == null || analyzer.myVariables.isEmpty()) return null;
+
+    BitSet[] live = analyzer.computeLiveVariables(uses);
+    Map<Instruction, List<DfaVariableValue>> result = ContainerUtil.newHashMap();
+    for (Instruction instruction : joinInstructions) {
+      List<DfaVariableValue> dead = ContainerUtil.newArrayList();
+      BitSet liveHere = live[instruction.getIndex()];
+      for (int i = 0; i < analyzer.myVariables.size(); i++) {
+        if (!liveHere.get(i)) {
+          dead.addAll(analyzer.myValues.get(analyzer.myVariables.get(i)));
+        }
+      }
+      if (!dead.isEmpty()) {
+        result.put(instruction, dead);
+      }
+    }
+    return result.isEmpty() ? null : result;
+  }
+
+  private void collectNamesUsedInNestedClasses(@NotNull PsiElement psiBlock) {
+    // nested class bodies are analyzed with the states captured at the class creation point, so variables they use must be kept
+    for (PsiClass nestedClass : PsiTreeUtil.findChildrenOfType(psiBlock, PsiClass.class)) {
+      nestedClass.accept(new JavaRecursiveElementWalkingVisitor() {
+        @Override
+        public void visitReferenceExpression(PsiReferenceExpression expression) {
+          super.visitReferenceExpression(expression);
+          ContainerUtil.addIfNotNull(expression.getReferenceName(), myNamesUsedInNestedClasses);
+        }
+      });
+    }
+  }
+
+  @Nullable
+  private BitSet[] collectUses() {
+    BitSet[] uses = new BitSet[myInstructions.length];
+    for (int i = 0; i < myInstructions.length; i++) {
+      BitSet bits = new BitSet();
+      Instruction instruction = myInstructions[i];
+      if (instruction instanceof PushInstruction) {
+        addUses(((PushInstruction)instruction).getValue(), bits);
+      }
+      else if (instruction instanceof FlushVariableInstruction) {
+        addUses(((FlushVariableInstruction)instruction).getVariable(), bits);
+      }
+      else if (instruction instanceof MethodCallInstruction) {
+        addUses(((MethodCallInstruction)instruction).getPrecalculatedReturnValue(), bits);
+      }
+      if (myUnsupportedValue) return null;
+      uses[i] = bits;
+    }
+    return uses;
+  }
+
+  private void addUses(@Nullable DfaValue value, @NotNull BitSet bits) {
+    if (value instanceof DfaVariableValue) {
+      DfaVariableValue root = (DfaVariableValue)value;
+      while (root.getQualifier() != null) {
+        root = root.getQualifier();
+      }
+      int index = getVariableIndex(root);
+      if (index >= 0) {
+        bits.set(index);
+      }
+    }
+    else if (value instanceof DfaBoxedValue) {
+      addUses(((DfaBoxedValue)value).getWrappedValue(), bits);
+    }
+    else if (value instanceof DfaUnboxedValue) {
+      addUses(((DfaUnboxedValue)value).getVariable(), bits);
+    }
+    else if (value instanceof DfaRelationValue) {
+      addUses(((DfaRelationValue)value).getLeftOperand(), bits);
+      addUses(((DfaRelationValue)value).getRightOperand(), bits);
+    }
+    else if (value != null && !(value instanceof DfaConstValue) && !(value instanceof DfaTypeValue) && !(value instanceof DfaUnknownValue)) {
+      // don't know which variables it refers to
+      myUnsupportedValue = true;
+    }
+  }
+
+  private int getVariableIndex(@NotNull DfaVariableValue root) {
+    PsiModifierListOwner variable = root.getPsiVariable();
+    if (!(variable instanceof PsiLocalVariable || variable instanceof PsiParameter) ||
+        myNamesUsedInNestedClasses.contains(((PsiVariable)variable).getName())) {
+      return -1;
+    }
+    Integer index = myIndices.get(variable);
+    if (index == null) {
+      index = myVariables.size();
+      myVariables.add(variable);
+      myIndices.put(variable, index);
+    }
+    myValues.putValue(variable, root);
+    return index;
+  }
+
+  @NotNull
+  private BitSet[] computeLiveVariables(@NotNull BitSet[] uses) {
+    int count = myInstructions.length;
+    BitSet[] live = new BitSet[count];
+    for (int i = 0; i < count; i++) {
+      live[i] = (BitSet)uses[i].clone();
+    }
+
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = count - 1; i >= 0; i--) {
+        for (int successor : getSuccessors(myInstructions[i])) {
+          if (successor < count) {
+            BitSet before = live[i];
+            int cardinality = before.cardinality();
+            before.or(live[successor]);
+            if (before.cardinality() != cardinality) {
+              changed = true;
+            }
+          }
+        }
+      }
+    }
+    return live;
+  }
+
+  @NotNull
+  private static int[] getSuccessors(@NotNull Instruction instruction) {
+    if (instruction instanceof ReturnInstruction) {
+      return new int[0];
+    }
+    if (instruction instanceof GotoInstruction) {
+      return new int[]{((GotoInstruction)instruction).getOffset()};
+    }
+    if (instruction instanceof ConditionalGotoInstruction) {
+      return new int[]{((ConditionalGotoInstruction)instruction).getOffset(), instruction.getIndex() + 1};
+    }
+    return new int[]{instruction.getIndex() + 1};
+  }
+}
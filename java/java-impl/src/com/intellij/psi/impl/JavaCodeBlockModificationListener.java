@@ -22,7 +22,7 @@ import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.psi.xml.XmlFile;
 import org.jetbrains.annotations.NotNull;
 
-public class JavaCodeBlockModificationListener implements PsiTreeChangePreprocessor {
+public class JavaCodeBlockModificationListener implements CodeBlockChangePreprocessor {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.JavaCodeBlockModificationListener");
 
   private final PsiModificationTrackerImpl myModificationTracker;
@@ -31,6 +31,12 @@ public class JavaCodeBlockModificationListener implements PsiTreeChangePreproces
     myModificationTracker = (PsiModificationTrackerImpl) modificationTracker;
   }
 
+  @Override
+  public boolean tracksOutOfCodeBlockChanges(@NotNull PsiFile file) {
+    // a change of any file outside of Java code blocks increases the count
+    return true;
+  }
+
   @Override
   public void treeChanged(@NotNull final PsiTreeChangeEventImpl event) {
     switch (event.getCode()) {
@@ -0,0 +1,10 @@
+class Some {
+  void foo(String s, boolean b) {
+    if (s == null) {
+      System.out.println();
+    }
+    if (b) System.out.println();
+    System.out.println(<warning descr="Method invocation 's.length()' may produce 'java.lang.NullPointerException'">s.length()</warning>);
+  }
+
+}
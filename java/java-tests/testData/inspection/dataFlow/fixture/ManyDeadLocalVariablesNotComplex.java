@@ -0,0 +1,131 @@
+class Some {
+  void foo(Foo foo) {
+    boolean b1 = foo.isBar1();
+    if (b1) System.out.println("1");
+    String s1 = foo.getBar1();
+    if (s1 == null) System.out.println("no 1");
+    boolean b2 = foo.isBar2();
+    if (b2) System.out.println("2");
+    String s2 = foo.getBar2();
+    if (s2 == null) System.out.println("no 2");
+    boolean b3 = foo.isBar3();
+    if (b3) System.out.println("3");
+    String s3 = foo.getBar3();
+    if (s3 == null) System.out.println("no 3");
+    boolean b4 = foo.isBar4();
+    if (b4) System.out.println("4");
+    String s4 = foo.getBar4();
+    if (s4 == null) System.out.println("no 4");
+    boolean b5 = foo.isBar5();
+    if (b5) System.out.println("5");
+    String s5 = foo.getBar5();
+    if (s5 == null) System.out.println("no 5");
+    boolean b6 = foo.isBar6();
+    if (b6) System.out.println("6");
+    String s6 = foo.getBar6();
+    if (s6 == null) System.out.println("no 6");
+    boolean b7 = foo.isBar7();
+    if (b7) System.out.println("7");
+    String s7 = foo.getBar7();
+    if (s7 == null) System.out.println("no 7");
+    boolean b8 = foo.isBar8();
+    if (b8) System.out.println("8");
+    String s8 = foo.getBar8();
+    if (s8 == null) System.out.println("no 8");
+    boolean b9 = foo.isBar9();
+    if (b9) System.out.println("9");
+    String s9 = foo.getBar9();
+    if (s9 == null) System.out.println("no 9");
+    boolean b10 = foo.isBar10();
+    if (b10) System.out.println("10");
+    String s10 = foo.getBar10();
+    if (s10 == null) System.out.println("no 10");
+    boolean b11 = foo.isBar11();
+    if (b11) System.out.println("11");
+    String s11 = foo.getBar11();
+    if (s11 == null) System.out.println("no 11");
+    boolean b12 = foo.isBar12();
+    if (b12) System.out.println("12");
+    String s12 = foo.getBar12();
+    if (s12 == null) System.out.println("no 12");
+    boolean b13 = foo.isBar13();
+    if (b13) System.out.println("13");
+    String s13 = foo.getBar13();
+    if (s13 == null) System.out.println("no 13");
+    boolean b14 = foo.isBar14();
+    if (b14) System.out.println("14");
+    String s14 = foo.getBar14();
+    if (s14 == null) System.out.println("no 14");
+    boolean b15 = foo.isBar15();
+    if (b15) System.out.println("15");
+    String s15 = foo.getBar15();
+    if (s15 == null) System.out.println("no 15");
+    boolean b16 = foo.isBar16();
+    if (b16) System.out.println("16");
+    String s16 = foo.getBar16();
+    if (s16 == null) System.out.println("no 16");
+    boolean b17 = foo.isBar17();
+    if (b17) System.out.println("17");
+    String s17 = foo.getBar17();
+    if (s17 == null) System.out.println("no 17");
+    boolean b18 = foo.isBar18();
+    if (b18) System.out.println("18");
+    String s18 = foo.getBar18();
+    if (s18 == null) System.out.println("no 18");
+    boolean b19 = foo.isBar19();
+    if (b19) System.out.println("19");
+    String s19 = foo.getBar19();
+    if (s19 == null) System.out.println("no 19");
+    boolean b20 = foo.isBar20();
+    if (b20) System.out.println("20");
+    String s20 = foo.getBar20();
+    if (s20 == null) System.out.println("no 20");
+    if (<warning descr="Condition 'foo == null' is always 'false'">foo == null</warning>) {
+      System.out.println();
+    }
+  }
+
+}
+
+interface Foo {
+  boolean isBar1();
+  String getBar1();
+  boolean isBar2();
+  String getBar2();
+  boolean isBar3();
+  String getBar3();
+  boolean isBar4();
+  String getBar4();
+  boolean isBar5();
+  String getBar5();
+  boolean isBar6();
+  String getBar6();
+  boolean isBar7();
+  String getBar7();
+  boolean isBar8();
+  String getBar8();
+  boolean isBar9();
+  String getBar9();
+  boolean isBar10();
+  String getBar10();
+  boolean isBar11();
+  String getBar11();
+  boolean isBar12();
+  String getBar12();
+  boolean isBar13();
+  String getBar13();
+  boolean isBar14();
+  String getBar14();
+  boolean isBar15();
+  String getBar15();
+  boolean isBar16();
+  String getBar16();
+  boolean isBar17();
+  String getBar17();
+  boolean isBar18();
+  String getBar18();
+  boolean isBar19();
+  String getBar19();
+  boolean isBar20();
+  String getBar20();
+}
@@ -19,10 +19,17 @@ import com.intellij.JavaTestUtil;
 import com.intellij.codeInsight.ConditionCheckManager;
 import com.intellij.codeInsight.ConditionChecker;
 import com.intellij.codeInspection.dataFlow.DataFlowInspection;
+import com.intellij.codeInspection.dataFlow.RunnerResult;
+import com.intellij.codeInspection.dataFlow.StandardDataFlowRunner;
+import com.intellij.codeInspection.dataFlow.StandardInstructionVisitor;
 import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiCodeBlock;
+import com.intellij.psi.PsiJavaFile;
 import com.intellij.psi.PsiMethod;
 import com.intellij.testFramework.LightProjectDescriptor;
+import com.intellij.testFramework.PlatformTestUtil;
 import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+import com.intellij.util.ThrowableRunnable;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -291,8 +298,21 @@ public class DataFlowInspectionTest extends LightCodeInsightFixtureTestCase {
   public void testManyDisjunctiveFieldAssignmentsInLoopNotComplex() { doTest(); }
   public void testManyContinuesNotComplex() { doTest(); }
   public void testFinallyNotComplex() { doTest(); }
+  public void testManyDeadLocalVariablesNotComplex() { doTest(); }
+
+  public void testManyDeadLocalVariablesPerformance() {
+    myFixture.configureByFile("ManyDeadLocalVariablesNotComplex.java");
+    final PsiCodeBlock body = ((PsiJavaFile)myFixture.getFile()).getClasses()[0].getMethods()[0].getBody();
+    PlatformTestUtil.startPerformanceTest(getTestName(false), 500, new ThrowableRunnable() {
+      @Override
+      public void run() throws Exception {
+        assertEquals(RunnerResult.OK, new StandardDataFlowRunner(body).analyzeMethod(body, new StandardInstructionVisitor()));
+      }
+    }).cpuBound().assertTiming();
+  }
 
   public void testVariablesDiverge() { doTest(); }
+  public void testLiveVariableKeepsFactsAfterJoin() { doTest(); }
   public void testMergeByNullability() { doTest(); }
   public void testDontForgetInstanceofInfoWhenMerging() { doTest(); }
   public void testDontForgetEqInfoWhenMergingByType() { doTest(); }
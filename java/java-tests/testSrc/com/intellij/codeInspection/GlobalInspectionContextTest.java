@@ -20,12 +20,15 @@ import com.intellij.analysis.AnalysisScope;
 import com.intellij.codeInsight.CodeInsightTestCase;
 import com.intellij.codeInspection.actions.RunInspectionIntention;
 import com.intellij.codeInspection.ex.*;
+import com.intellij.codeInspection.sillyAssignment.SillyAssignmentInspection;
 import com.intellij.codeInspection.ui.InspectionToolPresentation;
 import com.intellij.codeInspection.visibility.VisibilityInspection;
 import com.intellij.psi.PsiFile;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * @author Dmitry Avdeev
@@ -74,6 +77,46 @@ public class GlobalInspectionContextTest extends CodeInsightTestCase {
     fail("No disabled tools found: " + Arrays.asList(tools));
   }
 
+  public void testParallelRunFindsSameProblemsAsSequentialRun() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      createFile("A" + i + ".java", "class A" + i + " {\n" +
+                                    "  int f;\n" +
+                                    "  void m(int p) {\n" +
+                                    "    p = p;\n" +
+                                    "    f = " + i + ";\n" +
+                                    "    this.f = f;\n" +
+                                    "  }\n" +
+                                    "}");
+    }
+    AnalysisScope scope = new AnalysisScope(getProject());
+
+    List<String> sequential = runSillyAssignmentInspection(scope, false);
+    assertEquals(20, sequential.size());
+    assertEquals(sequential, runSillyAssignmentInspection(scope, true));
+  }
+
+  private List<String> runSillyAssignmentInspection(AnalysisScope scope, boolean parallel) {
+    String shortName = new SillyAssignmentInspection().getShortName();
+    InspectionProfileImpl profile = new InspectionProfileImpl("Foo");
+    profile.disableAllTools(getProject());
+    profile.enableTool(shortName, getProject());
+
+    GlobalInspectionContextImpl context = ((InspectionManagerEx)InspectionManager.getInstance(getProject())).createNewGlobalContext(false);
+    context.setExternalProfile(profile);
+    context.setAnalyzeFilesInParallel(parallel);
+    context.doInspections(scope);
+
+    InspectionToolPresentation presentation = context.getPresentation(context.getTools().get(shortName).getTool());
+    List<String> problems = new ArrayList<String>();
+    for (CommonProblemDescriptor descriptor : presentation.getProblemDescriptors()) {
+      ProblemDescriptor problem = (ProblemDescriptor)descriptor;
+      problems.add(problem.getPsiElement().getContainingFile().getName() + ":" + problem.getLineNumber() + ": " +
+                   problem.getDescriptionTemplate());
+    }
+    Collections.sort(problems);
+    return problems;
+  }
+
   @Override
   public void setUp() throws Exception {
     super.setUp();
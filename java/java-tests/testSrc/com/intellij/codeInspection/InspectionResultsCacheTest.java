@@ -0,0 +1,155 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection;
+
+import com.intellij.codeInspection.ex.InspectionProfileImpl;
+import com.intellij.codeInspection.ex.InspectionResultsCache;
+import com.intellij.openapi.application.Result;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.ModuleRootModificationUtil;
+import com.intellij.openapi.roots.OrderRootType;
+import com.intellij.openapi.vfs.JarFileSystem;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.PsiTestCase;
+import com.intellij.testFramework.PsiTestUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class InspectionResultsCacheTest extends PsiTestCase {
+  private File myCacheDir;
+  private File myJar;
+  private VirtualFile myFile;
+  private VirtualFile myOtherFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myCacheDir = createTempDirectory();
+    myJar = new File(createTempDirectory(), "lib.jar");
+    writeJar("a");
+    VirtualFile jar = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(myJar);
+    assertNotNull(jar);
+    addLibraryToRoots(JarFileSystem.getInstance().getJarRootForLocalFile(jar), OrderRootType.CLASSES);
+
+    PsiFile file = createFile("A.java", "class A {}");
+    myFile = file.getVirtualFile();
+    myOtherFile = createFile(myModule, file.getContainingDirectory().getVirtualFile(), "B.java", "class B {}").getVirtualFile();
+  }
+
+  public void testUnchangedFileIsRestored() {
+    storeResults();
+
+    InspectionResultsCache cache = openCache();
+    try {
+      assertTrue(cache.restoreResults(myFile));
+      assertEquals(1, cache.getHitCount());
+      assertFalse(cache.restoreResults(myOtherFile));
+      assertEquals(1, cache.getMissCount());
+    }
+    finally {
+      cache.close();
+    }
+  }
+
+  public void testSourceChangeInModuleInvalidatesResults() throws IOException {
+    storeResults();
+    new WriteAction() {
+      @Override
+      protected void run(Result result) throws Throwable {
+        VfsUtil.saveText(myOtherFile, "class B { int i; }");
+      }
+    }.execute().throwException();
+
+    assertNotRestored();
+  }
+
+  public void testSourceChangeInDependentModuleInvalidatesResults() throws IOException {
+    Module dependent = createModule("dependent");
+    ModuleRootModificationUtil.addDependency(dependent, myModule);
+    VirtualFile root = getVirtualFile(createTempDirectory());
+    PsiTestUtil.addSourceRoot(dependent, root);
+    final VirtualFile usage = createFile(dependent, root, "C.java", "class C { A a; }").getVirtualFile();
+    storeResults();
+    new WriteAction() {
+      @Override
+      protected void run(Result result) throws Throwable {
+        VfsUtil.saveText(usage, "class C { }");
+      }
+    }.execute().throwException();
+
+    assertNotRestored();
+  }
+
+  public void testLibraryChangeInvalidatesResults() throws IOException {
+    storeResults();
+    // the same size, only the timestamp tells the jar has changed
+    writeJar("b");
+    assertTrue(myJar.setLastModified(myJar.lastModified() + 10000));
+    VirtualFile jar = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(myJar);
+    assertNotNull(jar);
+    jar.refresh(false, false);
+
+    assertNotRestored();
+  }
+
+  private void storeResults() {
+    InspectionResultsCache cache = openCache();
+    try {
+      cache.startRecording(myFile);
+      cache.finishRecording(myFile, true);
+    }
+    finally {
+      cache.close();
+    }
+  }
+
+  private void assertNotRestored() {
+    InspectionResultsCache cache = openCache();
+    try {
+      assertFalse(cache.restoreResults(myFile));
+      assertEquals(1, cache.getMissCount());
+    }
+    finally {
+      cache.close();
+    }
+  }
+
+  private InspectionResultsCache openCache() {
+    InspectionResultsCache cache = InspectionResultsCache.open(myCacheDir, getProject(), new InspectionProfileImpl("test"));
+    assertNotNull(cache);
+    return cache;
+  }
+
+  private void writeJar(String content) throws IOException {
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(myJar));
+    try {
+      out.putNextEntry(new ZipEntry("a.txt"));
+      out.write(content.getBytes("UTF-8"));
+      out.closeEntry();
+    }
+    finally {
+      out.close();
+    }
+  }
+}
@@ -12,6 +12,7 @@ import com.intellij.psi.PsiElement
 import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase
 import com.intellij.util.Consumer
 import com.intellij.util.concurrency.Semaphore
+import com.intellij.util.ui.UIUtil
 /**
  * @author peter
  */
@@ -176,6 +177,39 @@ class Intf {
     assert getPopupElements(new GotoClassModel2(project), 'Bar:[2,3]') == [c]
   }
 
+  public void "test enter pressed while partial results arrive waits for the complete list"() {
+    def foo = myFixture.addClass("class Foo {}")
+    def fooBar = myFixture.addClass("class FooBar {}")
+    def closed = []
+    def base = new ChooseByNameBase(project, new GotoClassModel2(project), "Foo", (PsiElement)null) {
+      @Override protected boolean isCheckboxVisible() { false }
+      @Override protected boolean isShowListForEmptyPattern() { false }
+      @Override protected boolean isCloseByFocusLost() { false }
+      @Override protected void showList() {}
+      @Override protected void hideList() {}
+      @Override protected void close(boolean isOk) { closed << isOk }
+    }
+
+    edt {
+      base.doClose(true)
+      base.setElementsToList(0, [foo] as Set, false)
+    }
+    waitForListUpdate(base, 1)
+    assert closed == []
+
+    edt { base.setElementsToList(0, [foo, fooBar] as Set, true) }
+    waitForListUpdate(base, 2)
+    assert closed == [true]
+  }
+
+  private static void waitForListUpdate(ChooseByNameBase base, int size) {
+    for (int i = 0; i < 100 && base.myList.model.size != size; i++) {
+      Thread.sleep(50)
+      edt { UIUtil.dispatchAllInvocationEvents() }
+    }
+    assert base.myList.model.size == size
+  }
+
   private List<Object> getPopupElements(ChooseByNameModel model, String text) {
     return getPopupElements(createPopup(model), text)
   }
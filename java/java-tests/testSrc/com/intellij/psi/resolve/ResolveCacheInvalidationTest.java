@@ -0,0 +1,71 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.resolve;
+
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.editor.Document;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaCodeReferenceElement;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.ResolveResult;
+import com.intellij.psi.impl.source.resolve.ResolveCache;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+
+public class ResolveCacheInvalidationTest extends LightCodeInsightFixtureTestCase {
+  public void testChangeInsideCodeBlockKeepsResultsOfOtherFiles() {
+    PsiFile declaration = myFixture.addFileToProject("a/A.java", "package a; public class A { void foo() { int i = 0; } }");
+    PsiJavaCodeReferenceElement ref = resolveReference();
+
+    replaceText(declaration, "= 0;", "= 1;");
+    assertNotNull(getCachedResults(ref));
+  }
+
+  public void testRenameInPropertiesClearsCache() {
+    myFixture.addFileToProject("a/A.java", "package a; public class A { }");
+    PsiFile properties = myFixture.addFileToProject("a/messages.properties", "greeting=Hello");
+    PsiJavaCodeReferenceElement ref = resolveReference();
+
+    replaceText(properties, "greeting", "salutation");
+    assertNull(getCachedResults(ref));
+  }
+
+  private PsiJavaCodeReferenceElement resolveReference() {
+    PsiFile file = myFixture.addFileToProject("b/B.java", "package b; class B { a.A field; }");
+    PsiReference ref = file.findReferenceAt(file.getText().indexOf("A field"));
+    assertInstanceOf(ref, PsiJavaCodeReferenceElement.class);
+    assertNotNull(ref.resolve());
+    assertNotNull(getCachedResults((PsiJavaCodeReferenceElement)ref));
+    return (PsiJavaCodeReferenceElement)ref;
+  }
+
+  private ResolveResult[] getCachedResults(PsiJavaCodeReferenceElement ref) {
+    return ResolveCache.getInstance(getProject()).getCachedResults(ref, true, false, true);
+  }
+
+  private void replaceText(PsiFile file, final String oldText, final String newText) {
+    final Document document = PsiDocumentManager.getInstance(getProject()).getDocument(file);
+    assertNotNull(document);
+    new WriteCommandAction.Simple(getProject()) {
+      @Override
+      protected void run() throws Throwable {
+        int offset = document.getText().indexOf(oldText);
+        document.replaceString(offset, offset + oldText.length(), newText);
+        PsiDocumentManager.getInstance(getProject()).commitDocument(document);
+      }
+    }.execute();
+  }
+}
@@ -17,10 +17,14 @@ package org.jetbrains.jps.cmdline;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.ParameterizedRunnable;
+import com.intellij.util.SystemProperties;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.incremental.Utils;
 import org.jetbrains.jps.model.JpsModel;
 import org.jetbrains.jps.model.serialization.JpsSerializationManager;
+import org.jetbrains.jps.model.serialization.JpsXmlElementCache;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -28,6 +32,8 @@ import java.io.IOException;
  */
 public class JpsModelLoaderImpl implements JpsModelLoader {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.cmdline.JpsModelLoaderImpl");
+  private static final boolean USE_ELEMENT_CACHE = SystemProperties.getBooleanProperty("jps.use.configuration.cache", true);
+  private static final String ELEMENT_CACHE_FILE_NAME = "configuration-cache.dat";
   private final String myProjectPath;
   private final String myGlobalOptionsPath;
   private final ParameterizedRunnable<JpsModel> myModelInitializer;
@@ -42,7 +48,12 @@ public class JpsModelLoaderImpl implements JpsModelLoader {
   public JpsModel loadModel() throws IOException {
     final long start = System.currentTimeMillis();
     LOG.info("Loading model: project path = " + myProjectPath + ", global options path = " + myGlobalOptionsPath);
-    final JpsModel model = JpsSerializationManager.getInstance().loadModel(myProjectPath, myGlobalOptionsPath);
+    final JpsXmlElementCache elementCache = createElementCache();
+    final JpsModel model = JpsSerializationManager.getInstance().loadModel(myProjectPath, myGlobalOptionsPath, elementCache);
+    if (elementCache != null) {
+      LOG.info("Configuration files: " + elementCache.getHitCount() + " loaded from cache, " + elementCache.getMissCount() + " parsed");
+      elementCache.save();
+    }
     if (myModelInitializer != null) {
       myModelInitializer.run(model);
     }
@@ -51,4 +62,11 @@ public class JpsModelLoaderImpl implements JpsModelLoader {
     LOG.info("Project has " + model.getProject().getModules().size() + " modules, " + model.getProject().getLibraryCollection().getLibraries().size() + " libraries");
     return model;
   }
+
+  @Nullable
+  private JpsXmlElementCache createElementCache() {
+    if (!USE_ELEMENT_CACHE) return null;
+    final File dataStorageRoot = Utils.getDataStorageRoot(myProjectPath);
+    return dataStorageRoot != null ? JpsXmlElementCache.load(new File(dataStorageRoot, ELEMENT_CACHE_FILE_NAME)) : null;
+  }
 }
@@ -19,6 +19,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.containers.MultiMap;
+import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -76,6 +77,7 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
     }
 
 
+    final Map<String, File> previousArchiveVersions = new THashMap<String, File>(FileUtil.PATH_HASHING_STRATEGY);
     try {
       final Collection<String> deletedFiles = holder.getRemovedFiles(target);
 
@@ -105,12 +107,14 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
       }
 
       final Set<String> changedOutputPaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+      final Set<String> changedSourcePaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
       //noinspection SynchronizationOnLocalVariableOrMethodParameter
       holder.processDirtyFiles(new FileProcessor<ArtifactRootDescriptor, ArtifactBuildTarget>() {
         @Override
         public boolean apply(ArtifactBuildTarget target, File file, ArtifactRootDescriptor root) throws IOException {
           int rootIndex = root.getRootIndex();
           String sourcePath = FileUtil.toSystemIndependentName(file.getPath());
+          changedSourcePaths.add(sourcePath);
           addFileToProcess(filesToProcess, rootIndex, sourcePath, deletedFiles);
           final Collection<String> outputPaths = srcOutMapping.getOutputs(sourcePath);
           if (outputPaths != null) {
@@ -137,7 +141,13 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
         return;
       }
 
-      deleteOutdatedFiles(filesToDelete, context, srcOutMapping, outSrcMapping);
+      final Set<String> archivePaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+      for (ArtifactRootDescriptor descriptor : pd.getBuildRootIndex().getTargetRoots(target, context)) {
+        if (descriptor.getDestinationInfo() instanceof JarDestinationInfo) {
+          archivePaths.add(descriptor.getDestinationInfo().getOutputFilePath());
+        }
+      }
+      deleteOutdatedFiles(filesToDelete, context, srcOutMapping, outSrcMapping, archivePaths, previousArchiveVersions);
       context.checkCanceled();
 
       context.processMessage(new ProgressMessage("Building artifact '" + artifact.getName() + "': copying files..."));
@@ -171,7 +181,7 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
       }
       context.checkCanceled();
 
-      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping);
+      JarsBuilder builder = new JarsBuilder(changedJars, context, outputConsumer, outSrcMapping, previousArchiveVersions, changedSourcePaths);
       builder.buildJars();
       runArtifactTasks(context, artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase.FINISHING_BUILD);
       runArtifactTasks(context, artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase.POST_PROCESSING);
@@ -179,6 +189,11 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
     catch (IOException e) {
       throw new ProjectBuildException(e);
     }
+    finally {
+      for (File file : previousArchiveVersions.values()) {
+        FileUtil.delete(file);
+      }
+    }
   }
 
   private static void runArtifactTasks(CompileContext context, JpsArtifact artifact, ArtifactBuildTaskProvider.ArtifactBuildPhase phase)
@@ -206,9 +221,14 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
     paths.add(path);
   }
 
+  /**
+   * Archives from {@code archivePaths} aren't deleted but moved to temporary files stored in {@code previousArchiveVersions}, so
+   * {@link JarsBuilder} is able to update them in place instead of building from scratch.
+   */
   private static void deleteOutdatedFiles(MultiMap<String, String> filesToDelete, CompileContext context,
                                           SourceToOutputMapping srcOutMapping,
-                                          ArtifactOutputToSourceMapping outSrcMapping) throws IOException {
+                                          ArtifactOutputToSourceMapping outSrcMapping,
+                                          Set<String> archivePaths, Map<String, File> previousArchiveVersions) throws IOException {
     if (filesToDelete.isEmpty()) return;
 
     context.processMessage(new ProgressMessage("Deleting outdated files..."));
@@ -222,6 +242,9 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
       }
 
       boolean deleted = deletedPaths.contains(filePath);
+      if (!deleted && archivePaths.contains(filePath)) {
+        deleted = moveToTemporaryFile(new File(filePath), filePath, previousArchiveVersions);
+      }
       if (!deleted) {
         deleted = FileUtil.delete(new File(filePath));
       }
@@ -251,6 +274,26 @@ public class IncArtifactBuilder extends TargetBuilder<ArtifactRootDescriptor, Ar
     }
   }
 
+  private static boolean moveToTemporaryFile(File file, String filePath, Map<String, File> movedFiles) {
+    if (!file.isFile()) return false;
+    File tempFile = null;
+    try {
+      tempFile = FileUtil.createTempFile("artifactCompiler", "tmp");
+      FileUtil.rename(file, tempFile);
+      if (!file.exists()) {
+        movedFiles.put(filePath, tempFile);
+        return true;
+      }
+    }
+    catch (IOException e) {
+      LOG.debug(e);
+    }
+    if (tempFile != null) {
+      FileUtil.delete(tempFile);
+    }
+    return false;
+  }
+
   @NotNull
   @Override
   public String getPresentableName() {
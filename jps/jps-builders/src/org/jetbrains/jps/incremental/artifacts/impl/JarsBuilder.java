@@ -25,8 +25,12 @@ import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.util.ArrayUtil;
 import com.intellij.util.graph.CachingSemiGraph;
 import com.intellij.util.graph.DFSTBuilder;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import com.intellij.util.graph.GraphGenerator;
 import com.intellij.util.io.ZipUtil;
+import com.intellij.util.io.zip.DosTime;
+import com.intellij.util.io.zip.JBZipEntry;
+import com.intellij.util.io.zip.JBZipFile;
 import gnu.trove.THashSet;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
@@ -34,6 +38,7 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.logging.ProjectBuilderLogger;
 import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.IncProjectBuilder;
 import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.artifacts.ArtifactOutputToSourceMapping;
 import org.jetbrains.jps.incremental.artifacts.IncArtifactBuilder;
@@ -41,28 +46,48 @@ import org.jetbrains.jps.incremental.artifacts.instructions.*;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.incremental.messages.ProgressMessage;
+import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+
 
 /**
  * @author nik
  */
 public class JarsBuilder {
   private static final Logger LOG = Logger.getInstance("#com.intellij.compiler.impl.packagingCompiler.JarsBuilder");
+  private static final BoundedTaskExecutor ourExecutor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), IncProjectBuilder.MAX_BUILDER_THREADS);
   private final Set<JarInfo> myJarsToBuild;
   private final CompileContext myContext;
   private Map<JarInfo, File> myBuiltJars;
   private final BuildOutputConsumer myOutputConsumer;
   private final ArtifactOutputToSourceMapping myOutSrcMapping;
+  private final Map<String, File> myPreviousVersions;
+  private final Set<String> myChangedSourcePaths;
 
   public JarsBuilder(Set<JarInfo> jarsToBuild, CompileContext context, BuildOutputConsumer outputConsumer,
                      ArtifactOutputToSourceMapping outSrcMapping) {
+    this(jarsToBuild, context, outputConsumer, outSrcMapping, Collections.<String, File>emptyMap(), Collections.<String>emptySet());
+  }
+
+  /**
+   * @param previousVersions previous versions of the output archives moved to temporary files; if an archive is built again and its
+   *                         previous version isn't too fragmented it's updated in place, so unchanged entries are neither read nor
+   *                         compressed again
+   * @param changedSourcePaths paths of changed source files; entries built from them are rewritten in updated archives regardless of
+   *                           their timestamps
+   */
+  public JarsBuilder(Set<JarInfo> jarsToBuild, CompileContext context, BuildOutputConsumer outputConsumer,
+                     ArtifactOutputToSourceMapping outSrcMapping, Map<String, File> previousVersions, Set<String> changedSourcePaths) {
     myOutputConsumer = outputConsumer;
     myOutSrcMapping = outSrcMapping;
     DependentJarsEvaluator evaluator = new DependentJarsEvaluator();
@@ -71,6 +96,14 @@ public class JarsBuilder {
     }
     myJarsToBuild = evaluator.getJars();
     myContext = context;
+    myPreviousVersions = new ConcurrentHashMap<String, File>();
+    for (Map.Entry<String, File> entry : previousVersions.entrySet()) {
+      myPreviousVersions.put(FileUtil.toSystemIndependentName(entry.getKey()), entry.getValue());
+    }
+    myChangedSourcePaths = new THashSet<String>(FileUtil.PATH_HASHING_STRATEGY);
+    for (String path : changedSourcePaths) {
+      myChangedSourcePaths.add(FileUtil.toSystemIndependentName(path));
+    }
   }
 
   public boolean buildJars() throws IOException, ProjectBuildException {
@@ -81,11 +114,11 @@ public class JarsBuilder {
       return false;
     }
 
-    myBuiltJars = new HashMap<JarInfo, File>();
+    myBuiltJars = new ConcurrentHashMap<JarInfo, File>();
     try {
-      for (JarInfo jar : sortedJars) {
+      for (List<JarInfo> jars : splitByNestingLevel(sortedJars)) {
         myContext.checkCanceled();
-        buildJar(jar);
+        buildJars(jars);
       }
 
       myContext.processMessage(new ProgressMessage("Copying archives..."));
@@ -99,10 +132,76 @@ public class JarsBuilder {
     return true;
   }
 
+  /**
+   * Jars at the same level don't include each other so they may be built in parallel; all jars included into a jar are located at
+   * the preceding levels.
+   */
+  private static List<List<JarInfo>> splitByNestingLevel(JarInfo[] sortedJars) {
+    Map<JarInfo, Integer> levels = new HashMap<JarInfo, Integer>();
+    List<List<JarInfo>> result = new ArrayList<List<JarInfo>>();
+    for (JarInfo jar : sortedJars) {
+      int level = 0;
+      for (Pair<String, Object> pair : jar.getContent()) {
+        if (pair.getSecond() instanceof JarInfo) {
+          Integer nestedLevel = levels.get((JarInfo)pair.getSecond());
+          if (nestedLevel != null) {
+            level = Math.max(level, nestedLevel + 1);
+          }
+        }
+      }
+      levels.put(jar, level);
+      while (result.size() <= level) {
+        result.add(new ArrayList<JarInfo>());
+      }
+      result.get(level).add(jar);
+    }
+    return result;
+  }
+
+  private void buildJars(List<JarInfo> jars) throws IOException, ProjectBuildException {
+    if (jars.size() == 1 || IncProjectBuilder.MAX_BUILDER_THREADS <= 1) {
+      for (JarInfo jar : jars) {
+        myContext.checkCanceled();
+        buildJar(jar);
+      }
+      return;
+    }
+
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (final JarInfo jar : jars) {
+      futures.add(ourExecutor.submit(new Callable<Object>() {
+        @Override
+        public Object call() throws Exception {
+          myContext.checkCanceled();
+          buildJar(jar);
+          return null;
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      }
+      catch (InterruptedException e) {
+        throw new ProjectBuildException(e);
+      }
+      catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException)cause;
+        if (cause instanceof ProjectBuildException) throw (ProjectBuildException)cause;
+        if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+        throw new ProjectBuildException(cause);
+      }
+    }
+  }
+
   private void deleteTemporaryJars() {
     for (File file : myBuiltJars.values()) {
       FileUtil.delete(file);
     }
+    for (File file : myPreviousVersions.values()) {
+      FileUtil.delete(file);
+    }
   }
 
   private void copyJars() throws IOException {
@@ -138,23 +237,44 @@ public class JarsBuilder {
     final String emptyArchiveMessage = "Archive '" + jar.getPresentableDestination() + "' doesn't contain files so it won't be created";
     if (jar.getContent().isEmpty()) {
       myContext.processMessage(new CompilerMessage(IncArtifactBuilder.BUILDER_NAME, BuildMessage.Kind.WARNING, emptyArchiveMessage));
+      deletePreviousVersion(jar);
       return;
     }
 
     myContext.processMessage(new ProgressMessage("Building " + jar.getPresentableDestination() + "..."));
-    File jarFile = FileUtil.createTempFile("artifactCompiler", "tmp");
-    myBuiltJars.put(jar, jarFile);
-
-    FileUtil.createParentDirs(jarFile);
     final String targetJarPath = jar.getDestination().getOutputFilePath();
     List<String> packedFilePaths = new ArrayList<String>();
     Manifest manifest = loadManifest(jar, packedFilePaths);
-    final JarOutputStream jarOutputStream = createJarOutputStream(jarFile, manifest);
+    ArchiveWriter writer = null;
+    File jarFile = null;
+    if (jar.getDestination() instanceof ExplodedDestinationInfo) {
+      File previousVersion = myPreviousVersions.remove(FileUtil.toSystemIndependentName(targetJarPath));
+      if (previousVersion != null) {
+        writer = UpdatingArchiveWriter.open(previousVersion, manifest);
+        if (writer != null) {
+          jarFile = previousVersion;
+        }
+        else {
+          FileUtil.delete(previousVersion);
+        }
+      }
+    }
+    if (writer == null) {
+      jarFile = FileUtil.createTempFile("artifactCompiler", "tmp");
+      FileUtil.createParentDirs(jarFile);
+      try {
+        writer = new StreamArchiveWriter(createJarOutputStream(jarFile, manifest));
+      }
+      catch (IOException e) {
+        FileUtil.delete(jarFile);
+        throw e;
+      }
+    }
+    myBuiltJars.put(jar, jarFile);
 
-    final THashSet<String> writtenPaths = new THashSet<String>();
     try {
       if (manifest != null) {
-        writtenPaths.add(JarFile.MANIFEST_NAME);
+        writer.myWrittenPaths.add(JarFile.MANIFEST_NAME);
       }
 
       for (Pair<String, Object> pair : jar.getContent()) {
@@ -163,22 +283,22 @@ public class JarsBuilder {
           final ArtifactRootDescriptor descriptor = (ArtifactRootDescriptor)pair.getSecond();
           final int rootIndex = descriptor.getRootIndex();
           if (descriptor instanceof FileBasedArtifactRootDescriptor) {
-            addFileToJar(jarOutputStream, jarFile, descriptor.getRootFile(), descriptor.getFilter(), relativePath, targetJarPath, writtenPaths,
+            addFileToJar(writer, jarFile, descriptor.getRootFile(), descriptor.getFilter(), relativePath, targetJarPath,
                          packedFilePaths, rootIndex);
           }
           else {
             final String filePath = FileUtil.toSystemIndependentName(descriptor.getRootFile().getAbsolutePath());
             packedFilePaths.add(filePath);
             myOutSrcMapping.appendData(targetJarPath, rootIndex, filePath);
-            extractFileAndAddToJar(jarOutputStream, (JarBasedArtifactRootDescriptor)descriptor, relativePath, writtenPaths);
+            extractFileAndAddToJar(writer, (JarBasedArtifactRootDescriptor)descriptor, relativePath,
+                                   myChangedSourcePaths.contains(filePath));
           }
         }
         else {
           JarInfo nestedJar = (JarInfo)pair.getSecond();
           File nestedJarFile = myBuiltJars.get(nestedJar);
           if (nestedJarFile != null) {
-            addFileToJar(jarOutputStream, jarFile, nestedJarFile, SourceFileFilter.ALL, relativePath, targetJarPath, writtenPaths,
-                         packedFilePaths, -1);
+            addFileToJar(writer, jarFile, nestedJarFile, SourceFileFilter.ALL, relativePath, targetJarPath, packedFilePaths, -1);
           }
           else {
             LOG.debug("nested jar file " + relativePath + " for " + jar.getPresentableDestination() + " not found");
@@ -186,22 +306,26 @@ public class JarsBuilder {
         }
       }
 
-      if (writtenPaths.isEmpty()) {
+      if (writer.myWrittenPaths.isEmpty()) {
         myContext.processMessage(new CompilerMessage(IncArtifactBuilder.BUILDER_NAME, BuildMessage.Kind.WARNING, emptyArchiveMessage));
         return;
       }
 
       final ProjectBuilderLogger logger = myContext.getLoggingManager().getProjectBuilderLogger();
-      if (logger.isEnabled()) {
-        logger.logCompiledPaths(packedFilePaths, IncArtifactBuilder.BUILDER_NAME, "Packing files:");
+      //noinspection SynchronizationOnLocalVariableOrMethodParameter
+      synchronized (logger) {
+        if (logger.isEnabled()) {
+          logger.logCompiledPaths(packedFilePaths, IncArtifactBuilder.BUILDER_NAME, "Packing files:");
+        }
+      }
+      synchronized (myOutputConsumer) {
+        myOutputConsumer.registerOutputFile(new File(targetJarPath), packedFilePaths);
       }
-      myOutputConsumer.registerOutputFile(new File(targetJarPath), packedFilePaths);
-
     }
     finally {
-      if (writtenPaths.isEmpty()) {
+      if (writer.myWrittenPaths.isEmpty()) {
         try {
-          jarOutputStream.close();
+          writer.close();
         }
         catch (IOException ignored) {
         }
@@ -209,11 +333,18 @@ public class JarsBuilder {
         myBuiltJars.remove(jar);
       }
       else {
-        jarOutputStream.close();
+        writer.close();
       }
     }
   }
 
+  private void deletePreviousVersion(JarInfo jar) {
+    File previousVersion = myPreviousVersions.remove(FileUtil.toSystemIndependentName(jar.getDestination().getOutputFilePath()));
+    if (previousVersion != null) {
+      FileUtil.delete(previousVersion);
+    }
+  }
+
   private static JarOutputStream createJarOutputStream(File jarFile, @Nullable Manifest manifest) throws IOException {
     final BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(jarFile));
     if (manifest != null) {
@@ -221,7 +352,6 @@ public class JarsBuilder {
     }
     return new JarOutputStream(outputStream);
   }
-
   @Nullable
   private Manifest loadManifest(JarInfo jar, List<String> packedFilePaths) throws IOException {
     for (Pair<String, Object> pair : jar.getContent()) {
@@ -278,53 +408,43 @@ public class JarsBuilder {
     }
   }
 
-  private static void extractFileAndAddToJar(final JarOutputStream jarOutputStream, final JarBasedArtifactRootDescriptor root,
-                                             final String relativeOutputPath, final Set<String> writtenPaths)
+
+  private static void extractFileAndAddToJar(final ArchiveWriter writer, final JarBasedArtifactRootDescriptor root,
+                                             final String relativeOutputPath, final boolean rootChanged)
     throws IOException {
     final long timestamp = FileSystemUtil.lastModified(root.getRootFile());
     root.processEntries(new JarBasedArtifactRootDescriptor.EntryProcessor() {
       @Override
       public void process(@Nullable InputStream inputStream, @NotNull String relativePath, ZipEntry entry) throws IOException {
-        String pathInJar = addParentDirectories(jarOutputStream, writtenPaths, JpsArtifactPathUtil
-          .appendToPath(relativeOutputPath, relativePath));
+        String pathInJar = addParentDirectories(writer, JpsArtifactPathUtil.appendToPath(relativeOutputPath, relativePath));
 
         if (inputStream == null) {
-          addDirectoryEntry(jarOutputStream, pathInJar + "/", writtenPaths);
+          writer.addDirectory(pathInJar + "/");
         }
-        else if (writtenPaths.add(pathInJar)) {
-          ZipEntry newEntry = new ZipEntry(pathInJar);
-          newEntry.setTime(timestamp);
-          if (entry.getMethod() == ZipEntry.STORED) {
-            newEntry.setMethod(ZipEntry.STORED);
-            newEntry.setSize(entry.getSize());
-            newEntry.setCrc(entry.getCrc());
-          }
-          jarOutputStream.putNextEntry(newEntry);
-          FileUtil.copy(inputStream, jarOutputStream);
-          jarOutputStream.closeEntry();
+        else {
+          writer.addEntry(pathInJar, entry, inputStream, timestamp, rootChanged);
         }
       }
     });
 
   }
 
-  private void addFileToJar(final @NotNull JarOutputStream jarOutputStream, final @NotNull File jarFile, @NotNull File file,
+  private void addFileToJar(final @NotNull ArchiveWriter writer, final @NotNull File jarFile, @NotNull File file,
                             SourceFileFilter filter, @NotNull String relativePath, String targetJarPath,
-                            final @NotNull Set<String> writtenPaths, List<String> packedFilePaths, final int rootIndex) throws IOException {
+                            List<String> packedFilePaths, final int rootIndex) throws IOException {
     if (!file.exists() || FileUtil.isAncestor(file, jarFile, false)) {
       return;
     }
 
-    relativePath = addParentDirectories(jarOutputStream, writtenPaths, relativePath);
-    addFileOrDirRecursively(jarOutputStream, file, filter, relativePath, targetJarPath, writtenPaths, packedFilePaths, rootIndex);
+    relativePath = addParentDirectories(writer, relativePath);
+    addFileOrDirRecursively(writer, file, filter, relativePath, targetJarPath, packedFilePaths, rootIndex);
   }
 
-  private void addFileOrDirRecursively(@NotNull ZipOutputStream jarOutputStream,
+  private void addFileOrDirRecursively(@NotNull ArchiveWriter writer,
                                        @NotNull File file,
                                        SourceFileFilter filter,
                                        @NotNull String relativePath,
                                        String targetJarPath,
-                                       @NotNull Set<String> writtenItemRelativePaths,
                                        List<String> packedFilePaths,
                                        int rootIndex) throws IOException {
     final String filePath = FileUtil.toSystemIndependentName(file.getAbsolutePath());
@@ -335,19 +455,20 @@ public class JarsBuilder {
     if (file.isDirectory()) {
       final String directoryPath = relativePath.length() == 0 ? "" : relativePath + "/";
       if (!directoryPath.isEmpty()) {
-        addDirectoryEntry(jarOutputStream, directoryPath, writtenItemRelativePaths);
+        writer.addDirectory(directoryPath);
       }
       final File[] children = file.listFiles();
       if (children != null) {
         for (File child : children) {
-          addFileOrDirRecursively(jarOutputStream, child, filter, directoryPath + child.getName(), targetJarPath, writtenItemRelativePaths,
-                                  packedFilePaths, rootIndex);
+          addFileOrDirRecursively(writer, child, filter, directoryPath + child.getName(), targetJarPath, packedFilePaths, rootIndex);
         }
       }
       return;
     }
 
-    final boolean added = ZipUtil.addFileToZip(jarOutputStream, file, relativePath, writtenItemRelativePaths, null);
+    // nested jars are always rebuilt so they never match entries of the previous version
+    final boolean changed = rootIndex == -1 || myChangedSourcePaths.contains(filePath);
+    final boolean added = writer.addFile(file, relativePath, changed);
     if (rootIndex != -1) {
       myOutSrcMapping.appendData(targetJarPath, rootIndex, filePath);
       if (added) {
@@ -357,7 +478,7 @@ public class JarsBuilder {
   }
 
 
-  private static String addParentDirectories(JarOutputStream jarOutputStream, Set<String> writtenPaths, String relativePath) throws IOException {
+  private static String addParentDirectories(ArchiveWriter writer, String relativePath) throws IOException {
     while (StringUtil.startsWithChar(relativePath, '/')) {
       relativePath = relativePath.substring(1);
     }
@@ -365,22 +486,201 @@ public class JarsBuilder {
     while (i != -1) {
       String prefix = relativePath.substring(0, i+1);
       if (prefix.length() > 1) {
-        addDirectoryEntry(jarOutputStream, prefix, writtenPaths);
+        writer.addDirectory(prefix);
       }
       i = relativePath.indexOf('/', i + 1);
     }
     return relativePath;
   }
 
-  private static void addDirectoryEntry(final ZipOutputStream output, @NonNls final String relativePath, Set<String> writtenPaths) throws IOException {
-    if (!writtenPaths.add(relativePath)) return;
+  private abstract static class ArchiveWriter {
+    protected final Set<String> myWrittenPaths = new THashSet<String>();
+
+    public abstract void addDirectory(@NonNls String relativePath) throws IOException;
+
+    public abstract boolean addFile(@NotNull File file, @NotNull String relativePath, boolean changed) throws IOException;
+
+    public abstract void addEntry(@NotNull String relativePath, @NotNull ZipEntry sourceEntry, @NotNull InputStream inputStream,
+                                  long timestamp, boolean changed) throws IOException;
+
+    public abstract void close() throws IOException;
+  }
+
+  private static class StreamArchiveWriter extends ArchiveWriter {
+    private final JarOutputStream myOutputStream;
+
+    private StreamArchiveWriter(JarOutputStream outputStream) {
+      myOutputStream = outputStream;
+    }
+
+    @Override
+    public void addDirectory(@NonNls String relativePath) throws IOException {
+      if (!myWrittenPaths.add(relativePath)) return;
+
+      ZipEntry e = new ZipEntry(relativePath);
+      e.setMethod(ZipEntry.STORED);
+      e.setSize(0);
+      e.setCrc(0);
+      myOutputStream.putNextEntry(e);
+      myOutputStream.closeEntry();
+    }
+
+    @Override
+    public boolean addFile(@NotNull File file, @NotNull String relativePath, boolean changed) throws IOException {
+      return ZipUtil.addFileToZip(myOutputStream, file, relativePath, myWrittenPaths, null);
+    }
+
+    @Override
+    public void addEntry(@NotNull String relativePath, @NotNull ZipEntry sourceEntry, @NotNull InputStream inputStream,
+                         long timestamp, boolean changed) throws IOException {
+      if (!myWrittenPaths.add(relativePath)) return;
+
+      ZipEntry newEntry = new ZipEntry(relativePath);
+      newEntry.setTime(timestamp);
+      if (sourceEntry.getMethod() == ZipEntry.STORED) {
+        newEntry.setMethod(ZipEntry.STORED);
+        newEntry.setSize(sourceEntry.getSize());
+        newEntry.setCrc(sourceEntry.getCrc());
+      }
+      myOutputStream.putNextEntry(newEntry);
+      FileUtil.copy(inputStream, myOutputStream);
+      myOutputStream.closeEntry();
+    }
+
+    @Override
+    public void close() throws IOException {
+      myOutputStream.close();
+    }
+  }
+
+  /**
+   * Updates a previously built archive in place: entries which are up to date are kept untouched, changed entries are appended to the
+   * archive and entries which weren't written are erased; space of erased entries and of replaced data is reclaimed when the archive is
+   * closed.
+   */
+  private static class UpdatingArchiveWriter extends ArchiveWriter {
+    private static final int LOCAL_HEADER_LENGTH = 30;
+    private static final int CENTRAL_HEADER_LENGTH = 46;
+    private final JBZipFile myZipFile;
+
+    private UpdatingArchiveWriter(JBZipFile zipFile) {
+      myZipFile = zipFile;
+    }
+
+    /**
+     * @return {@code null} if the archive cannot be updated and should be built from scratch
+     */
+    @Nullable
+    public static UpdatingArchiveWriter open(@NotNull File jarFile, @Nullable Manifest manifest) {
+      JBZipFile zipFile = null;
+      try {
+        zipFile = new JBZipFile(jarFile);
+        if (isFragmented(zipFile, jarFile.length()) || !isManifestUpToDate(zipFile, manifest)) {
+          zipFile.close();
+          return null;
+        }
+        return new UpdatingArchiveWriter(zipFile);
+      }
+      catch (IOException e) {
+        LOG.info("Cannot update " + jarFile.getAbsolutePath() + " in place, it will be rebuilt: " + e.getMessage());
+        if (zipFile != null) {
+          try {
+            zipFile.close();
+          }
+          catch (IOException ignored) {
+          }
+        }
+        return null;
+      }
+    }
+
+    /**
+     * Replaced entries leave their data in the file unless some entries are erased, so rebuild the archive when most of its size is
+     * occupied by garbage
+     */
+    private static boolean isFragmented(JBZipFile zipFile, long fileLength) {
+      long usedLength = 0;
+      for (JBZipEntry entry : zipFile.getEntries()) {
+        int nameLength = entry.getName().length();
+        usedLength += LOCAL_HEADER_LENGTH + CENTRAL_HEADER_LENGTH + 2 * nameLength + entry.getCompressedSize();
+      }
+      return fileLength > 2 * usedLength;
+    }
+
+    /**
+     * MANIFEST.MF must be the first entry of a jar file so an archive with changed manifest cannot be updated in place
+     */
+    private static boolean isManifestUpToDate(JBZipFile zipFile, @Nullable Manifest manifest) throws IOException {
+      JBZipEntry entry = zipFile.getEntry(JarFile.MANIFEST_NAME);
+      if (manifest == null) {
+        return entry == null;
+      }
+      if (entry == null) {
+        return false;
+      }
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      manifest.write(output);
+      return Arrays.equals(output.toByteArray(), entry.getData());
+    }
+
+    @Override
+    public void addDirectory(@NonNls String relativePath) throws IOException {
+      if (!myWrittenPaths.add(relativePath)) return;
+
+      if (myZipFile.getEntry(relativePath) == null) {
+        JBZipEntry entry = myZipFile.getOrCreateEntry(relativePath);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setData(ArrayUtil.EMPTY_BYTE_ARRAY, System.currentTimeMillis());
+      }
+    }
+
+    @Override
+    public boolean addFile(@NotNull File file, @NotNull String relativePath, boolean changed) throws IOException {
+      while (StringUtil.startsWithChar(relativePath, '/')) {
+        relativePath = relativePath.substring(1);
+      }
+      if (!myWrittenPaths.add(relativePath)) return false;
+
+      long timestamp = file.lastModified();
+      long size = file.length();
+      JBZipEntry entry = myZipFile.getEntry(relativePath);
+      if (entry == null || changed || !isUpToDate(entry, timestamp, size)) {
+        writeEntry(relativePath, FileUtil.loadFileBytes(file), timestamp, size == 0 ? ZipEntry.STORED : ZipEntry.DEFLATED);
+      }
+      return true;
+    }
+
+    @Override
+    public void addEntry(@NotNull String relativePath, @NotNull ZipEntry sourceEntry, @NotNull InputStream inputStream,
+                         long timestamp, boolean changed) throws IOException {
+      if (!myWrittenPaths.add(relativePath)) return;
+
+      JBZipEntry entry = myZipFile.getEntry(relativePath);
+      if (entry == null || changed || !isUpToDate(entry, timestamp, sourceEntry.getSize())) {
+        int method = sourceEntry.getMethod() == ZipEntry.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED;
+        writeEntry(relativePath, FileUtil.loadBytes(inputStream), timestamp, method);
+      }
+    }
+
+    private void writeEntry(String relativePath, byte[] content, long timestamp, int method) throws IOException {
+      JBZipEntry entry = myZipFile.getOrCreateEntry(relativePath);
+      entry.setMethod(method);
+      entry.setData(content, timestamp);
+    }
+
+    private static boolean isUpToDate(JBZipEntry entry, long timestamp, long size) {
+      return entry.getSize() == size && DosTime.javaToDosTime(entry.getTime()) == DosTime.javaToDosTime(timestamp);
+    }
 
-    ZipEntry e = new ZipEntry(relativePath);
-    e.setMethod(ZipEntry.STORED);
-    e.setSize(0);
-    e.setCrc(0);
-    output.putNextEntry(e);
-    output.closeEntry();
+    @Override
+    public void close() throws IOException {
+      for (JBZipEntry entry : new ArrayList<JBZipEntry>(myZipFile.getEntries())) {
+        if (!myWrittenPaths.contains(entry.getName())) {
+          entry.erase();
+        }
+      }
+      myZipFile.close();
+    }
   }
 
   private class JarsGraph implements GraphGenerator.SemiGraph<JarInfo> {
@@ -19,16 +19,22 @@ import com.intellij.compiler.instrumentation.InstrumentationClassFinder;
 import com.intellij.compiler.instrumentation.InstrumenterClassWriter;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Key;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.asm4.ClassReader;
 import org.jetbrains.asm4.ClassWriter;
 import org.jetbrains.jps.ModuleChunk;
-import org.jetbrains.jps.incremental.BinaryContent;
-import org.jetbrains.jps.incremental.BuilderCategory;
-import org.jetbrains.jps.incremental.CompileContext;
-import org.jetbrains.jps.incremental.CompiledClass;
+import org.jetbrains.jps.incremental.*;
 import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
+import org.jetbrains.jps.service.SharedThreadPool;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * @author Eugene Zhuravlev
@@ -37,6 +43,7 @@ import org.jetbrains.jps.incremental.messages.CompilerMessage;
 public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.instrumentation.BaseInstrumentingBuilder");
   // every instance of builder must have its own marker!
+  private static final BoundedTaskExecutor ourExecutor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), IncProjectBuilder.MAX_BUILDER_THREADS);
   private final Key<Boolean> IS_INSTRUMENTED_KEY = Key.create("_instrumentation_marker_" + getPresentableName());
 
   public BaseInstrumentingBuilder() {
@@ -45,41 +52,107 @@ public abstract class BaseInstrumentingBuilder extends ClassProcessingBuilder {
 
   @Override
   protected final ExitCode performBuild(CompileContext context, ModuleChunk chunk, InstrumentationClassFinder finder, OutputConsumer outputConsumer) {
+    final Collection<CompiledClass> compiledClasses = outputConsumer.getCompiledClasses().values();
+    if (compiledClasses.size() > 1 && IncProjectBuilder.MAX_BUILDER_THREADS > 1) {
+      return performParallelBuild(context, compiledClasses, finder);
+    }
     ExitCode exitCode = ExitCode.NOTHING_DONE;
-    for (CompiledClass compiledClass : outputConsumer.getCompiledClasses().values()) {
-      final BinaryContent originalContent = compiledClass.getContent();
-      final ClassReader reader = new ClassReader(originalContent.getBuffer(), originalContent.getOffset(), originalContent.getLength());
-      final int version = getClassFileVersion(reader);
-      if (IS_INSTRUMENTED_KEY.get(compiledClass, Boolean.FALSE) || !canInstrument(compiledClass, version)) {
-        // do not instrument the same content twice
-        continue;
-      }
-      final ClassWriter writer = new InstrumenterClassWriter(getAsmClassWriterFlags(version), finder);
+    for (CompiledClass compiledClass : compiledClasses) {
       try {
-        final BinaryContent instrumented = instrument(context, compiledClass, reader, writer, finder);
+        final BinaryContent instrumented = instrumentClass(context, compiledClass, finder);
         if (instrumented != null) {
-          compiledClass.setContent(instrumented);
-          finder.cleanCachedData(compiledClass.getClassName());
-          IS_INSTRUMENTED_KEY.set(compiledClass, Boolean.TRUE);
+          applyInstrumentedContent(compiledClass, instrumented, finder);
           exitCode = ExitCode.OK;
         }
       }
       catch (Throwable e) {
-        LOG.info(e);
-        final String message = e.getMessage();
-        if (message != null) {
-          context.processMessage(new CompilerMessage(getPresentableName(), BuildMessage.Kind.ERROR, message, compiledClass.getSourceFile().getPath()));
-        }
-        else {
-          context.processMessage(new CompilerMessage(getPresentableName(), e));
+        reportError(context, compiledClass, e);
+      }
+    }
+    return exitCode;
+  }
+
+  /**
+   * Classes are transformed independently on several threads; instrumented content and messages are applied in the original order
+   * of classes after all of them are processed, so the result doesn't depend on scheduling.
+   */
+  private ExitCode performParallelBuild(final CompileContext context, Collection<CompiledClass> compiledClasses, final InstrumentationClassFinder finder) {
+    final List<CompiledClass> classes = new ArrayList<CompiledClass>(compiledClasses);
+    final List<MessageBufferingCompileContext> contexts = new ArrayList<MessageBufferingCompileContext>(classes.size());
+    final List<Future<BinaryContent>> futures = new ArrayList<Future<BinaryContent>>(classes.size());
+    for (final CompiledClass compiledClass : classes) {
+      final MessageBufferingCompileContext bufferingContext = new MessageBufferingCompileContext(context);
+      contexts.add(bufferingContext);
+      futures.add(ourExecutor.submit(new Callable<BinaryContent>() {
+        @Override
+        public BinaryContent call() throws Exception {
+          return instrumentClass(bufferingContext, compiledClass, finder);
         }
+      }));
+    }
+
+    ExitCode exitCode = ExitCode.NOTHING_DONE;
+    for (int i = 0; i < classes.size(); i++) {
+      final CompiledClass compiledClass = classes.get(i);
+      BinaryContent instrumented = null;
+      Throwable error = null;
+      try {
+        instrumented = futures.get(i).get();
+      }
+      catch (InterruptedException e) {
+        error = e;
+      }
+      catch (ExecutionException e) {
+        error = e.getCause();
+      }
+      contexts.get(i).flush();
+      if (error != null) {
+        reportError(context, compiledClass, error);
+      }
+      else if (instrumented != null) {
+        applyInstrumentedContent(compiledClass, instrumented, finder);
+        exitCode = ExitCode.OK;
       }
     }
     return exitCode;
   }
 
+  @Nullable
+  private BinaryContent instrumentClass(CompileContext context, CompiledClass compiledClass, InstrumentationClassFinder finder) {
+    final BinaryContent originalContent = compiledClass.getContent();
+    final ClassReader reader = new ClassReader(originalContent.getBuffer(), originalContent.getOffset(), originalContent.getLength());
+    final int version = getClassFileVersion(reader);
+    if (IS_INSTRUMENTED_KEY.get(compiledClass, Boolean.FALSE) || !canInstrument(compiledClass, version)) {
+      // do not instrument the same content twice
+      return null;
+    }
+    final ClassWriter writer = new InstrumenterClassWriter(getAsmClassWriterFlags(version), finder);
+    return instrument(context, compiledClass, reader, writer, finder);
+  }
+
+  private void applyInstrumentedContent(CompiledClass compiledClass, BinaryContent instrumented, InstrumentationClassFinder finder) {
+    compiledClass.setContent(instrumented);
+    finder.cleanCachedData(compiledClass.getClassName());
+    IS_INSTRUMENTED_KEY.set(compiledClass, Boolean.TRUE);
+  }
+
+  private void reportError(CompileContext context, CompiledClass compiledClass, Throwable e) {
+    LOG.info(e);
+    final String message = e.getMessage();
+    if (message != null) {
+      context.processMessage(new CompilerMessage(getPresentableName(), BuildMessage.Kind.ERROR, message, compiledClass.getSourceFile().getPath()));
+    }
+    else {
+      context.processMessage(new CompilerMessage(getPresentableName(), e));
+    }
+  }
+
   protected abstract boolean canInstrument(CompiledClass compiledClass, int classFileVersion);
 
+  /**
+   * May be called concurrently for different classes, so implementations must not modify shared state. Messages reported via
+   * {@code context} are delivered in the order of classes.
+   */
   @Nullable
   protected abstract BinaryContent instrument(CompileContext context,
                                               CompiledClass compiled,
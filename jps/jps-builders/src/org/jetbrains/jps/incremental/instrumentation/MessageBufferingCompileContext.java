@@ -0,0 +1,146 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.instrumentation;
+
+import com.intellij.openapi.util.Key;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.jps.ModuleChunk;
+import org.jetbrains.jps.api.CanceledStatus;
+import org.jetbrains.jps.builders.logging.BuildLoggingManager;
+import org.jetbrains.jps.cmdline.ProjectDescriptor;
+import org.jetbrains.jps.incremental.*;
+import org.jetbrains.jps.incremental.messages.BuildMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delegates to the original context but keeps messages until {@link #flush()} is called. Used to report messages produced by
+ * classes instrumented in parallel in the same order as if they were instrumented sequentially.
+ */
+class MessageBufferingCompileContext implements CompileContext {
+  private final CompileContext myDelegate;
+  private final List<BuildMessage> myMessages = new ArrayList<BuildMessage>();
+
+  MessageBufferingCompileContext(CompileContext delegate) {
+    myDelegate = delegate;
+  }
+
+  @Override
+  public void processMessage(BuildMessage msg) {
+    myMessages.add(msg);
+  }
+
+  public void flush() {
+    for (BuildMessage message : myMessages) {
+      myDelegate.processMessage(message);
+    }
+    myMessages.clear();
+  }
+
+  @Override
+  public ProjectDescriptor getProjectDescriptor() {
+    return myDelegate.getProjectDescriptor();
+  }
+
+  @Override
+  public CompileScope getScope() {
+    return myDelegate.getScope();
+  }
+
+  @Override
+  public boolean isMake() {
+    return myDelegate.isMake();
+  }
+
+  @Override
+  public boolean isProjectRebuild() {
+    return myDelegate.isProjectRebuild();
+  }
+
+  @Nullable
+  @Override
+  public String getBuilderParameter(String paramName) {
+    return myDelegate.getBuilderParameter(paramName);
+  }
+
+  @Override
+  public void addBuildListener(BuildListener listener) {
+    myDelegate.addBuildListener(listener);
+  }
+
+  @Override
+  public void removeBuildListener(BuildListener listener) {
+    myDelegate.removeBuildListener(listener);
+  }
+
+  @Override
+  public boolean shouldDifferentiate(ModuleChunk chunk) {
+    return myDelegate.shouldDifferentiate(chunk);
+  }
+
+  @Override
+  public CanceledStatus getCancelStatus() {
+    return myDelegate.getCancelStatus();
+  }
+
+  @Override
+  public void checkCanceled() throws ProjectBuildException {
+    myDelegate.checkCanceled();
+  }
+
+  @Override
+  public BuildLoggingManager getLoggingManager() {
+    return myDelegate.getLoggingManager();
+  }
+
+  @Override
+  public void setDone(float done) {
+    myDelegate.setDone(done);
+  }
+
+  @Override
+  public long getCompilationStartStamp() {
+    return myDelegate.getCompilationStartStamp();
+  }
+
+  @Override
+  public void updateCompilationStartStamp() {
+    myDelegate.updateCompilationStartStamp();
+  }
+
+  @Override
+  public void markNonIncremental(ModuleBuildTarget target) {
+    myDelegate.markNonIncremental(target);
+  }
+
+  @Override
+  public void clearNonIncrementalMark(ModuleBuildTarget target) {
+    myDelegate.clearNonIncrementalMark(target);
+  }
+
+  @Nullable
+  @Override
+  public <T> T getUserData(@NotNull Key<T> key) {
+    return myDelegate.getUserData(key);
+  }
+
+  @Override
+  public <T> void putUserData(@NotNull Key<T> key, @Nullable T value) {
+    myDelegate.putUserData(key, value);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.resources;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Copies resource files using {@link FileChannel#transferTo} so the data doesn't pass through java heap buffers. If hard links are
+ * enabled (-Djps.resources.use.hard.links=true) output files are created as hard links to the source files where the file system
+ * supports it, and copied otherwise. Hard links are available on Java 7+ only, so NIO2 is accessed via reflection.
+ */
+class ResourceFileCopier {
+  private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.resources.ResourceFileCopier");
+  public static final String USE_HARD_LINKS_OPTION = "jps.resources.use.hard.links";
+  private static final boolean USE_HARD_LINKS = Boolean.parseBoolean(System.getProperty(USE_HARD_LINKS_OPTION, "false"));
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  private static final HardLinkFactory ourHardLinkFactory = USE_HARD_LINKS ? HardLinkFactory.create() : null;
+
+  private ResourceFileCopier() {
+  }
+
+  public static void copy(@NotNull File from, @NotNull File to) throws IOException {
+    if (ourHardLinkFactory != null && ourHardLinkFactory.createLink(from, to)) {
+      return;
+    }
+    copyContent(from, to);
+  }
+
+  private static void copyContent(@NotNull File from, @NotNull File to) throws IOException {
+    // the output may be a hard link created by a previous build, writing into it would modify the source file
+    //noinspection ResultOfMethodCallIgnored
+    to.delete();
+    FileOutputStream outputStream;
+    try {
+      outputStream = new FileOutputStream(to);
+    }
+    catch (IOException e) {
+      final File parentFile = to.getParentFile();
+      if (parentFile == null || !FileUtil.createDirectory(parentFile)) {
+        throw e;
+      }
+      outputStream = new FileOutputStream(to);
+    }
+    try {
+      final FileInputStream inputStream = new FileInputStream(from);
+      try {
+        final FileChannel source = inputStream.getChannel();
+        final FileChannel target = outputStream.getChannel();
+        final long size = source.size();
+        long position = 0;
+        while (position < size) {
+          final long transferred = source.transferTo(position, size - position, target);
+          if (transferred <= 0) {
+            // transferTo isn't guaranteed to make progress (e.g. for some file systems), copy the rest through a buffer
+            copyThroughBuffer(from, source, target, position, size);
+            break;
+          }
+          position += transferred;
+        }
+      }
+      finally {
+        inputStream.close();
+      }
+    }
+    finally {
+      outputStream.close();
+    }
+  }
+
+  private static void copyThroughBuffer(@NotNull File from, @NotNull FileChannel source, @NotNull FileChannel target,
+                                        long position, long size) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+    source.position(position);
+    while (position < size) {
+      buffer.clear();
+      final int read = source.read(buffer);
+      if (read < 0) {
+        throw new IOException("Unexpected end of file " + from.getPath() + ": " + position + " of " + size + " bytes copied");
+      }
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        target.write(buffer);
+      }
+      position += read;
+    }
+  }
+
+  private static class HardLinkFactory {
+    private final Method myGetPath;
+    private final Method myCreateLink;
+    private final Object myFileSystem;
+    private volatile boolean myEnabled = true;
+
+    private HardLinkFactory(Method getPath, Method createLink, Object fileSystem) {
+      myGetPath = getPath;
+      myCreateLink = createLink;
+      myFileSystem = fileSystem;
+    }
+
+    @Nullable
+    public static HardLinkFactory create() {
+      try {
+        final Object fileSystem = Class.forName("java.nio.file.FileSystems").getMethod("getDefault").invoke(null);
+        final Class<?> fsClass = Class.forName("java.nio.file.FileSystem");
+        final Class<?> pathClass = Class.forName("java.nio.file.Path");
+        final Method getPath = fsClass.getMethod("getPath", String.class, String[].class);
+        final Method createLink = Class.forName("java.nio.file.Files").getMethod("createLink", pathClass, pathClass);
+        return new HardLinkFactory(getPath, createLink, fileSystem);
+      }
+      catch (Exception e) {
+        LOG.info("Hard links for resources aren't supported: " + e.getMessage());
+        return null;
+      }
+    }
+
+    public boolean createLink(@NotNull File from, @NotNull File to) {
+      if (!myEnabled) return false;
+      try {
+        if (to.exists() && !FileUtil.delete(to)) {
+          return false;
+        }
+        final File parentFile = to.getParentFile();
+        if (parentFile != null) {
+          FileUtil.createDirectory(parentFile);
+        }
+        myCreateLink.invoke(null, toPath(to), toPath(from));
+        return true;
+      }
+      catch (InvocationTargetException e) {
+        // e.g. the output is located on a different file system
+        LOG.debug(e.getCause());
+        return false;
+      }
+      catch (Exception e) {
+        LOG.info("Hard links for resources are disabled: " + e.getMessage());
+        myEnabled = false;
+        return false;
+      }
+    }
+
+    private Object toPath(File file) throws Exception {
+      return myGetPath.invoke(myFileSystem, file.getAbsolutePath(), Array.newInstance(String.class, 0));
+    }
+  }
+}
@@ -17,6 +17,7 @@ package org.jetbrains.jps.incremental.resources;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.concurrency.BoundedTaskExecutor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.jps.builders.BuildOutputConsumer;
 import org.jetbrains.jps.builders.DirtyFilesHolder;
@@ -24,6 +25,7 @@ import org.jetbrains.jps.builders.FileProcessor;
 import org.jetbrains.jps.builders.java.ResourceRootDescriptor;
 import org.jetbrains.jps.builders.java.ResourcesTargetType;
 import org.jetbrains.jps.incremental.CompileContext;
+import org.jetbrains.jps.incremental.IncProjectBuilder;
 import org.jetbrains.jps.incremental.ProjectBuildException;
 import org.jetbrains.jps.incremental.ResourcesTarget;
 import org.jetbrains.jps.incremental.TargetBuilder;
@@ -31,10 +33,15 @@ import org.jetbrains.jps.incremental.messages.BuildMessage;
 import org.jetbrains.jps.incremental.messages.CompilerMessage;
 import org.jetbrains.jps.incremental.messages.ProgressMessage;
 import org.jetbrains.jps.model.module.JpsModule;
+import org.jetbrains.jps.service.SharedThreadPool;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Eugene Zhuravlev
@@ -44,6 +51,7 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
   private static final Logger LOG = Logger.getInstance("#org.jetbrains.jps.incremental.resourses.ResourcesBuilder");
   public static final String BUILDER_NAME = "Resource Compiler";
   private static final List<StandardResourceBuilderEnabler> ourEnablers = Collections.synchronizedList(new ArrayList<StandardResourceBuilderEnabler>());
+  private static final BoundedTaskExecutor ourCopyingExecutor = new BoundedTaskExecutor(SharedThreadPool.getInstance(), IncProjectBuilder.MAX_BUILDER_THREADS);
 
   public ResourcesBuilder() {
     super(ResourcesTargetType.ALL_TYPES);
@@ -64,6 +72,7 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
     }
 
     try {
+      final Map<ResourceRootDescriptor, List<File>> filesToCopy = new LinkedHashMap<ResourceRootDescriptor, List<File>>();
       holder.processDirtyFiles(new FileProcessor<ResourceRootDescriptor, ResourcesTarget>() {
         private final Map<ResourceRootDescriptor, Boolean> mySkippedRoots = new HashMap<ResourceRootDescriptor, Boolean>();
         public boolean apply(ResourcesTarget target, final File file, final ResourceRootDescriptor sourceRoot) throws IOException {
@@ -76,22 +85,18 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
           if (isSkipped.booleanValue()) {
             return true;
           }
-          try {
-            copyResource(context, sourceRoot, file, outputConsumer);
-          }
-          catch (IOException e) {
-            LOG.info(e);
-            context.processMessage(
-              new CompilerMessage(
-                "resources", BuildMessage.Kind.ERROR, e.getMessage(), FileUtil.toSystemIndependentName(file.getPath())
-              )
-            );
-            return false;
+          List<File> files = filesToCopy.get(sourceRoot);
+          if (files == null) {
+            files = new ArrayList<File>();
+            filesToCopy.put(sourceRoot, files);
           }
+          files.add(file);
           return !context.getCancelStatus().isCanceled();
         }
       });
 
+      context.checkCanceled();
+      copyResources(context, filesToCopy, outputConsumer);
       context.checkCanceled();
 
       context.processMessage(new ProgressMessage(""));
@@ -104,6 +109,67 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
     }
   }
 
+  /**
+   * Files under different source roots are copied in parallel; files under the same root are copied sequentially in order they were
+   * reported by the dirty files holder.
+   */
+  private static void copyResources(final CompileContext context, Map<ResourceRootDescriptor, List<File>> filesToCopy,
+                                    final BuildOutputConsumer outputConsumer) throws Exception {
+    final AtomicBoolean failed = new AtomicBoolean();
+    if (filesToCopy.size() <= 1 || IncProjectBuilder.MAX_BUILDER_THREADS <= 1) {
+      for (Map.Entry<ResourceRootDescriptor, List<File>> entry : filesToCopy.entrySet()) {
+        if (!copyRootResources(context, entry.getKey(), entry.getValue(), outputConsumer, failed)) {
+          break;
+        }
+      }
+      return;
+    }
+
+    final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+    for (Map.Entry<ResourceRootDescriptor, List<File>> entry : filesToCopy.entrySet()) {
+      final ResourceRootDescriptor root = entry.getKey();
+      final List<File> files = entry.getValue();
+      futures.add(ourCopyingExecutor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return copyRootResources(context, root, files, outputConsumer, failed);
+        }
+      }));
+    }
+    for (Future<Boolean> future : futures) {
+      try {
+        future.get();
+      }
+      catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        throw cause instanceof Exception ? (Exception)cause : e;
+      }
+    }
+  }
+
+  private static boolean copyRootResources(CompileContext context, ResourceRootDescriptor rd, List<File> files,
+                                           BuildOutputConsumer outputConsumer, AtomicBoolean failed) {
+    for (File file : files) {
+      if (failed.get() || context.getCancelStatus().isCanceled()) {
+        return false;
+      }
+      try {
+        copyResource(context, rd, file, outputConsumer);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        context.processMessage(
+          new CompilerMessage(
+            "resources", BuildMessage.Kind.ERROR, e.getMessage(), FileUtil.toSystemIndependentName(file.getPath())
+          )
+        );
+        failed.set(true);
+        return false;
+      }
+    }
+    return true;
+  }
+
   private static boolean isResourceProcessingEnabled(JpsModule module) {
     synchronized (ourEnablers) {
       for (StandardResourceBuilderEnabler enabler : ourEnablers) {
@@ -135,9 +201,12 @@ public class ResourcesBuilder extends TargetBuilder<ResourceRootDescriptor, Reso
 
     final String outputPath = targetPath.toString();
     final File targetFile = new File(outputPath);
-    FileUtil.copyContent(file, targetFile);
+    ResourceFileCopier.copy(file, targetFile);
     try {
-      outputConsumer.registerOutputFile(targetFile, Collections.singletonList(file.getPath()));
+      //noinspection SynchronizationOnLocalVariableOrMethodParameter
+      synchronized (outputConsumer) {
+        outputConsumer.registerOutputFile(targetFile, Collections.singletonList(file.getPath()));
+      }
     }
     catch (Exception e) {
       context.processMessage(new CompilerMessage(BUILDER_NAME, e));
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Process-wide index of packages contained in classpath jars. It's shared by all file manager instances, so chunks compiled one after
+ * another or in parallel don't list the same library jars again, and allows them to skip opening a jar which cannot contain the
+ * requested package. An entry is rebuilt when length or timestamp of the jar changes, and the least recently used entries are dropped
+ * when more than {@link #MAX_INDICES} jars are indexed, so jars which are no longer on the classpath don't stay in memory.
+ * <p/>
+ * Directories aren't indexed here because output directories of modules are modified during the build.
+ */
+class ClasspathJarIndex {
+  static final int MAX_INDICES = 1000;
+  private static final Map<File, ClasspathJarIndex> ourIndices = new LinkedHashMap<File, ClasspathJarIndex>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<File, ClasspathJarIndex> eldest) {
+      return size() > MAX_INDICES;
+    }
+  };
+  private final long myLength;
+  private final long myTimestamp;
+  private final Set<String> myDirectories;
+
+  private ClasspathJarIndex(long length, long timestamp, Set<String> directories) {
+    myLength = length;
+    myTimestamp = timestamp;
+    myDirectories = directories;
+  }
+
+  /**
+   * @return index for the jar or {@code null} if the jar cannot be read
+   */
+  public static ClasspathJarIndex getIndex(File jarFile) {
+    final long length = jarFile.length();
+    final long timestamp = jarFile.lastModified();
+    ClasspathJarIndex index;
+    synchronized (ourIndices) {
+      index = ourIndices.get(jarFile);
+    }
+    if (index != null && index.myLength == length && index.myTimestamp == timestamp) {
+      return index;
+    }
+    index = buildIndex(jarFile, length, timestamp);
+    synchronized (ourIndices) {
+      if (index != null) {
+        ourIndices.put(jarFile, index);
+      }
+      else {
+        ourIndices.remove(jarFile);
+      }
+    }
+    return index;
+  }
+
+  static int getIndexCount() {
+    synchronized (ourIndices) {
+      return ourIndices.size();
+    }
+  }
+
+  /**
+   * @param directory '/'-separated path without trailing slash, empty string for the jar root
+   */
+  public boolean containsDirectory(String directory) {
+    return directory.length() == 0 || myDirectories.contains(directory);
+  }
+
+  private static ClasspathJarIndex buildIndex(File jarFile, long length, long timestamp) {
+    if (length == 0) {
+      return null;
+    }
+    final Set<String> directories = new HashSet<String>();
+    try {
+      final ZipFile zipFile = new ZipFile(jarFile);
+      try {
+        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+          String name = entries.nextElement().getName();
+          int slash = name.lastIndexOf('/');
+          while (slash > 0) {
+            name = name.substring(0, slash);
+            if (!directories.add(name)) {
+              break;
+            }
+            slash = name.lastIndexOf('/');
+          }
+        }
+      }
+      finally {
+        zipFile.close();
+      }
+    }
+    catch (IOException e) {
+      return null;
+    }
+    return new ClasspathJarIndex(length, timestamp, Collections.unmodifiableSet(directories));
+  }
+}
@@ -45,6 +45,7 @@ class OptimizedFileManager extends DefaultFileManager {
   private final Map<File, Archive> myArchives;
   private final Map<File, Boolean> myIsFile = new HashMap<File, Boolean>();
   private final Map<File, File[]> myDirectoryCache = new HashMap<File, File[]>();
+  private final Map<File, ClasspathJarIndex> myJarIndices = new HashMap<File, ClasspathJarIndex>();
   public static final File[] NULL_FILE_ARRAY = new File[0];
 
   private static final boolean ourUseContentCache = Boolean.valueOf(System.getProperty("javac.use.content.cache", "false"));
@@ -113,6 +114,9 @@ class OptimizedFileManager extends DefaultFileManager {
         isFile = isFile(root);
       }
       if (isFile) {
+        if (archive == null && !mayContainDirectory(root, packageName.replace('.', '/'))) {
+          continue;
+        }
         collectFromArchive(root, archive, relativePath, kinds, recurse, results);
       }
       else {
@@ -146,6 +150,15 @@ class OptimizedFileManager extends DefaultFileManager {
     return cachedIsFile.booleanValue();
   }
 
+  private boolean mayContainDirectory(File jarFile, String directory) {
+    ClasspathJarIndex index = myJarIndices.get(jarFile);
+    if (index == null && !myJarIndices.containsKey(jarFile)) {
+      index = ClasspathJarIndex.getIndex(jarFile);
+      myJarIndices.put(jarFile, index);
+    }
+    return index == null || index.containsDirectory(directory);
+  }
+
   private void collectFromArchive(File root, Archive archive, String relativePath, Set<JavaFileObject.Kind> kinds, boolean recurse, ListBuffer<JavaFileObject> result) {
     if (archive == null) {
       try {
@@ -257,6 +270,10 @@ class OptimizedFileManager extends DefaultFileManager {
       }
       if (isFile) {
         if (archive == null) {
+          final int slash = name.lastIndexOf('/');
+          if (!mayContainDirectory(root, slash >= 0 ? name.substring(0, slash) : "")) {
+            continue;
+          }
           try {
             archive = openArchive(root);
           }
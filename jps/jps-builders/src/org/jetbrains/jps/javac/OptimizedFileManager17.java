@@ -45,6 +45,7 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
   private final Map<File, Archive> myArchives;
   private final Map<File, Boolean> myIsFile = new HashMap<File, Boolean>();
   private final Map<File, File[]> myDirectoryCache = new HashMap<File, File[]>();
+  private final Map<File, ClasspathJarIndex> myJarIndices = new HashMap<File, ClasspathJarIndex>();
   public static final File[] NULL_FILE_ARRAY = new File[0];
 
   private static final String _OS_NAME = System.getProperty("os.name").toLowerCase(Locale.US);
@@ -83,7 +84,8 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
       return List.nil();
     }
 
-    RelativePath.RelativeDirectory subdirectory = new RelativePath.RelativeDirectory(packageName.replace('.', '/'));
+    final String packagePath = packageName.replace('.', '/');
+    RelativePath.RelativeDirectory subdirectory = new RelativePath.RelativeDirectory(packagePath);
     
     ListBuffer<JavaFileObject> results = new ListBuffer<JavaFileObject>();
 
@@ -99,6 +101,9 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
       }
       
       if (isFile) {
+        if (archive == null && !mayContainDirectory(root, packagePath)) {
+          continue;
+        }
         // Not a directory; either a file or non-existant, create the archive
         try {
           if (archive == null) {
@@ -124,6 +129,15 @@ class OptimizedFileManager17 extends com.sun.tools.javac.file.JavacFileManager {
     return results.toList();
   }
 
+  private boolean mayContainDirectory(File jarFile, String directory) {
+    ClasspathJarIndex index = myJarIndices.get(jarFile);
+    if (index == null && !myJarIndices.containsKey(jarFile)) {
+      index = ClasspathJarIndex.getIndex(jarFile);
+      myJarIndices.put(jarFile, index);
+    }
+    return index == null || index.containsDirectory(directory);
+  }
+
   private static void listArchive(Archive archive, RelativePath.RelativeDirectory subdirectory, Set<JavaFileObject.Kind> fileKinds, boolean recurse, ListBuffer<JavaFileObject> resultList) {
     // Get the files directly in the subdir
     List<String> files = archive.getFiles(subdirectory);
@@ -73,4 +73,18 @@ public class ResourceCopyingTest extends JpsBuildTestCase {
     rebuildAll();
     assertOutput(m, fs().file("A.java", "xxx"));
   }
+
+  public void testSeveralResourceRoots() {
+    String file1 = createFile("res1/a/b.xml", "b");
+    String file2 = createFile("res2/c.txt", "c");
+    JpsModule m = addModule("m");
+    m.addSourceRoot(JpsPathUtil.pathToUrl(PathUtil.getParentPath(PathUtil.getParentPath(file1))), JavaResourceRootType.RESOURCE);
+    m.addSourceRoot(JpsPathUtil.pathToUrl(PathUtil.getParentPath(file2)), JavaResourceRootType.RESOURCE);
+    rebuildAll();
+    assertOutput(m, fs().file("c.txt", "c").dir("a").file("b.xml", "b"));
+
+    change(file1, "b2");
+    makeAll();
+    assertOutput(m, fs().file("c.txt", "c").dir("a").file("b.xml", "b2"));
+  }
 }
@@ -105,6 +105,42 @@ public class IncrementalArtifactBuildingTest extends ArtifactBuilderTestCase {
     buildAllAndAssertUpToDate();
   }
 
+  public void testChangeFileInArchiveInArchive() {
+    String file = createFile("dir/a.txt", "aaa");
+    createFile("dir/b.txt", "bbb");
+    JpsArtifact a = addArtifact(root().archive("a.jar").fileCopy(createFile("c.txt", "ccc")).archive("b.jar").parentDirCopy(file));
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("c.txt", "ccc").archive("b.jar").file("a.txt", "aaa").file("b.txt", "bbb"));
+
+    change(file, "xxx");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("c.txt", "ccc").archive("b.jar").file("a.txt", "xxx").file("b.txt", "bbb"));
+    buildAllAndAssertUpToDate();
+  }
+
+  public void testChangeAndDeleteFilesInArchiveSeveralTimes() {
+    String file1 = createFile("dir/a.txt", "a");
+    String file2 = createFile("dir/b.txt", "b");
+    createFile("dir/c/d.txt", "d");
+    JpsArtifact a = addArtifact(archive("a.jar").parentDirCopy(file1));
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "a").file("b.txt", "b").dir("c").file("d.txt", "d"));
+
+    change(file1, "a2");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "a2").file("b.txt", "b").dir("c").file("d.txt", "d"));
+
+    delete(file2);
+    change(file1, "a3");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "a3").dir("c").file("d.txt", "d"));
+
+    createFile("dir/b.txt", "b2");
+    buildAll();
+    assertOutput(a, fs().archive("a.jar").file("a.txt", "a3").file("b.txt", "b2").dir("c").file("d.txt", "d"));
+    buildAllAndAssertUpToDate();
+  }
+
   public void testNonExistentFileRoot() throws IOException {
     String file = getAbsolutePath("a.txt");
     JpsArtifact a = addArtifact(root().fileCopy(file));
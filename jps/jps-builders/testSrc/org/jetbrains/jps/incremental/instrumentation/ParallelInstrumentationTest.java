@@ -0,0 +1,150 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.incremental.instrumentation;
+
+import com.intellij.compiler.instrumentation.InstrumentationClassFinder;
+import com.intellij.compiler.instrumentation.InstrumenterClassWriter;
+import com.intellij.compiler.notNullVerification.NotNullVerifyingInstrumenter;
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.asm4.ClassReader;
+import org.jetbrains.asm4.ClassWriter;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Instruments the same classes on one thread and on several threads sharing a class finder, the results must be identical.
+ */
+public class ParallelInstrumentationTest extends TestCase {
+  private static final int THREADS = 8;
+  private static final int ROUNDS = 20;
+  private static final Class[] CLASSES = {ListHolder.class, MapHolder.class, CollectionHolder.class, Holders.class};
+
+  public void testParallelInstrumentationGivesSameOutput() throws Exception {
+    final Map<Class, byte[]> expected = new HashMap<Class, byte[]>();
+    final InstrumentationClassFinder sequentialFinder = createFinder();
+    try {
+      for (Class aClass : CLASSES) {
+        expected.put(aClass, instrument(aClass, sequentialFinder));
+      }
+    }
+    finally {
+      sequentialFinder.releaseResources();
+    }
+
+    final InstrumentationClassFinder finder = createFinder();
+    final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Class> classes = new ArrayList<Class>();
+      final List<Future<byte[]>> results = new ArrayList<Future<byte[]>>();
+      for (int i = 0; i < ROUNDS; i++) {
+        for (final Class aClass : CLASSES) {
+          classes.add(aClass);
+          results.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+              start.await();
+              return instrument(aClass, finder);
+            }
+          }));
+        }
+      }
+      start.countDown();
+      for (int i = 0; i < results.size(); i++) {
+        final Class aClass = classes.get(i);
+        assertTrue(aClass.getName(), Arrays.equals(expected.get(aClass), results.get(i).get(30, TimeUnit.SECONDS)));
+      }
+    }
+    finally {
+      executor.shutdownNow();
+      finder.releaseResources();
+    }
+  }
+
+  private static byte[] instrument(Class aClass, InstrumentationClassFinder finder) throws Exception {
+    final InputStream stream = aClass.getResourceAsStream("/" + aClass.getName().replace('.', '/') + ".class");
+    final byte[] bytes;
+    try {
+      bytes = FileUtil.loadBytes(stream);
+    }
+    finally {
+      stream.close();
+    }
+    final ClassReader reader = new ClassReader(bytes);
+    final int version = ClassProcessingBuilder.getClassFileVersion(reader);
+    final ClassWriter writer = new InstrumenterClassWriter(ClassProcessingBuilder.getAsmClassWriterFlags(version), finder);
+    assertTrue(aClass.getName(), NotNullVerifyingInstrumenter.processClassFile(reader, writer));
+    return writer.toByteArray();
+  }
+
+  private static InstrumentationClassFinder createFinder() throws Exception {
+    return new InstrumentationClassFinder(toUrls(System.getProperty("sun.boot.class.path")), toUrls(System.getProperty("java.class.path")));
+  }
+
+  private static URL[] toUrls(String classpath) throws Exception {
+    final List<URL> urls = new ArrayList<URL>();
+    if (classpath != null) {
+      for (String path : classpath.split(File.pathSeparator)) {
+        if (new File(path).exists()) {
+          urls.add(new File(path).toURI().toURL());
+        }
+      }
+    }
+    return urls.toArray(new URL[urls.size()]);
+  }
+
+  // frames of the methods below need common super classes of the merged types, so they are computed via the class finder
+
+  private static class ListHolder {
+    @NotNull
+    public List<String> get(@NotNull String s, boolean linked) {
+      final List<String> list = linked ? new LinkedList<String>() : new ArrayList<String>();
+      list.add(s);
+      return list;
+    }
+  }
+
+  private static class MapHolder {
+    @NotNull
+    public Map<String, String> get(@NotNull String key, boolean sorted) {
+      final AbstractMap<String, String> map = sorted ? new TreeMap<String, String>() : new HashMap<String, String>();
+      map.put(key, key);
+      return map;
+    }
+  }
+
+  private static class CollectionHolder {
+    public int size(@NotNull Object o, boolean set) {
+      final Collection<Object> collection = set ? new LinkedHashSet<Object>() : new ArrayDeque<Object>();
+      collection.add(o);
+      return collection.size();
+    }
+  }
+
+  private static class Holders {
+    @NotNull
+    public Object create(@NotNull String kind) {
+      final Object holder = kind.length() > 1 ? new ListHolder() : new MapHolder();
+      return holder;
+    }
+  }
+}
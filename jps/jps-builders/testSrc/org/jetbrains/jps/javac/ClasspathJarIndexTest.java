@@ -0,0 +1,108 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.javac;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClasspathJarIndexTest extends TestCase {
+  private File myDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myDir = FileUtil.createTempDirectory("jar-index", null);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtil.delete(myDir);
+    super.tearDown();
+  }
+
+  public void testPackagePresence() throws IOException {
+    File jar = createJar("lib.jar", "org/jetbrains/a/A.class", "org/jetbrains/b/", "META-INF/MANIFEST.MF", "Root.class");
+    ClasspathJarIndex index = ClasspathJarIndex.getIndex(jar);
+    assertNotNull(index);
+    assertTrue(index.containsDirectory(""));
+    assertTrue(index.containsDirectory("org"));
+    assertTrue(index.containsDirectory("org/jetbrains"));
+    assertTrue(index.containsDirectory("org/jetbrains/a"));
+    assertTrue(index.containsDirectory("org/jetbrains/b"));
+    assertTrue(index.containsDirectory("META-INF"));
+    assertFalse(index.containsDirectory("org/jetbrains/c"));
+    assertFalse(index.containsDirectory("org/jetbrains/a/A.class"));
+    assertFalse(index.containsDirectory("com"));
+    assertFalse(index.containsDirectory("jetbrains"));
+  }
+
+  public void testIndexIsReused() throws IOException {
+    File jar = createJar("lib.jar", "a/A.class");
+    assertSame(ClasspathJarIndex.getIndex(jar), ClasspathJarIndex.getIndex(jar));
+  }
+
+  public void testIndexIsRebuiltWhenJarChanges() throws IOException {
+    File jar = createJar("lib.jar", "a/A.class");
+    ClasspathJarIndex index = ClasspathJarIndex.getIndex(jar);
+    assertTrue(index.containsDirectory("a"));
+
+    createJar("lib.jar", "b/B.class");
+    assertTrue(jar.setLastModified(jar.lastModified() + 2000));
+    index = ClasspathJarIndex.getIndex(jar);
+    assertFalse(index.containsDirectory("a"));
+    assertTrue(index.containsDirectory("b"));
+  }
+
+  public void testUnreadableJar() throws IOException {
+    File empty = new File(myDir, "empty.jar");
+    FileUtil.writeToFile(empty, new byte[0]);
+    assertNull(ClasspathJarIndex.getIndex(empty));
+
+    File broken = new File(myDir, "broken.jar");
+    FileUtil.writeToFile(broken, "not a jar");
+    assertNull(ClasspathJarIndex.getIndex(broken));
+
+    assertNull(ClasspathJarIndex.getIndex(new File(myDir, "absent.jar")));
+  }
+
+  public void testIndicesAreBounded() throws IOException {
+    for (int i = 0; i <= ClasspathJarIndex.MAX_INDICES; i++) {
+      assertNotNull(ClasspathJarIndex.getIndex(createJar("lib" + i + ".jar", "a/A.class")));
+    }
+    assertEquals(ClasspathJarIndex.MAX_INDICES, ClasspathJarIndex.getIndexCount());
+  }
+
+  private File createJar(String name, String... entries) throws IOException {
+    File jar = new File(myDir, name);
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+    try {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        out.closeEntry();
+      }
+    }
+    finally {
+      out.close();
+    }
+    return jar;
+  }
+}
@@ -20,6 +20,7 @@ import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.FileUtilRt;
 import org.jdom.Element;
 import org.jdom.JDOMException;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.jps.TimingLog;
 import org.jetbrains.jps.model.JpsElement;
 
@@ -31,13 +32,19 @@ import java.io.IOException;
  */
 public abstract class JpsLoaderBase {
   private final JpsMacroExpander myMacroExpander;
+  @Nullable private final JpsXmlElementCache myElementCache;
 
   protected JpsLoaderBase(JpsMacroExpander macroExpander) {
+    this(macroExpander, null);
+  }
+
+  protected JpsLoaderBase(JpsMacroExpander macroExpander, @Nullable JpsXmlElementCache elementCache) {
     myMacroExpander = macroExpander;
+    myElementCache = elementCache;
   }
 
   protected Element loadRootElement(final File file) {
-    return loadRootElement(file, myMacroExpander);
+    return loadRootElement(file, myMacroExpander, myElementCache);
   }
 
   protected <E extends JpsElement> void loadComponents(File dir,
@@ -65,8 +72,12 @@ public abstract class JpsLoaderBase {
   }
 
   protected static Element loadRootElement(final File file, final JpsMacroExpander macroExpander) {
+    return loadRootElement(file, macroExpander, null);
+  }
+
+  protected static Element loadRootElement(final File file, final JpsMacroExpander macroExpander, @Nullable JpsXmlElementCache elementCache) {
     try {
-      final Element element = JDOMUtil.loadDocument(file).getRootElement();
+      final Element element = elementCache != null ? elementCache.loadRootElement(file) : JDOMUtil.loadDocument(file).getRootElement();
       macroExpander.substitute(element, SystemInfo.isFileSystemCaseSensitive);
       return element;
     }
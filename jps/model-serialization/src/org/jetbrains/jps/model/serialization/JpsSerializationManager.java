@@ -35,5 +35,13 @@ public abstract class JpsSerializationManager {
   public abstract JpsModel loadModel(@NotNull String projectPath, @Nullable String optionsPath)
     throws IOException;
 
+  /**
+   * Loads the model using {@code elementCache} to skip parsing of project configuration files which weren't changed since
+   * the cache was saved. The caller is responsible for calling {@link JpsXmlElementCache#save()} afterwards.
+   */
+  @NotNull
+  public abstract JpsModel loadModel(@NotNull String projectPath, @Nullable String optionsPath, @Nullable JpsXmlElementCache elementCache)
+    throws IOException;
+
   public abstract void saveGlobalSettings(@NotNull JpsGlobal global, @NotNull String optionsPath) throws IOException;
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.jps.model.serialization;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.IOUtil;
+import org.jdom.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Binary snapshot of parsed project configuration files (.ipr, .iml, files under .idea). Each entry is validated by the length and
+ * timestamp of the source file, so a hit skips XML parsing while a changed file is transparently re-read. Elements are stored
+ * before macro substitution, so path variables are always expanded with the current values.
+ */
+public class JpsXmlElementCache {
+  private static final Logger LOG = Logger.getInstance(JpsXmlElementCache.class);
+  private static final int VERSION = 1;
+  private static final byte ELEMENT = 0;
+  private static final byte TEXT = 1;
+  private static final byte END = 2;
+  private final File myStorageFile;
+  private final Map<String, CachedFile> myEntries = new ConcurrentHashMap<String, CachedFile>();
+  private final Map<String, CachedFile> myUsedEntries = new ConcurrentHashMap<String, CachedFile>();
+  private final AtomicInteger myHits = new AtomicInteger();
+  private final AtomicInteger myMisses = new AtomicInteger();
+
+  private JpsXmlElementCache(@NotNull File storageFile) {
+    myStorageFile = storageFile;
+  }
+
+  @NotNull
+  public static JpsXmlElementCache load(@NotNull File storageFile) {
+    JpsXmlElementCache cache = new JpsXmlElementCache(storageFile);
+    if (storageFile.isFile()) {
+      try {
+        cache.readEntries();
+      }
+      catch (IOException e) {
+        LOG.info("Cannot read project configuration cache " + storageFile.getAbsolutePath() + ": " + e.getMessage());
+        cache.myEntries.clear();
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * @return a new root element for {@code file}; callers are free to modify it
+   */
+  @NotNull
+  public Element loadRootElement(@NotNull File file) throws IOException, JDOMException {
+    String path = FileUtil.toSystemIndependentName(file.getAbsolutePath());
+    long length = file.length();
+    long timestamp = file.lastModified();
+    CachedFile cached = myEntries.get(path);
+    if (cached != null && cached.myLength == length && cached.myTimestamp == timestamp) {
+      myUsedEntries.put(path, cached);
+      myHits.incrementAndGet();
+      return readElement(new DataInputStream(new ByteArrayInputStream(cached.myData)));
+    }
+
+    myMisses.incrementAndGet();
+    Element root = JDOMUtil.loadDocument(file).getRootElement();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream output = new DataOutputStream(bytes);
+    writeElement(root, output);
+    output.close();
+    myUsedEntries.put(path, new CachedFile(length, timestamp, bytes.toByteArray()));
+    return root;
+  }
+
+  public int getHitCount() {
+    return myHits.get();
+  }
+
+  public int getMissCount() {
+    return myMisses.get();
+  }
+
+  /**
+   * Stores entries for the files requested since this cache was loaded; entries for files which weren't requested are dropped.
+   */
+  public void save() {
+    if (myMisses.get() == 0 && myUsedEntries.size() == myEntries.size()) return;
+
+    FileUtil.createParentDirs(myStorageFile);
+    try {
+      DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(myStorageFile)));
+      try {
+        output.writeInt(VERSION);
+        output.writeInt(myUsedEntries.size());
+        for (Map.Entry<String, CachedFile> entry : myUsedEntries.entrySet()) {
+          CachedFile file = entry.getValue();
+          output.writeUTF(entry.getKey());
+          output.writeLong(file.myLength);
+          output.writeLong(file.myTimestamp);
+          output.writeInt(file.myData.length);
+          output.write(file.myData);
+        }
+      }
+      finally {
+        output.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Cannot save project configuration cache " + myStorageFile.getAbsolutePath() + ": " + e.getMessage());
+      FileUtil.delete(myStorageFile);
+    }
+  }
+
+  private void readEntries() throws IOException {
+    DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(myStorageFile)));
+    try {
+      if (input.readInt() != VERSION) return;
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = input.readUTF();
+        long length = input.readLong();
+        long timestamp = input.readLong();
+        byte[] data = new byte[input.readInt()];
+        input.readFully(data);
+        myEntries.put(path, new CachedFile(length, timestamp, data));
+      }
+    }
+    finally {
+      input.close();
+    }
+  }
+
+  private static void writeElement(@NotNull Element element, @NotNull DataOutput output) throws IOException {
+    output.writeUTF(element.getName());
+    writeNamespace(element.getNamespace(), output);
+    List<Attribute> attributes = element.getAttributes();
+    output.writeInt(attributes.size());
+    for (Attribute attribute : attributes) {
+      output.writeUTF(attribute.getName());
+      writeNamespace(attribute.getNamespace(), output);
+      IOUtil.writeString(attribute.getValue(), output);
+    }
+    for (Object content : element.getContent()) {
+      if (content instanceof Element) {
+        output.writeByte(ELEMENT);
+        writeElement((Element)content, output);
+      }
+      else if (content instanceof Text) {
+        output.writeByte(TEXT);
+        IOUtil.writeString(((Text)content).getText(), output);
+      }
+    }
+    output.writeByte(END);
+  }
+
+  @NotNull
+  private static Element readElement(@NotNull DataInput input) throws IOException {
+    Element element = new Element(input.readUTF(), readNamespace(input));
+    int attributeCount = input.readInt();
+    for (int i = 0; i < attributeCount; i++) {
+      String name = input.readUTF();
+      Namespace namespace = readNamespace(input);
+      element.setAttribute(name, IOUtil.readString(input), namespace);
+    }
+    while (true) {
+      byte kind = input.readByte();
+      if (kind == ELEMENT) {
+        element.addContent(readElement(input));
+      }
+      else if (kind == TEXT) {
+        element.addContent(IOUtil.readString(input));
+      }
+      else {
+        return element;
+      }
+    }
+  }
+
+  private static void writeNamespace(@Nullable Namespace namespace, @NotNull DataOutput output) throws IOException {
+    boolean noNamespace = namespace == null || namespace == Namespace.NO_NAMESPACE;
+    output.writeBoolean(!noNamespace);
+    if (!noNamespace) {
+      output.writeUTF(namespace.getPrefix());
+      output.writeUTF(namespace.getURI());
+    }
+  }
+
+  @NotNull
+  private static Namespace readNamespace(@NotNull DataInput input) throws IOException {
+    if (!input.readBoolean()) return Namespace.NO_NAMESPACE;
+    String prefix = input.readUTF();
+    return Namespace.getNamespace(prefix, input.readUTF());
+  }
+
+  private static class CachedFile {
+    private final long myLength;
+    private final long myTimestamp;
+    private final byte[] myData;
+
+    private CachedFile(long length, long timestamp, byte[] data) {
+      myLength = length;
+      myTimestamp = timestamp;
+      myData = data;
+    }
+  }
+}
@@ -20,8 +20,10 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.testFramework.PlatformTestUtil;
 import org.jdom.Element;
 import org.jetbrains.jps.model.JpsDummyElement;
+import org.jetbrains.jps.model.JpsElementFactory;
 import org.jetbrains.jps.model.JpsEncodingConfigurationService;
 import org.jetbrains.jps.model.JpsEncodingProjectConfiguration;
+import org.jetbrains.jps.model.JpsProject;
 import org.jetbrains.jps.model.artifact.JpsArtifactService;
 import org.jetbrains.jps.model.java.*;
 import org.jetbrains.jps.model.library.JpsLibrary;
@@ -81,6 +83,28 @@ public class JpsProjectSerializationTest extends JpsSerializationTestCase {
     assertEquals(getUrl("xxx/output"), JpsJavaExtensionService.getInstance().getOutputUrl(xxx, false));
   }
 
+  public void testLoadProjectUsingElementCache() throws IOException {
+    String projectPath = getTestDataFileAbsolutePath(SAMPLE_PROJECT_PATH);
+    File cacheFile = new File(FileUtil.createTempDirectory("elementCache", null), "cache.dat");
+    JpsXmlElementCache cache = JpsXmlElementCache.load(cacheFile);
+    JpsProjectLoader.loadProject(myProject, getPathVariables(), projectPath, cache);
+    assertEquals(0, cache.getHitCount());
+    assertTrue(cache.getMissCount() > 0);
+    cache.save();
+    assertTrue(cacheFile.isFile());
+
+    JpsProject cachedProject = JpsElementFactory.getInstance().createModel().getProject();
+    JpsXmlElementCache loadedCache = JpsXmlElementCache.load(cacheFile);
+    JpsProjectLoader.loadProject(cachedProject, getPathVariables(), projectPath, loadedCache);
+    assertEquals(0, loadedCache.getMissCount());
+    assertEquals(cache.getMissCount(), loadedCache.getHitCount());
+    assertEquals(myProject.getName(), cachedProject.getName());
+    assertEquals(myProject.getModules().size(), cachedProject.getModules().size());
+    assertEquals(myProject.getLibraryCollection().getLibraries().size(), cachedProject.getLibraryCollection().getLibraries().size());
+    assertEquals(JpsJavaExtensionService.getInstance().getOutputUrl(myProject.getModules().get(2), true),
+                 JpsJavaExtensionService.getInstance().getOutputUrl(cachedProject.getModules().get(2), true));
+  }
+
   public void testFileBasedProjectNameAndBaseDir() {
     String relativePath = "/jps/model-serialization/testData/run-configurations/run-configurations.ipr";
     String absolutePath = getTestDataFileAbsolutePath(relativePath);
@@ -94,6 +94,14 @@ public abstract class ProgressableTextEditorHighlightingPass extends TextEditorH
 
   protected abstract void collectInformationWithProgress(@NotNull ProgressIndicator progress);
 
+  /**
+   * @return the part of the document the pass produces highlighting for
+   */
+  @NotNull
+  public TextRange getRestrictRange() {
+    return myRestrictRange;
+  }
+
   @Override
   public final void doApplyInformationToEditor() {
     myFinished = true;
@@ -403,6 +403,19 @@ public class PsiManagerImpl extends PsiManagerEx {
     myTreeChangePreprocessors.add(preprocessor);
   }
 
+  /**
+   * @return whether any change of the file outside its code blocks increases the out-of-code-block modification count
+   * @see CodeBlockChangePreprocessor
+   */
+  public boolean isOutOfCodeBlockChangeTracked(@NotNull PsiFile file) {
+    for (PsiTreeChangePreprocessor preprocessor : myTreeChangePreprocessors) {
+      if (preprocessor instanceof CodeBlockChangePreprocessor && ((CodeBlockChangePreprocessor)preprocessor).tracksOutOfCodeBlockChanges(file)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private void fireEvent(PsiTreeChangeEventImpl event) {
     boolean isRealTreeChange = event.getCode() != PsiTreeChangeEventImpl.PsiEventType.PROPERTY_CHANGED
                                && event.getCode() != PsiTreeChangeEventImpl.PsiEventType.BEFORE_PROPERTY_CHANGE;
@@ -19,12 +19,19 @@ package com.intellij.psi.impl.source.resolve;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressIndicatorProvider;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorStacked;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.*;
 import com.intellij.psi.*;
 import com.intellij.psi.impl.AnyPsiChangeListener;
 import com.intellij.psi.impl.PsiManagerImpl;
+import com.intellij.psi.impl.PsiTreeChangeEventImpl;
+import com.intellij.psi.impl.PsiTreeChangePreprocessor;
+import com.intellij.psi.util.PsiModificationTracker;
 import com.intellij.reference.SoftReference;
 import com.intellij.util.containers.ConcurrentWeakHashMap;
 import com.intellij.util.containers.ContainerUtil;
@@ -32,13 +39,35 @@ import com.intellij.util.messages.MessageBus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ResolveCache {
   private static final Logger LOG = Logger.getInstance("#com.intellij.psi.impl.source.resolve.ResolveCache");
   private final ConcurrentMap[] myMaps = new ConcurrentMap[2*2*2]; //boolean physical, boolean incompleteCode, boolean isPoly
   private final RecursionGuard myGuard = RecursionManager.createGuard("resolveCache");
+  private final List<Session> mySessions = ContainerUtil.createLockFreeCopyOnWriteList();
+  private final ConcurrentMap<Pair<PsiReference, Integer>, InFlightResolve> myInFlightResolves =
+    new ConcurrentHashMap<Pair<PsiReference, Integer>, InFlightResolve>();
+  private final AtomicInteger myReusedResolveCount = new AtomicInteger();
+  // null if the cache is cleared entirely on every physical PSI change
+  @Nullable private final PsiManagerImpl myPsiManager;
+  @Nullable private final PsiModificationTracker myModificationTracker;
+  private final Object myInvalidationLock = new Object();
+  private final Set<PsiFile> myChangedFiles = ContainerUtil.newHashSet(); // guarded by myInvalidationLock
+  private boolean myChangeScopeUnknown; // guarded by myInvalidationLock
+  private volatile boolean myPhysicalChangePending;
+  private volatile long myOutOfCodeBlockModificationCount;
+  private final AtomicLong mySurvivedEntryCount = new AtomicLong();
+  private final AtomicLong myDroppedEntryCount = new AtomicLong();
+  // set while the thread computes a resolve registered in myInFlightResolves: nested resolves neither register nor wait, so a thread
+  // waiting for another one never owns an in-flight resolve itself and the waits can't form a cycle
+  private static final ThreadLocal<Boolean> ourInSharedResolve = new ThreadLocal<Boolean>();
 
   public static ResolveCache getInstance(Project project) {
     ProgressIndicatorProvider.checkCanceled(); // We hope this method is being called often enough to cancel daemon processes smoothly
@@ -58,17 +87,51 @@ public class ResolveCache {
   }
 
   public ResolveCache(@NotNull MessageBus messageBus) {
+    this(messageBus, null);
+  }
+
+  /**
+   * With a PSI manager available, a physical change which doesn't increase the out-of-code-block modification count only drops results
+   * for references in the changed files: such a change can't affect resolve in other files. That holds only for files whose
+   * out-of-code-block changes are tracked by a {@link com.intellij.psi.impl.CodeBlockChangePreprocessor}, a change of any other file
+   * clears the whole cache.
+   */
+  public ResolveCache(@NotNull MessageBus messageBus, @Nullable PsiManager psiManager) {
     for (int i = 0; i < myMaps.length; i++) {
       myMaps[i] = createWeakMap();
     }
+    if (psiManager instanceof PsiManagerImpl) {
+      myPsiManager = (PsiManagerImpl)psiManager;
+      myModificationTracker = psiManager.getModificationTracker();
+      myOutOfCodeBlockModificationCount = myModificationTracker.getOutOfCodeBlockModificationCount();
+      ((PsiManagerImpl)psiManager).addTreeChangePreprocessor(new PsiTreeChangePreprocessor() {
+        @Override
+        public void treeChanged(@NotNull PsiTreeChangeEventImpl event) {
+          registerChange(event);
+        }
+      });
+    }
+    else {
+      myPsiManager = null;
+      myModificationTracker = null;
+    }
     messageBus.connect().subscribe(PsiManagerImpl.ANY_PSI_CHANGE_TOPIC, new AnyPsiChangeListener() {
       @Override
       public void beforePsiChanged(boolean isPhysical) {
-        clearCache(isPhysical);
+        if (isPhysical && myModificationTracker != null) {
+          clearCache(false);
+          myPhysicalChangePending = true;
+        }
+        else {
+          clearCache(isPhysical);
+        }
       }
 
       @Override
       public void afterPsiChanged(boolean isPhysical) {
+        if (isPhysical) {
+          processPendingChanges();
+        }
       }
     });
   }
@@ -80,6 +143,105 @@ public class ResolveCache {
   public void clearCache(boolean isPhysical) {
     int startIndex = isPhysical ? 0 : 1;
     for (int i=startIndex;i<2;i++)for (int j=0;j<2;j++)for (int k=0;k<2;k++) myMaps[i*4+j*2+k].clear();
+    if (isPhysical && myModificationTracker != null) {
+      synchronized (myInvalidationLock) {
+        myChangedFiles.clear();
+        myChangeScopeUnknown = false;
+        myPhysicalChangePending = false;
+        myOutOfCodeBlockModificationCount = myModificationTracker.getOutOfCodeBlockModificationCount();
+      }
+    }
+    for (Session session : mySessions) {
+      if (session.isOver()) {
+        session.finish();
+      }
+    }
+  }
+
+  /**
+   * @return number of cached results which survived physical PSI changes inside code blocks since the project was opened
+   */
+  public long getSurvivedEntryCount() {
+    return mySurvivedEntryCount.get();
+  }
+
+  /**
+   * @return number of cached results dropped because of physical PSI changes inside code blocks since the project was opened
+   */
+  public long getDroppedEntryCount() {
+    return myDroppedEntryCount.get();
+  }
+
+  private void registerChange(@NotNull PsiTreeChangeEventImpl event) {
+    PsiFile file = event.getFile();
+    if (file != null && !file.isPhysical()) return; // results for non-physical files are dropped on every change anyway
+    // the out-of-code-block count doesn't move on declaration changes of files nobody tracks, e.g. properties without Java support
+    boolean tracked = file != null && myPsiManager != null && myPsiManager.isOutOfCodeBlockChangeTracked(file);
+    synchronized (myInvalidationLock) {
+      if (!tracked || event.getCode() == PsiTreeChangeEventImpl.PsiEventType.BEFORE_PROPERTY_CHANGE ||
+          event.getCode() == PsiTreeChangeEventImpl.PsiEventType.PROPERTY_CHANGED) {
+        myChangeScopeUnknown = true;
+      }
+      else {
+        myChangedFiles.add(getTopLevelFile(file));
+      }
+    }
+  }
+
+  // the out-of-code-block count may be increased by a preprocessor after this cache has processed the event, so it's checked on access
+  private void processPendingChanges() {
+    PsiModificationTracker tracker = myModificationTracker;
+    if (tracker == null) return;
+    if (!myPhysicalChangePending && tracker.getOutOfCodeBlockModificationCount() == myOutOfCodeBlockModificationCount) return;
+
+    synchronized (myInvalidationLock) {
+      long outOfCodeBlockCount = tracker.getOutOfCodeBlockModificationCount();
+      if (!myPhysicalChangePending && outOfCodeBlockCount == myOutOfCodeBlockModificationCount) return;
+
+      if (myChangeScopeUnknown || myChangedFiles.isEmpty() || outOfCodeBlockCount != myOutOfCodeBlockModificationCount) {
+        clearCache(true);
+        return;
+      }
+
+      int survived = 0;
+      int dropped = 0;
+      for (int j = 0; j < 2; j++) {
+        for (int k = 0; k < 2; k++) {
+          //noinspection unchecked
+          Iterator<Getter> iterator = myMaps[j * 2 + k].values().iterator();
+          while (iterator.hasNext()) {
+            Getter getter = iterator.next();
+            if (getter instanceof FileBoundGetter && !myChangedFiles.contains(((FileBoundGetter)getter).getFile())) {
+              survived++;
+            }
+            else {
+              iterator.remove();
+              dropped++;
+            }
+          }
+        }
+      }
+      mySurvivedEntryCount.addAndGet(survived);
+      myDroppedEntryCount.addAndGet(dropped);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Change inside code block of " + myChangedFiles + ": " + survived + " of " + (survived + dropped) + " resolve results survived");
+      }
+      myChangedFiles.clear();
+      myPhysicalChangePending = false;
+    }
+  }
+
+  @NotNull
+  private static PsiFile getTopLevelFile(@NotNull PsiFile file) {
+    // results for injected fragments are dropped together with the results of their host
+    PsiElement context = file.getContext();
+    while (context != null) {
+      PsiFile contextFile = context.getContainingFile();
+      if (contextFile == null || contextFile == file) break;
+      file = contextFile;
+      context = file.getContext();
+    }
+    return file;
   }
 
   @Nullable
@@ -88,9 +250,13 @@ public class ResolveCache {
                                                                boolean needToPreventRecursion,
                                                                final boolean incompleteCode,
                                                                boolean isPoly,
-                                                               boolean isPhysical) {
+                                                               boolean isPhysical,
+                                                               @Nullable PsiFile containingFile) {
     ProgressIndicatorProvider.checkCanceled();
     ApplicationManager.getApplication().assertReadAccessAllowed();
+    if (isPhysical) {
+      processPendingChanges();
+    }
 
     ConcurrentMap<TRef, Getter<TResult>> map = getMap(isPhysical, incompleteCode, isPoly);
     Getter<TResult> reference = map.get(ref);
@@ -99,6 +265,64 @@ public class ResolveCache {
       return result;
     }
 
+    Session session = containingFile == null ? null : findSession(containingFile);
+    if (session != null) {
+      return resolveShared(ref, resolver, needToPreventRecursion, incompleteCode, isPoly, isPhysical, session);
+    }
+    return doResolve(ref, resolver, needToPreventRecursion, incompleteCode, isPoly, isPhysical, null);
+  }
+
+  @Nullable
+  private <TRef extends PsiReference, TResult> TResult resolveShared(@NotNull TRef ref,
+                                                                     @NotNull AbstractResolver<TRef, TResult> resolver,
+                                                                     boolean needToPreventRecursion,
+                                                                     boolean incompleteCode,
+                                                                     boolean isPoly,
+                                                                     boolean isPhysical,
+                                                                     @NotNull Session session) {
+    Pair<PsiReference, Integer> key = Pair.<PsiReference, Integer>create(ref, getMapIndex(isPhysical, incompleteCode, isPoly));
+    InFlightResolve inFlight = new InFlightResolve();
+    InFlightResolve existing = myInFlightResolves.putIfAbsent(key, inFlight);
+    if (existing != null) {
+      if (mayWait() && existing.await()) {
+        session.myReusedResolveCount.incrementAndGet();
+        myReusedResolveCount.incrementAndGet();
+        //noinspection unchecked
+        return (TResult)existing.myResult;
+      }
+      // the other thread was canceled, its result can't be cached, or this thread can't be canceled while waiting
+      return doResolve(ref, resolver, needToPreventRecursion, incompleteCode, isPoly, isPhysical, null);
+    }
+
+    ourInSharedResolve.set(Boolean.TRUE);
+    try {
+      return doResolve(ref, resolver, needToPreventRecursion, incompleteCode, isPoly, isPhysical, inFlight);
+    }
+    finally {
+      ourInSharedResolve.remove();
+      inFlight.finish();
+      myInFlightResolves.remove(key, inFlight);
+    }
+  }
+
+  // a thread which can't be canceled would be stuck for good if the owner of the in-flight resolve never finished
+  private static boolean mayWait() {
+    if (ApplicationManager.getApplication().isDispatchThread()) return false;
+    ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+    return indicator != null &&
+           !(indicator instanceof ProgressIndicatorStacked && ((ProgressIndicatorStacked)indicator).getNonCancelableCount() > 0);
+  }
+
+  @Nullable
+  private <TRef extends PsiReference, TResult> TResult doResolve(@NotNull final TRef ref,
+                                                                 @NotNull final AbstractResolver<TRef, TResult> resolver,
+                                                                 boolean needToPreventRecursion,
+                                                                 final boolean incompleteCode,
+                                                                 boolean isPoly,
+                                                                 boolean isPhysical,
+                                                                 @Nullable InFlightResolve inFlight) {
+    ConcurrentMap<TRef, Getter<TResult>> map = getMap(isPhysical, incompleteCode, isPoly);
+    TResult result;
     RecursionGuard.StackStamp stamp = myGuard.markStack();
     result = needToPreventRecursion ? myGuard.doPreventingRecursion(Trinity.create(ref, incompleteCode, isPoly), true, new Computable<TResult>() {
       @Override
@@ -110,7 +334,12 @@ public class ResolveCache {
     LOG.assertTrue(element == null || element.isValid(), result);
 
     if (stamp.mayCacheNow()) {
-      cache(ref, map, result, isPoly);
+      PsiFile file = isPhysical && myModificationTracker != null ? ref.getElement().getContainingFile() : null;
+      cache(ref, map, result, isPoly, file == null ? null : getTopLevelFile(file));
+      if (inFlight != null) {
+        inFlight.myResult = result;
+        inFlight.myPublished = true;
+      }
     }
     return result;
   }
@@ -128,12 +357,15 @@ public class ResolveCache {
                                                                                 boolean needToPreventRecursion,
                                                                                 boolean incompleteCode,
                                                                                 @NotNull PsiFile containingFile) {
-    ResolveResult[] result = resolve(ref, resolver, needToPreventRecursion, incompleteCode, true, containingFile.isPhysical());
+    ResolveResult[] result = resolve(ref, resolver, needToPreventRecursion, incompleteCode, true, containingFile.isPhysical(), containingFile);
     return result == null ? ResolveResult.EMPTY_ARRAY : result;
   }
 
   @Nullable
   public <T extends PsiPolyVariantReference> ResolveResult[] getCachedResults(@NotNull T ref, boolean physical, boolean incompleteCode, boolean isPoly) {
+    if (physical) {
+      processPendingChanges();
+    }
     Map<T, Getter<ResolveResult[]>> map = getMap(physical, incompleteCode, isPoly);
     Getter<ResolveResult[]> reference = map.get(ref);
     return reference == null ? null : reference.get();
@@ -145,12 +377,113 @@ public class ResolveCache {
                                     @NotNull AbstractResolver<TRef, TResult> resolver,
                                     boolean needToPreventRecursion,
                                     boolean incompleteCode) {
-    return resolve(ref, resolver, needToPreventRecursion, incompleteCode, false, ref.getElement().isPhysical());
+    PsiElement element = ref.getElement();
+    return resolve(ref, resolver, needToPreventRecursion, incompleteCode, false, element.isPhysical(),
+                   mySessions.isEmpty() ? null : element.getContainingFile());
   }
 
   private <TRef extends PsiReference,TResult> ConcurrentMap<TRef, Getter<TResult>> getMap(boolean physical, boolean incompleteCode, boolean isPoly) {
     //noinspection unchecked
-    return myMaps[(physical ? 0 : 1)*4 + (incompleteCode ? 0 : 1)*2 + (isPoly ? 0 : 1)];
+    return myMaps[getMapIndex(physical, incompleteCode, isPoly)];
+  }
+
+  private static int getMapIndex(boolean physical, boolean incompleteCode, boolean isPoly) {
+    return (physical ? 0 : 1)*4 + (incompleteCode ? 0 : 1)*2 + (isPoly ? 0 : 1);
+  }
+
+  /**
+   * Starts sharing resolve results of references in {@code file} between threads while {@code progress} is running and not canceled,
+   * or until the session is {@link Session#finish() finished}:
+   * a thread resolving a reference which is being resolved by another thread waits for that result instead of computing it again.
+   * Intended for highlighting passes which run concurrently over the same file.
+   */
+  @NotNull
+  public Session startSession(@NotNull PsiFile file, @NotNull ProgressIndicator progress) {
+    Session session = new Session(file, progress);
+    mySessions.add(session);
+    return session;
+  }
+
+  /**
+   * @return number of resolves which were taken from concurrently running resolves of the same references in all sessions
+   */
+  public int getReusedResolveCount() {
+    return myReusedResolveCount.get();
+  }
+
+  @Nullable
+  private Session findSession(@NotNull PsiFile containingFile) {
+    if (mySessions.isEmpty() || ourInSharedResolve.get() != null || ApplicationManager.getApplication().isDispatchThread()) return null;
+    Session result = null;
+    for (Session session : mySessions) {
+      if (session.isOver()) {
+        session.finish();
+      }
+      else if (result == null && session.myFile == containingFile) {
+        result = session;
+      }
+    }
+    return result;
+  }
+
+  public class Session {
+    private final PsiFile myFile;
+    private final ProgressIndicator myProgress;
+    private final AtomicInteger myReusedResolveCount = new AtomicInteger();
+
+    private Session(@NotNull PsiFile file, @NotNull ProgressIndicator progress) {
+      myFile = file;
+      myProgress = progress;
+    }
+
+    /**
+     * @return number of resolves in this session which were taken from another thread instead of being computed
+     */
+    public int getReusedResolveCount() {
+      return myReusedResolveCount.get();
+    }
+
+    // the progress of a completed highlighting is stopped, not canceled
+    private boolean isOver() {
+      return myProgress.isCanceled() || !myProgress.isRunning();
+    }
+
+    public void finish() {
+      if (mySessions.remove(this) && LOG.isDebugEnabled()) {
+        LOG.debug("Resolve session for " + myFile.getName() + " finished, " + myReusedResolveCount.get() + " resolve(s) reused");
+      }
+    }
+  }
+
+  private static class InFlightResolve {
+    private final CountDownLatch myFinished = new CountDownLatch(1);
+    private volatile Object myResult;
+    private volatile boolean myPublished;
+
+    /**
+     * @return whether the result was published by the resolving thread
+     */
+    private boolean await() {
+      try {
+        while (!myFinished.await(10, TimeUnit.MILLISECONDS)) {
+          ProgressIndicatorProvider.checkCanceled();
+        }
+      }
+      catch (InterruptedException e) {
+        throw new ProcessCanceledException();
+      }
+      return myPublished;
+    }
+
+    private void finish() {
+      myFinished.countDown();
+    }
+  }
+
+  // results bound to a file survive changes inside code blocks of other files
+  private interface FileBoundGetter<T> extends Getter<T> {
+    @NotNull
+    PsiFile getFile();
   }
 
   private static class SoftGetter<T> extends SoftReference<T> implements Getter<T> {
@@ -158,12 +491,44 @@ public class ResolveCache {
       super(referent);
     }
   }
+
+  private static class FileBoundSoftGetter<T> extends SoftGetter<T> implements FileBoundGetter<T> {
+    private final PsiFile myFile;
+
+    public FileBoundSoftGetter(T referent, @NotNull PsiFile file) {
+      super(referent);
+      myFile = file;
+    }
+
+    @NotNull
+    @Override
+    public PsiFile getFile() {
+      return myFile;
+    }
+  }
+
+  private static class FileBoundStaticGetter<T> extends StaticGetter<T> implements FileBoundGetter<T> {
+    private final PsiFile myFile;
+
+    public FileBoundStaticGetter(T t, @NotNull PsiFile file) {
+      super(t);
+      myFile = file;
+    }
+
+    @NotNull
+    @Override
+    public PsiFile getFile() {
+      return myFile;
+    }
+  }
+
   private static final Getter<ResolveResult[]> EMPTY_POLY_RESULT = new StaticGetter<ResolveResult[]>(ResolveResult.EMPTY_ARRAY);
   private static final Getter<Object> NULL_RESULT = new StaticGetter<Object>(null);
   private static <TRef extends PsiReference, TResult> void cache(@NotNull TRef ref,
                                                                  @NotNull ConcurrentMap<TRef, Getter<TResult>> map,
                                                                  TResult result,
-                                                                 boolean isPoly) {
+                                                                 boolean isPoly,
+                                                                 @Nullable PsiFile file) {
     // optimization: less contention
     Getter<TResult> cached = map.get(ref);
     if (cached != null && cached.get() == result) {
@@ -176,11 +541,16 @@ public class ResolveCache {
     }
     else if (isPoly && ((Object[])result).length == 0) {
       // no use in creating SoftReference to empty array
-      //noinspection unchecked
-      cached = result.getClass() == ResolveResult[].class ? (Getter<TResult>)EMPTY_POLY_RESULT : new StaticGetter<TResult>(result);
+      if (file != null) {
+        cached = new FileBoundStaticGetter<TResult>(result, file);
+      }
+      else {
+        //noinspection unchecked
+        cached = result.getClass() == ResolveResult[].class ? (Getter<TResult>)EMPTY_POLY_RESULT : new StaticGetter<TResult>(result);
+      }
     }
     else {
-      cached = new SoftGetter<TResult>(result);
+      cached = file != null ? new FileBoundSoftGetter<TResult>(result, file) : new SoftGetter<TResult>(result);
     }
     map.put(ref, cached);
   }
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeHighlighting.TextEditorHighlightingPass;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Durations of completed highlighting passes, collected per pass class. {@link PassExecutorService} uses the learned durations to
+ * start cheap passes before expensive ones; the latency histograms are available for diagnostics.
+ */
+public class HighlightingPassStatistics {
+  /**
+   * Upper bounds (exclusive, in milliseconds) of the histogram buckets; the last bucket collects everything longer.
+   */
+  private static final long[] BUCKET_BOUNDS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024, 2048, 4096, 8192};
+  // weight of the latest run in the expected duration
+  private static final double SMOOTHING = 0.3;
+
+  private final ConcurrentMap<String, PassStat> myStats = ContainerUtil.newConcurrentMap();
+
+  void passFinished(@NotNull TextEditorHighlightingPass pass, long millis) {
+    String name = getPassName(pass);
+    PassStat stat = myStats.get(name);
+    if (stat == null) {
+      stat = ConcurrencyUtil.cacheOrGet(myStats, name, new PassStat());
+    }
+    stat.add(millis);
+  }
+
+  /**
+   * @return smoothed duration of the recent runs of the pass, or -1 if it has never completed
+   */
+  public long getExpectedDuration(@NotNull TextEditorHighlightingPass pass) {
+    PassStat stat = myStats.get(getPassName(pass));
+    return stat == null ? -1 : stat.getExpectedDuration();
+  }
+
+  @NotNull
+  public Collection<String> getPassNames() {
+    return Collections.unmodifiableSet(myStats.keySet());
+  }
+
+  /**
+   * @return number of runs of the pass in each bucket, see {@link #getBucketBounds()}
+   */
+  @NotNull
+  public int[] getLatencyHistogram(@NotNull String passName) {
+    PassStat stat = myStats.get(passName);
+    return stat == null ? new int[BUCKET_BOUNDS.length + 1] : stat.getHistogram();
+  }
+
+  @NotNull
+  public static long[] getBucketBounds() {
+    return BUCKET_BOUNDS.clone();
+  }
+
+  @NotNull
+  private static String getPassName(@NotNull TextEditorHighlightingPass pass) {
+    return pass.getClass().getName();
+  }
+
+  private static class PassStat {
+    private final int[] myHistogram = new int[BUCKET_BOUNDS.length + 1];
+    private double myExpectedDuration = -1;
+
+    private synchronized void add(long millis) {
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS.length && millis >= BUCKET_BOUNDS[bucket]) bucket++;
+      myHistogram[bucket]++;
+      myExpectedDuration = myExpectedDuration < 0 ? millis : SMOOTHING * millis + (1 - SMOOTHING) * myExpectedDuration;
+    }
+
+    private synchronized long getExpectedDuration() {
+      return Math.round(myExpectedDuration);
+    }
+
+    @NotNull
+    private synchronized int[] getHistogram() {
+      return myHistogram.clone();
+    }
+  }
+}
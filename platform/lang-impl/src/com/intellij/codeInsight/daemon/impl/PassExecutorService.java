@@ -17,6 +17,7 @@
 package com.intellij.codeInsight.daemon.impl;
 
 import com.intellij.codeHighlighting.HighlightingPass;
+import com.intellij.codeHighlighting.Pass;
 import com.intellij.codeHighlighting.TextEditorHighlightingPass;
 import com.intellij.concurrency.Job;
 import com.intellij.concurrency.JobLauncher;
@@ -38,7 +39,11 @@ import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.impl.source.resolve.ResolveCache;
 import com.intellij.util.ConcurrencyUtil;
 import com.intellij.util.Consumer;
 import com.intellij.util.SmartList;
@@ -61,6 +66,13 @@ public abstract class PassExecutorService implements Disposable {
   private final Project myProject;
   private volatile boolean isDisposed;
   private final AtomicInteger nextPassId = new AtomicInteger(100);
+  private final HighlightingPassStatistics myStatistics = new HighlightingPassStatistics();
+  private final Comparator<ScheduledPass> mySubmitOrder = new Comparator<ScheduledPass>() {
+    @Override
+    public int compare(ScheduledPass o1, ScheduledPass o2) {
+      return compareSubmitOrder(o1.myPass, o2.myPass, myStatistics);
+    }
+  };
 
   public PassExecutorService(Project project) {
     myProject = project;
@@ -184,6 +196,15 @@ public abstract class PassExecutorService implements Disposable {
       }
     }
 
+    startResolveSessions(documentToEditors.keySet(), updateProgress);
+
+    // the pool runs passes roughly in submission order when there are more passes than threads
+    Collections.sort(freePasses, mySubmitOrder);
+    for (ScheduledPass scheduledPass : toBeSubmitted.values()) {
+      Collections.sort(scheduledPass.mySuccessorsOnSubmit, mySubmitOrder);
+      Collections.sort(scheduledPass.mySuccessorsOnCompletion, mySubmitOrder);
+    }
+
     log(updateProgress, null, "---------------------starting------------------------ " + threadsToStartCountdown.get(), freePasses);
 
     for (ScheduledPass dependentPass : dependentPasses) {
@@ -194,6 +215,52 @@ public abstract class PassExecutorService implements Disposable {
     }
   }
 
+  /**
+   * Passes producing results for the visible area go first, then the ones expected to finish sooner.
+   */
+  static int compareSubmitOrder(@NotNull TextEditorHighlightingPass pass1,
+                                @NotNull TextEditorHighlightingPass pass2,
+                                @NotNull HighlightingPassStatistics statistics) {
+    boolean visible1 = isVisibleAreaPass(pass1);
+    boolean visible2 = isVisibleAreaPass(pass2);
+    if (visible1 != visible2) return visible1 ? -1 : 1;
+    long cost1 = Math.max(0, statistics.getExpectedDuration(pass1));
+    long cost2 = Math.max(0, statistics.getExpectedDuration(pass2));
+    if (cost1 != cost2) return cost1 < cost2 ? -1 : 1;
+    return pass1.getId() - pass2.getId();
+  }
+
+  // a pass restricted to a part of the document works on the visible or the changed area only, the whole file is not cheap
+  private static boolean isVisibleAreaPass(@NotNull TextEditorHighlightingPass pass) {
+    if (pass instanceof ProgressableTextEditorHighlightingPass) {
+      Document document = pass.getDocument();
+      TextRange range = ((ProgressableTextEditorHighlightingPass)pass).getRestrictRange();
+      return document != null && range.getLength() < document.getTextLength();
+    }
+    int id = pass.getId();
+    return id == Pass.UPDATE_FOLDING || id == Pass.VISIBLE_LINE_MARKERS || id == Pass.POPUP_HINTS;
+  }
+
+  /**
+   * @return durations of the passes run by this service, used to order passes scheduled together
+   */
+  @NotNull
+  public HighlightingPassStatistics getPassStatistics() {
+    return myStatistics;
+  }
+
+  // passes of one file run concurrently and resolve mostly the same references, let them share resolve results until the progress is done
+  private void startResolveSessions(@NotNull Collection<Document> documents, @NotNull DaemonProgressIndicator updateProgress) {
+    PsiDocumentManager documentManager = PsiDocumentManager.getInstance(myProject);
+    ResolveCache resolveCache = ResolveCache.getInstance(myProject);
+    for (Document document : documents) {
+      PsiFile file = document == null ? null : documentManager.getPsiFile(document);
+      if (file != null) {
+        resolveCache.startSession(file, updateProgress);
+      }
+    }
+  }
+
   @NotNull
   private ScheduledPass createScheduledPass(@NotNull List<FileEditor> fileEditors,
                                             @NotNull TextEditorHighlightingPass pass,
@@ -296,8 +363,8 @@ public abstract class PassExecutorService implements Disposable {
     private final AtomicInteger myThreadsToStartCountdown;
     private final int myJobPriority;
     private final AtomicInteger myRunningPredecessorsCount;
-    private final Collection<ScheduledPass> mySuccessorsOnCompletion = new ArrayList<ScheduledPass>();
-    private final Collection<ScheduledPass> mySuccessorsOnSubmit = new ArrayList<ScheduledPass>();
+    private final List<ScheduledPass> mySuccessorsOnCompletion = new ArrayList<ScheduledPass>();
+    private final List<ScheduledPass> mySuccessorsOnSubmit = new ArrayList<ScheduledPass>();
     private final DaemonProgressIndicator myUpdateProgress;
 
     private ScheduledPass(@NotNull List<FileEditor> fileEditors,
@@ -352,7 +419,11 @@ public abstract class PassExecutorService implements Disposable {
                 }
 
                 if (!myUpdateProgress.isCanceled()) {
+                  long start = System.currentTimeMillis();
                   myPass.collectInformation(myUpdateProgress);
+                  if (!myUpdateProgress.isCanceled()) {
+                    myStatistics.passFinished(myPass, System.currentTimeMillis() - start);
+                  }
                 }
               }
               catch (ProcessCanceledException e) {
@@ -65,13 +65,18 @@ public abstract class LookupArranger {
   }
 
   public void prefixChanged(Lookup lookup) {
+    String oldPrefix = myAdditionalPrefix;
+    myAdditionalPrefix = ((LookupImpl)lookup).getAdditionalPrefix();
+
+    // an item not matching a prefix can't match its extension, so typing only needs to filter the items matched so far
+    boolean narrowing = myAdditionalPrefix.length() > oldPrefix.length() && myAdditionalPrefix.startsWith(oldPrefix);
+    List<LookupElement> candidates = narrowing ? new ArrayList<LookupElement>(myMatchingItems) : myItems;
+
     myMatchingItems.clear();
     myExactPrefixItems.clear();
     myInexactPrefixItems.clear();
 
-    myAdditionalPrefix = ((LookupImpl)lookup).getAdditionalPrefix();
-
-    for (LookupElement item : myItems) {
+    for (LookupElement item : candidates) {
       updateCache(lookup, item);
     }
   }
@@ -49,6 +49,9 @@ import org.jetbrains.annotations.Nullable;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.util.*;
 
 /**
@@ -67,6 +70,8 @@ public class InspectionApplication {
   public String myProfilePath = null;
   public boolean myRunWithEditorSettings = false;
   public boolean myRunGlobalToolsOnly = false;
+  public boolean myAnalyzeFilesInParallel = false;
+  public String myResultsCachePath = null;
   private Project myProject;
   private int myVerboseLevel = 0;
   public String myOutputFormat = null;
@@ -154,7 +159,7 @@ public class InspectionApplication {
       logMessageLn(1, InspectionsBundle.message("inspection.done"));
       logMessage(1, InspectionsBundle.message("inspection.application.initializing.project"));
 
-      Profile inspectionProfile = loadInspectionProfile();
+      final Profile inspectionProfile = loadInspectionProfile();
       if (inspectionProfile == null) return;
 
       final InspectionManagerEx im = (InspectionManagerEx)InspectionManager.getInstance(myProject);
@@ -218,10 +223,28 @@ public class InspectionApplication {
             if (myErrorCodeRequired) System.exit(1);
             return;
           }
-          inspectionContext.launchInspectionsOffline(scope, resultsDataPath, myRunGlobalToolsOnly, inspectionsResults);
+          inspectionContext.setAnalyzeFilesInParallel(myAnalyzeFilesInParallel);
+          final InspectionResultsCache resultsCache =
+            myResultsCachePath != null ? InspectionResultsCache.open(new File(myResultsCachePath), myProject, inspectionProfile) : null;
+          inspectionContext.setOfflineResultsCache(resultsCache);
+          resetPeakHeapUsage();
+          final long start = System.currentTimeMillis();
+          try {
+            inspectionContext.launchInspectionsOffline(scope, resultsDataPath, myRunGlobalToolsOnly, inspectionsResults);
+          }
+          finally {
+            if (resultsCache != null) {
+              resultsCache.close();
+            }
+          }
           logMessageLn(1, "\n" +
                           InspectionsBundle.message("inspection.capitalized.done") +
                           "\n");
+          logStatistics(inspectionContext.getAnalyzedFileCount(), System.currentTimeMillis() - start);
+          if (resultsCache != null) {
+            //noinspection HardCodedStringLiteral
+            logMessageLn(1, "Results of " + resultsCache.getHitCount() + " files reused from cache, " + resultsCache.getMissCount() + " files analyzed");
+          }
         }
       }, new ProgressIndicatorBase() {
         private String lastPrefix = "";
@@ -414,6 +437,27 @@ public class InspectionApplication {
     return idx == -1 ? null : text.substring(0, idx);
   }
 
+  private static void resetPeakHeapUsage() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  private void logStatistics(int fileCount, long elapsedMs) {
+    long peakHeap = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peakHeap += pool.getPeakUsage().getUsed();
+      }
+    }
+    final double seconds = Math.max(elapsedMs, 1) / 1000.0;
+    //noinspection HardCodedStringLiteral
+    logMessageLn(1, String.format(Locale.US, "%d files analyzed in %.1f s (%.1f files/s), peak heap usage %d MB",
+                                  fileCount, seconds, fileCount / seconds, peakHeap / (1024 * 1024)));
+  }
+
   public void setVerboseLevel(int verboseLevel) {
     myVerboseLevel = verboseLevel;
   }
@@ -105,6 +105,8 @@ public class InspectionMain implements ApplicationStarter {
     }
 
     myApplication.myRunGlobalToolsOnly = System.getProperty("idea.no.local.inspections") != null;
+    myApplication.myAnalyzeFilesInParallel = System.getProperty("idea.inspections.parallel.files") != null;
+    myApplication.myResultsCachePath = System.getProperty("idea.inspections.results.cache");
   }
 
   @Override
@@ -57,6 +57,7 @@ import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.ui.content.*;
 import com.intellij.util.Processor;
 import com.intellij.util.TripleFunction;
+import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.HashMap;
 import com.intellij.util.ui.UIUtil;
 import gnu.trove.THashMap;
@@ -72,9 +73,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class GlobalInspectionContextImpl extends GlobalInspectionContextBase implements GlobalInspectionContext {
   private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.ex.GlobalInspectionContextImpl");
@@ -83,6 +86,10 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
   private Content myContent = null;
 
   private AnalysisUIOptions myUIOptions;
+  private static final int DROP_CACHES_INTERVAL = 500;
+  private boolean myAnalyzeFilesInParallel;
+  private final AtomicInteger myAnalyzedFileCount = new AtomicInteger();
+  private InspectionResultsCache myOfflineResultsCache;
 
   public GlobalInspectionContextImpl(@NotNull Project project, @NotNull NotNullLazyValue<ContentManager> contentManager) {
     super(project);
@@ -91,6 +98,30 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
     myContentManager = contentManager;
   }
 
+  /**
+   * If set, files of the scope are analyzed concurrently instead of running tools of one file concurrently. Intended for batch runs
+   * over large scopes.
+   */
+  public void setAnalyzeFilesInParallel(boolean analyzeFilesInParallel) {
+    myAnalyzeFilesInParallel = analyzeFilesInParallel;
+  }
+
+  /**
+   * Sets the cache used to reuse results of local inspections for unchanged files when inspections are run offline.
+   */
+  public void setOfflineResultsCache(@Nullable InspectionResultsCache resultsCache) {
+    myOfflineResultsCache = resultsCache;
+  }
+
+  @Nullable
+  public InspectionResultsCache getOfflineResultsCache() {
+    return myOfflineResultsCache;
+  }
+
+  public int getAnalyzedFileCount() {
+    return myAnalyzedFileCount.get();
+  }
+
   public ContentManager getContentManager() {
     return myContentManager.getValue();
   }
@@ -321,7 +352,6 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
     runGlobalTools(scope, inspectionManager, globalTools);
     if (runGlobalToolsOnly) return;
 
-    final PsiManager psiManager = PsiManager.getInstance(getProject());
     final Set<VirtualFile> localScopeFiles = scope.toSearchScope() instanceof LocalSearchScope ? new THashSet<VirtualFile>() : null;
     for (Tools tools : globalSimpleTools) {
       GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
@@ -330,64 +360,151 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
     }
 
     final Map<String, InspectionToolWrapper> map = getInspectionWrappersMap(localTools);
+    if (myAnalyzeFilesInParallel) {
+      inspectFilesInParallel(scope, inspectionManager, localTools, globalSimpleTools, map);
+    }
+    else {
+      scope.accept(new PsiElementVisitor() {
+        @Override
+        public void visitFile(final PsiFile file) {
+          final VirtualFile virtualFile = file.getVirtualFile();
+          if (virtualFile == null) return;
+          String url = ProjectUtilCore.displayUrlRelativeToProject(virtualFile, virtualFile.getPresentableUrl(), getProject(), true, false);
+          incrementJobDoneAmount(getStdJobDescriptors().LOCAL_ANALYSIS, url);
+          if (SingleRootFileViewProvider.isTooLargeForIntelligence(virtualFile)) return;
+          if (localScopeFiles != null && !localScopeFiles.add(virtualFile)) return;
+
+          inspectFile(file, inspectionManager, localTools, globalSimpleTools, map, true);
+        }
+      });
+    }
+    for (Tools tools : globalSimpleTools) {
+      GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
+      GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
+      ProblemDescriptionsProcessor problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
+      tool.inspectionFinished(inspectionManager, this, problemDescriptionProcessor);
+    }
+  }
+
+  /**
+   * Analyzes files of the scope concurrently, each one under its own read action. Only virtual files are collected up front, PSI is
+   * requested when a file is analyzed and isn't referenced afterwards. Files are analyzed in chunks, and resolve caches are dropped
+   * between them by this thread while no file is analyzed, so memory used by the analysis doesn't grow with the size of the scope.
+   */
+  private void inspectFilesInParallel(@NotNull AnalysisScope scope,
+                                      @NotNull final InspectionManagerEx inspectionManager,
+                                      @NotNull final List<Tools> localTools,
+                                      @NotNull final List<Tools> globalSimpleTools,
+                                      @NotNull final Map<String, InspectionToolWrapper> map) {
+    final Set<VirtualFile> files = new LinkedHashSet<VirtualFile>();
     scope.accept(new PsiElementVisitor() {
       @Override
       public void visitFile(final PsiFile file) {
         final VirtualFile virtualFile = file.getVirtualFile();
-        if (virtualFile == null) return;
-        String url = ProjectUtilCore.displayUrlRelativeToProject(virtualFile, virtualFile.getPresentableUrl(), getProject(), true, false);
-        incrementJobDoneAmount(getStdJobDescriptors().LOCAL_ANALYSIS, url);
-        if (SingleRootFileViewProvider.isTooLargeForIntelligence(virtualFile)) return;
-        if (localScopeFiles != null && !localScopeFiles.add(virtualFile)) return;
-
-        final FileViewProvider viewProvider = psiManager.findViewProvider(virtualFile);
-        final com.intellij.openapi.editor.Document document = viewProvider == null ? null : viewProvider.getDocument();
-        if (document == null || virtualFile.getFileType().isBinary()) return; //do not inspect binary files
-        final LocalInspectionsPass pass = new LocalInspectionsPass(file, document, 0,
-                                                                   file.getTextLength(), LocalInspectionsPass.EMPTY_PRIORITY_RANGE, true,
-                                                                   HighlightInfoProcessor.getEmpty());
-        try {
-          final List<LocalInspectionToolWrapper> lTools = getWrappersFromTools(localTools, file);
-          pass.doInspectInBatch(GlobalInspectionContextImpl.this, inspectionManager, lTools);
+        if (virtualFile != null) {
+          files.add(virtualFile);
+        }
+      }
+    });
 
-          JobLauncher.getInstance().invokeConcurrentlyUnderProgress(globalSimpleTools, myProgressIndicator, false, new Processor<Tools>() {
-            @Override
-            public boolean process(Tools tools) {
-              GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
-              GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
-              ProblemsHolder problemsHolder = new ProblemsHolder(inspectionManager, file, false);
-              ProblemDescriptionsProcessor problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
-              tool.checkFile(file, inspectionManager, problemsHolder, GlobalInspectionContextImpl.this, problemDescriptionProcessor);
-              InspectionToolPresentation toolPresentation = getPresentation(toolWrapper);
-              LocalDescriptorsUtil.addProblemDescriptors(problemsHolder.getResults(), false, GlobalInspectionContextImpl.this, null,
-                                                         CONVERT, toolPresentation);
-              return true;
+    final PsiManager psiManager = PsiManager.getInstance(getProject());
+    Processor<VirtualFile> processor = new Processor<VirtualFile>() {
+      @Override
+      public boolean process(final VirtualFile virtualFile) {
+        ApplicationManager.getApplication().runReadAction(new Runnable() {
+          @Override
+          public void run() {
+            String url = ProjectUtilCore.displayUrlRelativeToProject(virtualFile, virtualFile.getPresentableUrl(), getProject(), true, false);
+            incrementJobDoneAmount(getStdJobDescriptors().LOCAL_ANALYSIS, url);
+            if (!virtualFile.isValid() || SingleRootFileViewProvider.isTooLargeForIntelligence(virtualFile)) return;
+            final PsiFile file = psiManager.findFile(virtualFile);
+            if (file != null) {
+              inspectFile(file, inspectionManager, localTools, globalSimpleTools, map, false);
             }
-          });
-        }
-        catch (ProcessCanceledException e) {
-          final Throwable cause = e.getCause();
-          if (cause == null) {
-            throw e;
           }
-          LOG.error("In file: " + file, cause);
-        }
-        catch (IndexNotReadyException e) {
-          throw e;
-        }
-        catch (Throwable e) {
-          LOG.error("In file: " + file, e);
+        });
+        return true;
+      }
+    };
+    List<VirtualFile> fileList = new ArrayList<VirtualFile>(files);
+    for (int start = 0; start < fileList.size(); start += DROP_CACHES_INTERVAL) {
+      List<VirtualFile> chunk = fileList.subList(start, Math.min(start + DROP_CACHES_INTERVAL, fileList.size()));
+      if (!JobLauncher.getInstance().invokeConcurrentlyUnderProgress(chunk, myProgressIndicator, false, processor)) break;
+      ApplicationManager.getApplication().runReadAction(new Runnable() {
+        @Override
+        public void run() {
+          psiManager.dropResolveCaches();
         }
-        finally {
-          InjectedLanguageManager.getInstance(getProject()).dropFileCaches(file);
+      });
+    }
+  }
+
+  private void inspectFile(@NotNull final PsiFile file,
+                           @NotNull final InspectionManagerEx inspectionManager,
+                           @NotNull List<Tools> localTools,
+                           @NotNull List<Tools> globalSimpleTools,
+                           @NotNull final Map<String, InspectionToolWrapper> map,
+                           boolean runSimpleToolsConcurrently) {
+    final VirtualFile virtualFile = file.getVirtualFile();
+    final FileViewProvider viewProvider = PsiManager.getInstance(getProject()).findViewProvider(virtualFile);
+    final com.intellij.openapi.editor.Document document = viewProvider == null ? null : viewProvider.getDocument();
+    if (document == null || virtualFile.getFileType().isBinary()) return; //do not inspect binary files
+    myAnalyzedFileCount.incrementAndGet();
+    final InspectionResultsCache resultsCache = myOfflineResultsCache;
+    final boolean restored = resultsCache != null && resultsCache.restoreResults(virtualFile);
+    if (resultsCache != null && !restored) {
+      resultsCache.startRecording(virtualFile);
+    }
+    boolean successful = false;
+    try {
+      if (!restored) {
+        final LocalInspectionsPass pass = new LocalInspectionsPass(file, document, 0,
+                                                                   file.getTextLength(), LocalInspectionsPass.EMPTY_PRIORITY_RANGE, true,
+                                                                   HighlightInfoProcessor.getEmpty());
+        final List<LocalInspectionToolWrapper> lTools = getWrappersFromTools(localTools, file);
+        pass.doInspectInBatch(this, inspectionManager, lTools);
+      }
+
+      final Processor<Tools> simpleToolProcessor = new Processor<Tools>() {
+        @Override
+        public boolean process(Tools tools) {
+          GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
+          GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
+          ProblemsHolder problemsHolder = new ProblemsHolder(inspectionManager, file, false);
+          ProblemDescriptionsProcessor problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
+          tool.checkFile(file, inspectionManager, problemsHolder, GlobalInspectionContextImpl.this, problemDescriptionProcessor);
+          InspectionToolPresentation toolPresentation = getPresentation(toolWrapper);
+          LocalDescriptorsUtil.addProblemDescriptors(problemsHolder.getResults(), false, GlobalInspectionContextImpl.this, null,
+                                                     CONVERT, toolPresentation);
+          return true;
         }
+      };
+      if (runSimpleToolsConcurrently) {
+        JobLauncher.getInstance().invokeConcurrentlyUnderProgress(globalSimpleTools, myProgressIndicator, false, simpleToolProcessor);
+      }
+      else {
+        ContainerUtil.process(globalSimpleTools, simpleToolProcessor);
+      }
+      successful = true;
+    }
+    catch (ProcessCanceledException e) {
+      final Throwable cause = e.getCause();
+      if (cause == null) {
+        throw e;
+      }
+      LOG.error("In file: " + file, cause);
+    }
+    catch (IndexNotReadyException e) {
+      throw e;
+    }
+    catch (Throwable e) {
+      LOG.error("In file: " + file, e);
+    }
+    finally {
+      InjectedLanguageManager.getInstance(getProject()).dropFileCaches(file);
+      if (resultsCache != null && !restored) {
+        resultsCache.finishRecording(virtualFile, successful);
       }
-    });
-    for (Tools tools : globalSimpleTools) {
-      GlobalInspectionToolWrapper toolWrapper = (GlobalInspectionToolWrapper)tools.getTool();
-      GlobalSimpleInspectionTool tool = (GlobalSimpleInspectionTool)toolWrapper.getTool();
-      ProblemDescriptionsProcessor problemDescriptionProcessor = getProblemDescriptionProcessor(toolWrapper, map);
-      tool.inspectionFinished(inspectionManager, this, problemDescriptionProcessor);
     }
   }
 
@@ -580,7 +697,7 @@ public class GlobalInspectionContextImpl extends GlobalInspectionContextBase imp
 
   private final Map<InspectionToolWrapper, InspectionToolPresentation> myPresentationMap = new THashMap<InspectionToolWrapper, InspectionToolPresentation>();
   @NotNull
-  public InspectionToolPresentation getPresentation(@NotNull InspectionToolWrapper toolWrapper) {
+  public synchronized InspectionToolPresentation getPresentation(@NotNull InspectionToolWrapper toolWrapper) {
     InspectionToolPresentation presentation = myPresentationMap.get(toolWrapper);
     if (presentation == null) {
       String presentationClass = StringUtil.notNullize(toolWrapper.myEP == null ? null : toolWrapper.myEP.presentation,
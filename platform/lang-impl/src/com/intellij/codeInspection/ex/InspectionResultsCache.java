@@ -0,0 +1,439 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInspection.ex;
+
+import com.intellij.codeInspection.reference.RefElement;
+import com.intellij.codeInspection.reference.RefEntity;
+import com.intellij.codeInspection.ui.DefaultInspectionToolPresentation;
+import com.intellij.lang.injection.InjectedLanguageManager;
+import com.intellij.openapi.application.ApplicationInfo;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.module.ModuleUtilCore;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ContentIterator;
+import com.intellij.openapi.roots.ModuleRootManager;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.openapi.util.JDOMUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileVisitor;
+import com.intellij.profile.Profile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import com.intellij.util.io.PersistentHashMap;
+import org.jdom.Element;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent cache of offline results of local inspections. Results of a file are stored as the XML text which is appended to
+ * the per-tool output files and are reused if
+ * <ul>
+ * <li>the content of the file is the same,</li>
+ * <li>the inspection profile and the IDE build are the same,</li>
+ * <li>the dependency fingerprint of the module containing the file is the same. It covers content of all files of the module,
+ * of the modules it depends on and of the modules depending on it, and the timestamps and sizes of their library files, because
+ * results of resolve-sensitive tools depend on the former, and results of tools searching for usages depend on the latter.</li>
+ * </ul>
+ * Files outside of these modules (e.g. other modules which only the dependent modules depend on, or files not belonging to any
+ * module) aren't covered, so results of tools looking at them may be stale.
+ * Only files belonging to a module are cached. Results of global tools are computed from the whole scope and aren't cached.
+ */
+public class InspectionResultsCache {
+  private static final Logger LOG = Logger.getInstance("#com.intellij.codeInspection.ex.InspectionResultsCache");
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final int VERSION = 1;
+  private final Project myProject;
+  private final PersistentHashMap<String, FileResults> myStorage;
+  private final byte[] myProfileHash;
+  private final ConcurrentMap<VirtualFile, byte[]> myContentHashes = new ConcurrentHashMap<VirtualFile, byte[]>();
+  // fingerprints are computed once per module, concurrently for different modules
+  private final ConcurrentMap<Module, LazyFingerprint> myOwnFingerprints = new ConcurrentHashMap<Module, LazyFingerprint>();
+  private final ConcurrentMap<Module, LazyFingerprint> myModuleFingerprints = new ConcurrentHashMap<Module, LazyFingerprint>();
+  private final ConcurrentMap<VirtualFile, Recording> myRecordings = new ConcurrentHashMap<VirtualFile, Recording>();
+  private final AtomicInteger myHits = new AtomicInteger();
+  private final AtomicInteger myMisses = new AtomicInteger();
+
+  private InspectionResultsCache(@NotNull Project project, @NotNull PersistentHashMap<String, FileResults> storage, @NotNull byte[] profileHash) {
+    myProject = project;
+    myStorage = storage;
+    myProfileHash = profileHash;
+  }
+
+  @Nullable
+  public static InspectionResultsCache open(@NotNull File directory, @NotNull Project project, @NotNull Profile profile) {
+    final byte[] profileHash;
+    try {
+      final Element profileElement = new Element("profile");
+      profile.writeExternal(profileElement);
+      final MessageDigest digest = createDigest();
+      digest.update(JDOMUtil.writeElement(profileElement, "\n").getBytes(UTF_8));
+      digest.update(ApplicationInfo.getInstance().getBuild().asString().getBytes(UTF_8));
+      profileHash = digest.digest();
+    }
+    catch (Exception e) {
+      LOG.info("Cannot compute inspection profile hash: " + e.getMessage());
+      return null;
+    }
+
+    final File file = new File(directory, "results." + VERSION);
+    for (int attempt = 0; attempt < 2; attempt++) {
+      try {
+        return new InspectionResultsCache(project, new PersistentHashMap<String, FileResults>(file, new EnumeratorStringDescriptor(), new FileResultsExternalizer()), profileHash);
+      }
+      catch (IOException e) {
+        LOG.info("Cannot open inspection results cache " + file.getPath() + ": " + e.getMessage());
+        PersistentHashMap.deleteFilesStartingWith(file);
+      }
+    }
+    return null;
+  }
+
+  public int getHitCount() {
+    return myHits.get();
+  }
+
+  public int getMissCount() {
+    return myMisses.get();
+  }
+
+  /**
+   * Appends the cached output for {@code file} to the output files if the cached results are up to date. Must be called under
+   * read action.
+   *
+   * @return true if cached results were used and local inspections don't need to run for the file
+   */
+  public boolean restoreResults(@NotNull VirtualFile file) {
+    final String key = getKey(file);
+    final byte[] fingerprint = key == null ? null : computeFingerprint(file);
+    if (fingerprint == null) return false;
+    try {
+      final FileResults results = myStorage.get(key);
+      if (results == null || !Arrays.equals(results.myFingerprint, fingerprint)) {
+        myMisses.incrementAndGet();
+        return false;
+      }
+      for (Map.Entry<String, String> entry : results.myOutput.entrySet()) {
+        DefaultInspectionToolPresentation.appendOfflineOutput(entry.getKey(), entry.getValue());
+      }
+      myHits.incrementAndGet();
+      return true;
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return false;
+    }
+  }
+
+  /**
+   * Starts collecting output which local inspections produce for {@code file}. Must be called for every file inspected while the
+   * cache is used, otherwise output can't be attributed to files reliably.
+   */
+  public void startRecording(@NotNull VirtualFile file) {
+    myRecordings.put(file, new Recording());
+  }
+
+  /**
+   * Stores the output collected since {@link #startRecording} if the file was inspected successfully. Must be called under read
+   * action.
+   */
+  public void finishRecording(@NotNull VirtualFile file, boolean successful) {
+    final Recording recording = myRecordings.remove(file);
+    if (recording == null || !successful || !recording.myValid) return;
+    final String key = getKey(file);
+    final byte[] fingerprint = key == null ? null : computeFingerprint(file);
+    if (fingerprint == null) return;
+    try {
+      synchronized (recording) {
+        myStorage.put(key, new FileResults(fingerprint, recording.myOutput));
+      }
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  /**
+   * Called when output of a local tool is written to an output file.
+   */
+  public void recordOutput(@NotNull RefEntity refEntity, @NotNull String toolShortName, @NotNull String output) {
+    if (myRecordings.isEmpty()) return;
+    final VirtualFile file = getFile(refEntity);
+    final Recording recording = file != null ? myRecordings.get(file) : null;
+    if (recording == null) {
+      // cannot tell which of the inspected files the output belongs to, so nothing which is being recorded can be trusted
+      for (Recording each : myRecordings.values()) {
+        each.myValid = false;
+      }
+      return;
+    }
+    synchronized (recording) {
+      final String previous = recording.myOutput.get(toolShortName);
+      recording.myOutput.put(toolShortName, previous != null ? previous + output : output);
+    }
+  }
+
+  public void close() {
+    try {
+      myStorage.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  @Nullable
+  private VirtualFile getFile(@NotNull RefEntity refEntity) {
+    if (!(refEntity instanceof RefElement)) return null;
+    final PsiElement element = ((RefElement)refEntity).getElement();
+    if (element == null) return null;
+    final PsiFile file = InjectedLanguageManager.getInstance(myProject).getTopLevelFile(element);
+    return file != null ? file.getVirtualFile() : null;
+  }
+
+  @Nullable
+  private String getKey(@NotNull VirtualFile file) {
+    final VirtualFile baseDir = myProject.getBaseDir();
+    final String relativePath = baseDir != null ? VfsUtilCore.getRelativePath(file, baseDir, '/') : null;
+    return relativePath != null ? relativePath : file.getPath();
+  }
+
+  @Nullable
+  private byte[] computeFingerprint(@NotNull VirtualFile file) {
+    final Module module = ModuleUtilCore.findModuleForFile(file, myProject);
+    if (module == null) return null;
+    final byte[] contentHash = getContentHash(file);
+    final byte[] moduleFingerprint = getModuleFingerprint(module);
+    if (contentHash == null || moduleFingerprint == null) return null;
+    final MessageDigest digest = createDigest();
+    digest.update(myProfileHash);
+    digest.update(contentHash);
+    digest.update(moduleFingerprint);
+    return digest.digest();
+  }
+
+  @Nullable
+  private byte[] getModuleFingerprint(@NotNull final Module module) {
+    LazyFingerprint fingerprint = myModuleFingerprints.get(module);
+    if (fingerprint == null) {
+      fingerprint = ConcurrencyUtil.cacheOrGet(myModuleFingerprints, module, new LazyFingerprint() {
+        @Nullable
+        @Override
+        protected byte[] compute() {
+          return computeModuleFingerprint(module);
+        }
+      });
+    }
+    return fingerprint.get();
+  }
+
+  @Nullable
+  private byte[] getOwnFingerprint(@NotNull final Module module) {
+    LazyFingerprint fingerprint = myOwnFingerprints.get(module);
+    if (fingerprint == null) {
+      fingerprint = ConcurrencyUtil.cacheOrGet(myOwnFingerprints, module, new LazyFingerprint() {
+        @Nullable
+        @Override
+        protected byte[] compute() {
+          return computeOwnFingerprint(module);
+        }
+      });
+    }
+    return fingerprint.get();
+  }
+
+  /**
+   * Combines the own fingerprints of the module, of all modules it depends on and of all modules depending on it, so files
+   * of a module shared by many others are hashed once.
+   */
+  @Nullable
+  private byte[] computeModuleFingerprint(@NotNull Module module) {
+    final Set<Module> modules = new HashSet<Module>();
+    ModuleUtilCore.getDependencies(module, modules);
+    // usages of the declarations of the file can only be in the module and in the modules depending on it
+    final Set<Module> dependants = new HashSet<Module>();
+    ModuleUtilCore.collectModulesDependsOn(module, dependants);
+    modules.addAll(dependants);
+    final List<Module> sortedModules = new ArrayList<Module>(modules);
+    Collections.sort(sortedModules, new Comparator<Module>() {
+      @Override
+      public int compare(Module o1, Module o2) {
+        return o1.getName().compareTo(o2.getName());
+      }
+    });
+
+    final MessageDigest digest = createDigest();
+    for (Module dependency : sortedModules) {
+      final byte[] fingerprint = getOwnFingerprint(dependency);
+      if (fingerprint == null) return null;
+      digest.update(fingerprint);
+    }
+    return digest.digest();
+  }
+
+  /**
+   * Covers content of the files of the module and the libraries and SDK it refers to directly.
+   */
+  @Nullable
+  private byte[] computeOwnFingerprint(@NotNull Module module) {
+    final MessageDigest digest = createDigest();
+    digest.update(module.getName().getBytes(UTF_8));
+    final SortedMap<String, VirtualFile> files = new TreeMap<String, VirtualFile>();
+    ModuleRootManager.getInstance(module).getFileIndex().iterateContent(new ContentIterator() {
+      @Override
+      public boolean processFile(VirtualFile fileOrDir) {
+        if (!fileOrDir.isDirectory()) {
+          files.put(fileOrDir.getPath(), fileOrDir);
+        }
+        return true;
+      }
+    });
+    for (VirtualFile file : files.values()) {
+      final String key = getKey(file);
+      final byte[] hash = getContentHash(file);
+      if (key == null || hash == null) return null;
+      digest.update(key.getBytes(UTF_8));
+      digest.update(hash);
+    }
+
+    // output directories of modules aren't included, their sources are covered above
+    for (VirtualFile root : OrderEnumerator.orderEntries(module).withoutDepModules().withoutModuleSourceEntries().classes().getRoots()) {
+      digest.update(root.getUrl().getBytes(UTF_8));
+      final VirtualFile jarFile = VfsUtilCore.getVirtualFileForJar(root);
+      if (jarFile != null) {
+        updateWithStamp(digest, jarFile);
+      }
+      else {
+        VfsUtilCore.visitChildrenRecursively(root, new VirtualFileVisitor() {
+          @Override
+          public boolean visitFile(@NotNull VirtualFile file) {
+            if (!file.isDirectory()) {
+              digest.update(file.getPath().getBytes(UTF_8));
+              updateWithStamp(digest, file);
+            }
+            return true;
+          }
+        });
+      }
+    }
+    return digest.digest();
+  }
+
+  private static void updateWithStamp(@NotNull MessageDigest digest, @NotNull VirtualFile file) {
+    digest.update((file.getTimeStamp() + ":" + file.getLength()).getBytes(UTF_8));
+  }
+
+  @Nullable
+  private byte[] getContentHash(@NotNull VirtualFile file) {
+    byte[] hash = myContentHashes.get(file);
+    if (hash == null) {
+      try {
+        final MessageDigest digest = createDigest();
+        hash = digest.digest(file.contentsToByteArray());
+      }
+      catch (IOException e) {
+        return null;
+      }
+      myContentHashes.put(file, hash);
+    }
+    return hash;
+  }
+
+  @NotNull
+  private static MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private abstract static class LazyFingerprint {
+    private boolean myComputed;
+    private byte[] myFingerprint;
+
+    @Nullable
+    public synchronized byte[] get() {
+      if (!myComputed) {
+        myFingerprint = compute();
+        myComputed = true;
+      }
+      return myFingerprint;
+    }
+
+    @Nullable
+    protected abstract byte[] compute();
+  }
+
+  private static class Recording {
+    private final Map<String, String> myOutput = new TreeMap<String, String>();
+    private volatile boolean myValid = true;
+  }
+
+  private static class FileResults {
+    private final byte[] myFingerprint;
+    private final Map<String, String> myOutput;
+
+    private FileResults(@NotNull byte[] fingerprint, @NotNull Map<String, String> output) {
+      myFingerprint = fingerprint;
+      myOutput = output;
+    }
+  }
+
+  private static class FileResultsExternalizer implements DataExternalizer<FileResults> {
+    @Override
+    public void save(DataOutput out, FileResults value) throws IOException {
+      out.writeInt(value.myFingerprint.length);
+      out.write(value.myFingerprint);
+      out.writeInt(value.myOutput.size());
+      for (Map.Entry<String, String> entry : value.myOutput.entrySet()) {
+        out.writeUTF(entry.getKey());
+        IOUtil.writeString(entry.getValue(), out);
+      }
+    }
+
+    @Override
+    public FileResults read(DataInput in) throws IOException {
+      final byte[] fingerprint = new byte[in.readInt()];
+      in.readFully(fingerprint);
+      final int count = in.readInt();
+      final Map<String, String> output = new TreeMap<String, String>();
+      for (int i = 0; i < count; i++) {
+        final String toolName = in.readUTF();
+        output.put(toolName, IOUtil.readString(in));
+      }
+      return new FileResults(fingerprint, output);
+    }
+  }
+}
@@ -247,26 +247,49 @@ public class DefaultInspectionToolPresentation implements ProblemDescriptionsPro
     exportResults(descriptions, refElement, parentNode);
     final List list = parentNode.getChildren();
 
-    @NonNls final String ext = ".xml";
-    final String fileName = ourOutputPath + File.separator + myToolWrapper.getShortName() + ext;
     final PathMacroManager pathMacroManager = PathMacroManager.getInstance(getContext().getProject());
-    PrintWriter printWriter = null;
+    final CharArrayWriter writer = new CharArrayWriter();
+    writer.append("\n");
     try {
-      new File(ourOutputPath).mkdirs();
-      final File file = new File(fileName);
-      final CharArrayWriter writer = new CharArrayWriter();
-      if (!file.exists()) {
-        writer.append("<").append(InspectionsBundle.message("inspection.problems")).append(" " + GlobalInspectionContextImpl.LOCAL_TOOL_ATTRIBUTE + "=\"")
-          .append(Boolean.toString(myToolWrapper instanceof LocalInspectionToolWrapper)).append("\">\n");
-      }
       for (Object o : list) {
         final Element element = (Element)o;
         pathMacroManager.collapsePaths(element);
         JDOMUtil.writeElement(element, writer, "\n");
       }
-      printWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName, true), "UTF-8")));
-      printWriter.append("\n");
-      printWriter.append(writer.toString());
+    }
+    catch (IOException e) {
+      LOG.error(e);
+      return;
+    }
+    final String output = writer.toString();
+    appendOfflineOutput(myToolWrapper.getShortName(), output);
+    final InspectionResultsCache resultsCache = getContext().getOfflineResultsCache();
+    if (resultsCache != null) {
+      resultsCache.recordOutput(refElement, myToolWrapper.getShortName(), output);
+    }
+  }
+
+  /**
+   * Appends exported problems of a local inspection tool to its file in the offline output directory.
+   */
+  public static void appendOfflineOutput(@NotNull String toolShortName, @NotNull String output) {
+    @NonNls final String ext = ".xml";
+    final String fileName = ourOutputPath + File.separator + toolShortName + ext;
+    PrintWriter printWriter = null;
+    try {
+      // files may be inspected concurrently, so checking for the header and appending must not interleave
+      synchronized (lock) {
+        new File(ourOutputPath).mkdirs();
+        final boolean newFile = !new File(fileName).exists();
+        printWriter = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName, true), "UTF-8")));
+        if (newFile) {
+          printWriter.append("<").append(InspectionsBundle.message("inspection.problems")).append(" " + GlobalInspectionContextImpl.LOCAL_TOOL_ATTRIBUTE + "=\"")
+            .append(Boolean.TRUE.toString()).append("\">\n");
+        }
+        printWriter.append(output);
+        printWriter.close();
+        printWriter = null;
+      }
     }
     catch (IOException e) {
       LOG.error(e);
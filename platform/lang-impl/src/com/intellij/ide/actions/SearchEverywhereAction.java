@@ -87,6 +87,7 @@ import com.intellij.ui.components.panels.NonOpaquePanel;
 import com.intellij.ui.popup.AbstractPopup;
 import com.intellij.ui.popup.PopupPositionManager;
 import com.intellij.util.*;
+import com.intellij.util.containers.FList;
 import com.intellij.util.ui.EmptyIcon;
 import com.intellij.util.ui.StatusText;
 import com.intellij.util.ui.UIUtil;
@@ -1646,7 +1647,8 @@ public class SearchEverywhereAction extends AnAction implements CustomComponentA
           }
         }
         else {
-          result = matcher.matches(name) ? new MatchResult(name, matcher.matchingDegree(name), matcher.isStartMatch(name)) : null;
+          FList<TextRange> fragments = matcher.matchingFragments(name);
+          result = fragments != null ? new MatchResult(name, matcher.matchingDegree(name, fragments), MinusculeMatcher.isStartMatch(fragments)) : null;
         }
 
         if (result != null) {
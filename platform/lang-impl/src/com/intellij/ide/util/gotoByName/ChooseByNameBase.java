@@ -139,6 +139,7 @@ public abstract class ChooseByNameBase {
   private static int VISIBLE_LIST_SIZE_LIMIT = 10;
   private int myListSizeIncreasing = 30;
   private int myMaximumListSizeLimit = 30;
+  private static final int PARTIAL_RESULTS_DELAY = 300;
   @NonNls private static final String NOT_FOUND_IN_PROJECT_CARD = "syslib";
   @NonNls private static final String NOT_FOUND_CARD = "nfound";
   @NonNls private static final String CHECK_BOX_CARD = "chkbox";
@@ -941,10 +942,24 @@ public abstract class ChooseByNameBase {
       ((MatcherHolder)cellRenderer).setPatternMatcher(matcher);
     }
 
+    // actions waiting for the list need the complete result, don't show them the first elements found
+    final Consumer<Set<?>> partialCallback = postRunnable != null ? null : new Consumer<Set<?>>() {
+      @Override
+      public void consume(Set<?> elements) {
+        synchronized (myRebuildMutex) {
+          ApplicationManager.getApplication().assertIsDispatchThread();
+          if (checkDisposed() || myListIsUpToDate) {
+            return;
+          }
+          setElementsToList(pos, elements, false);
+          myList.repaint();
+        }
+      }
+    };
     final Runnable request = new Runnable() {
       @Override
       public void run() {
-        scheduleCalcElements(text, myCheckBox.isSelected(), postRunnable == null, modalityState, new Consumer<Set<?>>() {
+        scheduleCalcElements(new CalcElementsThread(text, myCheckBox.isSelected(), new Consumer<Set<?>>() {
           @Override
           public void consume(Set<?> elements) {
             synchronized (myRebuildMutex) {
@@ -953,8 +968,7 @@ public abstract class ChooseByNameBase {
                 return;
               }
 
-              myListIsUpToDate = true;
-              setElementsToList(pos, elements);
+              setElementsToList(pos, elements, true);
               myList.repaint();
               chosenElementMightChange();
 
@@ -967,7 +981,7 @@ public abstract class ChooseByNameBase {
               }
             }
           }
-        });
+        }, partialCallback, modalityState, postRunnable == null, false));
       }
     };
 
@@ -1005,9 +1019,19 @@ public abstract class ChooseByNameBase {
     return calcElementsThread;
   }
 
-  private void setElementsToList(int pos, @NotNull Set<?> elements) {
+  /**
+   * @param complete whether {@code elements} is the final result; a postponed OK action is only performed or rejected
+   *                 on the final result, never on the first elements found
+   */
+  void setElementsToList(int pos, @NotNull Set<?> elements, boolean complete) {
     myListUpdater.cancelAll();
     if (checkDisposed()) return;
+    if (complete) {
+      myListIsUpToDate = true;
+    }
+    else if (elements.isEmpty()) {
+      return;
+    }
     if (elements.isEmpty()) {
       myListModel.clear();
       myTextField.setForeground(JBColor.red);
@@ -1021,7 +1045,9 @@ public abstract class ChooseByNameBase {
     Object[] newElements = elements.toArray();
     List<ModelDiff.Cmd> commands = ModelDiff.createDiffCmds(myListModel, oldElements, newElements);
     if (commands == null) {
-      myListUpdater.doPostponedOkIfNeeded();
+      if (complete) {
+        myListUpdater.doPostponedOkIfNeeded();
+      }
       return; // Nothing changed
     }
 
@@ -1038,7 +1064,7 @@ public abstract class ChooseByNameBase {
     }
     else {
       showList();
-      myListUpdater.appendToModel(commands, pos);
+      myListUpdater.appendToModel(commands, pos, complete);
     }
   }
 
@@ -1114,7 +1140,7 @@ public abstract class ChooseByNameBase {
       myAlarm.cancelAllRequests();
     }
 
-    public void appendToModel(@NotNull List<ModelDiff.Cmd> commands, final int selectionPos) {
+    public void appendToModel(@NotNull List<ModelDiff.Cmd> commands, final int selectionPos, final boolean complete) {
       myAlarm.cancelAllRequests();
       myCommands.addAll(commands);
 
@@ -1138,7 +1164,7 @@ public abstract class ChooseByNameBase {
           if (!myCommands.isEmpty()) {
             myAlarm.addRequest(this, DELAY);
           }
-          else {
+          else if (complete) {
             doPostponedOkIfNeeded();
           }
           if (!checkDisposed()) {
@@ -1473,7 +1499,10 @@ public abstract class ChooseByNameBase {
     private volatile boolean myCheckboxState;
     private volatile boolean myScopeExpanded;
     private final Consumer<Set<?>> myCallback;
+    @Nullable private final Consumer<Set<?>> myPartialCallback;
     private final ModalityState myModalityState;
+    private long myLastPublishTime;
+    private int myPublishedCount;
 
     private final ProgressIndicator myCancelled = new ProgressIndicatorBase();
     private final boolean myCanCancel;
@@ -1483,9 +1512,22 @@ public abstract class ChooseByNameBase {
                        Consumer<Set<?>> callback,
                        @NotNull ModalityState modalityState,
                        boolean canCancel, boolean scopeExpanded) {
+      this(pattern, checkboxState, callback, null, modalityState, canCancel, scopeExpanded);
+    }
+
+    /**
+     * @param partialCallback receives the elements found so far while the search is slow, then {@code callback} gets all of them
+     */
+    CalcElementsThread(String pattern,
+                       boolean checkboxState,
+                       Consumer<Set<?>> callback,
+                       @Nullable Consumer<Set<?>> partialCallback,
+                       @NotNull ModalityState modalityState,
+                       boolean canCancel, boolean scopeExpanded) {
       myPattern = pattern;
       myCheckboxState = checkboxState;
       myCallback = callback;
+      myPartialCallback = partialCallback;
       myModalityState = modalityState;
       myCanCancel = canCancel;
       myScopeExpanded = scopeExpanded;
@@ -1494,12 +1536,14 @@ public abstract class ChooseByNameBase {
     private final Alarm myShowCardAlarm = new Alarm();
 
     private void scheduleRestart() {
-      scheduleCalcElements(new CalcElementsThread(myPattern, myCheckboxState, myCallback, myModalityState, myCanCancel, myScopeExpanded));
+      scheduleCalcElements(new CalcElementsThread(myPattern, myCheckboxState, myCallback, myPartialCallback, myModalityState, myCanCancel,
+                                                  myScopeExpanded));
     }
 
     @Override
     public void run() {
       showCard(SEARCHING_CARD, 200);
+      myLastPublishTime = System.currentTimeMillis();
 
       ProgressManager.getInstance().runProcess(new Runnable() {
         @Override
@@ -1582,6 +1626,7 @@ public abstract class ChooseByNameBase {
               elements.add(EXTRA_ELEM);
               return false;
             }
+            publishPartialResults(elements);
             return true;
           }
         }
@@ -1605,6 +1650,25 @@ public abstract class ChooseByNameBase {
       }, delay, myModalityState);
     }
 
+    // elements come in their final order, so the list only grows when the rest of them arrives
+    private void publishPartialResults(@NotNull Set<Object> elements) {
+      if (myPartialCallback == null || elements.size() == myPublishedCount) return;
+      long now = System.currentTimeMillis();
+      if (now - myLastPublishTime < PARTIAL_RESULTS_DELAY) return;
+
+      myLastPublishTime = now;
+      myPublishedCount = elements.size();
+      final Set<Object> snapshot = filter(new LinkedHashSet<Object>(elements));
+      ApplicationManager.getApplication().invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          if (!myCancelled.isCanceled()) {
+            myPartialCallback.consume(snapshot);
+          }
+        }
+      }, myModalityState);
+    }
+
     protected boolean isOverflow(@NotNull Set<Object> elementsArray) {
       return elementsArray.size() >= myMaximumListSizeLimit;
     }
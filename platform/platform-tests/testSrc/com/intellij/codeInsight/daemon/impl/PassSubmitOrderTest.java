@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.codeInsight.daemon.impl;
+
+import com.intellij.codeHighlighting.Pass;
+import com.intellij.codeHighlighting.TextEditorHighlightingPass;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.ProperTextRange;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.testFramework.LightPlatformTestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+public class PassSubmitOrderTest extends LightPlatformTestCase {
+  private PsiFile myFile;
+  private Document myDocument;
+  private HighlightingPassStatistics myStatistics;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile = createFile("a.txt", "0123456789\n0123456789\n0123456789\n");
+    myDocument = PsiDocumentManager.getInstance(getProject()).getDocument(myFile);
+    myStatistics = new HighlightingPassStatistics();
+  }
+
+  public void testRestrictedPassGoesBeforeWholeFilePass() {
+    TextEditorHighlightingPass wholeFile = generalPass(0, myDocument.getTextLength(), 1);
+    TextEditorHighlightingPass visiblePart = generalPass(0, 11, 2);
+    assertOrder(visiblePart, wholeFile);
+  }
+
+  public void testCheapPassGoesBeforeExpensiveWholeFilePass() {
+    TextEditorHighlightingPass wholeFile = generalPass(0, myDocument.getTextLength(), 1);
+    TextEditorHighlightingPass cheap = new CheapPass(2);
+    myStatistics.passFinished(wholeFile, 500);
+    myStatistics.passFinished(cheap, 5);
+    assertOrder(cheap, wholeFile);
+  }
+
+  public void testVisibleAreaPassGoesBeforeCheaperPass() {
+    TextEditorHighlightingPass folding = new ExpensivePass(Pass.UPDATE_FOLDING);
+    TextEditorHighlightingPass cheap = new CheapPass(2);
+    myStatistics.passFinished(folding, 500);
+    myStatistics.passFinished(cheap, 5);
+    assertOrder(folding, cheap);
+  }
+
+  public void testPassesOfSameCostAreOrderedById() {
+    assertOrder(new CheapPass(1), new ExpensivePass(2), new CheapPass(3));
+  }
+
+  private void assertOrder(TextEditorHighlightingPass... expected) {
+    List<TextEditorHighlightingPass> passes = new ArrayList<TextEditorHighlightingPass>(Arrays.asList(expected));
+    Collections.reverse(passes);
+    Collections.sort(passes, new Comparator<TextEditorHighlightingPass>() {
+      @Override
+      public int compare(TextEditorHighlightingPass o1, TextEditorHighlightingPass o2) {
+        return PassExecutorService.compareSubmitOrder(o1, o2, myStatistics);
+      }
+    });
+    assertEquals(Arrays.asList(expected), passes);
+  }
+
+  @NotNull
+  private TextEditorHighlightingPass generalPass(int startOffset, int endOffset, int id) {
+    GeneralHighlightingPass pass = new GeneralHighlightingPass(getProject(), myFile, myDocument, startOffset, endOffset, true,
+                                                               new ProperTextRange(startOffset, endOffset), null,
+                                                               HighlightInfoProcessor.getEmpty());
+    pass.setId(id);
+    return pass;
+  }
+
+  private static class CheapPass extends TextEditorHighlightingPass {
+    private CheapPass(int id) {
+      super(getProject(), null);
+      setId(id);
+    }
+
+    @Override
+    public void doCollectInformation(@NotNull ProgressIndicator progress) {
+    }
+
+    @Override
+    public void doApplyInformationToEditor() {
+    }
+  }
+
+  // a different class to keep separate statistics
+  private static class ExpensivePass extends CheapPass {
+    private ExpensivePass(int id) {
+      super(id);
+    }
+  }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.psi.impl.source.resolve;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.*;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.util.ArrayUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResolveCacheSessionTest extends LightPlatformTestCase {
+  private PsiFile myFile;
+  private TestReference myRef;
+  private ProgressIndicator mySessionProgress;
+  private ResolveCache.Session mySession;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    myFile = createFile("a.txt", "text");
+    myRef = new TestReference(myFile);
+    mySessionProgress = new ProgressIndicatorBase();
+    mySessionProgress.start();
+    mySession = ResolveCache.getInstance(getProject()).startSession(myFile, mySessionProgress);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    mySession.finish();
+    super.tearDown();
+  }
+
+  public void testConcurrentResolveIsShared() throws Exception {
+    BlockingResolver resolver = new BlockingResolver();
+    Future<ResolveResult[]> owner = resolveInBackground(resolver, new ProgressIndicatorBase());
+    resolver.awaitStarted();
+    Future<ResolveResult[]> waiter = resolveInBackground(resolver, new ProgressIndicatorBase());
+    // let the second thread find the resolve in flight
+    Thread.sleep(200);
+    resolver.release();
+
+    assertSame(owner.get(), waiter.get());
+    assertEquals(1, resolver.getCallCount());
+    assertEquals(1, mySession.getReusedResolveCount());
+  }
+
+  public void testCanceledOwnerFallsBackToOwnResolve() throws Exception {
+    BlockingResolver resolver = new BlockingResolver();
+    ProgressIndicator ownerProgress = new ProgressIndicatorBase();
+    Future<ResolveResult[]> owner = resolveInBackground(resolver, ownerProgress);
+    resolver.awaitStarted();
+    Future<ResolveResult[]> waiter = resolveInBackground(resolver, new ProgressIndicatorBase());
+    Thread.sleep(200);
+    ownerProgress.cancel();
+    resolver.release();
+
+    try {
+      owner.get();
+      fail("The owner must have been canceled");
+    }
+    catch (ExecutionException e) {
+      assertInstanceOf(e.getCause(), ProcessCanceledException.class);
+    }
+    assertNotNull(waiter.get());
+    assertEquals(2, resolver.getCallCount());
+    assertEquals(0, mySession.getReusedResolveCount());
+  }
+
+  public void testThreadWithoutProgressDoesNotWait() throws Exception {
+    BlockingResolver resolver = new BlockingResolver();
+    Future<ResolveResult[]> owner = resolveInBackground(resolver, new ProgressIndicatorBase());
+    resolver.awaitStarted();
+    try {
+      // the owner is still blocked, so this can only complete by resolving on its own
+      assertNotNull(resolveInBackground(resolver, null).get(10, TimeUnit.SECONDS));
+    }
+    finally {
+      resolver.release();
+    }
+    assertNotNull(owner.get());
+    assertEquals(2, resolver.getCallCount());
+    assertEquals(0, mySession.getReusedResolveCount());
+  }
+
+  public void testStoppedSessionIsNotShared() throws Exception {
+    mySessionProgress.stop();
+    BlockingResolver resolver = new BlockingResolver();
+    Future<ResolveResult[]> owner = resolveInBackground(resolver, new ProgressIndicatorBase());
+    resolver.awaitStarted();
+    try {
+      assertNotNull(resolveInBackground(resolver, new ProgressIndicatorBase()).get(10, TimeUnit.SECONDS));
+    }
+    finally {
+      resolver.release();
+    }
+    assertNotNull(owner.get());
+    assertEquals(2, resolver.getCallCount());
+    assertEquals(0, mySession.getReusedResolveCount());
+  }
+
+  @NotNull
+  private Future<ResolveResult[]> resolveInBackground(@NotNull final BlockingResolver resolver, @Nullable final ProgressIndicator progress) {
+    return ApplicationManager.getApplication().executeOnPooledThread(new Callable<ResolveResult[]>() {
+      @Override
+      public ResolveResult[] call() throws Exception {
+        final Ref<ResolveResult[]> result = Ref.create();
+        Runnable resolve = new Runnable() {
+          @Override
+          public void run() {
+            result.set(ApplicationManager.getApplication().runReadAction(new Computable<ResolveResult[]>() {
+              @Override
+              public ResolveResult[] compute() {
+                return ResolveCache.getInstance(getProject()).resolveWithCaching(myRef, resolver, false, false, myFile);
+              }
+            }));
+          }
+        };
+        if (progress == null) {
+          resolve.run();
+        }
+        else {
+          ProgressManager.getInstance().runProcess(resolve, progress);
+        }
+        return result.get();
+      }
+    });
+  }
+
+  // the first call blocks until released, the others return at once
+  private static class BlockingResolver implements ResolveCache.PolyVariantResolver<TestReference> {
+    private final CountDownLatch myStarted = new CountDownLatch(1);
+    private final CountDownLatch myReleased = new CountDownLatch(1);
+    private final AtomicInteger myCallCount = new AtomicInteger();
+
+    @NotNull
+    @Override
+    public ResolveResult[] resolve(@NotNull TestReference ref, boolean incompleteCode) {
+      if (myCallCount.incrementAndGet() == 1) {
+        myStarted.countDown();
+        try {
+          assertTrue(myReleased.await(10, TimeUnit.SECONDS));
+        }
+        catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      ProgressManager.checkCanceled();
+      return new ResolveResult[]{new PsiElementResolveResult(ref.getElement())};
+    }
+
+    private void awaitStarted() throws InterruptedException {
+      assertTrue(myStarted.await(10, TimeUnit.SECONDS));
+    }
+
+    private void release() {
+      myReleased.countDown();
+    }
+
+    private int getCallCount() {
+      return myCallCount.get();
+    }
+  }
+
+  private static class TestReference extends PsiPolyVariantReferenceBase<PsiFile> {
+    private TestReference(@NotNull PsiFile file) {
+      super(file, new TextRange(0, file.getTextLength()));
+    }
+
+    @NotNull
+    @Override
+    public ResolveResult[] multiResolve(boolean incompleteCode) {
+      throw new UnsupportedOperationException();
+    }
+
+    @NotNull
+    @Override
+    public Object[] getVariants() {
+      return ArrayUtil.EMPTY_OBJECT_ARRAY;
+    }
+  }
+}
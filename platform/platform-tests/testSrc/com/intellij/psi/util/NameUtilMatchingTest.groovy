@@ -508,6 +508,15 @@ public class NameUtilMatchingTest extends UsefulTestCase {
     assertPreference("inse", "InstrumentationError", "intSet", NameUtil.MatchingCaseSensitivity.NONE);
   }
 
+  public void testMatchingDegreeFromFragments() {
+    MinusculeMatcher matcher = NameUtil.buildMatcher("*CoTe", NameUtil.MatchingCaseSensitivity.NONE)
+    for (String name : ["JsfCompletionTest", "CompletionTest", "NameUtilTest"]) {
+      def fragments = matcher.matchingFragments(name)
+      assertEquals(name, matcher.matchingDegree(name), matcher.matchingDegree(name, fragments))
+      assertEquals(name, matcher.isStartMatch(name), fragments != null && MinusculeMatcher.isStartMatch(fragments))
+    }
+  }
+
   public void testPreferAdjacentWords() {
     assertPreference("*psfi", "PsiJavaFileBaseImpl", "PsiFileImpl", NameUtil.MatchingCaseSensitivity.NONE);
   }
@@ -647,6 +656,26 @@ public class NameUtilMatchingTest extends UsefulTestCase {
     }).cpuBound().assertTiming()
   }
 
+  public void testManyNamesWithOtherFirstLetterPerformance() {
+    final List<String> names = new ArrayList<String>();
+    for (int i = 0; i < 500000; i++) {
+      names.add("BCDEFGHIJKLMNOPQRSTUVWXYZ"[i % 25] + "ameUtil" + i + "Test")
+    }
+    final MinusculeMatcher matcher = NameUtil.buildMatcher("AUT", NameUtil.MatchingCaseSensitivity.NONE)
+
+    PlatformTestUtil.startPerformanceTest("Matcher doesn't reject names by the first letter", 300, new ThrowableRunnable() {
+      @Override
+      @CompileStatic
+      public void run() {
+        for (int i = 0; i < 10; i++) {
+          for (String name : names) {
+            assertFalse(name, matcher.matches(name));
+          }
+        }
+      }
+    }).cpuBound().assertTiming()
+  }
+
   public void testOnlyUnderscoresPerformance() {
     PlatformTestUtil.startPerformanceTest("Matcher is exponential", 300, new ThrowableRunnable() {
       @Override
@@ -137,7 +137,14 @@ public class MinusculeMatcher implements Matcher {
   }
 
   public int matchingDegree(@NotNull String name) {
-    FList<TextRange> iterable = matchingFragments(name);
+    return matchingDegree(name, matchingFragments(name));
+  }
+
+  /**
+   * Computes the degree from the fragments already obtained via {@link #matchingFragments(String)}, so that callers needing both
+   * the match check and the degree for many names match each of them only once.
+   */
+  public int matchingDegree(@NotNull String name, @Nullable FList<TextRange> iterable) {
     if (iterable == null) return Integer.MIN_VALUE;
     if (iterable.isEmpty()) return 0;
 
@@ -195,25 +202,26 @@ public class MinusculeMatcher implements Matcher {
 
   public boolean isStartMatch(@NotNull String name) {
     Iterable<TextRange> fragments = matchingFragments(name);
-    if (fragments != null) {
-      Iterator<TextRange> iterator = fragments.iterator();
-      if (!iterator.hasNext() || iterator.next().getStartOffset() == 0) {
-        return true;
-      }
-    }
-    return false;
+    return fragments != null && isStartMatch(fragments);
+  }
+
+  public static boolean isStartMatch(@NotNull Iterable<TextRange> fragments) {
+    Iterator<TextRange> iterator = fragments.iterator();
+    return !iterator.hasNext() || iterator.next().getStartOffset() == 0;
   }
 
   @Override
   public boolean matches(@NotNull String name) {
-    // optimisation: name too short for this pattern
-    if (!myHasWildCards && name.length() < myPattern.length) return false;
-
     return matchingFragments(name) != null;
   }
 
   @Nullable
   public FList<TextRange> matchingFragments(@NotNull String name) {
+    // optimisation: name too short for this pattern
+    if (!myHasWildCards && name.length() < myPattern.length) return null;
+    // without a leading wildcard the pattern is anchored at the name start, which rejects most names in a long list cheaply
+    if (myPattern.length > 0 && !isWildcard(0) && !isFirstCharMatching(name, 0, 0)) return null;
+
     MatchingState state = myMatchingState.get();
     state.initializeState(name);
     try {
@@ -30,6 +30,8 @@ import java.util.ArrayList;
  */
 public class Diff {
   private static final Logger LOG = Logger.getInstance("#com.intellij.util.diff.Diff");
+  // bigger inputs are compared by HistogramDiff: IntLCS needs O(N * D) time and may run out of its buffer
+  private static final int MAX_LCS_SIZE = 20000;
 
   @Nullable
   public static Change buildChanges(@NotNull CharSequence before, @NotNull CharSequence after) throws FilesTooBigForDiffException {
@@ -52,15 +54,31 @@ public class Diff {
     Enumerator<T> enumerator = new Enumerator<T>(objects1.length + objects2.length, ContainerUtil.<T>canonicalStrategy());
     int[] ints1 = enumerator.enumerate(objects1, startShift, endCut);
     int[] ints2 = enumerator.enumerate(objects2, startShift, endCut);
+    if (ints1.length + ints2.length > MAX_LCS_SIZE) {
+      return buildHistogramChanges(ints1, ints2, startShift);
+    }
     Reindexer reindexer = new Reindexer();
     int[][] discarded = reindexer.discardUnique(ints1, ints2);
     IntLCS intLCS = new IntLCS(discarded[0], discarded[1]);
-    intLCS.execute();
+    try {
+      intLCS.execute();
+    }
+    catch (FilesTooBigForDiffException e) {
+      LOG.debug("Too many differences for the exact diff, using the histogram diff", e);
+      return buildHistogramChanges(ints1, ints2, startShift);
+    }
     ChangeBuilder builder = new ChangeBuilder(startShift);
     reindexer.reindex(intLCS.getPaths(), builder);
     return builder.getFirstChange();
   }
 
+  @Nullable
+  private static Change buildHistogramChanges(@NotNull int[] ints1, @NotNull int[] ints2, int startShift) {
+    ChangeBuilder builder = new ChangeBuilder(startShift);
+    new HistogramDiff(ints1, ints2).execute(builder);
+    return builder.getFirstChange();
+  }
+
   private static <T> int getStartShift(final T[] o1, final T[] o2) {
     final int size = Math.min(o1.length, o2.length);
     int idx = 0;
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.util.diff;
+
+import gnu.trove.TIntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Patience and histogram diff. A region of the sequences is split by the elements occurring exactly once in both of its parts:
+ * the longest sequence of them which is in the same order in both parts is matched (patience diff). If there are no such elements,
+ * the region is split by the longest common region around the element occurring least often in the first part (histogram diff).
+ * The resulting smaller regions are processed the same way.
+ * <p/>
+ * Regions where all common elements occur too often are passed to the linear space Myers algorithm, limited by
+ * {@link #MAX_MYERS_COST} edits; if the limit is exceeded, the region is reported as changed entirely. Therefore, unlike {@link IntLCS},
+ * the time and memory needed are nearly linear, and the diff of big inputs is always built.
+ */
+class HistogramDiff {
+  private static final int MAX_CHAIN_LENGTH = 64;
+  private static final int MAX_MYERS_COST = 256;
+
+  private final int[] myFirst;
+  private final int[] mySecond;
+  private final boolean[] myChanges1;
+  private final boolean[] myChanges2;
+
+  // histogram of the current region of the first sequence: the last occurrence, the number of occurrences and the previous occurrence
+  private final int[] myLastOccurrence;
+  private final int[] myOccurrenceCount;
+  private final int[] myPrevOccurrence;
+  // the number of occurrences in the current region of the second sequence
+  private final int[] myOccurrenceCount2;
+
+  // Myers' furthest reaching paths, forward and backward
+  private final int[] myForward = new int[2 * MAX_MYERS_COST + 3];
+  private final int[] myBackward = new int[2 * MAX_MYERS_COST + 3];
+
+  /**
+   * @param first  ids of the elements, non-negative
+   * @param second ids of the elements, non-negative
+   */
+  public HistogramDiff(int[] first, int[] second) {
+    myFirst = first;
+    mySecond = second;
+    myChanges1 = new boolean[first.length];
+    myChanges2 = new boolean[second.length];
+    Arrays.fill(myChanges1, true);
+    Arrays.fill(myChanges2, true);
+
+    int maxId = 0;
+    for (int id : first) maxId = Math.max(maxId, id);
+    for (int id : second) maxId = Math.max(maxId, id);
+    myLastOccurrence = new int[maxId + 1];
+    myOccurrenceCount = new int[maxId + 1];
+    myPrevOccurrence = new int[first.length];
+    myOccurrenceCount2 = new int[maxId + 1];
+    Arrays.fill(myLastOccurrence, -1);
+  }
+
+  public void execute(LCSBuilder builder) {
+    TIntArrayList regions = new TIntArrayList();
+    addRegion(regions, 0, myFirst.length, 0, mySecond.length);
+    while (!regions.isEmpty()) {
+      int size = regions.size();
+      int end2 = regions.remove(size - 1);
+      int start2 = regions.remove(size - 2);
+      int end1 = regions.remove(size - 3);
+      int start1 = regions.remove(size - 4);
+      diffRegion(regions, start1, end1, start2, end2);
+    }
+    Reindexer.buildChanges(myChanges1, myChanges2, builder);
+  }
+
+  private static void addRegion(TIntArrayList regions, int start1, int end1, int start2, int end2) {
+    if (start1 < end1 && start2 < end2) {
+      regions.add(start1);
+      regions.add(end1);
+      regions.add(start2);
+      regions.add(end2);
+    }
+  }
+
+  private void diffRegion(TIntArrayList regions, int start1, int end1, int start2, int end2) {
+    while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+      markEqual(start1++, start2++, 1);
+    }
+    while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+      markEqual(--end1, --end2, 1);
+    }
+    if (start1 == end1 || start2 == end2) return;
+
+    for (int i = end1 - 1; i >= start1; i--) {
+      int id = myFirst[i];
+      myPrevOccurrence[i] = myLastOccurrence[id];
+      myLastOccurrence[id] = i;
+      myOccurrenceCount[id]++;
+    }
+
+    boolean split = splitByUniqueElements(regions, start1, end1, start2, end2) || splitByRareElement(regions, start1, end1, start2, end2);
+
+    for (int i = start1; i < end1; i++) {
+      myLastOccurrence[myFirst[i]] = -1;
+      myOccurrenceCount[myFirst[i]] = 0;
+    }
+    if (!split) {
+      myers(start1, end1, start2, end2);
+    }
+  }
+
+  /**
+   * Patience diff step: matches the longest increasing sequence of the elements which occur once in both parts of the region,
+   * and adds the regions between them.
+   */
+  private boolean splitByUniqueElements(TIntArrayList regions, int start1, int end1, int start2, int end2) {
+    for (int j = start2; j < end2; j++) {
+      myOccurrenceCount2[mySecond[j]]++;
+    }
+    TIntArrayList positions1 = new TIntArrayList();
+    TIntArrayList positions2 = new TIntArrayList();
+    for (int j = start2; j < end2; j++) {
+      int id = mySecond[j];
+      if (myOccurrenceCount[id] == 1 && myOccurrenceCount2[id] == 1) {
+        positions1.add(myLastOccurrence[id]);
+        positions2.add(j);
+      }
+    }
+    for (int j = start2; j < end2; j++) {
+      myOccurrenceCount2[mySecond[j]] = 0;
+    }
+    if (positions1.isEmpty()) return false;
+
+    int[] sequence = longestIncreasingSequence(positions1);
+    int prev1 = start1;
+    int prev2 = start2;
+    for (int index : sequence) {
+      int i = positions1.get(index);
+      int j = positions2.get(index);
+      addRegion(regions, prev1, i, prev2, j);
+      markEqual(i, j, 1);
+      prev1 = i + 1;
+      prev2 = j + 1;
+    }
+    addRegion(regions, prev1, end1, prev2, end2);
+    return true;
+  }
+
+  /**
+   * @return indices of the longest increasing subsequence of the values, in the increasing order
+   */
+  private static int[] longestIncreasingSequence(TIntArrayList values) {
+    int size = values.size();
+    // tails[l] is the index of the smallest value ending an increasing subsequence of length l + 1
+    int[] tails = new int[size];
+    int[] predecessors = new int[size];
+    int length = 0;
+    for (int i = 0; i < size; i++) {
+      int value = values.get(i);
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (values.get(tails[middle]) < value) low = middle + 1;
+        else high = middle;
+      }
+      predecessors[i] = low > 0 ? tails[low - 1] : -1;
+      tails[low] = i;
+      if (low == length) length++;
+    }
+    int[] result = new int[length];
+    for (int i = length - 1, index = tails[length - 1]; i >= 0; i--, index = predecessors[index]) {
+      result[i] = index;
+    }
+    return result;
+  }
+
+  /**
+   * Histogram diff step: matches the longest common region around the element which occurs least often in the first part
+   * (but at most {@link #MAX_CHAIN_LENGTH} times), and adds the regions before and after it.
+   *
+   * @return false if all common elements occur too often, or there are no common elements
+   */
+  private boolean splitByRareElement(TIntArrayList regions, int start1, int end1, int start2, int end2) {
+    int bestCount = MAX_CHAIN_LENGTH + 1;
+    int bestLength = 0;
+    int bestStart1 = -1;
+    int bestStart2 = -1;
+    for (int j = start2; j < end2; ) {
+      int next = j + 1;
+      int id = mySecond[j];
+      int count = myOccurrenceCount[id];
+      if (count != 0 && count <= MAX_CHAIN_LENGTH && count <= bestCount) {
+        for (int i = myLastOccurrence[id]; i != -1; i = myPrevOccurrence[i]) {
+          int s1 = i;
+          int s2 = j;
+          while (s1 > start1 && s2 > start2 && myFirst[s1 - 1] == mySecond[s2 - 1]) {
+            s1--;
+            s2--;
+          }
+          int e1 = i + 1;
+          int e2 = j + 1;
+          while (e1 < end1 && e2 < end2 && myFirst[e1] == mySecond[e2]) {
+            e1++;
+            e2++;
+          }
+          if (count < bestCount || e1 - s1 > bestLength) {
+            bestCount = count;
+            bestLength = e1 - s1;
+            bestStart1 = s1;
+            bestStart2 = s2;
+          }
+          // the elements up to e2 are in this common region already, there is no need to look for it again starting from them
+          next = Math.max(next, e2);
+        }
+      }
+      j = next;
+    }
+    if (bestLength == 0) return false;
+
+    markEqual(bestStart1, bestStart2, bestLength);
+    addRegion(regions, start1, bestStart1, start2, bestStart2);
+    addRegion(regions, bestStart1 + bestLength, end1, bestStart2 + bestLength, end2);
+    return true;
+  }
+
+  private void myers(int start1, int end1, int start2, int end2) {
+    while (start1 < end1 && start2 < end2 && myFirst[start1] == mySecond[start2]) {
+      markEqual(start1++, start2++, 1);
+    }
+    while (start1 < end1 && start2 < end2 && myFirst[end1 - 1] == mySecond[end2 - 1]) {
+      markEqual(--end1, --end2, 1);
+    }
+    if (start1 == end1 || start2 == end2) return;
+
+    int[] snake = findMiddleSnake(start1, end1, start2, end2);
+    if (snake == null) return; // too many changes: leave the whole region changed
+
+    int snakeStart1 = snake[0];
+    int snakeStart2 = snake[1];
+    int snakeLength = snake[2];
+    markEqual(snakeStart1, snakeStart2, snakeLength);
+    myers(start1, snakeStart1, start2, snakeStart2);
+    myers(snakeStart1 + snakeLength, end1, snakeStart2 + snakeLength, end2);
+  }
+
+  /**
+   * @return start of the middle snake in both sequences and its length, or null if the shortest edit script is longer than allowed
+   */
+  private int[] findMiddleSnake(int start1, int end1, int start2, int end2) {
+    int n = end1 - start1;
+    int m = end2 - start2;
+    int delta = n - m;
+    boolean odd = (delta & 1) != 0;
+    int maxD = Math.min((n + m + 1) / 2, MAX_MYERS_COST);
+    int offset = MAX_MYERS_COST + 1;
+    myForward[offset + 1] = 0;
+    myBackward[offset + 1] = 0;
+
+    for (int d = 0; d <= maxD; d++) {
+      for (int k = -d; k <= d; k += 2) {
+        int x = k == -d || k != d && myForward[offset + k - 1] < myForward[offset + k + 1]
+                ? myForward[offset + k + 1] : myForward[offset + k - 1] + 1;
+        int y = x - k;
+        int snakeStart = x;
+        while (x < n && y < m && myFirst[start1 + x] == mySecond[start2 + y]) {
+          x++;
+          y++;
+        }
+        myForward[offset + k] = x;
+        if (odd && k >= delta - (d - 1) && k <= delta + (d - 1) && x + myBackward[offset + delta - k] >= n) {
+          return new int[]{start1 + snakeStart, start2 + snakeStart - k, x - snakeStart};
+        }
+      }
+      for (int k = -d; k <= d; k += 2) {
+        int x = k == -d || k != d && myBackward[offset + k - 1] < myBackward[offset + k + 1]
+                ? myBackward[offset + k + 1] : myBackward[offset + k - 1] + 1;
+        int y = x - k;
+        int snakeStart = x;
+        while (x < n && y < m && myFirst[end1 - 1 - x] == mySecond[end2 - 1 - y]) {
+          x++;
+          y++;
+        }
+        myBackward[offset + k] = x;
+        if (!odd && delta - k >= -d && delta - k <= d && x + myForward[offset + delta - k] >= n) {
+          return new int[]{end1 - x, end2 - y, x - snakeStart};
+        }
+      }
+    }
+    return null;
+  }
+
+  private void markEqual(int start1, int start2, int length) {
+    Arrays.fill(myChanges1, start1, start1 + length, false);
+    Arrays.fill(myChanges2, start2, start2 + length, false);
+  }
+}
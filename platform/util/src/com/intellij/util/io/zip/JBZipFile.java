@@ -25,10 +25,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.zip.ZipException;
 
 /**
@@ -67,6 +64,8 @@ public class JBZipFile {
   private static final int POS_1 = 1;
   private static final int POS_2 = 2;
   private static final int POS_3 = 3;
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
 
   /**
    * Maps ZipEntrys to Longs, recording the offsets of the local
@@ -96,6 +95,12 @@ public class JBZipFile {
   private JBZipOutputStream myOutputStream;
   private long currentcfdfoffset = 0;
 
+  /**
+   * Offset of the first local file header, data before it (e.g. a preamble of a self-extracting archive) isn't touched by compaction.
+   */
+  private long myDataStart = 0;
+  private boolean myHasErasedEntries;
+
   /**
    * Opens the given file for reading, assuming the platform's
    * native encoding for file names.
@@ -180,7 +185,10 @@ public class JBZipFile {
         final JBZipEntry empty = getOrCreateEntry("/empty.file.marker");
         myOutputStream.putNextEntryBytes(empty, "empty".getBytes());
       }
-      
+      if (myHasErasedEntries) {
+        compact();
+      }
+
       myOutputStream.finish();
       archive.setLength(myOutputStream.written);
     }
@@ -246,6 +254,7 @@ public class JBZipFile {
    */
   private void populateFromCentralDirectory() throws IOException {
     positionAtCentralDirectory();
+    myDataStart = currentcfdfoffset;
 
     byte[] cfh = new byte[CFH_LEN];
 
@@ -322,6 +331,7 @@ public class JBZipFile {
 
       nameMap.put(ze.getName(), ze);
       entries.add(ze);
+      myDataStart = Math.min(myDataStart, localHeaderOffset);
 
       archive.readFully(signatureBytes);
       sig = ZipLong.getValue(signatureBytes);
@@ -443,10 +453,79 @@ public class JBZipFile {
     }
   }
 
+  /**
+   * Removes the entry from the central directory. Its data stays in the file until the archive is closed, then data of all erased
+   * entries is reclaimed in a single compaction pass.
+   */
   public void eraseEntry(JBZipEntry entry) throws IOException {
     getOutputStream(); // Ensure OutputStream created, so we'll print out central directory at the end;
     entries.remove(entry);
     nameMap.remove(entry.getName());
+    myHasErasedEntries = true;
+  }
+
+  /**
+   * Moves local records of the remaining entries towards the beginning of the file over the space left by erased entries and by
+   * previous versions of replaced entries. Records are processed in the order of their offsets, so each one is moved at most once.
+   */
+  private void compact() throws IOException {
+    myOutputStream.flushBuffer();
+    final List<JBZipEntry> sorted = new ArrayList<JBZipEntry>(entries);
+    Collections.sort(sorted, new Comparator<JBZipEntry>() {
+      @Override
+      public int compare(JBZipEntry o1, JBZipEntry o2) {
+        final long diff = o1.getHeaderOffset() - o2.getHeaderOffset();
+        return diff < 0 ? -1 : diff > 0 ? 1 : 0;
+      }
+    });
+
+    final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    long position = myDataStart;
+    for (JBZipEntry entry : sorted) {
+      final long offset = entry.getHeaderOffset();
+      final long length = getLocalRecordLength(entry);
+      if (offset > position) {
+        moveData(offset, position, length, buffer);
+        entry.setHeaderOffset(position);
+      }
+      position = entry.getHeaderOffset() + length;
+    }
+    myOutputStream.setPosition(position);
+  }
+
+  /**
+   * @return length of the local file header, the entry data and the data descriptor following it if any
+   */
+  private long getLocalRecordLength(JBZipEntry entry) throws IOException {
+    final long offset = entry.getHeaderOffset();
+    final byte[] header = new byte[(int)LFH_OFFSET_FOR_FILENAME_LENGTH + WORD];
+    archive.seek(offset);
+    archive.readFully(header);
+    final int flag = ZipShort.getValue(header, WORD + SHORT);
+    final int fileNameLen = ZipShort.getValue(header, (int)LFH_OFFSET_FOR_FILENAME_LENGTH);
+    final int extraFieldLen = ZipShort.getValue(header, (int)LFH_OFFSET_FOR_FILENAME_LENGTH + SHORT);
+    long length = header.length + fileNameLen + extraFieldLen + entry.getCompressedSize();
+    if ((flag & DATA_DESCRIPTOR_FLAG) != 0) {
+      // crc and sizes follow the data, optionally preceded by a signature
+      final byte[] signature = new byte[WORD];
+      archive.seek(offset + length);
+      archive.readFully(signature);
+      length += ZipLong.getValue(signature) == ZipLong.getValue(JBZipOutputStream.DD_SIG) ? 4 * WORD : 3 * WORD;
+    }
+    return length;
+  }
+
+  private void moveData(long from, long to, long length, byte[] buffer) throws IOException {
+    while (length > 0) {
+      final int count = (int)Math.min(buffer.length, length);
+      archive.seek(from);
+      archive.readFully(buffer, 0, count);
+      archive.seek(to);
+      archive.write(buffer, 0, count);
+      from += count;
+      to += count;
+      length -= count;
+    }
   }
 
   JBZipOutputStream getOutputStream() throws IOException {
@@ -200,6 +200,11 @@ class JBZipOutputStream {
    */
   protected static final byte[] EOCD_SIG = ZipLong.getBytes(0X06054B50L);
 
+  /**
+   * data descriptor signature
+   */
+  static final byte[] DD_SIG = ZipLong.getBytes(0X08074B50L);
+
   /**
    * Writes the local file header entry
    *
@@ -378,11 +383,20 @@ class JBZipOutputStream {
     written += length;
   }
 
-  private void flushBuffer() throws IOException {
+  void flushBuffer() throws IOException {
     raf.write(myBuffer.getInternalBuffer(), 0, myBuffer.size());
     myBuffer.reset();
   }
 
+  /**
+   * Continues writing from the given position, data after it is overwritten.
+   */
+  void setPosition(long position) throws IOException {
+    flushBuffer();
+    written = position;
+    raf.seek(position);
+  }
+
   public void putNextEntryBytes(JBZipEntry entry, byte[] bytes) throws IOException {
     entry.setSize(bytes.length);
 
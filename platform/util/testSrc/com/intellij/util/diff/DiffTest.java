@@ -16,9 +16,12 @@
 package com.intellij.util.diff;
 
 import com.intellij.util.ArrayUtil;
+import gnu.trove.TIntArrayList;
 import junit.framework.TestCase;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
  * @author dyoma
@@ -85,4 +88,122 @@ public class DiffTest extends TestCase {
     System.out.println("Duration: " +(System.currentTimeMillis() - start));
   }
 
+  public void testBigInput() throws FilesTooBigForDiffException {
+    ArrayList<String> first = new ArrayList<String>();
+    ArrayList<String> second = new ArrayList<String>();
+    int max = 200000;
+    for (int i = 0; i < max; i++) {
+      first.add(Integer.toString(i % 1000));
+      second.add(i % 997 == 0 ? "changed" + i : Integer.toString(i % 1000));
+    }
+    Diff.Change change = Diff.buildChanges(first.toArray(), second.toArray());
+    int count = 0;
+    for (; change != null; change = change.link) {
+      assertEquals(1, change.deleted);
+      assertEquals(1, change.inserted);
+      assertEquals(change.line0, change.line1);
+      assertEquals(0, change.line0 % 997);
+      count++;
+    }
+    assertEquals((max + 996) / 997, count);
+  }
+
+  public void testRandomRepetitiveInput() throws FilesTooBigForDiffException {
+    // big inputs of few distinct elements: the histogram diff falls back to Myers' algorithm, which often runs out of its edit limit
+    for (int seed = 0; seed < 20; seed++) {
+      Random random = new Random(seed);
+      int[] first = randomSequence(random, 11000 + random.nextInt(2000), 2 + random.nextInt(20));
+      int[] second = randomEdits(random, first, 1 + random.nextInt(3000));
+      checkChanges("seed " + seed, first, second, Diff.buildChanges(toObjects(first), toObjects(second)));
+    }
+  }
+
+  public void testHistogramDiffWithinEditLimit() {
+    for (int seed = 0; seed < 50; seed++) {
+      Random random = new Random(seed);
+      int[] first = randomSequence(random, 300, 2);
+      int edits = 1 + random.nextInt(20);
+      int[] second = randomEdits(random, first, edits);
+      Diff.Change change = buildHistogramChanges(first, second);
+      checkChanges("seed " + seed, first, second, change);
+      // each edit deletes and inserts an element at most, so Myers' algorithm finds a script as short
+      assertTrue("seed " + seed, countEdits(change) <= 2 * edits);
+    }
+  }
+
+  public void testHistogramDiffOverEditLimit() {
+    for (int seed = 0; seed < 20; seed++) {
+      Random random = new Random(seed);
+      int[] first = randomSequence(random, 2000, 2);
+      int[] second = randomSequence(random, 2000, 2);
+      checkChanges("seed " + seed, first, second, buildHistogramChanges(first, second));
+    }
+  }
+
+  private static Diff.Change buildHistogramChanges(int[] first, int[] second) {
+    Diff.ChangeBuilder builder = new Diff.ChangeBuilder(0);
+    new HistogramDiff(first, second).execute(builder);
+    return builder.getFirstChange();
+  }
+
+  private static int[] randomSequence(Random random, int length, int distinctCount) {
+    int[] sequence = new int[length];
+    for (int i = 0; i < length; i++) {
+      sequence[i] = random.nextInt(distinctCount);
+    }
+    return sequence;
+  }
+
+  private static int[] randomEdits(Random random, int[] sequence, int count) {
+    TIntArrayList result = new TIntArrayList(sequence);
+    for (int i = 0; i < count; i++) {
+      int index = random.nextInt(result.size() + 1);
+      int kind = index == result.size() ? 0 : random.nextInt(3);
+      if (kind == 0) {
+        result.insert(index, random.nextInt(30));
+      }
+      else if (kind == 1) {
+        result.remove(index);
+      }
+      else {
+        result.set(index, random.nextInt(30));
+      }
+    }
+    return result.toNativeArray();
+  }
+
+  private static Integer[] toObjects(int[] values) {
+    Integer[] objects = new Integer[values.length];
+    for (int i = 0; i < values.length; i++) {
+      objects[i] = values[i];
+    }
+    return objects;
+  }
+
+  private static int countEdits(Diff.Change change) {
+    int count = 0;
+    for (; change != null; change = change.link) {
+      count += change.deleted + change.inserted;
+    }
+    return count;
+  }
+
+  /**
+   * Applies the changes to the first sequence and checks the second one is produced.
+   */
+  private static void checkChanges(String message, int[] first, int[] second, Diff.Change change) {
+    TIntArrayList result = new TIntArrayList();
+    int index = 0;
+    for (; change != null; change = change.link) {
+      assertTrue(message, change.deleted > 0 || change.inserted > 0);
+      assertTrue(message, change.line0 >= index);
+      result.add(first, index, change.line0 - index);
+      assertEquals(message, result.size(), change.line1);
+      result.add(second, change.line1, change.inserted);
+      index = change.line0 + change.deleted;
+    }
+    result.add(first, index, first.length - index);
+    assertTrue(message, Arrays.equals(second, result.toNativeArray()));
+  }
+
 }
@@ -107,6 +107,70 @@ public class UpdateableZipTest extends TestCase {
     assertNull(removedEntry);
     utilZip.close();
   }
+
+  public void testErasedEntriesAreCompacted() throws Exception {
+    File zipFile = FileUtil.createTempFile("test", ".zip");
+    ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zipFile)));
+    for (int i = 0; i < 10; i++) {
+      appendEntry(zos, "/stored" + i, ("stored " + i).getBytes());
+      // deflated entries are written with data descriptors
+      zos.putNextEntry(new ZipEntry("/deflated" + i));
+      zos.write(("deflated " + i).getBytes());
+      zos.closeEntry();
+    }
+    zos.close();
+    long originalLength = zipFile.length();
+
+    JBZipFile jbZip = new JBZipFile(zipFile);
+    for (int i = 0; i < 10; i += 2) {
+      jbZip.getEntry("/stored" + i).erase();
+      jbZip.getEntry("/deflated" + i).erase();
+    }
+    jbZip.getOrCreateEntry("/deflated1").setData("replaced".getBytes());
+    jbZip.close();
+
+    assertTrue(zipFile.length() < originalLength / 2 + 100);
+    ZipFile utilZip = new ZipFile(zipFile);
+    try {
+      assertEquals(10, utilZip.size());
+      for (int i = 0; i < 10; i++) {
+        assertEquals(i % 2 == 0, utilZip.getEntry("/stored" + i) == null);
+        assertEquals(i % 2 == 0, utilZip.getEntry("/deflated" + i) == null);
+      }
+      for (int i = 1; i < 10; i += 2) {
+        assertEntryContent(utilZip, "/stored" + i, "stored " + i);
+        if (i > 1) {
+          assertEntryContent(utilZip, "/deflated" + i, "deflated " + i);
+        }
+      }
+      assertEntryContent(utilZip, "/deflated1", "replaced");
+    }
+    finally {
+      utilZip.close();
+    }
+
+    jbZip = new JBZipFile(zipFile);
+    assertEntryWithContentExists(jbZip, "/stored9", "stored 9");
+    assertEntryWithContentExists(jbZip, "/deflated1", "replaced");
+    jbZip.close();
+    FileUtil.delete(zipFile);
+  }
+
+  public void testEraseAllEntries() throws Exception {
+    File zipFile = createTestUtilZip();
+
+    JBZipFile jbZip = new JBZipFile(zipFile);
+    jbZip.getEntry("/first").erase();
+    jbZip.getEntry("/second").erase();
+    jbZip.close();
+
+    ZipFile utilZip = new ZipFile(zipFile);
+    assertEquals(1, utilZip.size());
+    assertNull(utilZip.getEntry("/first"));
+    assertNull(utilZip.getEntry("/second"));
+    utilZip.close();
+    FileUtil.delete(zipFile);
+  }
   
   /*
   public void testAppendToIdeaJar() throws Exception {
@@ -146,6 +210,12 @@ public class UpdateableZipTest extends TestCase {
     assertEquals(content, text);
   }
 
+  private static void assertEntryContent(ZipFile zip, String entryName, String content) throws IOException {
+    ZipEntry entry = zip.getEntry(entryName);
+    assertNotNull(entryName, entry);
+    assertEquals(content, FileUtil.loadTextAndClose(new InputStreamReader(zip.getInputStream(entry))));
+  }
+
   private void appendEntry(ZipOutputStream zos, String name, byte[] content) throws Exception{
     ZipEntry e = new ZipEntry(name);
     e.setMethod(ZipEntry.STORED);
@@ -449,6 +449,8 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
 
     final boolean wasEverythingDirty = invalidated.isEverythingDirty();
     final List<VcsDirtyScope> scopes = invalidated.getScopes();
+    final long start = System.currentTimeMillis();
+    final String scopeSize = (! LOG.isDebugEnabled()) ? "" : getScopeSize(scopes);
 
     try {
       checkIfDisposed();
@@ -546,7 +548,11 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
     }
     finally {
       myDirtyScopeManager.changesProcessed();
-      
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("refresh procedure took " + (System.currentTimeMillis() - start) + " ms, everything = " + wasEverythingDirty +
+                  ", scope size: " + scopeSize);
+      }
+
       synchronized (myDataLock) {
         myDelayedNotificator.getProxyDispatcher().changeListUpdateDone();
         myChangesViewManager.scheduleRefresh();
@@ -554,6 +560,16 @@ public class ChangeListManagerImpl extends ChangeListManagerEx implements Projec
     }
   }
 
+  private static String getScopeSize(final List<VcsDirtyScope> scopes) {
+    int files = 0;
+    int directories = 0;
+    for (VcsDirtyScope scope : scopes) {
+      files += scope.getDirtyFilesNoExpand().size();
+      directories += scope.getRecursivelyDirtyDirectories().size();
+    }
+    return files + " files, " + directories + " directories recursively";
+  }
+
   private boolean checkScopeIsAllIgnored(VcsInvalidated invalidated) {
     if (! invalidated.isEverythingDirty()) {
       filterOutIgnoredFiles(invalidated.getScopes());
@@ -32,27 +32,36 @@ import java.util.*;
 public class ChangeListsIndexes {
   private final TreeMap<String, FileStatus> myFileToStatus;
   private final Map<String, Pair<VcsKey, VcsRevisionNumber>> myFileToVcs;
+  // indexes this object was copied from: the delta between them is limited to the keys changed in any of them
+  @Nullable private ChangeListsIndexes myBase;
+  // keys added or removed since this object was created
+  private final Set<String> myChangedKeys;
 
   ChangeListsIndexes() {
     myFileToStatus = new TreeMap<String, FileStatus>();
     myFileToVcs = new HashMap<String, Pair<VcsKey, VcsRevisionNumber>>();
+    myChangedKeys = new HashSet<String>();
   }
 
   ChangeListsIndexes(final ChangeListsIndexes idx) {
     myFileToStatus = new TreeMap<String, FileStatus>(idx.myFileToStatus);
     myFileToVcs = new HashMap<String, Pair<VcsKey, VcsRevisionNumber>>(idx.myFileToVcs);
+    myChangedKeys = new HashSet<String>();
+    myBase = idx;
   }
 
   void add(final FilePath file, final FileStatus status, final VcsKey key, VcsRevisionNumber number) {
     final String fileKey = file.getIOFile().getAbsolutePath();
     myFileToStatus.put(fileKey, status);
     myFileToVcs.put(fileKey, Pair.create(key, number));
+    myChangedKeys.add(fileKey);
   }
 
   void remove(final FilePath file) {
     final String fileKey = file.getIOFile().getAbsolutePath();
     myFileToStatus.remove(fileKey);
     myFileToVcs.remove(fileKey);
+    myChangedKeys.add(fileKey);
   }
 
   public FileStatus getStatus(final VirtualFile file) {
@@ -118,11 +127,20 @@ public class ChangeListsIndexes {
    * - paths that are no more changed locally
    * - paths that were and are changed, but base revision has changed (ex. external update)
    * (for RemoteRevisionsCache and annotation listener)
+   *
+   * if the new indexes are a copy of these ones (i.e. the result of a refresh), only the paths changed since the copy was made are
+   * compared, so that refreshing a few dirty files doesn't cost a pass over all the local changes
    */
   public void getDelta(final ChangeListsIndexes newIndexes,
                        final Set<BaseRevision> toRemove,
                        Set<BaseRevision> toAdd,
                        Set<BeforeAfter<BaseRevision>> toModify) {
+    if (newIndexes.myBase == this) {
+      // the copy isn't needed anymore: don't keep the chain of previous indexes in memory
+      newIndexes.myBase = null;
+      getDeltaForChangedKeys(newIndexes, toRemove, toAdd, toModify);
+      return;
+    }
     // this is old
     final Set<String> oldKeySet = new HashSet<String>(myFileToVcs.keySet());
     final Set<String> toRemoveSet = new HashSet<String>(oldKeySet);
@@ -151,6 +169,30 @@ public class ChangeListsIndexes {
     }
   }
 
+  private void getDeltaForChangedKeys(final ChangeListsIndexes newIndexes,
+                                      final Set<BaseRevision> toRemove,
+                                      Set<BaseRevision> toAdd,
+                                      Set<BeforeAfter<BaseRevision>> toModify) {
+    // the old indexes could be modified after the copy was made (by list operations done during the refresh), so their keys count too
+    final Set<String> keys = new HashSet<String>(myChangedKeys);
+    keys.addAll(newIndexes.myChangedKeys);
+    for (String s : keys) {
+      final Pair<VcsKey, VcsRevisionNumber> old = myFileToVcs.get(s);
+      final Pair<VcsKey, VcsRevisionNumber> newOne = newIndexes.myFileToVcs.get(s);
+      if (old == null) {
+        if (newOne != null) {
+          toAdd.add(fromPairAndPath(s, newOne));
+        }
+      }
+      else if (newOne == null) {
+        toRemove.add(fromPairAndPath(s, old));
+      }
+      else if (! old.equals(newOne)) {
+        toModify.add(new BeforeAfter<BaseRevision>(fromPairAndPath(s, old), fromPairAndPath(s, newOne)));
+      }
+    }
+  }
+
   private BaseRevision fromPairAndPath(String s, Pair<VcsKey, VcsRevisionNumber> pair) {
     return new BaseRevision(pair.getFirst(), pair.getSecond(), s);
   }
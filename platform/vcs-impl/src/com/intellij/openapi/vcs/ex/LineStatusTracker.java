@@ -17,6 +17,7 @@ package com.intellij.openapi.vcs.ex;
 
 import com.intellij.openapi.application.Application;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.command.undo.UndoConstants;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
@@ -30,6 +31,8 @@ import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.TextRange;
 import com.intellij.openapi.util.text.StringUtil;
@@ -38,12 +41,14 @@ import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.EditorNotificationPanel;
+import com.intellij.util.Alarm;
 import com.intellij.util.diff.FilesTooBigForDiffException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
@@ -55,6 +60,9 @@ import java.util.ListIterator;
 public class LineStatusTracker {
   private static final Logger LOG = Logger.getInstance("#com.intellij.openapi.vcs.ex.LineStatusTracker");
   private static final Key<CanNotCalculateDiffPanel> PANEL_KEY = new Key<CanNotCalculateDiffPanel>("LineStatusTracker.CanNotCalculateDiffPanel");
+  // bigger changed regions are not diffed on each document change, the whole document is diffed in background instead
+  private static final int MAX_SYNC_DIFF_LINES = 1000;
+  private static final int RECALCULATION_DELAY = 300;
 
   private final Object myLock = new Object();
   // true -> have contents
@@ -78,6 +86,10 @@ public class LineStatusTracker {
   private FileEditorManager myFileEditorManager;
   private final VirtualFile myVirtualFile;
   private boolean myReleased = false;
+  // the ranges are being calculated in background, document changes are not diffed till then; the previous ranges and their
+  // highlighters are kept meanwhile and only shifted by the changes, so the markers don't blink when the base revision is reloaded
+  private boolean myRecalculationPending;
+  private final Alarm myRecalculationAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD);
 
   private LineStatusTracker(final Document document, final Document upToDateDocument, final Project project, final VirtualFile virtualFile) {
     myVirtualFile = virtualFile;
@@ -139,16 +151,92 @@ public class LineStatusTracker {
     myApplication.assertReadAccessAllowed();
 
     synchronized (myLock) {
+      myRecalculationPending = true;
+      scheduleRecalculation(0);
+    }
+  }
+
+  /**
+   * Diffs the whole document in a pooled thread and replaces the ranges if the documents haven't changed meanwhile.
+   * Repeated requests are merged: the diff starts after the document hasn't been changed for the given delay.
+   */
+  private void scheduleRecalculation(int delay) {
+    synchronized (myLock) {
+      if (myReleased) return;
+      myRecalculationAlarm.cancelAllRequests();
+      myRecalculationAlarm.addRequest(new Runnable() {
+        @Override
+        public void run() {
+          recalculateRanges();
+        }
+      }, delay);
+    }
+  }
+
+  private void recalculateRanges() {
+    final DocumentsSnapshot snapshot = myApplication.runReadAction(new Computable<DocumentsSnapshot>() {
+      @Override
+      public DocumentsSnapshot compute() {
+        synchronized (myLock) {
+          if (myReleased || myBulkUpdate || BaseLoadState.LOADED != myBaseLoaded) return null;
+          return new DocumentsSnapshot(myDocument, myUpToDateDocument);
+        }
+      }
+    });
+    if (snapshot == null) return;
+
+    final List<Range> ranges = calculateRanges(snapshot);
+    myApplication.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        applyRecalculatedRanges(snapshot, ranges);
+      }
+    }, ModalityState.any());
+  }
+
+  /**
+   * Diffs the whole document in the calling thread, instead of waiting for the background recalculation.
+   */
+  private void recalculateRangesNow() {
+    synchronized (myLock) {
+      myRecalculationAlarm.cancelAllRequests();
+      DocumentsSnapshot snapshot = new DocumentsSnapshot(myDocument, myUpToDateDocument);
+      applyRecalculatedRanges(snapshot, calculateRanges(snapshot));
+    }
+  }
+
+  /**
+   * @return null if the diff couldn't be built
+   */
+  @Nullable
+  private static List<Range> calculateRanges(@NotNull DocumentsSnapshot snapshot) {
+    try {
+      return new RangesBuilder(snapshot.myLines, snapshot.myUpToDateLines, 0, 0).getRanges();
+    }
+    catch (FilesTooBigForDiffException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param ranges null if the diff couldn't be built
+   */
+  private void applyRecalculatedRanges(@NotNull DocumentsSnapshot snapshot, @Nullable List<Range> ranges) {
+    synchronized (myLock) {
+      if (myReleased || myBulkUpdate || BaseLoadState.LOADED != myBaseLoaded) return;
+      if (!snapshot.isUpToDate(myDocument, myUpToDateDocument)) {
+        // the documents were changed after the diff has started
+        scheduleRecalculation(RECALCULATION_DELAY);
+        return;
+      }
+      myRecalculationPending = false;
       removeAnathema();
       removeHighlightersFromMarkupModel();
-      try {
-        myRanges = new RangesBuilder(myDocument, myUpToDateDocument).getRanges();
-      }
-      catch (FilesTooBigForDiffException e) {
-        myRanges.clear();
+      if (ranges == null) {
         installAnathema();
         return;
       }
+      myRanges = ranges;
       for (final Range range : myRanges) {
         range.setHighlighter(createHighlighter(range));
       }
@@ -208,6 +296,7 @@ public class LineStatusTracker {
       removeAnathema();
       removeHighlightersFromMarkupModel();
       myReleased = true;
+      Disposer.dispose(myRecalculationAlarm);
     }
   }
 
@@ -305,6 +394,7 @@ public class LineStatusTracker {
           if (StringUtil.endsWithChar(e.getOldFragment(), '\n')) myLastChangedLine++;
 
           myLinesBeforeChange = myDocument.getLineNumber(e.getOffset() + e.getOldLength()) - myDocument.getLineNumber(e.getOffset());
+          if (myRecalculationPending) return;
 
           Range firstChangedRange = getLastRangeBeforeLine(myFirstChangedLine);
 
@@ -338,12 +428,8 @@ public class LineStatusTracker {
 
     @Nullable
     private Range getLastRangeBeforeLine(int line) {
-      Range result = null;
-      for (Range range : myRanges) {
-        if (range.isAfter(line)) return result;
-        result = range;
-      }
-      return result;
+      int index = getFirstRangeAfter(myRanges, line);
+      return index == 0 ? null : myRanges.get(index - 1);
     }
 
     @Override
@@ -359,16 +445,22 @@ public class LineStatusTracker {
           int linesAfterChange = line - myDocument.getLineNumber(e.getOffset());
           int linesShift = linesAfterChange - myLinesBeforeChange;
 
-          List<Range> rangesAfterChange = getRangesAfter(myRanges, myLastChangedLine);
-          List<Range> rangesBeforeChange = getRangesBefore(myRanges, myFirstChangedLine);
-
-          List<Range> changedRanges = getChangedRanges(myFirstChangedLine, myLastChangedLine);
+          if (myRecalculationPending) {
+            // the ranges will be replaced by the recalculated ones, just keep the following ones at their lines till then
+            shiftRanges(myRanges.subList(getFirstRangeStartingAfter(myRanges, myLastChangedLine), myRanges.size()), linesShift);
+            return;
+          }
 
-          int newSize = rangesBeforeChange.size() + changedRanges.size() + rangesAfterChange.size();
-          if (myRanges.size() != newSize) {
+          int changedStart = getFirstRangeEndingFrom(myRanges, myFirstChangedLine);
+          int changedEnd = getFirstRangeStartingAfter(myRanges, myLastChangedLine);
+          if (changedEnd < changedStart) {
             LOG.info("Ranges: " + myRanges + "; first changed line: " + myFirstChangedLine + "; last changed line: " + myLastChangedLine);
             LOG.assertTrue(false);
+            changedEnd = changedStart;
           }
+          List<Range> rangesBeforeChange = myRanges.subList(0, changedStart);
+          List<Range> changedRanges = myRanges.subList(changedStart, changedEnd);
+          List<Range> rangesAfterChange = myRanges.subList(changedEnd, myRanges.size());
 
 
           myLastChangedLine += linesShift;
@@ -381,13 +473,13 @@ public class LineStatusTracker {
           if (!changedRanges.equals(newChangedRanges)) {
             replaceRanges(changedRanges, newChangedRanges);
 
-            myRanges = new ArrayList<Range>();
+            List<Range> ranges = new ArrayList<Range>(rangesBeforeChange.size() + newChangedRanges.size() + rangesAfterChange.size());
 
-            myRanges.addAll(rangesBeforeChange);
-            myRanges.addAll(newChangedRanges);
-            myRanges.addAll(rangesAfterChange);
+            ranges.addAll(rangesBeforeChange);
+            ranges.addAll(newChangedRanges);
+            ranges.addAll(rangesAfterChange);
 
-            myRanges = mergeRanges(myRanges);
+            myRanges = mergeRanges(ranges);
 
             for (Range range : myRanges) {
               if (!range.hasHighlighter()) range.setHighlighter(createHighlighter(range));
@@ -419,12 +511,22 @@ public class LineStatusTracker {
     }
 
     private List<Range> getNewChangedRanges() throws FilesTooBigForDiffException {
+      if (myLastChangedLine - myFirstChangedLine + myUpToDateLastLine - myUpToDateFirstLine > MAX_SYNC_DIFF_LINES) {
+        // too long to diff on each keystroke: the whole region is shown as changed until the background diff is done
+        scheduleRecalculation(RECALCULATION_DELAY);
+        return getWholeRegionRange();
+      }
       List<String> lines = new DocumentWrapper(myDocument).getLines(myFirstChangedLine, myLastChangedLine);
       List<String> uLines = new DocumentWrapper(myUpToDateDocument)
         .getLines(myUpToDateFirstLine, myUpToDateLastLine);
       return new RangesBuilder(lines, uLines, myFirstChangedLine, myUpToDateFirstLine).getRanges();
     }
 
+    private List<Range> getWholeRegionRange() {
+      return LineStatusTracker.getWholeRegionRange(myFirstChangedLine, myLastChangedLine, myDocument.getLineCount(),
+                                                   myUpToDateFirstLine, myUpToDateLastLine, myUpToDateDocument.getLineCount());
+    }
+
     private List<Range> mergeRanges(List<Range> ranges) {
       ArrayList<Range> result = new ArrayList<Range>();
       Iterator<Range> iterator = ranges.iterator();
@@ -468,17 +570,10 @@ public class LineStatusTracker {
 
   }
 
-  private List<Range> getChangedRanges(int from, int to) {
-    return getChangedRanges(myRanges, from, to);
-  }
-
   public static List<Range> getChangedRanges(List<Range> ranges, int from, int to) {
-    ArrayList<Range> result = new ArrayList<Range>();
-    for (Range range : ranges) {
-      if (range.getOffset1() <= to && range.getOffset2() >= from) result.add(range);
-//      if (range.getOffset1() > to) break;
-    }
-    return result;
+    int start = getFirstRangeEndingFrom(ranges, from);
+    int end = Math.max(start, getFirstRangeStartingAfter(ranges, to));
+    return new ArrayList<Range>(ranges.subList(start, end));
   }
 
   @Nullable
@@ -537,19 +632,92 @@ public class LineStatusTracker {
   }
 
   public static List<Range> getRangesBefore(List<Range> ranges, int line) {
-    ArrayList<Range> result = new ArrayList<Range>();
+    return new ArrayList<Range>(ranges.subList(0, getFirstRangeEndingFrom(ranges, line)));
+  }
 
-    for (Range range : ranges) {
-      if (range.getOffset2() < line) result.add(range);
-      //if (range.getOffset2() > line) break;
+  public static List<Range> getRangesAfter(List<Range> ranges, int line) {
+    return new ArrayList<Range>(ranges.subList(getFirstRangeStartingAfter(ranges, line), ranges.size()));
+  }
+
+  // the ranges are sorted and don't intersect, so the binary searches below find the borders of the prefixes they look for
+
+  /**
+   * @return index of the first range with getOffset2() >= line, or the size of the list
+   */
+  static int getFirstRangeEndingFrom(List<Range> ranges, int line) {
+    int low = 0;
+    int high = ranges.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (ranges.get(middle).getOffset2() < line) low = middle + 1;
+      else high = middle;
     }
-    return result;
+    return low;
   }
 
-  public static List<Range> getRangesAfter(List<Range> ranges, int line) {
-    ArrayList<Range> result = new ArrayList<Range>();
+  /**
+   * @return index of the first range with getOffset1() > line, or the size of the list
+   */
+  static int getFirstRangeStartingAfter(List<Range> ranges, int line) {
+    int low = 0;
+    int high = ranges.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (ranges.get(middle).getOffset1() <= line) low = middle + 1;
+      else high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * @return index of the first range which {@link Range#isAfter is after} the line, or the size of the list
+   */
+  static int getFirstRangeAfter(List<Range> ranges, int line) {
+    int low = 0;
+    int high = ranges.size();
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (!ranges.get(middle).isAfter(line)) low = middle + 1;
+      else high = middle;
+    }
+    return low;
+  }
+
+  /**
+   * @return a single range covering the changed lines of both documents (the last lines inclusive), or nothing if both are empty
+   */
+  static List<Range> getWholeRegionRange(int firstLine, int lastLine, int lineCount, int uFirstLine, int uLastLine, int uLineCount) {
+    int offset2 = Math.min(lastLine + 1, lineCount);
+    int uOffset2 = Math.min(uLastLine + 1, uLineCount);
+    if (offset2 <= firstLine && uOffset2 <= uFirstLine) return Collections.emptyList();
+    byte type;
+    if (offset2 <= firstLine) {
+      type = Range.DELETED;
+      offset2 = firstLine;
+    }
+    else if (uOffset2 <= uFirstLine) {
+      type = Range.INSERTED;
+      uOffset2 = uFirstLine;
+    }
+    else {
+      type = Range.MODIFIED;
+    }
+    return Collections.singletonList(new Range(firstLine, offset2, uFirstLine, uOffset2, type));
+  }
+
+  /**
+   * @param line2 exclusive; equal to line1 for the place of a deleted range
+   * @return the ranges sharing lines with the given ones; an empty span or a deleted range intersects the ranges it touches
+   */
+  static List<Range> getIntersectingRanges(List<Range> ranges, int line1, int line2) {
+    List<Range> result = new ArrayList<Range>();
     for (Range range : ranges) {
-      if (range.getOffset1() > line) result.add(range);
+      int start = range.getOffset1();
+      int end = range.getOffset2();
+      boolean intersects = start == end || line1 == line2 ? start <= line2 && line1 <= end : start < line2 && line1 < end;
+      if (intersects) {
+        result.add(range);
+      }
     }
     return result;
   }
@@ -572,6 +740,24 @@ public class LineStatusTracker {
   public void rollbackChanges(final Range range) {
     myApplication.assertWriteAccessAllowed();
 
+    synchronized (myLock) {
+      if (myRecalculationPending) {
+        // the previous ranges don't reflect the changes made since the recalculation was requested and may refer
+        // to the previous base revision: diff the documents now and roll back the changes found at the lines of the range
+        recalculateRangesNow();
+        if (myRecalculationPending || myAnathemaThrown) return;
+        List<Range> ranges = getIntersectingRanges(myRanges, range.getOffset1(), range.getOffset2());
+        // from the last one, so the lines of the preceding ranges stay valid
+        for (int i = ranges.size() - 1; i >= 0; i--) {
+          doRollback(ranges.get(i));
+        }
+        return;
+      }
+      doRollback(range);
+    }
+  }
+
+  private void doRollback(@NotNull Range range) {
     synchronized (myLock) {
       TextRange currentTextRange = getCurrentTextRange(range);
 
@@ -713,6 +899,27 @@ public class LineStatusTracker {
     }
   }
 
+  /**
+   * Lines of both documents taken in a read action, to be diffed outside of it.
+   */
+  private static class DocumentsSnapshot {
+    private final long myStamp;
+    private final long myUpToDateStamp;
+    private final List<String> myLines;
+    private final List<String> myUpToDateLines;
+
+    private DocumentsSnapshot(@NotNull Document document, @NotNull Document upToDateDocument) {
+      myStamp = document.getModificationStamp();
+      myUpToDateStamp = upToDateDocument.getModificationStamp();
+      myLines = new DocumentWrapper(document).getLines();
+      myUpToDateLines = new DocumentWrapper(upToDateDocument).getLines();
+    }
+
+    private boolean isUpToDate(@NotNull Document document, @NotNull Document upToDateDocument) {
+      return document.getModificationStamp() == myStamp && upToDateDocument.getModificationStamp() == myUpToDateStamp;
+    }
+  }
+
   public static class CanNotCalculateDiffPanel extends EditorNotificationPanel {
     public CanNotCalculateDiffPanel() {
       myLabel.setText("Can not highlight changed lines. File is too big and there are too many changes.");
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.changes;
+
+import com.intellij.openapi.vcs.BaseRevision;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.FilePathImpl;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.util.BeforeAfter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static junit.framework.Assert.assertEquals;
+
+public class ChangeListsIndexesTest {
+
+  @Test
+  public void testDeltaOfCopyMatchesFullComparison() {
+    Random random = new Random(42);
+    for (int iteration = 0; iteration < 50; iteration++) {
+      ChangeListsIndexes oldIndexes = new ChangeListsIndexes();
+      for (int i = 0; i < 100; i++) {
+        add(oldIndexes, random.nextInt(200), random.nextInt(3));
+      }
+      ChangeListsIndexes newIndexes = new ChangeListsIndexes(oldIndexes);
+      // the refresh modifies the copy
+      modify(newIndexes, random, 20);
+      // list operations done during the refresh modify the old indexes too
+      modify(oldIndexes, random, 5);
+
+      // the indexes built independently are compared by all keys
+      ChangeListsIndexes independent = new ChangeListsIndexes(newIndexes);
+      String fullDelta = getDelta(oldIndexes, independent);
+      String changedKeysDelta = getDelta(oldIndexes, newIndexes);
+      assertEquals(fullDelta, changedKeysDelta);
+    }
+  }
+
+  @Test
+  public void testDeltaOfUnchangedCopyIsEmpty() {
+    ChangeListsIndexes oldIndexes = new ChangeListsIndexes();
+    add(oldIndexes, 1, 1);
+    add(oldIndexes, 2, 1);
+    ChangeListsIndexes newIndexes = new ChangeListsIndexes(oldIndexes);
+    assertEquals("removed: [] added: [] modified: []", getDelta(oldIndexes, newIndexes));
+  }
+
+  private static void modify(@NotNull ChangeListsIndexes indexes, @NotNull Random random, int count) {
+    for (int i = 0; i < count; i++) {
+      int file = random.nextInt(200);
+      if (random.nextBoolean()) {
+        indexes.remove(path(file));
+      }
+      else {
+        add(indexes, file, random.nextInt(3));
+      }
+    }
+  }
+
+  private static void add(@NotNull ChangeListsIndexes indexes, int file, int revision) {
+    indexes.add(path(file), FileStatus.MODIFIED, null, new VcsRevisionNumber.Int(revision));
+  }
+
+  @NotNull
+  private static FilePath path(int file) {
+    return new FilePathImpl(new File("/project/file" + file + ".txt"), false);
+  }
+
+  @NotNull
+  private static String getDelta(@NotNull ChangeListsIndexes oldIndexes, @NotNull ChangeListsIndexes newIndexes) {
+    Set<BaseRevision> toRemove = new HashSet<BaseRevision>();
+    Set<BaseRevision> toAdd = new HashSet<BaseRevision>();
+    Set<BeforeAfter<BaseRevision>> toModify = new HashSet<BeforeAfter<BaseRevision>>();
+    oldIndexes.getDelta(newIndexes, toRemove, toAdd, toModify);
+
+    List<String> modified = new ArrayList<String>();
+    for (BeforeAfter<BaseRevision> beforeAfter : toModify) {
+      modified.add(toString(beforeAfter.getBefore()) + "->" + beforeAfter.getAfter().getRevision().asString());
+    }
+    Collections.sort(modified);
+    return "removed: " + toString(toRemove) + " added: " + toString(toAdd) + " modified: " + modified;
+  }
+
+  @NotNull
+  private static List<String> toString(@NotNull Collection<BaseRevision> revisions) {
+    List<String> result = new ArrayList<String>();
+    for (BaseRevision revision : revisions) {
+      result.add(toString(revision));
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  @NotNull
+  private static String toString(@NotNull BaseRevision revision) {
+    return revision.getPath() + "@" + revision.getRevision().asString();
+  }
+}
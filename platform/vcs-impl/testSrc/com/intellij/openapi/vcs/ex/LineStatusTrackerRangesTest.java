@@ -0,0 +1,144 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.openapi.vcs.ex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.Assert.assertEquals;
+
+public class LineStatusTrackerRangesTest {
+  private static final Range MODIFIED = new Range(2, 4, 2, 3, Range.MODIFIED);
+  // adjacent to the previous one
+  private static final Range INSERTED = new Range(4, 5, 3, 3, Range.INSERTED);
+  private static final Range DELETED = new Range(7, 7, 5, 6, Range.DELETED);
+  private static final Range LAST = new Range(9, 10, 8, 9, Range.MODIFIED);
+  private static final List<Range> RANGES = Arrays.asList(MODIFIED, INSERTED, DELETED, LAST);
+
+  @Test
+  public void testNoRanges() {
+    List<Range> ranges = Collections.emptyList();
+    assertEquals(0, LineStatusTracker.getFirstRangeEndingFrom(ranges, 5));
+    assertEquals(0, LineStatusTracker.getFirstRangeStartingAfter(ranges, 5));
+    assertEquals(0, LineStatusTracker.getFirstRangeAfter(ranges, 5));
+    assertEquals(Collections.<Range>emptyList(), LineStatusTracker.getChangedRanges(ranges, 0, 5));
+  }
+
+  @Test
+  public void testFirstRangeEndingFrom() {
+    assertEquals(0, LineStatusTracker.getFirstRangeEndingFrom(RANGES, 0));
+    assertEquals(0, LineStatusTracker.getFirstRangeEndingFrom(RANGES, 4));
+    assertEquals(1, LineStatusTracker.getFirstRangeEndingFrom(RANGES, 5));
+    assertEquals(2, LineStatusTracker.getFirstRangeEndingFrom(RANGES, 6));
+    assertEquals(2, LineStatusTracker.getFirstRangeEndingFrom(RANGES, 7));
+    assertEquals(3, LineStatusTracker.getFirstRangeEndingFrom(RANGES, 8));
+    assertEquals(3, LineStatusTracker.getFirstRangeEndingFrom(RANGES, 10));
+    assertEquals(4, LineStatusTracker.getFirstRangeEndingFrom(RANGES, 11));
+  }
+
+  @Test
+  public void testFirstRangeStartingAfter() {
+    assertEquals(0, LineStatusTracker.getFirstRangeStartingAfter(RANGES, 1));
+    assertEquals(1, LineStatusTracker.getFirstRangeStartingAfter(RANGES, 2));
+    assertEquals(1, LineStatusTracker.getFirstRangeStartingAfter(RANGES, 3));
+    assertEquals(2, LineStatusTracker.getFirstRangeStartingAfter(RANGES, 4));
+    assertEquals(2, LineStatusTracker.getFirstRangeStartingAfter(RANGES, 6));
+    assertEquals(3, LineStatusTracker.getFirstRangeStartingAfter(RANGES, 7));
+    assertEquals(4, LineStatusTracker.getFirstRangeStartingAfter(RANGES, 9));
+    assertEquals(4, LineStatusTracker.getFirstRangeStartingAfter(RANGES, 100));
+  }
+
+  @Test
+  public void testFirstRangeAfter() {
+    assertEquals(0, LineStatusTracker.getFirstRangeAfter(RANGES, 1));
+    assertEquals(1, LineStatusTracker.getFirstRangeAfter(RANGES, 2));
+    assertEquals(1, LineStatusTracker.getFirstRangeAfter(RANGES, 3));
+    assertEquals(2, LineStatusTracker.getFirstRangeAfter(RANGES, 4));
+    assertEquals(2, LineStatusTracker.getFirstRangeAfter(RANGES, 5));
+    // a deleted range is attached to the line before it
+    assertEquals(3, LineStatusTracker.getFirstRangeAfter(RANGES, 6));
+    assertEquals(3, LineStatusTracker.getFirstRangeAfter(RANGES, 8));
+    assertEquals(4, LineStatusTracker.getFirstRangeAfter(RANGES, 9));
+  }
+
+  @Test
+  public void testChangedRanges() {
+    assertEquals(Arrays.asList(MODIFIED, INSERTED), LineStatusTracker.getChangedRanges(RANGES, 3, 4));
+    assertEquals(Arrays.asList(MODIFIED, INSERTED, DELETED), LineStatusTracker.getChangedRanges(RANGES, 3, 8));
+    assertEquals(Arrays.asList(INSERTED), LineStatusTracker.getChangedRanges(RANGES, 5, 6));
+    assertEquals(Collections.<Range>emptyList(), LineStatusTracker.getChangedRanges(RANGES, 11, 12));
+  }
+
+  @Test
+  public void testIntersectingRanges() {
+    assertEquals(Arrays.asList(MODIFIED), LineStatusTracker.getIntersectingRanges(RANGES, 2, 4));
+    assertEquals(Arrays.asList(MODIFIED, INSERTED), LineStatusTracker.getIntersectingRanges(RANGES, 3, 5));
+    assertEquals(Collections.<Range>emptyList(), LineStatusTracker.getIntersectingRanges(RANGES, 5, 6));
+    // a deleted range touches the lines around it
+    assertEquals(Arrays.asList(DELETED), LineStatusTracker.getIntersectingRanges(RANGES, 5, 7));
+    assertEquals(Arrays.asList(DELETED), LineStatusTracker.getIntersectingRanges(RANGES, 7, 8));
+    assertEquals(Arrays.asList(DELETED), LineStatusTracker.getIntersectingRanges(RANGES, 7, 7));
+    assertEquals(Arrays.asList(LAST), LineStatusTracker.getIntersectingRanges(RANGES, 9, 9));
+  }
+
+  @Test
+  public void testSearchesMatchLinearScan() {
+    Random random = new Random(42);
+    for (int attempt = 0; attempt < 200; attempt++) {
+      List<Range> ranges = new ArrayList<Range>();
+      int line = 0;
+      for (int i = random.nextInt(10); i > 0; i--) {
+        line += random.nextInt(3);
+        byte type = (byte)(Range.MODIFIED + random.nextInt(3));
+        int length = type == Range.DELETED ? 0 : 1 + random.nextInt(3);
+        ranges.add(new Range(line, line + length, line, line + 1, type));
+        line += length;
+      }
+      for (int i = 0; i <= line + 1; i++) {
+        int endingFrom = 0;
+        while (endingFrom < ranges.size() && ranges.get(endingFrom).getOffset2() < i) endingFrom++;
+        int startingAfter = 0;
+        while (startingAfter < ranges.size() && ranges.get(startingAfter).getOffset1() <= i) startingAfter++;
+        int after = 0;
+        while (after < ranges.size() && !ranges.get(after).isAfter(i)) after++;
+
+        assertEquals(ranges + ": " + i, endingFrom, LineStatusTracker.getFirstRangeEndingFrom(ranges, i));
+        assertEquals(ranges + ": " + i, startingAfter, LineStatusTracker.getFirstRangeStartingAfter(ranges, i));
+        assertEquals(ranges + ": " + i, after, LineStatusTracker.getFirstRangeAfter(ranges, i));
+      }
+    }
+  }
+
+  @Test
+  public void testWholeRegionRange() {
+    assertEquals(Arrays.asList(new Range(2, 5, 2, 4, Range.MODIFIED)), LineStatusTracker.getWholeRegionRange(2, 4, 10, 2, 3, 10));
+    // the region is clipped by the end of the documents
+    assertEquals(Arrays.asList(new Range(8, 10, 8, 10, Range.MODIFIED)), LineStatusTracker.getWholeRegionRange(8, 12, 10, 8, 9, 10));
+    assertEquals(Arrays.asList(new Range(5, 5, 5, 7, Range.DELETED)), LineStatusTracker.getWholeRegionRange(5, 4, 10, 5, 6, 10));
+    assertEquals(Arrays.asList(new Range(5, 7, 5, 5, Range.INSERTED)), LineStatusTracker.getWholeRegionRange(5, 6, 10, 5, 4, 10));
+  }
+
+  @Test
+  public void testEmptyWholeRegionRange() {
+    assertEquals(Collections.<Range>emptyList(), LineStatusTracker.getWholeRegionRange(5, 4, 10, 5, 4, 10));
+    assertEquals(Collections.<Range>emptyList(), LineStatusTracker.getWholeRegionRange(0, 0, 0, 0, 0, 0));
+  }
+}
@@ -0,0 +1,198 @@
+package com.intellij.vcs.log.graph;
+
+import com.intellij.vcs.log.GraphCommit;
+import gnu.trove.TIntIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Commit graph stored in primitive arrays: a commit is identified by its row, i.e. its position in the list of commits the graph was
+ * built from. Parents and children are kept as ranges in shared int arrays, so the graph takes a few dozen bytes per commit instead
+ * of the node and edge objects of {@link com.intellij.vcs.log.graph.mutable.MutableGraph}.
+ * <p/>
+ * Parents which are not in the list (the history is loaded only partially) are remembered by their commit index only.
+ */
+public class CompactCommitGraph {
+  public static final int NOT_LOADED = -1;
+
+  // row -> commit index, see GraphCommit#getIndex
+  @NotNull private final int[] myCommitIndices;
+  // parents of the row r are at [myParentStarts[r], myParentStarts[r + 1]) in myParentIndices and myParentRows
+  @NotNull private final int[] myParentStarts;
+  @NotNull private final int[] myParentIndices;
+  @NotNull private final int[] myParentRows;
+  @NotNull private final int[] myChildStarts;
+  @NotNull private final int[] myChildRows;
+  @NotNull private final int[] myLayoutIndices;
+  @NotNull private final TIntIntHashMap myRowsByIndex;
+
+  private CompactCommitGraph(@NotNull int[] commitIndices, @NotNull int[] parentStarts, @NotNull int[] parentIndices) {
+    int size = commitIndices.length;
+    myCommitIndices = commitIndices;
+    myParentStarts = parentStarts;
+    myParentIndices = parentIndices;
+
+    myRowsByIndex = new TIntIntHashMap(size);
+    for (int row = 0; row < size; row++) {
+      myRowsByIndex.put(commitIndices[row], row);
+    }
+
+    myParentRows = new int[parentIndices.length];
+    int[] childCounts = new int[size];
+    for (int i = 0; i < parentIndices.length; i++) {
+      int parentRow = getRow(parentIndices[i]);
+      myParentRows[i] = parentRow;
+      if (parentRow != NOT_LOADED) {
+        childCounts[parentRow]++;
+      }
+    }
+
+    myChildStarts = new int[size + 1];
+    for (int row = 0; row < size; row++) {
+      myChildStarts[row + 1] = myChildStarts[row] + childCounts[row];
+    }
+    myChildRows = new int[myChildStarts[size]];
+    int[] filled = new int[size];
+    for (int row = 0; row < size; row++) {
+      for (int i = myParentStarts[row]; i < myParentStarts[row + 1]; i++) {
+        int parentRow = myParentRows[i];
+        if (parentRow != NOT_LOADED) {
+          myChildRows[myChildStarts[parentRow] + filled[parentRow]++] = row;
+        }
+      }
+    }
+
+    myLayoutIndices = calcLayoutIndices();
+  }
+
+  @NotNull
+  public static CompactCommitGraph build(@NotNull List<? extends GraphCommit> commits) {
+    int parentCount = 0;
+    for (GraphCommit commit : commits) {
+      parentCount += commit.getParentIndices().length;
+    }
+
+    int[] commitIndices = new int[commits.size()];
+    int[] parentStarts = new int[commits.size() + 1];
+    int[] parentIndices = new int[parentCount];
+    int next = 0;
+    for (int row = 0; row < commits.size(); row++) {
+      GraphCommit commit = commits.get(row);
+      commitIndices[row] = commit.getIndex();
+      for (int parent : commit.getParentIndices()) {
+        parentIndices[next++] = parent;
+      }
+      parentStarts[row + 1] = next;
+    }
+    return new CompactCommitGraph(commitIndices, parentStarts, parentIndices);
+  }
+
+  /**
+   * @return the graph with the given commits added after the existing ones
+   */
+  @NotNull
+  public CompactCommitGraph append(@NotNull List<? extends GraphCommit> commits) {
+    CompactCommitGraph tail = build(commits);
+    int size = size();
+    int[] commitIndices = new int[size + tail.size()];
+    System.arraycopy(myCommitIndices, 0, commitIndices, 0, size);
+    System.arraycopy(tail.myCommitIndices, 0, commitIndices, size, tail.size());
+
+    int[] parentIndices = new int[myParentIndices.length + tail.myParentIndices.length];
+    System.arraycopy(myParentIndices, 0, parentIndices, 0, myParentIndices.length);
+    System.arraycopy(tail.myParentIndices, 0, parentIndices, myParentIndices.length, tail.myParentIndices.length);
+
+    int[] parentStarts = new int[commitIndices.length + 1];
+    System.arraycopy(myParentStarts, 0, parentStarts, 0, size + 1);
+    for (int row = 1; row <= tail.size(); row++) {
+      parentStarts[size + row] = myParentIndices.length + tail.myParentStarts[row];
+    }
+    return new CompactCommitGraph(commitIndices, parentStarts, parentIndices);
+  }
+
+  public int size() {
+    return myCommitIndices.length;
+  }
+
+  public int getCommitIndex(int row) {
+    return myCommitIndices[row];
+  }
+
+  /**
+   * @return row of the commit, or {@link #NOT_LOADED} if it is not in the graph
+   */
+  public int getRow(int commitIndex) {
+    return myRowsByIndex.containsKey(commitIndex) ? myRowsByIndex.get(commitIndex) : NOT_LOADED;
+  }
+
+  public int getParentCount(int row) {
+    return myParentStarts[row + 1] - myParentStarts[row];
+  }
+
+  /**
+   * @return row of the parent, or {@link #NOT_LOADED} if the parent is not in the graph
+   */
+  public int getParentRow(int row, int parent) {
+    return myParentRows[myParentStarts[row] + parent];
+  }
+
+  public int getParentCommitIndex(int row, int parent) {
+    return myParentIndices[myParentStarts[row] + parent];
+  }
+
+  public int getChildCount(int row) {
+    return myChildStarts[row + 1] - myChildStarts[row];
+  }
+
+  public int getChildRow(int row, int child) {
+    return myChildRows[myChildStarts[row] + child];
+  }
+
+  /**
+   * Layout indices are assigned by a depth-first walk starting from the heads in the order of rows. The walk follows the first
+   * not yet visited parent, and the index grows with each new head and each step to a second or further parent, so commits of the
+   * same branch mostly share the index, and branches can be painted from left to right in the order of their indices.
+   */
+  public int getLayoutIndex(int row) {
+    return myLayoutIndices[row];
+  }
+
+  @NotNull
+  private int[] calcLayoutIndices() {
+    int size = size();
+    int[] layoutIndices = new int[size];
+    int[] stack = new int[size];
+    int currentLayoutIndex = 0;
+    for (int head = 0; head < size; head++) {
+      if (getChildCount(head) != 0) continue;
+
+      currentLayoutIndex++;
+      int top = 0;
+      stack[top++] = head;
+      layoutIndices[head] = currentLayoutIndex;
+      while (top > 0) {
+        int row = stack[top - 1];
+        int nextParent = NOT_LOADED;
+        for (int i = 0; i < getParentCount(row); i++) {
+          int parentRow = getParentRow(row, i);
+          if (parentRow != NOT_LOADED && layoutIndices[parentRow] == 0) {
+            nextParent = parentRow;
+            if (i != 0) {
+              currentLayoutIndex++;
+            }
+            break;
+          }
+        }
+        if (nextParent == NOT_LOADED) {
+          top--;
+        }
+        else {
+          layoutIndices[nextParent] = currentLayoutIndex;
+          stack[top++] = nextParent;
+        }
+      }
+    }
+    return layoutIndices;
+  }
+}
@@ -0,0 +1,254 @@
+package com.intellij.vcs.log.graph;
+
+import gnu.trove.TIntIntHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Answers which of the given heads (e.g. branches) a commit is reachable from, without walking the graph.
+ * <p/>
+ * Each row of the {@link CompactCommitGraph} refers to a bit set of heads, a bit per head. The set of a commit is the union of the sets
+ * of its children plus the head pointing to the commit itself, so the sets are calculated in one pass over the rows taken in
+ * topological order. Long runs of commits without forks and merges share the same set, therefore only distinct sets are stored, and
+ * the memory taken is an int per commit plus a bit set per fork or merge point at most.
+ */
+public class HeadReachability {
+  private static final int EMPTY_SET = 0;
+
+  @NotNull private final CompactCommitGraph myGraph;
+  // head commit index -> bit
+  @NotNull private final TIntIntHashMap myHeadBits;
+  @NotNull private final int[] myHeads;
+  // row -> index in mySets
+  @NotNull private final int[] mySetIds;
+  @NotNull private final List<BitSet> mySets;
+  @NotNull private final Map<BitSet, Integer> mySetIdsBySet;
+
+  private HeadReachability(@NotNull CompactCommitGraph graph, @NotNull int[] heads, @NotNull TIntIntHashMap headBits,
+                           @NotNull int[] setIds, @NotNull List<BitSet> sets, @NotNull Map<BitSet, Integer> setIdsBySet) {
+    myGraph = graph;
+    myHeads = heads;
+    myHeadBits = headBits;
+    mySetIds = setIds;
+    mySets = sets;
+    mySetIdsBySet = setIdsBySet;
+  }
+
+  /**
+   * @param heads commit indices of the heads, duplicates are allowed
+   */
+  @NotNull
+  public static HeadReachability build(@NotNull CompactCommitGraph graph, @NotNull Collection<Integer> heads) {
+    TIntIntHashMap headBits = new TIntIntHashMap();
+    int[] headArray = new int[heads.size()];
+    int bit = 0;
+    for (int head : heads) {
+      if (!headBits.containsKey(head)) {
+        headBits.put(head, bit);
+        headArray[bit++] = head;
+      }
+    }
+    List<BitSet> sets = new ArrayList<BitSet>();
+    Map<BitSet, Integer> setIdsBySet = new HashMap<BitSet, Integer>();
+    BitSet empty = new BitSet();
+    sets.add(empty);
+    setIdsBySet.put(empty, EMPTY_SET);
+
+    HeadReachability reachability = new HeadReachability(graph, Arrays.copyOf(headArray, bit), headBits, new int[graph.size()], sets,
+                                                         setIdsBySet);
+    reachability.calcSets(0);
+    return reachability;
+  }
+
+  /**
+   * @param graph the graph of this reachability with commits appended by {@link CompactCommitGraph#append}
+   * @return the reachability for the given graph; only the appended rows are calculated if the graph remains ordered
+   */
+  @NotNull
+  public HeadReachability append(@NotNull CompactCommitGraph graph) {
+    int oldSize = myGraph.size();
+    for (int row = oldSize; row < graph.size(); row++) {
+      for (int i = 0; i < graph.getParentCount(row); i++) {
+        int parentRow = graph.getParentRow(row, i);
+        if (parentRow != CompactCommitGraph.NOT_LOADED && parentRow < oldSize) {
+          // an old commit became the parent of a new one: the sets of the old rows change too
+          return build(graph, asList(myHeads));
+        }
+      }
+    }
+    int[] setIds = Arrays.copyOf(mySetIds, graph.size());
+    HeadReachability reachability = new HeadReachability(graph, myHeads, myHeadBits, setIds, new ArrayList<BitSet>(mySets),
+                                                         new HashMap<BitSet, Integer>(mySetIdsBySet));
+    reachability.calcSets(oldSize);
+    return reachability;
+  }
+
+  @NotNull
+  public CompactCommitGraph getGraph() {
+    return myGraph;
+  }
+
+  /**
+   * @return commit indices of the heads the commit is reachable from; empty if the commit is not in the graph
+   */
+  @NotNull
+  public int[] getReachingHeads(int commitIndex) {
+    int row = myGraph.getRow(commitIndex);
+    if (row == CompactCommitGraph.NOT_LOADED) {
+      return new int[0];
+    }
+    BitSet set = mySets.get(mySetIds[row]);
+    int[] heads = new int[set.cardinality()];
+    int next = 0;
+    for (int bit = set.nextSetBit(0); bit >= 0; bit = set.nextSetBit(bit + 1)) {
+      heads[next++] = myHeads[bit];
+    }
+    return heads;
+  }
+
+  /**
+   * @return the condition which is true for the commits reachable from at least one of the given heads;
+   * it is evaluated once per distinct set of heads, so the check of a commit takes constant time
+   */
+  @NotNull
+  public ReachabilityCondition getReachabilityCondition(@NotNull Collection<Integer> heads) {
+    BitSet headsMask = new BitSet();
+    for (int head : heads) {
+      if (myHeadBits.containsKey(head)) {
+        headsMask.set(myHeadBits.get(head));
+      }
+    }
+    BitSet matchingSets = new BitSet(mySets.size());
+    for (int i = 0; i < mySets.size(); i++) {
+      if (mySets.get(i).intersects(headsMask)) {
+        matchingSets.set(i);
+      }
+    }
+    return new ReachabilityCondition(matchingSets);
+  }
+
+  private void calcSets(int fromRow) {
+    if (isOrdered(fromRow)) {
+      for (int row = fromRow; row < myGraph.size(); row++) {
+        calcSet(row);
+      }
+    }
+    else {
+      for (int row : getTopologicalOrder(fromRow)) {
+        calcSet(row);
+      }
+    }
+  }
+
+  private void calcSet(int row) {
+    int childCount = myGraph.getChildCount(row);
+    int commitIndex = myGraph.getCommitIndex(row);
+    int headBit = myHeadBits.containsKey(commitIndex) ? myHeadBits.get(commitIndex) : -1;
+
+    if (childCount == 1 && headBit < 0) {
+      // the most common case: a commit in the middle of a branch
+      mySetIds[row] = mySetIds[myGraph.getChildRow(row, 0)];
+    }
+    else {
+      BitSet set = new BitSet();
+      for (int i = 0; i < childCount; i++) {
+        set.or(mySets.get(mySetIds[myGraph.getChildRow(row, i)]));
+      }
+      if (headBit >= 0) {
+        set.set(headBit);
+      }
+      mySetIds[row] = getSetId(set);
+    }
+  }
+
+  private boolean isOrdered(int fromRow) {
+    for (int row = fromRow; row < myGraph.size(); row++) {
+      for (int i = 0; i < myGraph.getChildCount(row); i++) {
+        if (myGraph.getChildRow(row, i) > row) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the rows starting from the given one, each row placed after all its children
+   */
+  @NotNull
+  private int[] getTopologicalOrder(int fromRow) {
+    int size = myGraph.size();
+    // row -> number of its children not placed yet
+    int[] pendingChildren = new int[size];
+    int[] order = new int[size - fromRow];
+    int placed = 0;
+    for (int row = fromRow; row < size; row++) {
+      for (int i = 0; i < myGraph.getChildCount(row); i++) {
+        if (myGraph.getChildRow(row, i) >= fromRow) {
+          pendingChildren[row]++;
+        }
+      }
+      if (pendingChildren[row] == 0) {
+        order[placed++] = row;
+      }
+    }
+    // the placed rows are used as the queue
+    for (int next = 0; next < placed; next++) {
+      int row = order[next];
+      for (int i = 0; i < myGraph.getParentCount(row); i++) {
+        int parentRow = myGraph.getParentRow(row, i);
+        if (parentRow >= fromRow && --pendingChildren[parentRow] == 0) {
+          order[placed++] = parentRow;
+        }
+      }
+    }
+    return order;
+  }
+
+  private int getSetId(@NotNull BitSet set) {
+    Integer id = mySetIdsBySet.get(set);
+    if (id == null) {
+      id = mySets.size();
+      mySets.add(set);
+      mySetIdsBySet.put(set, id);
+    }
+    return id;
+  }
+
+  @NotNull
+  private static List<Integer> asList(@NotNull int[] array) {
+    List<Integer> list = new ArrayList<Integer>(array.length);
+    for (int value : array) {
+      list.add(value);
+    }
+    return list;
+  }
+
+  public class ReachabilityCondition {
+    @NotNull private final BitSet myMatchingSets;
+
+    private ReachabilityCondition(@NotNull BitSet matchingSets) {
+      myMatchingSets = matchingSets;
+    }
+
+    public boolean isReachable(int commitIndex) {
+      int row = myGraph.getRow(commitIndex);
+      return row != CompactCommitGraph.NOT_LOADED && myMatchingSets.get(mySetIds[row]);
+    }
+
+    /**
+     * @return rows of the {@link CompactCommitGraph} which hold the reachable commits
+     */
+    @NotNull
+    public BitSet getReachableRows() {
+      BitSet rows = new BitSet(mySetIds.length);
+      for (int row = 0; row < mySetIds.length; row++) {
+        if (myMatchingSets.get(mySetIds[row])) {
+          rows.set(row);
+        }
+      }
+      return rows;
+    }
+  }
+}
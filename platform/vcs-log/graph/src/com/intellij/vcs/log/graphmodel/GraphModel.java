@@ -22,6 +22,11 @@ public interface GraphModel {
 
   public void setVisibleBranchesNodes(@NotNull Function<Node, Boolean> isStartedNode);
 
+  /**
+   * @param isVisibleCommit true for the commits to show; it must be true for all parents of a commit it is true for
+   */
+  public void setVisibleCommits(@NotNull Function<Node, Boolean> isVisibleCommit);
+
   @NotNull
   public FragmentManager getFragmentManager();
 
@@ -32,7 +32,7 @@ public class BranchVisibleNodes {
         if (isStartedNode.fun(node)) {
           visibleNodes.add(node);
         }
-        if (isStartedNode.fun(node) || visibleNodes.contains(node)) {
+        if (visibleNodes.contains(node)) {
           for (Edge edge : node.getInnerDownEdges()) {
             visibleNodes.add(edge.getDownNode());
           }
@@ -42,6 +42,31 @@ public class BranchVisibleNodes {
     return visibleNodes;
   }
 
+  /**
+   * Unlike {@link #generateVisibleBranchesNodes}, visibility is not propagated from commit to commit, so the condition is evaluated
+   * once per commit node and must already hold for all parents of a visible commit, e.g. be the reachability from some heads.
+   * Edge nodes are visible when the nodes above them are.
+   */
+  @NotNull
+  public Set<Node> generateVisibleCommitsNodes(@NotNull Function<Node, Boolean> isVisibleCommit) {
+    Set<Node> visibleNodes = new HashSet<Node>();
+    for (MutableNodeRow row : myGraph.getAllRows()) {
+      for (MutableNode node : row.getInnerNodeList()) {
+        boolean visible = node.getType() == Node.NodeType.COMMIT_NODE ? isVisibleCommit.fun(node) : visibleNodes.contains(node);
+        if (visible) {
+          visibleNodes.add(node);
+          for (Edge edge : node.getInnerDownEdges()) {
+            Node downNode = edge.getDownNode();
+            if (downNode.getType() != Node.NodeType.COMMIT_NODE) {
+              visibleNodes.add(downNode);
+            }
+          }
+        }
+      }
+    }
+    return visibleNodes;
+  }
+
   public void setVisibleNodes(@NotNull Set<Node> visibleNodes) {
     myVisibleNodes = visibleNodes;
   }
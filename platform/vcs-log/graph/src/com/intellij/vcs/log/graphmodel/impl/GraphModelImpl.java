@@ -37,6 +37,8 @@ public class GraphModelImpl implements GraphModel {
       return true;
     }
   };
+  // whether isStartedBranchVisibilityNode holds for all visible commits, and not only for the heads of visible branches
+  private boolean myAllVisibleCommitsStarted = false;
 
   public GraphModelImpl(MutableGraph graph, Collection<VcsRef> allRefs) {
     this.graph = graph;
@@ -97,7 +99,7 @@ public class GraphModelImpl implements GraphModel {
   public void appendCommitsToGraph(@NotNull List<GraphCommit> commitParentses) {
     int oldSize = graph.getNodeRows().size();
     new GraphAppendBuilder(graph, myRefs).appendToGraph(commitParentses);
-    visibleNodes.setVisibleNodes(visibleNodes.generateVisibleBranchesNodes(isStartedBranchVisibilityNode));
+    visibleNodes.setVisibleNodes(generateVisibleNodes());
     graph.updateVisibleRows();
 
     UpdateRequest updateRequest = UpdateRequest.buildFromToInterval(0, oldSize - 1, 0, graph.getNodeRows().size() - 1);
@@ -106,14 +108,32 @@ public class GraphModelImpl implements GraphModel {
 
   @Override
   public void setVisibleBranchesNodes(@NotNull Function<Node, Boolean> isStartedNode) {
+    setVisibleNodes(isStartedNode, false);
+  }
+
+  @Override
+  public void setVisibleCommits(@NotNull Function<Node, Boolean> isVisibleCommit) {
+    setVisibleNodes(isVisibleCommit, true);
+  }
+
+  private void setVisibleNodes(@NotNull Function<Node, Boolean> isStartedNode, boolean allVisibleCommitsStarted) {
     this.isStartedBranchVisibilityNode = isStartedNode;
+    myAllVisibleCommitsStarted = allVisibleCommitsStarted;
     Set<Node> prevVisibleNodes = visibleNodes.getVisibleNodes();
-    Set<Node> newVisibleNodes = visibleNodes.generateVisibleBranchesNodes(isStartedNode);
+    Set<Node> newVisibleNodes = generateVisibleNodes();
     branchShowFixer.fixCrashBranches(prevVisibleNodes, newVisibleNodes);
     visibleNodes.setVisibleNodes(newVisibleNodes);
     fullUpdate();
   }
 
+  @NotNull
+  private Set<Node> generateVisibleNodes() {
+    if (myAllVisibleCommitsStarted) {
+      return visibleNodes.generateVisibleCommitsNodes(isStartedBranchVisibilityNode);
+    }
+    return visibleNodes.generateVisibleBranchesNodes(isStartedBranchVisibilityNode);
+  }
+
   @NotNull
   @Override
   public FragmentManager getFragmentManager() {
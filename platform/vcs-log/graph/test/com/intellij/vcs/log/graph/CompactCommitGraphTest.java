@@ -0,0 +1,84 @@
+package com.intellij.vcs.log.graph;
+
+import com.intellij.vcs.log.GraphCommit;
+import com.intellij.vcs.log.SimpleCommit;
+import com.intellij.vcs.log.parser.SimpleCommitListParser;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+public class CompactCommitGraphTest {
+
+  @Test
+  public void parentsAndChildren() {
+    CompactCommitGraph graph = CompactCommitGraph.build(SimpleCommitListParser.parseCommitList("a0|-a1 a2\n" +
+                                                                                                 "a1|-a3\n" +
+                                                                                                 "a2|-a3\n" +
+                                                                                                 "a3|-f0"));
+    assertEquals(4, graph.size());
+    assertEquals(2, graph.getParentCount(0));
+    assertEquals(1, graph.getParentRow(0, 0));
+    assertEquals(2, graph.getParentRow(0, 1));
+    assertEquals(CompactCommitGraph.NOT_LOADED, graph.getParentRow(3, 0));
+    assertEquals(0xf0, graph.getParentCommitIndex(3, 0));
+
+    assertEquals(0, graph.getChildCount(0));
+    assertEquals(2, graph.getChildCount(3));
+    assertEquals(1, graph.getChildRow(3, 0));
+    assertEquals(2, graph.getChildRow(3, 1));
+    assertEquals(2, graph.getRow(0xa2));
+    assertEquals(CompactCommitGraph.NOT_LOADED, graph.getRow(0xf0));
+  }
+
+  @Test
+  public void layoutIndices() {
+    CompactCommitGraph graph = CompactCommitGraph.build(SimpleCommitListParser.parseCommitList("a0|-a2 a1\n" +
+                                                                                                 "b0|-a3\n" +
+                                                                                                 "a1|-a3\n" +
+                                                                                                 "a2|-a3\n" +
+                                                                                                 "a3|-"));
+    assertEquals(1, graph.getLayoutIndex(0));
+    assertEquals(1, graph.getLayoutIndex(3));
+    assertEquals(1, graph.getLayoutIndex(4));
+    assertEquals(2, graph.getLayoutIndex(2));
+    assertEquals(3, graph.getLayoutIndex(1));
+  }
+
+  @Test
+  public void append() {
+    CompactCommitGraph graph = CompactCommitGraph.build(SimpleCommitListParser.parseCommitList("a0|-a1\n" +
+                                                                                                 "a1|-a2"));
+    assertEquals(CompactCommitGraph.NOT_LOADED, graph.getParentRow(1, 0));
+
+    graph = graph.append(SimpleCommitListParser.parseCommitList("a2|-"));
+    assertEquals(3, graph.size());
+    assertEquals(2, graph.getParentRow(1, 0));
+    assertEquals(1, graph.getChildRow(2, 0));
+    assertEquals(0, graph.getParentCount(2));
+  }
+
+  @Test
+  public void longHistory() {
+    int size = 1000000;
+    List<GraphCommit> commits = new ArrayList<GraphCommit>(size);
+    for (int i = 0; i < size; i++) {
+      // a merge of a short side branch every 100 commits
+      if (i % 100 == 0 && i + 2 < size) {
+        commits.add(new SimpleCommit(i, new int[]{i + 2, i + 1}));
+      }
+      else if (i % 100 == 1) {
+        commits.add(new SimpleCommit(i, new int[]{i + 2}));
+      }
+      else {
+        commits.add(new SimpleCommit(i, i + 1 < size ? new int[]{i + 1} : new int[0]));
+      }
+    }
+    CompactCommitGraph graph = CompactCommitGraph.build(commits);
+    assertEquals(size, graph.size());
+    assertEquals(1, graph.getLayoutIndex(size - 1));
+    assertEquals(2, graph.getChildCount(103));
+  }
+}
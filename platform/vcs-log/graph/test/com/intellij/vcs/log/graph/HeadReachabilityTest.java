@@ -0,0 +1,98 @@
+package com.intellij.vcs.log.graph;
+
+import com.intellij.vcs.log.parser.SimpleCommitListParser;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class HeadReachabilityTest {
+
+  private static final String LOG = "a0|-a2 b0\n" +
+                                    "c0|-a3\n" +
+                                    "b0|-a3\n" +
+                                    "a2|-a3\n" +
+                                    "a3|-a4\n" +
+                                    "a4|-";
+
+  @Test
+  public void reachingHeads() {
+    HeadReachability reachability = HeadReachability.build(CompactCommitGraph.build(SimpleCommitListParser.parseCommitList(LOG)),
+                                                           Arrays.asList(0xa0, 0xb0, 0xc0, 0xb0));
+    assertReachingHeads(reachability, 0xa0, 0xa0);
+    assertReachingHeads(reachability, 0xb0, 0xa0, 0xb0);
+    assertReachingHeads(reachability, 0xa2, 0xa0);
+    assertReachingHeads(reachability, 0xa4, 0xa0, 0xb0, 0xc0);
+    assertReachingHeads(reachability, 0xf0);
+  }
+
+  @Test
+  public void condition() {
+    HeadReachability reachability = HeadReachability.build(CompactCommitGraph.build(SimpleCommitListParser.parseCommitList(LOG)),
+                                                           Arrays.asList(0xa0, 0xb0, 0xc0));
+    HeadReachability.ReachabilityCondition condition = reachability.getReachabilityCondition(Collections.singleton(0xb0));
+    assertTrue(condition.isReachable(0xb0));
+    assertTrue(condition.isReachable(0xa3));
+    assertFalse(condition.isReachable(0xa0));
+    assertFalse(condition.isReachable(0xc0));
+    assertFalse(condition.isReachable(0xa2));
+  }
+
+  @Test
+  public void append() {
+    CompactCommitGraph graph = CompactCommitGraph.build(SimpleCommitListParser.parseCommitList("a0|-a1\n" +
+                                                                                                 "b0|-a1"));
+    HeadReachability reachability = HeadReachability.build(graph, Arrays.asList(0xa0, 0xb0));
+    reachability = reachability.append(graph.append(SimpleCommitListParser.parseCommitList("a1|-a2\n" +
+                                                                                           "a2|-")));
+    assertReachingHeads(reachability, 0xa2, 0xa0, 0xb0);
+  }
+
+  @Test
+  public void unorderedRows() {
+    HeadReachability reachability = HeadReachability.build(CompactCommitGraph.build(SimpleCommitListParser.parseCommitList("a1|-\n" +
+                                                                                                                             "a0|-a1")),
+                                                           Arrays.asList(0xa0));
+    assertReachingHeads(reachability, 0xa1, 0xa0);
+  }
+
+  @Test
+  public void unorderedMerges() {
+    // every commit is placed above its children
+    HeadReachability reachability = HeadReachability.build(CompactCommitGraph.build(SimpleCommitListParser.parseCommitList("a4|-\n" +
+                                                                                                                             "a3|-a4\n" +
+                                                                                                                             "a2|-a3\n" +
+                                                                                                                             "b1|-a3\n" +
+                                                                                                                             "a1|-a2 b1\n" +
+                                                                                                                             "b0|-b1\n" +
+                                                                                                                             "a0|-a1")),
+                                                           Arrays.asList(0xa0, 0xb0));
+    assertReachingHeads(reachability, 0xa0, 0xa0);
+    assertReachingHeads(reachability, 0xa2, 0xa0);
+    assertReachingHeads(reachability, 0xb1, 0xa0, 0xb0);
+    assertReachingHeads(reachability, 0xa4, 0xa0, 0xb0);
+  }
+
+  @Test
+  public void reachableRows() {
+    CompactCommitGraph graph = CompactCommitGraph.build(SimpleCommitListParser.parseCommitList(LOG));
+    HeadReachability reachability = HeadReachability.build(graph, Arrays.asList(0xa0, 0xb0, 0xc0));
+    BitSet rows = reachability.getReachabilityCondition(Arrays.asList(0xb0, 0xc0)).getReachableRows();
+    BitSet expected = new BitSet();
+    for (int commit : new int[]{0xc0, 0xb0, 0xa3, 0xa4}) {
+      expected.set(graph.getRow(commit));
+    }
+    assertEquals(expected, rows);
+  }
+
+  private static void assertReachingHeads(HeadReachability reachability, int commit, int... expectedHeads) {
+    int[] heads = reachability.getReachingHeads(commit);
+    Arrays.sort(heads);
+    assertEquals(Arrays.toString(expectedHeads), Arrays.toString(heads));
+  }
+}
@@ -2,18 +2,23 @@ package com.intellij.vcs.log.graphmodel.fragment;
 
 import com.intellij.util.Function;
 import com.intellij.vcs.log.VcsRef;
+import com.intellij.vcs.log.graph.CompactCommitGraph;
 import com.intellij.vcs.log.graph.GraphTestUtils;
+import com.intellij.vcs.log.graph.HeadReachability;
 import com.intellij.vcs.log.graph.elements.Node;
 import com.intellij.vcs.log.graph.mutable.MutableGraph;
 import com.intellij.vcs.log.graphmodel.FragmentManager;
 import com.intellij.vcs.log.graphmodel.GraphFragment;
 import com.intellij.vcs.log.graphmodel.GraphModel;
 import com.intellij.vcs.log.graphmodel.impl.GraphModelImpl;
+import com.intellij.vcs.log.parser.SimpleCommitListParser;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -203,6 +208,56 @@ public class GraphModelTest {
         assertEquals(outStr, toStr(graphModel.getGraph()));
     }
 
+    private void setVisibleCommits(@NotNull GraphModel graphModel, @NotNull String inputGraph, @NotNull final Set<String> heads) {
+        HeadReachability reachability = HeadReachability.build(CompactCommitGraph.build(SimpleCommitListParser.parseCommitList(inputGraph)),
+                                                               Arrays.asList(0xa0, 0xa3, 0xa9, 0xa10));
+        final CompactCommitGraph commitGraph = reachability.getGraph();
+        Set<Integer> headIndices = new HashSet<Integer>();
+        for (String head : heads) {
+            headIndices.add(Integer.parseInt(head, 16));
+        }
+        final BitSet rows = reachability.getReachabilityCondition(headIndices).getReachableRows();
+        graphModel.setVisibleCommits(new Function<Node, Boolean>() {
+            @NotNull
+            @Override
+            public Boolean fun(@NotNull Node key) {
+                int row = commitGraph.getRow(key.getCommitIndex());
+                return row != CompactCommitGraph.NOT_LOADED && rows.get(row);
+            }
+        });
+    }
+
+    @Test
+    public void visibleCommitsMatchVisibleBranches() {
+        String inputGraph = "a0|-a1\n" +
+                            "a1|-a2\n" +
+                            "a2|-a11 a6\n" +
+                            "a3|-a4\n" +
+                            "a4|-a5\n" +
+                            "a5|-a6\n" +
+                            "a6|-a7\n" +
+                            "a7|-a8\n" +
+                            "a8|-a11\n" +
+                            "a9|-a11\n" +
+                            "a10|-a13\n" +
+                            "a11|-a12\n" +
+                            "a12|-a15\n" +
+                            "a13|-a14\n" +
+                            "a14|-a15\n" +
+                            "a15|-a16\n" +
+                            "a16|-a17\n" +
+                            "a17|-";
+        String[][] headSets = {{"a0"}, {"a3"}, {"a9"}, {"a10"}, {"a0", "a10"}, {"a3", "a9"}, {}};
+        for (String[] headSet : headSets) {
+            Set<String> heads = new HashSet<String>(Arrays.asList(headSet));
+            GraphModel byBranches = buildGraphModel(inputGraph);
+            setVisibleBranches(byBranches, heads);
+            GraphModel byCommits = buildGraphModel(inputGraph);
+            setVisibleCommits(byCommits, inputGraph, heads);
+            assertEquals(heads.toString(), toStr(byBranches.getGraph()), toStr(byCommits.getGraph()));
+        }
+    }
+
     @Test
     public void middle1() {
         Set<String> startNodes = new HashSet<String>();
@@ -23,7 +23,6 @@ import com.intellij.util.ThrowableConsumer;
 import com.intellij.util.containers.ContainerUtil;
 import com.intellij.util.containers.SLRUMap;
 import com.intellij.vcs.log.VcsRef;
-import com.intellij.vcs.log.graph.elements.Edge;
 import com.intellij.vcs.log.graph.elements.Node;
 import com.intellij.vcs.log.util.SequentialLimitedLifoExecutor;
 import org.jetbrains.annotations.NotNull;
@@ -35,6 +34,7 @@ import java.util.List;
 
 /**
  * Provides capabilities to asynchronously calculate "contained in branches" information.
+ * The branches are taken from {@link DataPack#getBranchReachability()}, which is calculated once per {@link DataPack}.
  */
 public class ContainingBranchesGetter {
 
@@ -108,43 +108,18 @@ public class ContainingBranchesGetter {
   }
 
   @NotNull
-  private List<VcsRef> getContainingBranches(@NotNull DataPack dataPack, @NotNull Node node) {
+  private static List<VcsRef> getContainingBranches(@NotNull DataPack dataPack, @NotNull Node node) {
     RefsModel refsModel = dataPack.getRefsModel();
     Set<VcsRef> containingBranches = ContainerUtil.newHashSet();
-
-    Set<Node> visitedNodes = ContainerUtil.newHashSet();
-    Set<Node> nodesToCheck = ContainerUtil.newHashSet();
-    nodesToCheck.add(node);
-    while (!nodesToCheck.isEmpty()) {
-      Iterator<Node> nodeIterator = nodesToCheck.iterator();
-      Node nextNode = nodeIterator.next();
-      nodeIterator.remove();
-
-      if (!visitedNodes.add(nextNode)) {
-        continue;
-      }
-
-      for (Edge edge : nextNode.getUpEdges()) {
-        Node upNode = edge.getUpNode();
-        // optimization: the node is contained in all branches which contain its child => no need to walk over this graph branch
-        List<VcsRef> upRefs = myCache.get(upNode);
-        if (upRefs != null) {
-          containingBranches.addAll(upRefs);
-        }
-        else {
-          nodesToCheck.add(upNode);
-        }
-      }
-
-      containingBranches.addAll(getBranchesPointingToThisNode(refsModel, nextNode));
+    for (int head : dataPack.getBranchReachability().getReachingHeads(node.getCommitIndex())) {
+      containingBranches.addAll(getBranchesPointingToThisNode(refsModel, head));
     }
-
     return sortByName(containingBranches);
   }
 
   @NotNull
-  private static Collection<VcsRef> getBranchesPointingToThisNode(@NotNull RefsModel refsModel, @NotNull Node node) {
-    return ContainerUtil.filter(refsModel.refsToCommit(node.getCommitIndex()), new Condition<VcsRef>() {
+  private static Collection<VcsRef> getBranchesPointingToThisNode(@NotNull RefsModel refsModel, int commitIndex) {
+    return ContainerUtil.filter(refsModel.refsToCommit(commitIndex), new Condition<VcsRef>() {
       @Override
       public boolean value(VcsRef ref) {
         return ref.getType().isBranch();
@@ -1,10 +1,11 @@
 package com.intellij.vcs.log.data;
 
 import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.ThrowableConsumer;
 import com.intellij.util.containers.MultiMap;
 import com.intellij.util.ui.UIUtil;
 import com.intellij.vcs.log.Hash;
@@ -13,15 +14,14 @@ import com.intellij.vcs.log.VcsShortCommitDetails;
 import com.intellij.vcs.log.graph.Graph;
 import com.intellij.vcs.log.graph.elements.Node;
 import com.intellij.vcs.log.graph.elements.NodeRow;
-import com.intellij.vcs.log.util.SequentialLimitedLifoExecutor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.*;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * The DataGetter realizes the following pattern of getting some data (parametrized by {@code T}) from the VCS:
@@ -31,25 +31,57 @@ import java.util.Map;
  *       to avoid querying the VCS if user investigates details of nearby commits.</li>
  *   <li>The loading happens asynchronously: a fake {@link LoadingDetails} object is returned </li>
  * </ul>
+ * <p>The requests are queued, the newest first, and the queued ones are loaded together, in one query per repository;
+ *    different repositories are queried in parallel. The faster the user scrolls, the more commits are preloaded
+ *    in the direction of scrolling, so that they are ready when they come into view.</p>
  *
  * @author Kirill Likhodedov
  */
 public abstract class DataGetter<T extends VcsShortCommitDetails> implements Disposable {
 
+  private static final Logger LOG = Logger.getInstance(DataGetter.class);
+
   private static final int UP_PRELOAD_COUNT = 20;
   private static final int DOWN_PRELOAD_COUNT = 40;
   private static final int MAX_LOADING_TASKS = 10;
+  /**
+   * The number of commits queried from a repository at once, at most.
+   */
+  private static final int MAX_BATCH_SIZE = 1000;
+  /**
+   * The number of commits preloaded additionally in the direction of scrolling, at most.
+   */
+  private static final int MAX_SCROLL_PRELOAD_COUNT = 300;
+  /**
+   * Commits which will come into view during this time (ms) at the current scrolling speed are preloaded.
+   */
+  private static final long PRELOAD_TIME = 500;
+  /**
+   * Requests which come later than this (ms) after the previous one are not considered as a part of scrolling.
+   */
+  private static final long SCROLL_TIMEOUT = 1000;
 
   @NotNull protected final VcsLogDataHolder myDataHolder;
   @NotNull private final Map<VirtualFile, VcsLogProvider> myLogProviders;
   @NotNull private final VcsCommitCache<T> myCache;
-  @NotNull private final SequentialLimitedLifoExecutor<TaskDescriptor> myLoader;
+
+  /**
+   * Tasks waiting to be loaded, the newest first; also guards {@link #myLoading} and {@link #myDisposed}.
+   */
+  @NotNull private final LinkedList<TaskDescriptor> myPendingTasks = new LinkedList<TaskDescriptor>();
+  private boolean myLoading;
+  private boolean myDisposed;
 
   /**
    * The sequence number of the current "loading" task.
    */
   private long myCurrentTaskIndex = 0;
 
+  // the scrolling speed (rows per ms, negative when scrolling up) estimated by the previous requests
+  private int myLastRequestedRow = -1;
+  private long myLastRequestTime;
+  private double myScrollSpeed;
+
   @NotNull private final Collection<Runnable> myLoadingFinishedListeners = new ArrayList<Runnable>();
 
   DataGetter(@NotNull VcsLogDataHolder dataHolder, @NotNull Map<VirtualFile, VcsLogProvider> logProviders,
@@ -58,25 +90,14 @@ public abstract class DataGetter<T extends VcsShortCommitDetails> implements Dis
     myLogProviders = logProviders;
     myCache = cache;
     Disposer.register(dataHolder, this);
-    myLoader = new SequentialLimitedLifoExecutor<TaskDescriptor>(this, MAX_LOADING_TASKS,
-                                                                 new ThrowableConsumer<TaskDescriptor, VcsException>() {
-      @Override
-      public void consume(TaskDescriptor task) throws VcsException {
-        preLoadCommitData(task.nodes);
-        UIUtil.invokeAndWaitIfNeeded(new Runnable() {
-          @Override
-          public void run() {
-            for (Runnable loadingFinishedListener : myLoadingFinishedListeners) {
-              loadingFinishedListener.run();
-            }
-          }
-        });
-      }
-    });
   }
 
   @Override
   public void dispose() {
+    synchronized (myPendingTasks) {
+      myDisposed = true;
+      myPendingTasks.clear();
+    }
     myLoadingFinishedListeners.clear();
   }
 
@@ -148,50 +169,171 @@ public abstract class DataGetter<T extends VcsShortCommitDetails> implements Dis
   @NotNull 
   private TaskDescriptor runLoadAroundCommitData(@NotNull Node node) {
     int rowIndex = node.getRowIndex();
-    List<Node> nodes = new ArrayList<Node>();
+    updateScrollSpeed(rowIndex);
+    int scrollPreloadCount = (int)Math.min(MAX_SCROLL_PRELOAD_COUNT, Math.abs(myScrollSpeed) * PRELOAD_TIME);
+    int upPreloadCount = UP_PRELOAD_COUNT + (myScrollSpeed < 0 ? scrollPreloadCount : 0);
+    int downPreloadCount = DOWN_PRELOAD_COUNT + (myScrollSpeed > 0 ? scrollPreloadCount : 0);
+
+    MultiMap<VirtualFile, String> hashesByRoots = new MultiMap<VirtualFile, String>();
     long taskNumber = myCurrentTaskIndex++;
-    for (int i = rowIndex - UP_PRELOAD_COUNT; i < rowIndex + DOWN_PRELOAD_COUNT; i++) {
+    for (int i = rowIndex - upPreloadCount; i < rowIndex + downPreloadCount; i++) {
       Node commitNode = getCommitNodeInRow(i);
       if (commitNode != null) {
-        nodes.add(commitNode);
         Hash hash = myDataHolder.getHash(commitNode.getCommitIndex());
+        VirtualFile root = commitNode.getBranch().getRepositoryRoot();
+        T details = myCache.get(hash);
+        if (details == null || details instanceof LoadingDetails) {
+          hashesByRoots.putValue(root, hash.asString());
+        }
 
         // fill the cache with temporary "Loading" values to avoid producing queries for each commit that has not been cached yet,
         // even if it will be loaded within a previous query
-        if (!myCache.isKeyCached(hash)) {
-          myCache.put(hash, (T)new LoadingDetails(hash, taskNumber, commitNode.getBranch().getRepositoryRoot()));
+        if (details == null) {
+          myCache.put(hash, (T)new LoadingDetails(hash, taskNumber, root));
         }
       }
     }
-    TaskDescriptor task = new TaskDescriptor(nodes, taskNumber);
-    myLoader.queue(task);
+    TaskDescriptor task = new TaskDescriptor(hashesByRoots, taskNumber);
+    if (!hashesByRoots.isEmpty()) {
+      queue(task);
+    }
     return task;
   }
 
-  private void preLoadCommitData(@NotNull List<Node> nodes) throws VcsException {
-    MultiMap<VirtualFile, String> hashesByRoots = new MultiMap<VirtualFile, String>();
-    for (Node node : nodes) {
-      VirtualFile root = node.getBranch().getRepositoryRoot();
-      hashesByRoots.putValue(root, myDataHolder.getHash(node.getCommitIndex()).asString());
+  private void updateScrollSpeed(int rowIndex) {
+    long time = System.currentTimeMillis();
+    long elapsed = Math.max(time - myLastRequestTime, 1);
+    if (myLastRequestedRow < 0 || elapsed > SCROLL_TIMEOUT) {
+      myScrollSpeed = 0;
     }
-
-    for (Map.Entry<VirtualFile, Collection<String>> entry : hashesByRoots.entrySet()) {
-      List<? extends T> details = readDetails(myLogProviders.get(entry.getKey()), entry.getKey(), new ArrayList<String>(entry.getValue()));
-      saveInCache(details);
+    else {
+      // smooth the speed, the requests come unevenly
+      myScrollSpeed = (myScrollSpeed + (double)(rowIndex - myLastRequestedRow) / elapsed) / 2;
     }
+    myLastRequestedRow = rowIndex;
+    myLastRequestTime = time;
   }
 
-  public void saveInCache(final List<? extends T> details) {
-    UIUtil.invokeAndWaitIfNeeded(new Runnable() {
+  private void queue(@NotNull TaskDescriptor task) {
+    synchronized (myPendingTasks) {
+      if (myDisposed) {
+        return;
+      }
+      myPendingTasks.addFirst(task);
+      while (myPendingTasks.size() > MAX_LOADING_TASKS) {
+        // the oldest requests are most probably out of view already
+        myPendingTasks.removeLast();
+      }
+      if (myLoading) {
+        return;
+      }
+      myLoading = true;
+    }
+    ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
       @Override
       public void run() {
-        for (T data : details) {
-          myCache.put(data.getHash(), data);
-        }
+        loadPendingTasks();
       }
     });
   }
 
+  private void loadPendingTasks() {
+    Map<VirtualFile, Set<String>> batch = takeBatch();
+    while (batch != null) {
+      loadBatch(batch);
+      UIUtil.invokeLaterIfNeeded(new Runnable() {
+        @Override
+        public void run() {
+          for (Runnable loadingFinishedListener : myLoadingFinishedListeners) {
+            loadingFinishedListener.run();
+          }
+        }
+      });
+      batch = takeBatch();
+    }
+  }
+
+  /**
+   * Takes the newest pending tasks and merges them into one batch.
+   * @return hashes to load grouped by roots, or null if there are no more tasks: the loading is finished then.
+   */
+  @Nullable
+  private Map<VirtualFile, Set<String>> takeBatch() {
+    synchronized (myPendingTasks) {
+      if (myPendingTasks.isEmpty() || myDisposed) {
+        myLoading = false;
+        return null;
+      }
+      Map<VirtualFile, Set<String>> batch = new HashMap<VirtualFile, Set<String>>();
+      int size = 0;
+      while (!myPendingTasks.isEmpty() && size < MAX_BATCH_SIZE) {
+        TaskDescriptor task = myPendingTasks.removeFirst();
+        for (Map.Entry<VirtualFile, Collection<String>> entry : task.myHashesByRoots.entrySet()) {
+          Set<String> hashes = batch.get(entry.getKey());
+          if (hashes == null) {
+            hashes = new LinkedHashSet<String>();
+            batch.put(entry.getKey(), hashes);
+          }
+          for (String hash : entry.getValue()) {
+            if (hashes.add(hash)) {
+              size++;
+            }
+          }
+        }
+      }
+      return batch;
+    }
+  }
+
+  private void loadBatch(@NotNull Map<VirtualFile, Set<String>> batch) {
+    // the roots are loaded in parallel, the first one in this thread
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    Runnable firstRootLoader = null;
+    for (final Map.Entry<VirtualFile, Set<String>> entry : batch.entrySet()) {
+      Runnable rootLoader = new Runnable() {
+        @Override
+        public void run() {
+          loadDetails(entry.getKey(), entry.getValue());
+        }
+      };
+      if (firstRootLoader == null) {
+        firstRootLoader = rootLoader;
+      }
+      else {
+        futures.add(ApplicationManager.getApplication().executeOnPooledThread(rootLoader));
+      }
+    }
+    if (firstRootLoader != null) {
+      firstRootLoader.run();
+    }
+    for (Future<?> future : futures) {
+      try {
+        future.get();
+      }
+      catch (InterruptedException e) {
+        LOG.warn(e);
+      }
+      catch (ExecutionException e) {
+        LOG.error(e.getCause());
+      }
+    }
+  }
+
+  private void loadDetails(@NotNull VirtualFile root, @NotNull Set<String> hashes) {
+    try {
+      saveInCache(readDetails(myLogProviders.get(root), root, new ArrayList<String>(hashes)));
+    }
+    catch (VcsException e) {
+      LOG.warn("Couldn't load details of " + hashes.size() + " commits in " + root, e);
+    }
+  }
+
+  public void saveInCache(@NotNull List<? extends T> details) {
+    for (T data : details) {
+      myCache.put(data.getHash(), data);
+    }
+  }
+
   @NotNull
   protected abstract List<? extends T> readDetails(@NotNull VcsLogProvider logProvider, @NotNull VirtualFile root,
                                                    @NotNull List<String> hashes) throws VcsException;
@@ -205,11 +347,11 @@ public abstract class DataGetter<T extends VcsShortCommitDetails> implements Dis
   }
 
   private static class TaskDescriptor {
-    private final List<Node> nodes;
+    @NotNull private final MultiMap<VirtualFile, String> myHashesByRoots;
     private long myTaskNum;
 
-    private TaskDescriptor(List<Node> nodes, long taskNum) {
-      this.nodes = nodes;
+    private TaskDescriptor(@NotNull MultiMap<VirtualFile, String> hashesByRoots, long taskNum) {
+      myHashesByRoots = hashesByRoots;
       myTaskNum = taskNum;
     }
 
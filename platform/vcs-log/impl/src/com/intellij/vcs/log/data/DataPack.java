@@ -9,7 +9,9 @@ import com.intellij.vcs.log.GraphCommit;
 import com.intellij.vcs.log.Hash;
 import com.intellij.vcs.log.VcsRef;
 import com.intellij.vcs.log.compressedlist.UpdateRequest;
+import com.intellij.vcs.log.graph.CompactCommitGraph;
 import com.intellij.vcs.log.graph.Graph;
+import com.intellij.vcs.log.graph.HeadReachability;
 import com.intellij.vcs.log.graph.elements.Edge;
 import com.intellij.vcs.log.graph.elements.GraphElement;
 import com.intellij.vcs.log.graph.elements.Node;
@@ -32,6 +34,8 @@ public class DataPack {
   @NotNull private final GraphModel myGraphModel;
   @NotNull private final RefsModel myRefsModel;
   @NotNull private final GraphPrintCellModel myPrintCellModel;
+  @NotNull private CompactCommitGraph myCommitGraph;
+  @Nullable private HeadReachability myBranchReachability; // calculated on demand
   private final NotNullFunction<Integer, Hash> myHashGetter;
   private final NotNullFunction<Hash, Integer> myIndexGetter;
 
@@ -65,20 +69,52 @@ public class DataPack {
         }
       }
     });
-    return new DataPack(graphModel, refsModel, printCellModel, hashGetter, indexGetter);
+    return new DataPack(graphModel, refsModel, printCellModel, CompactCommitGraph.build(commits), hashGetter, indexGetter);
   }
 
   private DataPack(@NotNull GraphModel graphModel, @NotNull RefsModel refsModel, @NotNull GraphPrintCellModel printCellModel,
+                   @NotNull CompactCommitGraph commitGraph,
                    NotNullFunction<Integer, Hash> hashGetter, NotNullFunction<Hash, Integer> indexGetter) {
     myGraphModel = graphModel;
     myRefsModel = refsModel;
     myPrintCellModel = printCellModel;
+    myCommitGraph = commitGraph;
     myHashGetter = hashGetter;
     myIndexGetter = indexGetter;
   }
 
   public void appendCommits(@NotNull List<GraphCommit> commitParentsList) {
     myGraphModel.appendCommitsToGraph(commitParentsList);
+    synchronized (this) {
+      myCommitGraph = myCommitGraph.append(commitParentsList);
+      if (myBranchReachability != null) {
+        myBranchReachability = myBranchReachability.append(myCommitGraph);
+      }
+    }
+  }
+
+  /**
+   * @return all loaded commits with their parents and children, regardless of the visibility of graph nodes
+   */
+  @NotNull
+  public CompactCommitGraph getCommitGraph() {
+    return myCommitGraph;
+  }
+
+  /**
+   * @return the branches (by commit indices of their heads) each loaded commit is reachable from;
+   * calculated on the first call, which therefore shouldn't be made in the EDT
+   */
+  @NotNull
+  public synchronized HeadReachability getBranchReachability() {
+    if (myBranchReachability == null) {
+      List<Integer> heads = new ArrayList<Integer>();
+      for (VcsRef branch : myRefsModel.getBranches()) {
+        heads.add(branch.getCommitIndex());
+      }
+      myBranchReachability = HeadReachability.build(myCommitGraph, heads);
+    }
+    return myBranchReachability;
   }
 
   @NotNull
@@ -132,6 +168,9 @@ public class DataPack {
   @Nullable
   public Node getNodeByHash(Hash hash) {
     int index = myIndexGetter.fun(hash);
+    if (myCommitGraph.getRow(index) == CompactCommitGraph.NOT_LOADED) {
+      return null;
+    }
     Graph graph = getGraphModel().getGraph();
     for (int i = 0; i < graph.getNodeRows().size(); i++) {
       Node node = graph.getCommitNodeInRow(i);
@@ -21,14 +21,13 @@ import com.intellij.vcs.log.VcsShortCommitDetails;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.awt.*;
-
 /**
  * <p>The cache of commit details.</p>
  * <p>It is not actually a cache, but rather a limited map, because there is intentionally no way to get the non-cached value if it was not
  *    found in the cache: such functionality is implemented by the {@link DataGetter} which is able to receive
  *    non-cached details more efficiently, in a batch.</p>
- * <p>Any access to the Cache MUST be performed from the EDT thread.</p>
+ * <p>The Cache is thread-safe: details loaded in background are put into it directly from the loading threads.
+ *    Its size is limited, so it doesn't take too much memory however many commits are viewed.</p>
  *
  * @author Kirill Likhodedov
  */
@@ -36,23 +35,20 @@ class VcsCommitCache<T extends VcsShortCommitDetails> {
 
   private final SLRUMap<Hash, T> myCache = new SLRUMap<Hash, T>(5000, 5000);
 
-  public void put(@NotNull Hash hash, @NotNull T commit) {
-    assert EventQueue.isDispatchThread();
+  public synchronized void put(@NotNull Hash hash, @NotNull T commit) {
     myCache.put(hash, commit);
   }
 
-  public boolean isKeyCached(@NotNull Hash hash) {
-    assert EventQueue.isDispatchThread();
+  public synchronized boolean isKeyCached(@NotNull Hash hash) {
     return myCache.get(hash) != null;
   }
 
   @Nullable
-  public T get(@NotNull Hash hash) {
-    assert EventQueue.isDispatchThread();
+  public synchronized T get(@NotNull Hash hash) {
     return myCache.get(hash);
   }
 
-  public void remove(@NotNull Hash hash) {
+  public synchronized void remove(@NotNull Hash hash) {
     myCache.remove(hash);
   }
 
@@ -35,6 +35,14 @@ public class VcsLogBranchFilter implements VcsLogGraphFilter {
     return "on: " + myBranchName;
   }
 
+  /**
+   * @return commit indices of the heads of branches with the selected name
+   */
+  @NotNull
+  public Collection<Integer> getMatchingHeads() {
+    return myMatchingHeads;
+  }
+
   @NotNull
   public String getBranchName() {
     return myBranchName;
@@ -20,6 +20,7 @@ import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Attachment;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.BackgroundTaskQueue;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
@@ -34,6 +35,8 @@ import com.intellij.util.containers.HashSet;
 import com.intellij.util.messages.Topic;
 import com.intellij.util.ui.UIUtil;
 import com.intellij.vcs.log.*;
+import com.intellij.vcs.log.graph.CompactCommitGraph;
+import com.intellij.vcs.log.graph.HeadReachability;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -62,6 +65,10 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *    <li>Right after that, the whole log is loaded in the background. We need the whole log for two reasons:
  *        we don't want to hang for a minute if user decides to go to an old commit or even scroll;
  *        we need the whole log to properly perform the optimized refresh procedure.</li>
+ *    <li>The whole log structure is saved to disk (see {@link VcsLogGraphCache}), so the next time it is not read from the VCS:
+ *        the recent commits are attached to the saved structure the same way as on refresh.</li>
+ *    <li>Then details of all commits are indexed in the background (see {@link VcsLogDetailsIndex}), so that the details filters
+ *        can be applied to the whole log without querying the VCS.</li>
  *    <li>Once the whole log information is loaded, we don't rebuild the graphical log, because users rarely need old commits while
  *        memory would be occupied and performance would suffer.</li>
  *    <li>If user requests a commit that is not displayed (by clicking on an old branch reference, by going to a hash,
@@ -144,6 +151,8 @@ public class VcsLogDataHolder implements Disposable {
   private final VcsUserRegistry myUserRegistry;
 
   private final VcsLogHashMap myHashMap;
+  private final VcsLogGraphCache myGraphCache;
+  private final VcsLogDetailsIndex myDetailsIndex;
   private final NotNullFunction<Integer, Hash> myHashGetter;
   private final NotNullFunction<Hash, Integer> myIndexGetter;
   private final ContainingBranchesGetter myContainingBranchesGetter;
@@ -168,6 +177,8 @@ public class VcsLogDataHolder implements Disposable {
     catch (IOException e) {
       throw new RuntimeException(e); // TODO: show a message to the user & fallback to using in-memory Hashes
     }
+    myGraphCache = new VcsLogGraphCache(myProject, myHashMap);
+    myDetailsIndex = new VcsLogDetailsIndex(myProject, this, myHashMap, logProviders);
     myHashGetter = new NotNullFunction<Integer, Hash>() {
       @NotNull
       @Override
@@ -277,18 +288,35 @@ public class VcsLogDataHolder implements Disposable {
               myUserRegistry.addUser(user);
             }
           };
+          // the log saved by the previous session only needs the recent commits to be attached to it, as in the case of refresh
+          Map<String, VcsLogGraphCache.CachedLog> cachedLogs = myGraphCache.read(myUserRegistry);
+          Map<VirtualFile, RecentCommitsInfo> recentCommits =
+            cachedLogs.isEmpty() ? Collections.<VirtualFile, RecentCommitsInfo>emptyMap()
+                                 : collectInfoFromVcs(false, mySettings.getRecentCommitsCount());
+
           Map<VirtualFile, List<? extends TimedVcsCommit>> logs = ContainerUtil.newHashMap();
           Map<VirtualFile, Collection<VcsRef>> refs = ContainerUtil.newHashMap();
           for (Map.Entry<VirtualFile, VcsLogProvider> entry : myLogProviders.entrySet()) {
             VirtualFile root = entry.getKey();
             VcsLogProvider logProvider = entry.getValue();
-            logs.put(root, compactHashes(logProvider.readAllHashes(root, userRegistry)));
-            refs.put(root, logProvider.readAllRefs(root));
+            VcsLogGraphCache.CachedLog cachedLog = cachedLogs.get(root.getPath());
+            RecentCommitsInfo info = recentCommits.get(root);
+            List<TimedVcsCommit> log = cachedLog == null || info == null ? null : joinWithCachedLog(root, cachedLog, info);
+            if (log != null) {
+              logs.put(root, compactHashes(log));
+              refs.put(root, info.newRefs);
+            }
+            else {
+              logs.put(root, compactHashes(logProvider.readAllHashes(root, userRegistry)));
+              refs.put(root, logProvider.readAllRefs(root));
+            }
           }
           DataPack existingDataPack = myLogData.getDataPack();
           // keep existing data pack: we don't want to rebuild the graph,
           // we just make the whole log structure available for our cunning refresh procedure of if user requests the whole graph
           myLogData = new LogData(logs, refs, myLogData.getTopCommits(), existingDataPack, true);
+          saveGraphCache(logs, refs);
+          indexDetails(logs);
         }
         finally {
           myEntireLogLoadWaiter.countDown();
@@ -297,7 +325,84 @@ public class VcsLogDataHolder implements Disposable {
     }, "Loading log structure...");
   }
 
-  private List<CompactCommit> compactHashes(List<TimedVcsCommit> commits) {
+  @Nullable
+  private List<TimedVcsCommit> joinWithCachedLog(@NotNull VirtualFile root, @NotNull VcsLogGraphCache.CachedLog cachedLog,
+                                                 @NotNull RecentCommitsInfo info) {
+    List<TimedVcsCommit> savedLog = ContainerUtil.newArrayListWithCapacity(cachedLog.size());
+    for (int i = 0; i < cachedLog.size(); i++) {
+      savedLog.add(new CompactCommit(cachedLog.myCommits[i], cachedLog.getParents(i), cachedLog.myTimes[i]));
+    }
+    Set<Hash> previousRefsHashes = ContainerUtil.newHashSet();
+    try {
+      for (int refCommit : cachedLog.myRefCommits) {
+        previousRefsHashes.add(getHash(refCommit));
+      }
+      return myLogJoiner.addCommits(savedLog, previousRefsHashes, info.firstBlockCommits, info.newRefs).getFirst();
+    }
+    catch (ProcessCanceledException e) {
+      throw e;
+    }
+    catch (RuntimeException e) {
+      // the recent commits are not enough to attach them to the cached log, or the cache doesn't match the hash map
+      LOG.info("Couldn't use the cached log of " + root + ", reading the whole log", e);
+      return null;
+    }
+  }
+
+  private void saveGraphCache(@NotNull Map<VirtualFile, List<? extends TimedVcsCommit>> logs,
+                              @NotNull Map<VirtualFile, Collection<VcsRef>> refs) {
+    Map<String, VcsLogGraphCache.CachedLog> cachedLogs = ContainerUtil.newHashMap();
+    for (Map.Entry<VirtualFile, List<? extends TimedVcsCommit>> entry : logs.entrySet()) {
+      List<CompactCommit> log = compactHashes(entry.getValue());
+      int parentCount = 0;
+      for (CompactCommit commit : log) {
+        parentCount += commit.getParentIndices().length;
+      }
+      int[] commits = new int[log.size()];
+      int[] parentStarts = new int[log.size() + 1];
+      int[] parents = new int[parentCount];
+      long[] times = new long[log.size()];
+      int next = 0;
+      for (int i = 0; i < log.size(); i++) {
+        CompactCommit commit = log.get(i);
+        commits[i] = commit.getIndex();
+        times[i] = commit.getTime();
+        for (int parent : commit.getParentIndices()) {
+          parents[next++] = parent;
+        }
+        parentStarts[i + 1] = next;
+      }
+
+      Collection<VcsRef> rootRefs = refs.get(entry.getKey());
+      int[] refCommits = new int[rootRefs == null ? 0 : rootRefs.size()];
+      if (rootRefs != null) {
+        int i = 0;
+        for (VcsRef ref : rootRefs) {
+          refCommits[i++] = ref.getCommitIndex();
+        }
+      }
+      cachedLogs.put(entry.getKey().getPath(), new VcsLogGraphCache.CachedLog(commits, parentStarts, parents, times, refCommits));
+    }
+    myGraphCache.write(cachedLogs, myUserRegistry.getUsers());
+  }
+
+  /**
+   * Schedules indexing of details of all commits of the log, which are not indexed yet.
+   */
+  private void indexDetails(@NotNull Map<VirtualFile, List<? extends TimedVcsCommit>> logs) {
+    Map<VirtualFile, int[]> commits = ContainerUtil.newHashMap();
+    for (Map.Entry<VirtualFile, List<? extends TimedVcsCommit>> entry : logs.entrySet()) {
+      List<CompactCommit> log = compactHashes(entry.getValue());
+      int[] rootCommits = new int[log.size()];
+      for (int i = 0; i < log.size(); i++) {
+        rootCommits[i] = log.get(i).getIndex();
+      }
+      commits.put(entry.getKey(), rootCommits);
+    }
+    myDetailsIndex.scheduleIndexing(commits);
+  }
+
+  private List<CompactCommit> compactHashes(List<? extends TimedVcsCommit> commits) {
     return ContainerUtil.map(commits, new Function<TimedVcsCommit, CompactCommit>() {
       @Override
       public CompactCommit fun(final TimedVcsCommit commit) {
@@ -352,6 +457,34 @@ public class VcsLogDataHolder implements Disposable {
     }, "Building full log...");
   }
 
+  /**
+   * @return reachability of branches over the graph of the whole log, or null if the whole log is not loaded yet.
+   * The graph is built on the first call after each refresh, therefore the method shouldn't be called in the EDT.
+   */
+  @Nullable
+  HeadReachability getWholeLogBranchReachability() {
+    LogData logData = myLogData;
+    if (logData == null || !logData.isFullLogReady()) {
+      return null;
+    }
+    if (myFullLogShowing) {
+      return logData.getDataPack().getBranchReachability();
+    }
+    synchronized (logData) {
+      if (logData.myWholeLogBranchReachability == null) {
+        List<TimedVcsCommit> compoundLog = myMultiRepoJoiner.join(logData.getLogs().values());
+        List<Integer> heads = ContainerUtil.newArrayList();
+        for (VcsRef ref : logData.getAllRefs()) {
+          if (ref.getType().isBranch()) {
+            heads.add(ref.getCommitIndex());
+          }
+        }
+        logData.myWholeLogBranchReachability = HeadReachability.build(CompactCommitGraph.build(convertToGraphCommits(compoundLog)), heads);
+      }
+      return logData.myWholeLogBranchReachability;
+    }
+  }
+
   private List<? extends GraphCommit> convertToGraphCommits(List<TimedVcsCommit> log) {
     return compactHashes(log);
   }
@@ -372,19 +505,22 @@ public class VcsLogDataHolder implements Disposable {
     Map<VirtualFile, List<? extends TimedVcsCommit>> logsToBuild = ContainerUtil.newHashMap();
     Map<VirtualFile, Collection<VcsRef>> refsByRoot = ContainerUtil.newHashMap();
     int topCommitCount = myLogData.getTopCommitsCount();
+    boolean logChanged = false;
 
-    for (Map.Entry<VirtualFile, RecentCommitsInfo> entry : collectInfoFromVcs(false, mySettings.getRecentCommitsCount())) {
+    for (Map.Entry<VirtualFile, RecentCommitsInfo> entry : collectInfoFromVcs(false, mySettings.getRecentCommitsCount()).entrySet()) {
       VirtualFile root = entry.getKey();
       RecentCommitsInfo info = entry.getValue();
 
       Collection<VcsRef> oldRefs = myLogData.getRefs(root);
       Pair<List<TimedVcsCommit>, Integer> joinResult = myLogJoiner.addCommits(myLogData.getLog(root), oldRefs,
                                                                               info.firstBlockCommits, info.newRefs);
-      if (!Comparing.haveEqualElements(oldRefs, info.newRefs)) {
+      boolean refsChanged = !Comparing.haveEqualElements(oldRefs, info.newRefs);
+      if (refsChanged) {
         myContainingBranchesGetter.clearCache();
       }
       List<TimedVcsCommit> refreshedLog = joinResult.getFirst();
       int newCommitsCount = joinResult.getSecond();
+      logChanged |= refsChanged || newCommitsCount != 0;
       // the value can significantly increase if user keeps IDEA open for a long time, and frequently receives many new commits,
       // but it is expected: we can work with long logs. A limit can be added in future if this becomes a problem.
       topCommitCount += newCommitsCount;
@@ -403,6 +539,10 @@ public class VcsLogDataHolder implements Disposable {
     myLogData = new LogData(logsToBuild, refsByRoot, topPartOfTheLog, dataPack, true);
 
     handleOnSuccessInEdt(onSuccess, dataPack);
+    if (logChanged) {
+      saveGraphCache(logsToBuild, refsByRoot);
+      indexDetails(logsToBuild);
+    }
   }
 
   /**
@@ -419,7 +559,7 @@ public class VcsLogDataHolder implements Disposable {
     Map<VirtualFile, List<? extends TimedVcsCommit>> logsToBuild = ContainerUtil.newHashMap();
     Map<VirtualFile, Collection<VcsRef>> refsByRoot = ContainerUtil.newHashMap();
 
-    for (Map.Entry<VirtualFile, RecentCommitsInfo> entry : collectInfoFromVcs(true, commitCount)) {
+    for (Map.Entry<VirtualFile, RecentCommitsInfo> entry : collectInfoFromVcs(true, commitCount).entrySet()) {
       VirtualFile root = entry.getKey();
       RecentCommitsInfo info = entry.getValue();
 
@@ -449,7 +589,7 @@ public class VcsLogDataHolder implements Disposable {
     handleOnSuccessInEdt(onSuccess, dataPack);
   }
 
-  private Set<Map.Entry<VirtualFile, RecentCommitsInfo>> collectInfoFromVcs(boolean ordered, int commitsCount) throws VcsException {
+  private Map<VirtualFile, RecentCommitsInfo> collectInfoFromVcs(boolean ordered, int commitsCount) throws VcsException {
     Map<VirtualFile, RecentCommitsInfo> infoByRoot = ContainerUtil.newHashMap();
     for (Map.Entry<VirtualFile, VcsLogProvider> entry : myLogProviders.entrySet()) {
       VirtualFile root = entry.getKey();
@@ -463,7 +603,7 @@ public class VcsLogDataHolder implements Disposable {
 
       infoByRoot.put(root, new RecentCommitsInfo(firstBlockCommits, newRefs));
     }
-    return infoByRoot.entrySet();
+    return infoByRoot;
   }
 
   private void storeUsers(@NotNull List<? extends VcsFullCommitDetails> details) {
@@ -563,6 +703,11 @@ public class VcsLogDataHolder implements Disposable {
     return myContainingBranchesGetter;
   }
 
+  @NotNull
+  VcsLogDetailsIndex getDetailsIndex() {
+    return myDetailsIndex;
+  }
+
   private static class RecentCommitsInfo {
     List<TimedVcsCommit> firstBlockCommits;
     Collection<VcsRef> newRefs;
@@ -740,6 +885,7 @@ public class VcsLogDataHolder implements Disposable {
     @NotNull private final List<TimedVcsCommit> myCompoundTopCommits;
     @NotNull private final DataPack myDataPack;
     private final boolean myFullLog;
+    @Nullable private HeadReachability myWholeLogBranchReachability; // calculated on demand, guarded by this
 
     private LogData(@NotNull Map<VirtualFile, List<? extends TimedVcsCommit>> logsByRoot,
                     @NotNull Map<VirtualFile, Collection<VcsRef>> refsByRoot, @NotNull List<TimedVcsCommit> compoundTopCommits,
@@ -809,6 +955,19 @@ public class VcsLogDataHolder implements Disposable {
       this(commit.getHash(), commit.getParents(), commit.getTime());
     }
 
+    public CompactCommit(int hashIndex, @NotNull int[] parents, long time) {
+      myHashIndex = hashIndex;
+      myTime = time;
+      myParent = parents.length > 0 ? parents[0] : -1;
+      if (parents.length > 1) {
+        myOtherParents = new int[parents.length - 1];
+        System.arraycopy(parents, 1, myOtherParents, 0, myOtherParents.length);
+      }
+      else {
+        myOtherParents = null;
+      }
+    }
+
     public CompactCommit(Hash hash, List<Hash> parents, long time) {
       myHashIndex = putHash(hash);
       myTime = time;
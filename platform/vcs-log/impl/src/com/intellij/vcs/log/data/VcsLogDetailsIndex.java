@@ -0,0 +1,217 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.vcs.log.data;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.vcs.log.VcsFullCommitDetails;
+import com.intellij.vcs.log.VcsLogProvider;
+import com.intellij.vcs.log.graph.CompactCommitGraph;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistent index of the commit details used by the details filters: messages, authors, commit times and changed paths.
+ * <p/>
+ * The index is filled in the background for the whole history and allows to filter all loaded commits without querying the VCS and
+ * without loading their details into the {@link VcsCommitCache}. Commits are identified by indices of {@link VcsLogHashMap}.
+ * The details are stored and looked up by {@link VcsLogDetailsStorage}.
+ */
+class VcsLogDetailsIndex implements Disposable {
+  private static final Logger LOG = Logger.getInstance(VcsLogDetailsIndex.class);
+  // increase when the storage format changes
+  private static final int VERSION = 1;
+  private static final int BATCH_SIZE = 500;
+
+  @NotNull private final VcsLogDataHolder myDataHolder;
+  @NotNull private final Map<VirtualFile, VcsLogProvider> myLogProviders;
+  @Nullable private final VcsLogDetailsStorage myStorage; // null if the storage couldn't be opened
+  @NotNull private final AtomicBoolean myIndexingInProgress = new AtomicBoolean();
+  @Nullable private volatile Map<VirtualFile, int[]> myCommitsToIndex;
+  private volatile boolean myDisposed;
+
+  VcsLogDetailsIndex(@NotNull Project project, @NotNull VcsLogDataHolder dataHolder, @NotNull VcsLogHashMap hashMap,
+                     @NotNull Map<VirtualFile, VcsLogProvider> logProviders) {
+    myDataHolder = dataHolder;
+    myLogProviders = logProviders;
+    myStorage = openStorage(new File(VcsLogHashMap.LOG_CACHE_APP_DIR,
+                                     project.getName() + "." + project.getLocationHash() + ".details." + VERSION), hashMap.getStamp());
+    Disposer.register(dataHolder, this);
+  }
+
+  @Nullable
+  private static VcsLogDetailsStorage openStorage(@NotNull File file, long hashMapStamp) {
+    try {
+      return new VcsLogDetailsStorage(file, hashMapStamp);
+    }
+    catch (IOException e) {
+      LOG.info("Couldn't open the commit details index " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Indexes the given commits which are not indexed yet, in a background thread.
+   * If the indexing is already in progress, these commits will be indexed after the current ones instead of them.
+   *
+   * @param commits commit indices by roots
+   */
+  void scheduleIndexing(@NotNull Map<VirtualFile, int[]> commits) {
+    if (myStorage == null) {
+      return;
+    }
+    myCommitsToIndex = commits;
+    startIndexing();
+  }
+
+  private void startIndexing() {
+    if (myIndexingInProgress.compareAndSet(false, true)) {
+      ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            Map<VirtualFile, int[]> commitsToIndex;
+            while ((commitsToIndex = myCommitsToIndex) != null && !myDisposed) {
+              myCommitsToIndex = null;
+              index(commitsToIndex);
+            }
+          }
+          finally {
+            myIndexingInProgress.set(false);
+          }
+          // commits could have been scheduled after the loop finished, but before the flag was reset
+          if (myCommitsToIndex != null && !myDisposed) {
+            startIndexing();
+          }
+        }
+      });
+    }
+  }
+
+  private void index(@NotNull Map<VirtualFile, int[]> commits) {
+    for (Map.Entry<VirtualFile, int[]> entry : commits.entrySet()) {
+      VirtualFile root = entry.getKey();
+      List<String> batch = ContainerUtil.newArrayList();
+      for (int commit : entry.getValue()) {
+        if (myDisposed || myCommitsToIndex != null) {
+          return; // the log has been refreshed: continue with the new commits
+        }
+        if (!isIndexed(commit)) {
+          batch.add(myDataHolder.getHash(commit).asString());
+          if (batch.size() == BATCH_SIZE) {
+            indexBatch(root, batch);
+            batch.clear();
+          }
+        }
+      }
+      if (!batch.isEmpty()) {
+        indexBatch(root, batch);
+      }
+    }
+  }
+
+  private void indexBatch(@NotNull VirtualFile root, @NotNull List<String> hashes) {
+    try {
+      List<? extends VcsFullCommitDetails> details = myLogProviders.get(root).readFullDetails(root, hashes);
+      for (VcsFullCommitDetails detail : details) {
+        put(myDataHolder.putHash(detail.getHash()), new VcsLogDetailsStorage.IndexedDetails(detail));
+      }
+    }
+    catch (VcsException e) {
+      LOG.info("Couldn't read details of " + hashes.size() + " commits in " + root, e);
+    }
+  }
+
+  private boolean isIndexed(int commit) {
+    return myStorage != null && !myDisposed && myStorage.isIndexed(commit);
+  }
+
+  private void put(int commit, @NotNull VcsLogDetailsStorage.IndexedDetails details) {
+    if (myStorage != null && !myDisposed) {
+      myStorage.put(commit, details);
+    }
+  }
+
+  /**
+   * @return rows of the graph whose commits match all the given filters,
+   * or null if some of the commits are not indexed yet, or some of the filters can't be checked by the index
+   */
+  @Nullable
+  BitSet filter(@NotNull CompactCommitGraph graph, @NotNull Collection<VcsLogDetailsFilter> filters) {
+    if (myStorage == null || myDisposed) {
+      return null;
+    }
+    int[] commits = new int[graph.size()];
+    for (int row = 0; row < graph.size(); row++) {
+      commits[row] = graph.getCommitIndex(row);
+    }
+    if (!myStorage.areIndexed(commits)) {
+      return null;
+    }
+    TIntArrayList matching = myStorage.filter(filters, myLogProviders.keySet(), myDataHolder.getCurrentUser());
+    if (matching == null) {
+      return null;
+    }
+    BitSet rows = new BitSet(graph.size());
+    for (int i = 0; i < matching.size(); i++) {
+      int row = graph.getRow(matching.get(i));
+      if (row != CompactCommitGraph.NOT_LOADED) {
+        rows.set(row);
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * @return root of the commit, or null if the commit is not indexed
+   */
+  @Nullable
+  VirtualFile getRoot(int commit) {
+    String rootPath = myStorage == null ? null : myStorage.getRoot(commit);
+    if (rootPath == null) {
+      return null;
+    }
+    for (VirtualFile root : myLogProviders.keySet()) {
+      if (root.getPath().equals(rootPath)) {
+        return root;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void dispose() {
+    myDisposed = true;
+    if (myStorage != null) {
+      myStorage.close();
+    }
+  }
+}
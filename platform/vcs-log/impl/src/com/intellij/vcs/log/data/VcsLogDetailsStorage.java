@@ -0,0 +1,528 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.vcs.log.data;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Processor;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.io.*;
+import com.intellij.vcs.log.VcsFullCommitDetails;
+import com.intellij.vcs.log.VcsUser;
+import com.intellij.vcs.log.ui.filter.VcsLogTextFilter;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TLongArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.io.DataOutputStream;
+import java.util.*;
+
+/**
+ * Storage of the commit details indexed by {@link VcsLogDetailsIndex}.
+ * <p/>
+ * The details are kept on disk in a {@link PersistentHashMap} keyed by the commit index. In memory, the commits are numbered
+ * in the order they were indexed, and each author, each changed path and each word of the messages refers to the sorted list of numbers
+ * of its commits. A filter is answered by uniting and intersecting these lists as bit sets, so only the commits matching it
+ * (and only for the filters which can't be checked by the lists exactly) are read from disk.
+ * <p/>
+ * The in-memory index is built from the disk storage on the first access after opening, in the calling thread.
+ * <p/>
+ * Since the commit indices are only meaningful for the {@link VcsLogHashMap} they were taken from, the {@link VcsLogHashMap#getStamp()
+ * stamp} of the map is stored next to the storage, and the storage is cleared on opening if the stamp doesn't match.
+ */
+class VcsLogDetailsStorage {
+  private static final Logger LOG = Logger.getInstance(VcsLogDetailsStorage.class);
+
+  @NotNull private final PersistentHashMap<Integer, IndexedDetails> myStorage;
+  private boolean myLoaded;
+  private boolean myClosed;
+
+  // commit index -> number of the commit in the in-memory index, and back
+  @NotNull private final TIntIntHashMap myNumbers = new TIntIntHashMap();
+  @NotNull private final TIntArrayList myCommits = new TIntArrayList();
+  // number -> commit time
+  @NotNull private final TLongArrayList myTimes = new TLongArrayList();
+  // number -> index in myRoots
+  @NotNull private final TIntArrayList myRootIds = new TIntArrayList();
+  @NotNull private final List<String> myRoots = ContainerUtil.newArrayList();
+  // the lists of numbers of commits by lower-cased words of messages, by authors, and by changed paths (root + "/" + relative path)
+  @NotNull private final Map<String, TIntArrayList> myCommitsByWords = ContainerUtil.newHashMap();
+  @NotNull private final Map<Author, TIntArrayList> myCommitsByAuthors = ContainerUtil.newHashMap();
+  @NotNull private final Map<String, TIntArrayList> myCommitsByPaths = ContainerUtil.newHashMap();
+
+  VcsLogDetailsStorage(@NotNull final File file, long hashMapStamp) throws IOException {
+    FileUtil.createParentDirs(file);
+    File stampFile = new File(file.getPath() + ".stamp");
+    if (readStamp(stampFile) != hashMapStamp) {
+      IOUtil.deleteAllFilesStartingWith(file);
+    }
+    myStorage = IOUtil.openCleanOrResetBroken(new ThrowableComputable<PersistentHashMap<Integer, IndexedDetails>, IOException>() {
+      @Override
+      public PersistentHashMap<Integer, IndexedDetails> compute() throws IOException {
+        return new PersistentHashMap<Integer, IndexedDetails>(file, EnumeratorIntegerDescriptor.INSTANCE, new IndexedDetailsExternalizer());
+      }
+    }, file);
+    writeStamp(stampFile, hashMapStamp);
+  }
+
+  /**
+   * @return the stamp of the hash map the storage was written with, or -1 if it is unknown
+   */
+  private static long readStamp(@NotNull File stampFile) {
+    if (!stampFile.exists()) {
+      return -1;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(stampFile));
+      try {
+        return in.readLong();
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Couldn't read the hash map stamp " + stampFile, e);
+      return -1;
+    }
+  }
+
+  private static void writeStamp(@NotNull File stampFile, long stamp) throws IOException {
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(stampFile));
+    try {
+      out.writeLong(stamp);
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  synchronized boolean isIndexed(int commit) {
+    return ensureLoaded() && myNumbers.containsKey(commit);
+  }
+
+  /**
+   * @return false if some of the commits are not indexed
+   */
+  synchronized boolean areIndexed(@NotNull int[] commits) {
+    if (!ensureLoaded()) {
+      return false;
+    }
+    for (int commit : commits) {
+      if (!myNumbers.containsKey(commit)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  synchronized void put(int commit, @NotNull IndexedDetails details) {
+    if (!ensureLoaded() || myNumbers.containsKey(commit)) {
+      return;
+    }
+    try {
+      myStorage.put(commit, details);
+      addToIndex(commit, details);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  @Nullable
+  synchronized IndexedDetails get(int commit) {
+    try {
+      return myClosed ? null : myStorage.get(commit);
+    }
+    catch (IOException e) {
+      LOG.info(e);
+      return null;
+    }
+  }
+
+  /**
+   * @return path of the root of the commit, or null if the commit is not indexed
+   */
+  @Nullable
+  synchronized String getRoot(int commit) {
+    if (!ensureLoaded() || !myNumbers.containsKey(commit)) {
+      return null;
+    }
+    return myRoots.get(myRootIds.get(myNumbers.get(commit)));
+  }
+
+  /**
+   * @param roots        roots of the commits which may match the filters
+   * @param currentUsers the current user by roots, used by the {@link VcsLogUserFilter.Me} filter
+   * @return indices of the indexed commits matching all the given filters, in the order they were indexed;
+   * or null if some of the filters can't be checked by the index
+   */
+  @Nullable
+  TIntArrayList filter(@NotNull Collection<VcsLogDetailsFilter> filters, @NotNull Collection<VirtualFile> roots,
+                       @NotNull Map<VirtualFile, VcsUser> currentUsers) {
+    List<String> textsToCheck = ContainerUtil.newArrayList();
+    TIntArrayList candidates = new TIntArrayList();
+    synchronized (this) {
+      if (!ensureLoaded()) {
+        return null;
+      }
+      BitSet result = getCommitsOfRoots(roots);
+      for (VcsLogDetailsFilter filter : filters) {
+        if (filter instanceof VcsLogTextFilter) {
+          String text = ((VcsLogTextFilter)filter).getText().toLowerCase();
+          List<String> words = splitToWords(text);
+          for (String word : words) {
+            result.and(getCommitsByWordPart(word));
+          }
+          if (words.size() != 1 || !words.get(0).equals(text)) {
+            // the text crosses the word boundaries: the words only select the candidates
+            textsToCheck.add(text);
+          }
+        }
+        else if (filter instanceof VcsLogUserFilter) {
+          result.and(getCommitsByUser((VcsLogUserFilter)filter, roots, currentUsers));
+        }
+        else if (filter instanceof VcsLogDateFilter) {
+          filterByDate(result, (VcsLogDateFilter)filter);
+        }
+        else if (filter instanceof VcsLogStructureFilter) {
+          result.and(getCommitsByFiles(((VcsLogStructureFilter)filter).getFiles()));
+        }
+        else {
+          return null;
+        }
+      }
+      for (int number = result.nextSetBit(0); number >= 0; number = result.nextSetBit(number + 1)) {
+        candidates.add(myCommits.get(number));
+      }
+    }
+    if (textsToCheck.isEmpty()) {
+      return candidates;
+    }
+
+    TIntArrayList matching = new TIntArrayList();
+    for (int i = 0; i < candidates.size(); i++) {
+      IndexedDetails details = get(candidates.get(i));
+      if (details != null && containsAll(details.myMessage.toLowerCase(), textsToCheck)) {
+        matching.add(candidates.get(i));
+      }
+    }
+    return matching;
+  }
+
+  synchronized void close() {
+    myClosed = true;
+    try {
+      myStorage.close();
+    }
+    catch (IOException e) {
+      LOG.info(e);
+    }
+  }
+
+  /**
+   * @return false if the storage is closed already
+   */
+  private boolean ensureLoaded() {
+    if (myClosed) {
+      return false;
+    }
+    if (!myLoaded) {
+      myLoaded = true;
+      try {
+        myStorage.processKeysWithExistingMapping(new Processor<Integer>() {
+          @Override
+          public boolean process(Integer commit) {
+            try {
+              IndexedDetails details = myStorage.get(commit);
+              if (details != null) {
+                addToIndex(commit, details);
+              }
+              return true;
+            }
+            catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        });
+      }
+      catch (Exception e) {
+        // the commits not loaded into memory will be indexed again
+        LOG.info("Couldn't load the commit details index", e);
+      }
+    }
+    return true;
+  }
+
+  private void addToIndex(int commit, @NotNull IndexedDetails details) {
+    int number = myCommits.size();
+    myNumbers.put(commit, number);
+    myCommits.add(commit);
+    myTimes.add(details.myTime);
+    int rootId = myRoots.indexOf(details.myRoot);
+    if (rootId < 0) {
+      rootId = myRoots.size();
+      myRoots.add(details.myRoot);
+    }
+    myRootIds.add(rootId);
+
+    for (String word : ContainerUtil.newHashSet(splitToWords(details.myMessage.toLowerCase()))) {
+      addNumber(myCommitsByWords, word, number);
+    }
+    addNumber(myCommitsByAuthors, new Author(details.myAuthorName, details.myAuthorEmail), number);
+    for (String path : details.myPaths) {
+      addNumber(myCommitsByPaths, details.myRoot + "/" + path, number);
+    }
+  }
+
+  private static <K> void addNumber(@NotNull Map<K, TIntArrayList> numbersByKeys, @NotNull K key, int number) {
+    TIntArrayList numbers = numbersByKeys.get(key);
+    if (numbers == null) {
+      numbers = new TIntArrayList(1);
+      numbersByKeys.put(key, numbers);
+    }
+    numbers.add(number);
+  }
+
+  @NotNull
+  private BitSet getCommitsOfRoots(@NotNull Collection<VirtualFile> roots) {
+    BitSet result = new BitSet(myCommits.size());
+    for (VirtualFile root : roots) {
+      int rootId = myRoots.indexOf(root.getPath());
+      if (rootId >= 0) {
+        for (int number = 0; number < myRootIds.size(); number++) {
+          if (myRootIds.get(number) == rootId) {
+            result.set(number);
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return commits whose messages contain a word containing the given part
+   */
+  @NotNull
+  private BitSet getCommitsByWordPart(@NotNull String part) {
+    BitSet result = new BitSet(myCommits.size());
+    for (Map.Entry<String, TIntArrayList> entry : myCommitsByWords.entrySet()) {
+      if (entry.getKey().contains(part)) {
+        setAll(result, entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  @NotNull
+  private BitSet getCommitsByUser(@NotNull VcsLogUserFilter filter, @NotNull Collection<VirtualFile> roots,
+                                  @NotNull Map<VirtualFile, VcsUser> currentUsers) {
+    BitSet result = new BitSet(myCommits.size());
+    for (VirtualFile root : roots) {
+      String name;
+      if (filter instanceof VcsLogUserFilter.Me) {
+        VcsUser me = currentUsers.get(root);
+        if (me == null) {
+          continue;
+        }
+        name = me.getName();
+      }
+      else {
+        name = filter.getUserName(root).toLowerCase();
+      }
+      BitSet byAuthors = new BitSet(myCommits.size());
+      for (Map.Entry<Author, TIntArrayList> entry : myCommitsByAuthors.entrySet()) {
+        Author author = entry.getKey();
+        // users are equal if their names are equal, see VcsUserImpl
+        boolean matches = filter instanceof VcsLogUserFilter.Me
+                          ? author.myName.equals(name)
+                          : author.myName.toLowerCase().contains(name) || author.myEmail.toLowerCase().contains(name);
+        if (matches) {
+          setAll(byAuthors, entry.getValue());
+        }
+      }
+      byAuthors.and(getCommitsOfRoots(Collections.singleton(root)));
+      result.or(byAuthors);
+    }
+    return result;
+  }
+
+  private void filterByDate(@NotNull BitSet commits, @NotNull VcsLogDateFilter filter) {
+    Date after = filter.getAfter();
+    Date before = filter.getBefore();
+    for (int number = commits.nextSetBit(0); number >= 0; number = commits.nextSetBit(number + 1)) {
+      long time = myTimes.get(number);
+      if (after != null && time <= after.getTime() || before != null && time >= before.getTime()) {
+        commits.clear(number);
+      }
+    }
+  }
+
+  @NotNull
+  private BitSet getCommitsByFiles(@NotNull Collection<VirtualFile> files) {
+    BitSet result = new BitSet(myCommits.size());
+    for (Map.Entry<String, TIntArrayList> entry : myCommitsByPaths.entrySet()) {
+      for (VirtualFile file : files) {
+        if (FileUtil.isAncestor(file.getPath(), entry.getKey(), false)) {
+          setAll(result, entry.getValue());
+          break;
+        }
+      }
+    }
+    return result;
+  }
+
+  private static void setAll(@NotNull BitSet bits, @NotNull TIntArrayList numbers) {
+    for (int i = 0; i < numbers.size(); i++) {
+      bits.set(numbers.get(i));
+    }
+  }
+
+  private static boolean containsAll(@NotNull String message, @NotNull List<String> texts) {
+    for (String text : texts) {
+      if (!message.contains(text)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return maximal sequences of letters and digits of the text
+   */
+  @NotNull
+  static List<String> splitToWords(@NotNull String text) {
+    List<String> words = ContainerUtil.newArrayList();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      }
+      else if (!wordChar && start >= 0) {
+        words.add(text.substring(start, i));
+        start = -1;
+      }
+    }
+    return words;
+  }
+
+  private static class Author {
+    @NotNull private final String myName;
+    @NotNull private final String myEmail;
+
+    private Author(@NotNull String name, @NotNull String email) {
+      myName = name;
+      myEmail = email;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      Author author = (Author)o;
+      return myName.equals(author.myName) && myEmail.equals(author.myEmail);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * myName.hashCode() + myEmail.hashCode();
+    }
+  }
+
+  /**
+   * Changed paths are stored relative to the root.
+   */
+  static class IndexedDetails {
+    @NotNull final String myRoot;
+    @NotNull final String myMessage;
+    @NotNull final String myAuthorName;
+    @NotNull final String myAuthorEmail;
+    final long myTime;
+    @NotNull final String[] myPaths;
+
+    IndexedDetails(@NotNull String root, @NotNull String message, @NotNull String authorName, @NotNull String authorEmail,
+                   long time, @NotNull String[] paths) {
+      myRoot = root;
+      myMessage = message;
+      myAuthorName = authorName;
+      myAuthorEmail = authorEmail;
+      myTime = time;
+      myPaths = paths;
+    }
+
+    IndexedDetails(@NotNull VcsFullCommitDetails details) {
+      this(details.getRoot().getPath(), details.getFullMessage(), details.getAuthor().getName(), details.getAuthor().getEmail(),
+           details.getTime(), getRelativePaths(details));
+    }
+
+    @NotNull
+    private static String[] getRelativePaths(@NotNull VcsFullCommitDetails details) {
+      String rootPrefix = details.getRoot().getPath() + "/";
+      Set<String> paths = ContainerUtil.newLinkedHashSet();
+      for (Change change : details.getChanges()) {
+        for (ContentRevision revision : new ContentRevision[]{change.getBeforeRevision(), change.getAfterRevision()}) {
+          if (revision != null) {
+            String path = revision.getFile().getPath();
+            paths.add(path.startsWith(rootPrefix) ? path.substring(rootPrefix.length()) : path);
+          }
+        }
+      }
+      return paths.toArray(new String[paths.size()]);
+    }
+  }
+
+  /**
+   * Not thread-safe because of the buffer: the storage is accessed under the lock of the storage.
+   */
+  private static class IndexedDetailsExternalizer implements DataExternalizer<IndexedDetails> {
+    private final byte[] myBuffer = IOUtil.allocReadWriteUTFBuffer();
+
+    @Override
+    public void save(DataOutput out, IndexedDetails details) throws IOException {
+      IOUtil.writeUTFFast(myBuffer, out, details.myRoot);
+      IOUtil.writeUTFFast(myBuffer, out, details.myMessage);
+      IOUtil.writeUTFFast(myBuffer, out, details.myAuthorName);
+      IOUtil.writeUTFFast(myBuffer, out, details.myAuthorEmail);
+      DataInputOutputUtil.writeTIME(out, details.myTime);
+      DataInputOutputUtil.writeINT(out, details.myPaths.length);
+      for (String path : details.myPaths) {
+        IOUtil.writeUTFFast(myBuffer, out, path);
+      }
+    }
+
+    @Override
+    public IndexedDetails read(DataInput in) throws IOException {
+      String root = IOUtil.readUTFFast(myBuffer, in);
+      String message = IOUtil.readUTFFast(myBuffer, in);
+      String authorName = IOUtil.readUTFFast(myBuffer, in);
+      String authorEmail = IOUtil.readUTFFast(myBuffer, in);
+      long time = DataInputOutputUtil.readTIME(in);
+      String[] paths = new String[DataInputOutputUtil.readINT(in)];
+      for (int i = 0; i < paths.length; i++) {
+        paths[i] = IOUtil.readUTFFast(myBuffer, in);
+      }
+      return new IndexedDetails(root, message, authorName, authorEmail, time, paths);
+    }
+  }
+}
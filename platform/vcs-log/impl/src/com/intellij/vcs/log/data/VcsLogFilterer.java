@@ -2,13 +2,20 @@ package com.intellij.vcs.log.data;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Condition;
+import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.Ref;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.Consumer;
 import com.intellij.util.Function;
 import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.containers.MultiMap;
 import com.intellij.util.ui.UIUtil;
+import com.intellij.vcs.log.Hash;
 import com.intellij.vcs.log.VcsFullCommitDetails;
 import com.intellij.vcs.log.VcsLogFilter;
+import com.intellij.vcs.log.graph.CompactCommitGraph;
+import com.intellij.vcs.log.graph.HeadReachability;
 import com.intellij.vcs.log.graph.elements.Node;
 import com.intellij.vcs.log.graphmodel.GraphModel;
 import com.intellij.vcs.log.ui.VcsLogUI;
@@ -18,8 +25,7 @@ import com.intellij.vcs.log.ui.tables.NoGraphTableModel;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 
 public class VcsLogFilterer {
 
@@ -50,7 +56,11 @@ public class VcsLogFilterer {
     // (e.g. won't be able to find out if a commit belongs to the branch selected by user).
 
     // hide invisible nodes from the graph
-    if (!graphFilters.isEmpty()) {
+    List<VcsLogBranchFilter> branchFilters = ContainerUtil.findAll(graphFilters, VcsLogBranchFilter.class);
+    if (!graphFilters.isEmpty() && branchFilters.size() == graphFilters.size()) {
+      applyBranchFilters(graphModel, branchFilters);
+    }
+    else if (!graphFilters.isEmpty()) {
       applyGraphFilters(graphModel, graphFilters);
     }
     else {
@@ -63,10 +73,18 @@ public class VcsLogFilterer {
     }
 
     // apply details filters, and use simple table without graph (we can't filter by details and keep the graph yet).
+    // the whole log is filtered by the details index if it is ready, otherwise only the recent commits with cached details.
     final AbstractVcsLogTableModel model;
     if (!detailsFilters.isEmpty()) {
-      List<VcsFullCommitDetails> filteredCommits = filterByDetails(graphModel, detailsFilters);
-      model = new NoGraphTableModel(myUI, filteredCommits, myLogDataHolder.getDataPack().getRefsModel(), true);
+      Pair<List<VcsFullCommitDetails>, Boolean> indexedResult =
+        branchFilters.size() == graphFilters.size() ? filterByDetailsIndex(branchFilters, detailsFilters) : null;
+      if (indexedResult != null) {
+        model = new NoGraphTableModel(myUI, indexedResult.first, myLogDataHolder.getDataPack().getRefsModel(), indexedResult.second);
+      }
+      else {
+        List<VcsFullCommitDetails> filteredCommits = filterByDetails(graphModel, detailsFilters);
+        model = new NoGraphTableModel(myUI, filteredCommits, myLogDataHolder.getDataPack().getRefsModel(), true);
+      }
     }
     else {
       model = new GraphTableModel(myLogDataHolder, myUI);
@@ -119,6 +137,121 @@ public class VcsLogFilterer {
     });
   }
 
+  /**
+   * Makes visible the commits reachable from the selected branches, checking each commit by the precalculated branch reachability
+   * instead of walking the graph down from the branch heads.
+   */
+  private void applyBranchFilters(final GraphModel graphModel, List<VcsLogBranchFilter> branchFilters) {
+    HeadReachability reachability = myLogDataHolder.getDataPack().getBranchReachability();
+    final CompactCommitGraph commitGraph = reachability.getGraph();
+    final BitSet reachableRows = getReachableRows(reachability, branchFilters);
+    myUI.getTable().executeWithoutRepaint(new Runnable() {
+      @Override
+      public void run() {
+        graphModel.setVisibleCommits(new Function<Node, Boolean>() {
+          @Override
+          public Boolean fun(final Node node) {
+            int row = commitGraph.getRow(node.getCommitIndex());
+            return row != CompactCommitGraph.NOT_LOADED && reachableRows.get(row);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * @return rows of the reachability graph which hold the commits reachable from the heads of each of the filters
+   */
+  @NotNull
+  private static BitSet getReachableRows(@NotNull HeadReachability reachability, @NotNull List<VcsLogBranchFilter> branchFilters) {
+    BitSet rows = null;
+    for (VcsLogBranchFilter filter : branchFilters) {
+      BitSet filterRows = reachability.getReachabilityCondition(filter.getMatchingHeads()).getReachableRows();
+      if (rows == null) {
+        rows = filterRows;
+      }
+      else {
+        rows.and(filterRows);
+      }
+    }
+    if (rows == null) {
+      rows = new BitSet();
+      rows.set(0, reachability.getGraph().size());
+    }
+    return rows;
+  }
+
+  /**
+   * Filters the whole log by the details index, and loads details of the first matching commits from the VCS.
+   *
+   * @return matching commits, and whether there are more of them than returned;
+   * or null if the whole log is not loaded or not indexed yet, or the filters are not supported by the index
+   */
+  @Nullable
+  private Pair<List<VcsFullCommitDetails>, Boolean> filterByDetailsIndex(@NotNull List<VcsLogBranchFilter> branchFilters,
+                                                                         @NotNull List<VcsLogDetailsFilter> detailsFilters) {
+    HeadReachability reachability = myLogDataHolder.getWholeLogBranchReachability();
+    if (reachability == null) {
+      return null;
+    }
+    CompactCommitGraph graph = reachability.getGraph();
+    VcsLogDetailsIndex index = myLogDataHolder.getDetailsIndex();
+    BitSet rows = index.filter(graph, detailsFilters);
+    if (rows == null) {
+      return null;
+    }
+    rows.and(getReachableRows(reachability, branchFilters));
+
+    int limit = myLogDataHolder.getSettings().getRecentCommitsCount();
+    List<Integer> commits = ContainerUtil.newArrayList();
+    boolean hasMore = false;
+    for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+      if (commits.size() == limit) {
+        hasMore = true;
+        break;
+      }
+      commits.add(graph.getCommitIndex(row));
+    }
+
+    MultiMap<VirtualFile, String> hashesByRoots = MultiMap.create();
+    for (int commit : commits) {
+      VirtualFile root = index.getRoot(commit);
+      if (root == null) {
+        return null;
+      }
+      hashesByRoots.putValue(root, myLogDataHolder.getHash(commit).asString());
+    }
+    Map<Hash, VcsFullCommitDetails> detailsByHashes = ContainerUtil.newHashMap();
+    try {
+      for (Map.Entry<VirtualFile, Collection<String>> entry : hashesByRoots.entrySet()) {
+        VirtualFile root = entry.getKey();
+        List<String> hashes = new ArrayList<String>(entry.getValue());
+        for (VcsFullCommitDetails details : myLogDataHolder.getLogProvider(root).readFullDetails(root, hashes)) {
+          detailsByHashes.put(details.getHash(), details);
+        }
+      }
+    }
+    catch (VcsException e) {
+      LOG.info("Couldn't read details of filtered commits", e);
+      return null;
+    }
+
+    final List<VcsFullCommitDetails> result = ContainerUtil.newArrayList();
+    for (int commit : commits) {
+      VcsFullCommitDetails details = detailsByHashes.get(myLogDataHolder.getHash(commit));
+      if (details != null) {
+        result.add(details);
+      }
+    }
+    UIUtil.invokeAndWaitIfNeeded(new Runnable() {
+      @Override
+      public void run() {
+        myLogDataHolder.getCommitDetailsGetter().saveInCache(result);
+      }
+    });
+    return Pair.create(result, hasMore);
+  }
+
   private List<VcsFullCommitDetails> filterByDetails(final GraphModel graphModel, final List<VcsLogDetailsFilter> detailsFilters) {
     List<VcsFullCommitDetails> result = ContainerUtil.newArrayList();
     int topCommits = myLogDataHolder.getSettings().getRecentCommitsCount();
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.intellij.vcs.log.data;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.containers.ContainerUtil;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.vcs.log.VcsUser;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Persists the structure of the whole log between sessions: commits of each root with their parents and timestamps, the commits
+ * referenced by branches and tags, and the authors met in the history. The next session attaches the recent commits to it with {@link VcsLogJoiner} instead of reading
+ * the whole history from the VCS.
+ * <p/>
+ * Commits are stored as indices of {@link VcsLogHashMap}, so the cache is valid only together with the hash map it was written with:
+ * the {@link VcsLogHashMap#getStamp() stamp} of the map is stored in the header, and the cache is discarded if it doesn't match.
+ */
+class VcsLogGraphCache {
+  private static final Logger LOG = Logger.getInstance(VcsLogGraphCache.class);
+  // increase when the storage format changes
+  private static final int VERSION = 1;
+
+  @NotNull private final File myFile;
+  private final long myHashMapStamp;
+
+  VcsLogGraphCache(@NotNull Project project, @NotNull VcsLogHashMap hashMap) {
+    this(new File(VcsLogHashMap.LOG_CACHE_APP_DIR, project.getName() + "." + project.getLocationHash() + ".graph"), hashMap.getStamp());
+  }
+
+  VcsLogGraphCache(@NotNull File file, long hashMapStamp) {
+    myFile = file;
+    myHashMapStamp = hashMapStamp;
+  }
+
+  /**
+   * @param userRegistry receives the users stored in the cache
+   * @return logs by root paths; empty if there is no cache or it can't be read
+   */
+  @NotNull
+  Map<String, CachedLog> read(@NotNull VcsUserRegistry userRegistry) {
+    Map<String, CachedLog> logs = ContainerUtil.newHashMap();
+    if (!myFile.exists()) {
+      return logs;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(myFile)));
+      try {
+        if (DataInputOutputUtil.readINT(in) != VERSION || DataInputOutputUtil.readINT(in) != VcsLogHashMap.VERSION ||
+            in.readLong() != myHashMapStamp) {
+          return logs;
+        }
+        int userCount = DataInputOutputUtil.readINT(in);
+        for (int i = 0; i < userCount; i++) {
+          userRegistry.createUser(in.readUTF(), in.readUTF());
+        }
+        int rootCount = DataInputOutputUtil.readINT(in);
+        for (int i = 0; i < rootCount; i++) {
+          String root = in.readUTF();
+          logs.put(root, CachedLog.read(in));
+        }
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.info("Couldn't read the log cache " + myFile, e);
+      logs.clear();
+    }
+    return logs;
+  }
+
+  void write(@NotNull Map<String, CachedLog> logs, @NotNull Collection<VcsUser> users) {
+    File tempFile = new File(myFile.getPath() + ".tmp");
+    try {
+      FileUtil.createParentDirs(tempFile);
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+      try {
+        DataInputOutputUtil.writeINT(out, VERSION);
+        DataInputOutputUtil.writeINT(out, VcsLogHashMap.VERSION);
+        out.writeLong(myHashMapStamp);
+        DataInputOutputUtil.writeINT(out, users.size());
+        for (VcsUser user : users) {
+          out.writeUTF(user.getName());
+          out.writeUTF(user.getEmail());
+        }
+        DataInputOutputUtil.writeINT(out, logs.size());
+        for (Map.Entry<String, CachedLog> entry : logs.entrySet()) {
+          out.writeUTF(entry.getKey());
+          entry.getValue().write(out);
+        }
+      }
+      finally {
+        out.close();
+      }
+      FileUtil.rename(tempFile, myFile);
+    }
+    catch (IOException e) {
+      LOG.info("Couldn't write the log cache " + myFile, e);
+      FileUtil.delete(tempFile);
+    }
+  }
+
+  /**
+   * Log of a single root in primitive arrays: parents of the commit i are at [myParentStarts[i], myParentStarts[i + 1]) in myParents.
+   */
+  static class CachedLog {
+    @NotNull final int[] myCommits;
+    @NotNull final int[] myParentStarts;
+    @NotNull final int[] myParents;
+    @NotNull final long[] myTimes;
+    // commits referenced by the branches and tags of the root
+    @NotNull final int[] myRefCommits;
+
+    CachedLog(@NotNull int[] commits, @NotNull int[] parentStarts, @NotNull int[] parents, @NotNull long[] times,
+              @NotNull int[] refCommits) {
+      myCommits = commits;
+      myParentStarts = parentStarts;
+      myParents = parents;
+      myTimes = times;
+      myRefCommits = refCommits;
+    }
+
+    int size() {
+      return myCommits.length;
+    }
+
+    @NotNull
+    int[] getParents(int commit) {
+      int[] parents = new int[myParentStarts[commit + 1] - myParentStarts[commit]];
+      System.arraycopy(myParents, myParentStarts[commit], parents, 0, parents.length);
+      return parents;
+    }
+
+    @NotNull
+    private static CachedLog read(@NotNull DataInput in) throws IOException {
+      int size = DataInputOutputUtil.readINT(in);
+      int[] commits = new int[size];
+      int[] parentStarts = new int[size + 1];
+      long[] times = new long[size];
+      int[] parents = new int[size];
+      int parentCount = 0;
+      for (int i = 0; i < size; i++) {
+        commits[i] = DataInputOutputUtil.readINT(in);
+        times[i] = DataInputOutputUtil.readTIME(in);
+        int count = DataInputOutputUtil.readINT(in);
+        if (parentCount + count > parents.length) {
+          int[] newParents = new int[Math.max(parents.length * 2, parentCount + count)];
+          System.arraycopy(parents, 0, newParents, 0, parentCount);
+          parents = newParents;
+        }
+        for (int j = 0; j < count; j++) {
+          parents[parentCount++] = DataInputOutputUtil.readINT(in);
+        }
+        parentStarts[i + 1] = parentCount;
+      }
+      int[] refCommits = new int[DataInputOutputUtil.readINT(in)];
+      for (int i = 0; i < refCommits.length; i++) {
+        refCommits[i] = DataInputOutputUtil.readINT(in);
+      }
+      return new CachedLog(commits, parentStarts, parents, times, refCommits);
+    }
+
+    private void write(@NotNull DataOutput out) throws IOException {
+      DataInputOutputUtil.writeINT(out, size());
+      for (int i = 0; i < size(); i++) {
+        DataInputOutputUtil.writeINT(out, myCommits[i]);
+        DataInputOutputUtil.writeTIME(out, myTimes[i]);
+        DataInputOutputUtil.writeINT(out, myParentStarts[i + 1] - myParentStarts[i]);
+        for (int j = myParentStarts[i]; j < myParentStarts[i + 1]; j++) {
+          DataInputOutputUtil.writeINT(out, myParents[j]);
+        }
+      }
+      DataInputOutputUtil.writeINT(out, myRefCommits.length);
+      for (int refCommit : myRefCommits) {
+        DataInputOutputUtil.writeINT(out, refCommit);
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.intellij.vcs.log.data;
 
 import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
 import com.intellij.util.io.KeyDescriptor;
 import com.intellij.util.io.Page;
@@ -25,23 +26,59 @@ import com.intellij.vcs.log.impl.HashImpl;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 
 /**
  * Supports the int <-> Hash persistent mapping.
  */
 class VcsLogHashMap {
+  private static final Logger LOG = Logger.getInstance(VcsLogHashMap.class);
 
-  private static final File LOG_CACHE_APP_DIR = new File(PathManager.getSystemPath(), "vcs-log");
+  static final File LOG_CACHE_APP_DIR = new File(PathManager.getSystemPath(), "vcs-log");
+  // increase when the storage format changes
+  static final int VERSION = 1;
 
   private final PersistentEnumerator<Hash> myPersistentEnumerator;
+  private final long myStamp;
 
   VcsLogHashMap(@NotNull Project project) throws IOException {
-    File myMapFile = new File(LOG_CACHE_APP_DIR, project.getName() + "." + project.getLocationHash());
+    File myMapFile = new File(LOG_CACHE_APP_DIR, project.getName() + "." + project.getLocationHash() + "." + VERSION);
+    File stampFile = new File(myMapFile.getPath() + ".stamp");
+    boolean created = !myMapFile.exists();
     myPersistentEnumerator = new PersistentEnumerator<Hash>(myMapFile, new MyHashKeyDescriptor(), Page.PAGE_SIZE);
+    myStamp = readOrCreateStamp(stampFile, created);
+  }
+
+  /**
+   * Identifies this instance of the persistent map: the stamp changes whenever the map is created anew,
+   * so caches storing indices of a map can tell if they were written with the same map.
+   */
+  long getStamp() {
+    return myStamp;
+  }
+
+  private static long readOrCreateStamp(@NotNull File stampFile, boolean created) throws IOException {
+    if (!created && stampFile.exists()) {
+      DataInputStream in = new DataInputStream(new FileInputStream(stampFile));
+      try {
+        return in.readLong();
+      }
+      catch (IOException e) {
+        LOG.info("Couldn't read the hash map stamp " + stampFile, e);
+      }
+      finally {
+        in.close();
+      }
+    }
+    long stamp = System.currentTimeMillis();
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(stampFile));
+    try {
+      out.writeLong(stamp);
+    }
+    finally {
+      out.close();
+    }
+    return stamp;
   }
 
   @Nullable
@@ -56,12 +93,12 @@ class VcsLogHashMap {
   private static class MyHashKeyDescriptor implements KeyDescriptor<Hash> {
     @Override
     public void save(DataOutput out, Hash value) throws IOException {
-      out.writeUTF(value.asString());
+      HashImpl.write(out, value);
     }
 
     @Override
     public Hash read(DataInput in) throws IOException {
-      return HashImpl.build(in.readUTF());
+      return HashImpl.read(in);
     }
 
     @Override
@@ -48,7 +48,20 @@ public class VcsLogJoiner {
                                                            @NotNull Collection<VcsRef> previousRefs,
                                                            @NotNull List<? extends TimedVcsCommit> firstBlock,
                                                            @NotNull Collection<VcsRef> newRefs) {
-    Set<Hash> previousRefsHashes = toHashes(previousRefs);
+    return addCommits(savedLog, toHashes(previousRefs), firstBlock, newRefs);
+  }
+
+  /**
+   * Same as {@link #addCommits(List, Collection, List, Collection)}, but takes only the commits the previous references pointed to:
+   * nothing else is needed from them, and the log restored from the cache doesn't have the references themselves.
+   *
+   * @throws IllegalStateException if the first block is not enough to attach the new commits to the saved log.
+   */
+  @NotNull
+  public Pair<List<TimedVcsCommit>, Integer> addCommits(@NotNull List<? extends TimedVcsCommit> savedLog,
+                                                           @NotNull Set<Hash> previousRefsHashes,
+                                                           @NotNull List<? extends TimedVcsCommit> firstBlock,
+                                                           @NotNull Collection<VcsRef> newRefs) {
     Set<Hash> newRefsHashes = toHashes(newRefs);
     Pair<Integer, Set<Hash>> redCommitsAndSavedRedIndex =
       getRedCommitsAndSavedRedIndex(savedLog, previousRefsHashes, firstBlock, newRefsHashes);
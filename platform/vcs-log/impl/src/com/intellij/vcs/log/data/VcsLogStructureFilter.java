@@ -87,6 +87,11 @@ public class VcsLogStructureFilter implements VcsLogDetailsFilter {
     }) != null;
   }
 
+  @NotNull
+  public Collection<VirtualFile> getFiles() {
+    return myFiles;
+  }
+
   @NotNull
   public Collection<VirtualFile> getFiles(@NotNull VirtualFile root) {
     return myFilesByRoots.get(root);
@@ -18,6 +18,9 @@ package com.intellij.vcs.log.impl;
 import com.intellij.vcs.log.Hash;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
@@ -88,6 +91,28 @@ public class HashImpl implements Hash {
     return data;
   }
 
+  /**
+   * Writes the hash in a compact binary form: the length and the bytes of the parsed hex string, i.e. 22 bytes for a SHA-1 hash.
+   */
+  public static void write(@NotNull DataOutput out, @NotNull Hash hash) throws IOException {
+    byte[] data = hash instanceof HashImpl ? ((HashImpl)hash).data : buildData(hash.asString());
+    if (data.length > 255) {
+      throw new IOException("Too long hash: " + hash.asString());
+    }
+    out.writeByte(data.length);
+    out.write(data);
+  }
+
+  /**
+   * Reads the hash written by {@link #write(DataOutput, Hash)}.
+   */
+  @NotNull
+  public static Hash read(@NotNull DataInput in) throws IOException {
+    byte[] data = new byte[in.readUnsignedByte()];
+    in.readFully(data);
+    return new HashImpl(data);
+  }
+
   private HashImpl(@NotNull byte[] hash) {
     this.data = hash;
     this.hashCode = Arrays.hashCode(hash);
@@ -119,7 +144,7 @@ public class HashImpl implements Hash {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     HashImpl that = (HashImpl)o;
-    return (hashCode == that.hashCode && asString().equals(that.asString()));
+    return (hashCode == that.hashCode && Arrays.equals(data, that.data));
   }
 
   public int hashCode() {
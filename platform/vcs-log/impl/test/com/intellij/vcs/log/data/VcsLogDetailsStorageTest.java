@@ -0,0 +1,184 @@
+package com.intellij.vcs.log.data;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.impl.StubVirtualFile;
+import com.intellij.vcs.log.VcsFullCommitDetails;
+import com.intellij.vcs.log.VcsUser;
+import com.intellij.vcs.log.impl.VcsUserImpl;
+import com.intellij.vcs.log.ui.filter.VcsLogTextFilter;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class VcsLogDetailsStorageTest {
+  private static final VirtualFile ROOT = new TestFile("/project");
+  private static final VirtualFile OTHER_ROOT = new TestFile("/other");
+  private static final long HASH_MAP_STAMP = 42;
+
+  private File myDir;
+  private File myFile;
+  private VcsLogDetailsStorage myStorage;
+
+  @Before
+  public void setUp() throws IOException {
+    myDir = FileUtil.createTempDirectory("vcs.log.details", null);
+    myFile = new File(myDir, "details");
+    myStorage = new VcsLogDetailsStorage(myFile, HASH_MAP_STAMP);
+    myStorage.put(1, details(ROOT, "Fix NPE in the parser", "John Smith", "john@example.com", 1000, "src/Parser.java"));
+    myStorage.put(2, details(ROOT, "Add parser tests", "Jane Doe", "jane@example.com", 2000, "test/ParserTest.java"));
+    myStorage.put(3, details(ROOT, "fix typo: parser -> lexer", "John Smith", "john@example.com", 3000, "src/Lexer.java", "README"));
+    myStorage.put(4, details(OTHER_ROOT, "Fix build", "John Smith", "smith@other.org", 4000, "build.xml"));
+  }
+
+  @After
+  public void tearDown() {
+    myStorage.close();
+    FileUtil.delete(myDir);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    myStorage.close();
+    myStorage = new VcsLogDetailsStorage(myFile, HASH_MAP_STAMP);
+
+    VcsLogDetailsStorage.IndexedDetails details = myStorage.get(3);
+    assertNotNull(details);
+    assertEquals("/project", details.myRoot);
+    assertEquals("fix typo: parser -> lexer", details.myMessage);
+    assertEquals("John Smith", details.myAuthorName);
+    assertEquals("john@example.com", details.myAuthorEmail);
+    assertEquals(3000, details.myTime);
+    assertEquals(asList("src/Lexer.java", "README"), asList(details.myPaths));
+
+    assertTrue(myStorage.areIndexed(new int[]{1, 2, 3, 4}));
+    assertFalse(myStorage.isIndexed(5));
+    assertEquals("/other", myStorage.getRoot(4));
+    // the in-memory index is restored from the disk
+    assertFilter(filter(new VcsLogTextFilter("fix")), 1, 3, 4);
+  }
+
+  @Test
+  public void testClearedIfHashMapChanged() throws IOException {
+    myStorage.close();
+    myStorage = new VcsLogDetailsStorage(myFile, HASH_MAP_STAMP + 1);
+
+    assertNull(myStorage.get(3));
+    assertFalse(myStorage.isIndexed(1));
+    assertFilter(filter(new VcsLogTextFilter("fix")));
+
+    myStorage.put(5, details(ROOT, "Fix NPE in the lexer", "Jane Doe", "jane@example.com", 5000, "src/Lexer.java"));
+    myStorage.close();
+    myStorage = new VcsLogDetailsStorage(myFile, HASH_MAP_STAMP + 1);
+    assertFilter(filter(new VcsLogTextFilter("fix")), 5);
+  }
+
+  @Test
+  public void testTextFilter() {
+    assertFilter(filter(new VcsLogTextFilter("FIX")), 1, 3, 4);
+    assertFilter(filter(new VcsLogTextFilter("pars")), 1, 2, 3);
+    assertFilter(filter(new VcsLogTextFilter("parser tests")), 2);
+    assertFilter(filter(new VcsLogTextFilter("in the")), 1);
+    assertFilter(filter(new VcsLogTextFilter("x t")), 3);
+    assertFilter(filter(new VcsLogTextFilter("->")), 3);
+    assertFilter(filter(new VcsLogTextFilter("absent")));
+  }
+
+  @Test
+  public void testUserFilter() {
+    assertFilter(filter(new VcsLogUserFilter.ByName("smith")), 1, 3, 4);
+    assertFilter(filter(new VcsLogUserFilter.ByName("jane@")), 2);
+    Map<VirtualFile, VcsUser> me = new HashMap<VirtualFile, VcsUser>();
+    me.put(ROOT, new VcsUserImpl("Jane Doe", "jane@example.com"));
+    List<VcsLogDetailsFilter> filters = Collections.<VcsLogDetailsFilter>singletonList(new VcsLogUserFilter.Me(me));
+    assertFilter(myStorage.filter(filters, asList(ROOT, OTHER_ROOT), me), 2);
+  }
+
+  @Test
+  public void testDateFilter() {
+    assertFilter(filter(new VcsLogDateFilter(new Date(1000), new Date(4000))), 2, 3);
+    assertFilter(filter(new VcsLogDateFilter(null, new Date(2000))), 1);
+  }
+
+  @Test
+  public void testStructureFilter() {
+    // the files are grouped by roots only for the VCS requests, the index checks them by paths
+    VirtualFile src = new TestFile("/project/src");
+    assertFilter(filter(new VcsLogStructureFilter(Collections.singleton(src), Collections.<VirtualFile>emptyList())), 1, 3);
+    VirtualFile buildFile = new TestFile("/other/build.xml");
+    assertFilter(filter(new VcsLogStructureFilter(Collections.singleton(buildFile), Collections.<VirtualFile>emptyList())), 4);
+  }
+
+  @Test
+  public void testFiltersAreIntersected() {
+    assertFilter(filter(new VcsLogTextFilter("fix"), new VcsLogUserFilter.ByName("john@"), new VcsLogDateFilter(new Date(2000), null)), 3);
+  }
+
+  @Test
+  public void testOnlyGivenRoots() {
+    TIntArrayList commits = myStorage.filter(Collections.<VcsLogDetailsFilter>singletonList(new VcsLogTextFilter("fix")),
+                                             Collections.singleton(OTHER_ROOT), Collections.<VirtualFile, VcsUser>emptyMap());
+    assertFilter(commits, 4);
+  }
+
+  @Test
+  public void testUnsupportedFilter() {
+    VcsLogDetailsFilter unsupported = new VcsLogDetailsFilter() {
+      @Override
+      public boolean matches(@NotNull VcsFullCommitDetails details) {
+        return true;
+      }
+    };
+    assertNull(filter(unsupported));
+  }
+
+  private TIntArrayList filter(VcsLogDetailsFilter... filters) {
+    return myStorage.filter(asList(filters), asList(ROOT, OTHER_ROOT), Collections.<VirtualFile, VcsUser>emptyMap());
+  }
+
+  private static void assertFilter(TIntArrayList actual, int... expected) {
+    assertNotNull(actual);
+    int[] commits = actual.toNativeArray();
+    Arrays.sort(commits);
+    assertArrayEquals(expected, commits);
+  }
+
+  @NotNull
+  private static VcsLogDetailsStorage.IndexedDetails details(@NotNull VirtualFile root, @NotNull String message, @NotNull String name,
+                                                             @NotNull String email, long time, @NotNull String... paths) {
+    return new VcsLogDetailsStorage.IndexedDetails(root.getPath(), message, name, email, time, paths);
+  }
+
+  private static class TestFile extends StubVirtualFile {
+    @NotNull private final String myPath;
+
+    private TestFile(@NotNull String path) {
+      myPath = path;
+    }
+
+    @Override
+    public String getPath() {
+      return myPath;
+    }
+
+    @NotNull
+    @Override
+    public String getName() {
+      return myPath.substring(myPath.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public VirtualFile getParent() {
+      return null;
+    }
+  }
+}
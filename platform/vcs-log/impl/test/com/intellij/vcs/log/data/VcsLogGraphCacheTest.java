@@ -0,0 +1,114 @@
+package com.intellij.vcs.log.data;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.vcs.log.VcsUser;
+import com.intellij.vcs.log.impl.VcsUserImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class VcsLogGraphCacheTest {
+  private static final long STAMP = 42;
+
+  private File myDir;
+  private File myFile;
+
+  @Before
+  public void setUp() throws IOException {
+    myDir = FileUtil.createTempDirectory("vcs.log.graph", null);
+    myFile = new File(myDir, "graph");
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.delete(myDir);
+  }
+
+  @Test
+  public void testRoundTrip() {
+    // 3 <- 2 <- 1 and a merge 5 of 4 and 3
+    VcsLogGraphCache.CachedLog log = new VcsLogGraphCache.CachedLog(new int[]{5, 4, 3, 2, 1}, new int[]{0, 2, 3, 4, 5, 5},
+                                                                      new int[]{4, 3, 3, 2, 1}, new long[]{5000, 4000, 3000, 2000, 1000},
+                                                                      new int[]{5});
+    VcsLogGraphCache.CachedLog other = new VcsLogGraphCache.CachedLog(new int[]{7}, new int[]{0, 0}, new int[0], new long[]{7000},
+                                                                        new int[0]);
+    Map<String, VcsLogGraphCache.CachedLog> logs = new HashMap<String, VcsLogGraphCache.CachedLog>();
+    logs.put("/project", log);
+    logs.put("/other", other);
+    new VcsLogGraphCache(myFile, STAMP).write(logs, Collections.<VcsUser>singleton(new VcsUserImpl("John Smith", "john@example.com")));
+
+    VcsUserRegistry registry = new VcsUserRegistry();
+    Map<String, VcsLogGraphCache.CachedLog> restored = new VcsLogGraphCache(myFile, STAMP).read(registry);
+    assertEquals(logs.keySet(), restored.keySet());
+    assertLogEquals(log, restored.get("/project"));
+    assertLogEquals(other, restored.get("/other"));
+    assertArrayEquals(new int[]{4, 3}, restored.get("/project").getParents(0));
+    assertArrayEquals(new int[0], restored.get("/project").getParents(4));
+    assertUsers(registry.getUsers(), "John Smith");
+  }
+
+  @Test
+  public void testOtherHashMapDiscardsCache() {
+    writeSingleCommit(STAMP);
+
+    VcsUserRegistry registry = new VcsUserRegistry();
+    assertTrue(new VcsLogGraphCache(myFile, STAMP + 1).read(registry).isEmpty());
+    assertTrue(registry.getUsers().isEmpty());
+    // the cache is still valid for the map it was written with
+    assertEquals(1, new VcsLogGraphCache(myFile, STAMP).read(new VcsUserRegistry()).size());
+  }
+
+  @Test
+  public void testNoCache() {
+    assertTrue(new VcsLogGraphCache(myFile, STAMP).read(new VcsUserRegistry()).isEmpty());
+  }
+
+  @Test
+  public void testTruncatedCache() throws IOException {
+    writeSingleCommit(STAMP);
+    byte[] content = FileUtil.loadFileBytes(myFile);
+    byte[] truncated = new byte[content.length - 1];
+    System.arraycopy(content, 0, truncated, 0, truncated.length);
+    FileUtil.writeToFile(myFile, truncated);
+
+    assertTrue(new VcsLogGraphCache(myFile, STAMP).read(new VcsUserRegistry()).isEmpty());
+  }
+
+  private void writeSingleCommit(long stamp) {
+    VcsLogGraphCache.CachedLog log = new VcsLogGraphCache.CachedLog(new int[]{1}, new int[]{0, 0}, new int[0], new long[]{1000},
+                                                                      new int[]{1});
+    new VcsLogGraphCache(myFile, stamp).write(Collections.singletonMap("/project", log),
+                                              Collections.<VcsUser>singleton(new VcsUserImpl("Jane Doe", "jane@example.com")));
+  }
+
+  private static void assertLogEquals(VcsLogGraphCache.CachedLog expected, VcsLogGraphCache.CachedLog actual) {
+    assertNotNull(actual);
+    assertArrayEquals(expected.myCommits, actual.myCommits);
+    assertArrayEquals(expected.myTimes, actual.myTimes);
+    assertArrayEquals(expected.myRefCommits, actual.myRefCommits);
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertArrayEquals(expected.getParents(i), actual.getParents(i));
+    }
+  }
+
+  private static void assertUsers(Collection<VcsUser> users, String... names) {
+    assertEquals(names.length, users.size());
+    for (String name : names) {
+      boolean found = false;
+      for (VcsUser user : users) {
+        found |= name.equals(user.getName());
+      }
+      assertTrue(name, found);
+    }
+  }
+}
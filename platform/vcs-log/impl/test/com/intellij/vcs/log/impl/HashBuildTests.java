@@ -5,6 +5,8 @@ import com.intellij.vcs.log.Hash;
 import junit.framework.Assert;
 import org.junit.Test;
 
+import java.io.*;
+
 /**
  * @author erokhins
  */
@@ -60,5 +62,17 @@ public class HashBuildTests {
     runStringTest("ff01a123125afabcdef123456789009876543219");
   }
 
+  @Test
+  public void testBinaryForm() throws Exception {
+    Hash hash = HashImpl.build("ff01a123125afabcdef123456789009876543219");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    HashImpl.write(new DataOutputStream(bytes), hash);
+    Assert.assertEquals(22, bytes.size());
+
+    Hash read = HashImpl.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    Assert.assertEquals(hash, read);
+    Assert.assertEquals(hash.asString(), read.asString());
+  }
+
 
 }
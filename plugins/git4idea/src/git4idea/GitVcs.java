@@ -335,6 +335,7 @@ public class GitVcs extends AbstractVcs<CommittedChangeList> {
       myVFSListener = new GitVFSListener(myProject, this, myGit);
     }
     NewGitUsersComponent.getInstance(myProject).activate();
+    myAnnotationProvider.activate();
     if (!Registry.is("git.new.log")) {
       GitProjectLogManager.getInstance(myProject).activate();
     }
@@ -374,6 +375,7 @@ public class GitVcs extends AbstractVcs<CommittedChangeList> {
       myVFSListener = null;
     }
     NewGitUsersComponent.getInstance(myProject).deactivate();
+    myAnnotationProvider.deactivate();
     GitProjectLogManager.getInstance(myProject).deactivate();
 
     if (myBranchWidget != null) {
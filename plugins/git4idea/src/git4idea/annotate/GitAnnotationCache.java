@@ -0,0 +1,355 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.ThrowableComputable;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.history.VcsFileRevision;
+import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.io.*;
+import com.intellij.vcsUtil.VcsUtil;
+import git4idea.GitFileRevision;
+import git4idea.GitRevisionNumber;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Persists annotations between sessions: the blame of a file together with the history of the file, by the path and the HEAD commit
+ * they were calculated at. Annotating a file which hasn't changed since then doesn't call Git.
+ * <p/>
+ * The storage is cleared on activation when it exceeds {@link #MAX_STORAGE_SIZE}.
+ */
+class GitAnnotationCache {
+  private static final Logger LOG = Logger.getInstance(GitAnnotationCache.class);
+  // increase when the storage format changes
+  private static final int VERSION = 1;
+  private static final long MAX_STORAGE_SIZE = 100 * 1024 * 1024;
+  private static final int NOT_COMMITTED = -1;
+
+  @NotNull private final Project myProject;
+  @NotNull private final File myDir;
+  @NotNull private final File myFile;
+  private final Object myLock = new Object();
+  @Nullable private PersistentHashMap<String, CachedAnnotation> myStorage; // null if not active or the storage couldn't be opened
+
+  GitAnnotationCache(@NotNull Project project) {
+    myProject = project;
+    myDir = new File(new File(PathManager.getSystemPath(), "vcs"), "git_annotations");
+    myFile = new File(myDir, project.getLocationHash() + "." + VERSION);
+  }
+
+  void activate() {
+    synchronized (myLock) {
+      if (myStorage != null) return;
+      if (getStorageSize() > MAX_STORAGE_SIZE) {
+        IOUtil.deleteAllFilesStartingWith(myFile);
+      }
+      try {
+        myDir.mkdirs();
+        myStorage = IOUtil.openCleanOrResetBroken(new ThrowableComputable<PersistentHashMap<String, CachedAnnotation>, IOException>() {
+          @Override
+          public PersistentHashMap<String, CachedAnnotation> compute() throws IOException {
+            return new PersistentHashMap<String, CachedAnnotation>(myFile, new EnumeratorStringDescriptor(), new CachedAnnotationExternalizer());
+          }
+        }, myFile);
+      }
+      catch (IOException e) {
+        LOG.info("Couldn't open the annotation cache " + myFile, e);
+      }
+    }
+  }
+
+  void deactivate() {
+    synchronized (myLock) {
+      if (myStorage == null) return;
+      try {
+        myStorage.close();
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+      myStorage = null;
+    }
+  }
+
+  /**
+   * @param revision the annotated revision, null for the HEAD
+   */
+  @NotNull
+  static String getKey(@NotNull VirtualFile file, @NotNull String headHash, @Nullable VcsRevisionNumber revision) {
+    return file.getPath() + "@" + headHash + (revision == null ? "" : ":" + revision.asString());
+  }
+
+  @Nullable
+  GitFileAnnotation get(@NotNull String key, @NotNull VirtualFile file, @Nullable VcsRevisionNumber revision) {
+    CachedAnnotation cached;
+    synchronized (myLock) {
+      if (myStorage == null) return null;
+      try {
+        cached = myStorage.get(key);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+        return null;
+      }
+    }
+    if (cached == null) return null;
+
+    GitFileAnnotation annotation = new GitFileAnnotation(myProject, file, revision == null, revision);
+    try {
+      int lineStart = 0;
+      for (int i = 0; i < cached.myLineCommits.length; i++) {
+        int lineEnd = cached.myContent.indexOf('\n', lineStart) + 1;
+        if (lineEnd == 0) {
+          lineEnd = cached.myContent.length();
+        }
+        String line = cached.myContent.substring(lineStart, lineEnd);
+        lineStart = lineEnd;
+        int commit = cached.myLineCommits[i];
+        if (commit == NOT_COMMITTED) {
+          annotation.appendLineInfo(null, null, null, line, i + 1);
+        }
+        else {
+          Date date = new Date(cached.myCommitTimes[commit]);
+          annotation.appendLineInfo(date, new GitRevisionNumber(cached.myCommitHashes[commit], date), cached.myCommitAuthors[commit],
+                                    line, i + 1);
+        }
+      }
+    }
+    catch (VcsException e) {
+      LOG.info(e);
+      return null;
+    }
+    annotation.addLogEntries(restoreRevisions(cached.myRevisions));
+    return annotation;
+  }
+
+  void put(@NotNull String key, @NotNull GitFileAnnotation annotation, @NotNull List<VcsFileRevision> revisions) {
+    List<CachedRevision> cachedRevisions = new ArrayList<CachedRevision>(revisions.size());
+    for (VcsFileRevision revision : revisions) {
+      if (!(revision instanceof GitFileRevision)) return;
+      cachedRevisions.add(new CachedRevision((GitFileRevision)revision));
+    }
+
+    Map<String, Integer> commitIndices = new HashMap<String, Integer>();
+    List<String> hashes = new ArrayList<String>();
+    List<Long> times = new ArrayList<Long>();
+    List<String> authors = new ArrayList<String>();
+    int[] lineCommits = new int[annotation.getNumLines()];
+    for (int i = 0; i < lineCommits.length; i++) {
+      VcsRevisionNumber revision = annotation.getLineRevisionNumber(i);
+      Date date = annotation.getLineDate(i);
+      if (revision == null || date == null) {
+        lineCommits[i] = NOT_COMMITTED;
+        continue;
+      }
+      String hash = revision.asString();
+      Integer index = commitIndices.get(hash);
+      if (index == null) {
+        index = hashes.size();
+        commitIndices.put(hash, index);
+        hashes.add(hash);
+        times.add(date.getTime());
+        authors.add(annotation.getLineAuthor(i));
+      }
+      lineCommits[i] = index;
+    }
+    long[] timeArray = new long[times.size()];
+    for (int i = 0; i < timeArray.length; i++) {
+      timeArray[i] = times.get(i);
+    }
+    CachedAnnotation cached = new CachedAnnotation(annotation.getAnnotatedContent(), lineCommits, hashes.toArray(new String[hashes.size()]),
+                                                   timeArray, authors.toArray(new String[authors.size()]), cachedRevisions);
+    synchronized (myLock) {
+      if (myStorage == null) return;
+      try {
+        myStorage.put(key, cached);
+      }
+      catch (IOException e) {
+        LOG.info(e);
+      }
+    }
+  }
+
+  @NotNull
+  private List<VcsFileRevision> restoreRevisions(@NotNull List<CachedRevision> cachedRevisions) {
+    List<VcsFileRevision> revisions = new ArrayList<VcsFileRevision>(cachedRevisions.size());
+    for (CachedRevision revision : cachedRevisions) {
+      Pair<String, String> committer = revision.myCommitterName == null ? null : Pair.create(revision.myCommitterName,
+                                                                                               revision.myCommitterEmail);
+      revisions.add(new GitFileRevision(myProject, VcsUtil.getFilePathForDeletedFile(revision.myPath, false),
+                                        new GitRevisionNumber(revision.myHash, new Date(revision.myTime)),
+                                        Pair.create(Pair.create(revision.myAuthorName, revision.myAuthorEmail), committer),
+                                        revision.myMessage, null, revision.myAuthorTime == null ? null : new Date(revision.myAuthorTime),
+                                        revision.myParents));
+    }
+    return revisions;
+  }
+
+  private long getStorageSize() {
+    File[] files = myDir.listFiles();
+    if (files == null) return 0;
+    long size = 0;
+    for (File file : files) {
+      if (FileUtil.startsWith(file.getPath(), myFile.getPath())) {
+        size += file.length();
+      }
+    }
+    return size;
+  }
+
+  private static class CachedAnnotation {
+    @NotNull private final String myContent;
+    // line -> index of the commit or NOT_COMMITTED
+    @NotNull private final int[] myLineCommits;
+    @NotNull private final String[] myCommitHashes;
+    @NotNull private final long[] myCommitTimes;
+    @NotNull private final String[] myCommitAuthors;
+    @NotNull private final List<CachedRevision> myRevisions;
+
+    private CachedAnnotation(@NotNull String content, @NotNull int[] lineCommits, @NotNull String[] commitHashes,
+                             @NotNull long[] commitTimes, @NotNull String[] commitAuthors, @NotNull List<CachedRevision> revisions) {
+      myContent = content;
+      myLineCommits = lineCommits;
+      myCommitHashes = commitHashes;
+      myCommitTimes = commitTimes;
+      myCommitAuthors = commitAuthors;
+      myRevisions = revisions;
+    }
+  }
+
+  private static class CachedRevision {
+    @NotNull private final String myHash;
+    private final long myTime;
+    @NotNull private final String myPath;
+    @Nullable private final String myAuthorName;
+    @Nullable private final String myAuthorEmail;
+    @Nullable private final String myCommitterName;
+    @Nullable private final String myCommitterEmail;
+    @Nullable private final String myMessage;
+    @Nullable private final Long myAuthorTime;
+    @NotNull private final Collection<String> myParents;
+
+    private CachedRevision(@NotNull GitFileRevision revision) {
+      this(revision.getHash(), revision.getRevisionDate().getTime(), revision.getPath().getPath(), revision.getAuthor(),
+           revision.getAuthorEmail(), revision.getCommitterName(), revision.getCommitterEmail(), revision.getCommitMessage(),
+           revision.getDateForRevisionsOrdering() == null ? null : revision.getDateForRevisionsOrdering().getTime(), revision.getParents());
+    }
+
+    private CachedRevision(@NotNull String hash, long time, @NotNull String path, @Nullable String authorName,
+                           @Nullable String authorEmail, @Nullable String committerName, @Nullable String committerEmail,
+                           @Nullable String message, @Nullable Long authorTime, @NotNull Collection<String> parents) {
+      myHash = hash;
+      myTime = time;
+      myPath = path;
+      myAuthorName = authorName;
+      myAuthorEmail = authorEmail;
+      myCommitterName = committerName;
+      myCommitterEmail = committerEmail;
+      myMessage = message;
+      myAuthorTime = authorTime;
+      myParents = parents;
+    }
+  }
+
+  private static class CachedAnnotationExternalizer implements DataExternalizer<CachedAnnotation> {
+    @Override
+    public void save(DataOutput out, CachedAnnotation value) throws IOException {
+      IOUtil.writeString(value.myContent, out);
+      DataInputOutputUtil.writeINT(out, value.myCommitHashes.length);
+      for (int i = 0; i < value.myCommitHashes.length; i++) {
+        out.writeUTF(value.myCommitHashes[i]);
+        DataInputOutputUtil.writeTIME(out, value.myCommitTimes[i]);
+        IOUtil.writeString(value.myCommitAuthors[i], out);
+      }
+      DataInputOutputUtil.writeINT(out, value.myLineCommits.length);
+      for (int commit : value.myLineCommits) {
+        // shifted to keep NOT_COMMITTED non-negative
+        DataInputOutputUtil.writeINT(out, commit + 1);
+      }
+      DataInputOutputUtil.writeINT(out, value.myRevisions.size());
+      for (CachedRevision revision : value.myRevisions) {
+        out.writeUTF(revision.myHash);
+        DataInputOutputUtil.writeTIME(out, revision.myTime);
+        IOUtil.writeString(revision.myPath, out);
+        IOUtil.writeString(revision.myAuthorName, out);
+        IOUtil.writeString(revision.myAuthorEmail, out);
+        IOUtil.writeString(revision.myCommitterName, out);
+        IOUtil.writeString(revision.myCommitterEmail, out);
+        IOUtil.writeString(revision.myMessage, out);
+        out.writeBoolean(revision.myAuthorTime != null);
+        if (revision.myAuthorTime != null) {
+          DataInputOutputUtil.writeTIME(out, revision.myAuthorTime);
+        }
+        DataInputOutputUtil.writeINT(out, revision.myParents.size());
+        for (String parent : revision.myParents) {
+          out.writeUTF(parent);
+        }
+      }
+    }
+
+    @Override
+    public CachedAnnotation read(DataInput in) throws IOException {
+      String content = IOUtil.readString(in);
+      int commitCount = DataInputOutputUtil.readINT(in);
+      String[] hashes = new String[commitCount];
+      long[] times = new long[commitCount];
+      String[] authors = new String[commitCount];
+      for (int i = 0; i < commitCount; i++) {
+        hashes[i] = in.readUTF();
+        times[i] = DataInputOutputUtil.readTIME(in);
+        authors[i] = IOUtil.readString(in);
+      }
+      int[] lineCommits = new int[DataInputOutputUtil.readINT(in)];
+      for (int i = 0; i < lineCommits.length; i++) {
+        lineCommits[i] = DataInputOutputUtil.readINT(in) - 1;
+      }
+      int revisionCount = DataInputOutputUtil.readINT(in);
+      List<CachedRevision> revisions = new ArrayList<CachedRevision>(revisionCount);
+      for (int i = 0; i < revisionCount; i++) {
+        String hash = in.readUTF();
+        long time = DataInputOutputUtil.readTIME(in);
+        String path = IOUtil.readString(in);
+        String authorName = IOUtil.readString(in);
+        String authorEmail = IOUtil.readString(in);
+        String committerName = IOUtil.readString(in);
+        String committerEmail = IOUtil.readString(in);
+        String message = IOUtil.readString(in);
+        Long authorTime = in.readBoolean() ? DataInputOutputUtil.readTIME(in) : null;
+        int parentCount = DataInputOutputUtil.readINT(in);
+        List<String> parents = new ArrayList<String>(parentCount);
+        for (int j = 0; j < parentCount; j++) {
+          parents.add(in.readUTF());
+        }
+        revisions.add(new CachedRevision(hash, time, path, authorName, authorEmail, committerName, committerEmail, message, authorTime,
+                                         parents));
+      }
+      return new CachedAnnotation(content, lineCommits, hashes, times, authors, revisions);
+    }
+  }
+}
@@ -20,6 +20,9 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Getter;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.FilePathImpl;
@@ -34,17 +37,19 @@ import git4idea.GitFileRevision;
 import git4idea.GitRevisionNumber;
 import git4idea.GitUtil;
 import git4idea.commands.GitCommand;
+import git4idea.commands.GitLineHandler;
 import git4idea.commands.GitSimpleHandler;
-import git4idea.util.StringScanner;
 import git4idea.history.GitHistoryUtils;
 import git4idea.i18n.GitBundle;
-import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Git annotation provider implementation.
@@ -56,14 +61,7 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
    * the context project
    */
   private final Project myProject;
-  /**
-   * The author key for annotations
-   */
-  @NonNls private static final String AUTHOR_KEY = "author";
-  /**
-   * The committer time key for annotations
-   */
-  @NonNls private static final String COMMITTER_TIME_KEY = "committer-time";
+  private final GitAnnotationCache myCache;
   private static final Logger LOG = Logger.getInstance(GitAnnotationProvider.class);
 
   /**
@@ -73,6 +71,15 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
    */
   public GitAnnotationProvider(@NotNull Project project) {
     myProject = project;
+    myCache = new GitAnnotationCache(project);
+  }
+
+  public void activate() {
+    myCache.activate();
+  }
+
+  public void deactivate() {
+    myCache.deactivate();
   }
 
   /**
@@ -96,22 +103,58 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
         final ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
         try {
           final FilePath currentFilePath = VcsUtil.getFilePath(file.getPath());
+          final VcsRevisionNumber revisionNumber = revision == null ? null : revision.getRevisionNumber();
+          final String headHash = getHeadHash(file);
+          final String cacheKey = headHash == null ? null : GitAnnotationCache.getKey(file, headHash, revisionNumber);
+          if (cacheKey != null) {
+            GitFileAnnotation cached = myCache.get(cacheKey, file, revisionNumber);
+            if (cached != null) {
+              annotation[0] = cached;
+              return;
+            }
+          }
+
           final FilePath realFilePath;
           if (progress != null) {
             progress.setText(GitBundle.message("getting.history", file.getName()));
           }
-          final List<VcsFileRevision> revisions = GitHistoryUtils.history(myProject, currentFilePath);
-          if (revision == null) {
-            realFilePath = GitHistoryUtils.getLastCommitName(myProject, currentFilePath);
+          // the history is not needed for blame, so it is read at the same time
+          final AtomicBoolean historyCanceled = new AtomicBoolean();
+          Future<List<VcsFileRevision>> history = ApplicationManager.getApplication().executeOnPooledThread(
+            new Callable<List<VcsFileRevision>>() {
+              @Override
+              public List<VcsFileRevision> call() throws VcsException {
+                return GitHistoryUtils.history(myProject, currentFilePath, GitUtil.getGitRoot(currentFilePath), new Getter<Boolean>() {
+                  @Override
+                  public Boolean get() {
+                    return historyCanceled.get();
+                  }
+                });
+              }
+            });
+          try {
+            if (revision == null) {
+              realFilePath = GitHistoryUtils.getLastCommitName(myProject, currentFilePath);
+            }
+            else {
+              realFilePath = ((GitFileRevision)revision).getPath();
+            }
+            if (progress != null) {
+              progress.setText(GitBundle.message("computing.annotation", file.getName()));
+            }
+            final GitFileAnnotation result = annotate(realFilePath, revision, headHash, file, progress);
+            final List<VcsFileRevision> revisions = getResult(history);
+            result.addLogEntries(revisions);
+            if (cacheKey != null) {
+              myCache.put(cacheKey, result, revisions);
+            }
+            annotation[0] = result;
           }
-          else {
-            realFilePath = ((GitFileRevision)revision).getPath();
+          finally {
+            // stops git if blame has failed or has been canceled before the history is read
+            historyCanceled.set(true);
+            history.cancel(false);
           }
-          if (progress != null) {
-            progress.setText(GitBundle.message("computing.annotation", file.getName()));
-          }
-          final GitFileAnnotation result = annotate(realFilePath, revision, revisions, file);
-          annotation[0] = result;
         }
         catch (Exception e) {
           exception[0] = e;
@@ -132,83 +175,89 @@ public class GitAnnotationProvider implements AnnotationProvider, VcsCacheableAn
     return annotation[0];
   }
 
+  /**
+   * Resolves HEAD by Git instead of taking it from {@link git4idea.repo.GitRepository}, which may be not yet updated after a commit
+   * or a checkout, so that the annotation is cached by the commit it is actually calculated at.
+   *
+   * @return the hash of the HEAD commit of the repository of the file, or null if it can't be resolved
+   */
+  @Nullable
+  private String getHeadHash(@NotNull VirtualFile file) {
+    VirtualFile root = GitUtil.getGitRootOrNull(VcsUtil.getFilePath(file.getPath()));
+    if (root == null) {
+      return null;
+    }
+    GitSimpleHandler h = new GitSimpleHandler(myProject, root, GitCommand.REV_PARSE);
+    h.setSilent(true);
+    h.addParameters("--verify", "HEAD");
+    try {
+      String hash = h.run().trim();
+      return GitBlameOutputParser.isHash(hash) ? hash : null;
+    }
+    catch (VcsException e) {
+      LOG.debug("Couldn't resolve HEAD for " + file, e);
+      return null;
+    }
+  }
+
+  @NotNull
+  private static List<VcsFileRevision> getResult(@NotNull Future<List<VcsFileRevision>> history) throws VcsException {
+    try {
+      return history.get();
+    }
+    catch (InterruptedException e) {
+      throw new VcsException(e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof VcsException) {
+        throw (VcsException)cause;
+      }
+      throw new VcsException(cause);
+    }
+  }
+
   /**
    * Calculate annotations
    *
    * @param repositoryFilePath the file path in the repository
    * @param revision           the revision to checkout
-   * @param revisions          the revision list from history
+   * @param headHash           the hash of HEAD to annotate if the revision is null; if it is null too, HEAD is annotated
    * @param file               a virtual file for the action
+   * @param progress           receives the number of annotated lines
    * @return a file annotation object
    * @throws VcsException if there is a problem with running git
    */
   private GitFileAnnotation annotate(final FilePath repositoryFilePath,
                                      final VcsFileRevision revision,
-                                     final List<VcsFileRevision> revisions,
-                                     final VirtualFile file) throws VcsException {
-    GitSimpleHandler h = new GitSimpleHandler(myProject, GitUtil.getGitRoot(repositoryFilePath), GitCommand.BLAME);
+                                     @Nullable final String headHash,
+                                     final VirtualFile file,
+                                     @Nullable ProgressIndicator progress) throws VcsException {
+    final Ref<GitBlameOutputParser> parser = Ref.create();
+    GitLineHandler h = new GitLineHandler(myProject, GitUtil.getGitRoot(repositoryFilePath), GitCommand.BLAME) {
+      @Override
+      protected void onTextAvailable(String text, Key outputType) {
+        // the parser splits the output into lines itself, keeping the line separators of the file
+        parser.get().onTextAvailable(text, outputType);
+      }
+    };
     h.setStdoutSuppressed(true);
     h.setCharset(file.getCharset());
     h.addParameters("-p", "-l", "-t", "-w");
     if (revision == null) {
-      h.addParameters("HEAD");
+      h.addParameters(headHash == null ? "HEAD" : headHash);
     }
     else {
       h.addParameters(revision.getRevisionNumber().asString());
     }
     h.endOptions();
     h.addRelativePaths(repositoryFilePath);
-    String output = h.run();
     GitFileAnnotation annotation = new GitFileAnnotation(myProject, file, revision == null, revision == null ? null : revision.getRevisionNumber());
-    class CommitInfo {
-      Date date;
-      String author;
-      GitRevisionNumber revision;
-    }
-    HashMap<String, CommitInfo> commits = new HashMap<String, CommitInfo>();
-    for (StringScanner s = new StringScanner(output); s.hasMoreData();) {
-      // parse header line
-      String commitHash = s.spaceToken();
-      if (commitHash.equals(GitRevisionNumber.NOT_COMMITTED_HASH)) {
-        commitHash = null;
-      }
-      s.spaceToken(); // skip revision line number
-      String s1 = s.spaceToken();
-      int lineNum = Integer.parseInt(s1);
-      s.nextLine();
-      // parse commit information
-      CommitInfo commit = commits.get(commitHash);
-      if (commit != null) {
-        while (s.hasMoreData() && !s.startsWith('\t')) {
-          s.nextLine();
-        }
-      }
-      else {
-        commit = new CommitInfo();
-        while (s.hasMoreData() && !s.startsWith('\t')) {
-          String key = s.spaceToken();
-          String value = s.line();
-          if (commitHash != null && AUTHOR_KEY.equals(key)) {
-            commit.author = value;
-          }
-          if (commitHash != null && COMMITTER_TIME_KEY.equals(key)) {
-            commit.date = GitUtil.parseTimestampWithNFEReport(value, h, output);
-            commit.revision = new GitRevisionNumber(commitHash, commit.date);
-          }
-        }
-        commits.put(commitHash, commit);
-      }
-      // parse line
-      if (!s.hasMoreData()) {
-        // if the file is empty, the next line will not start with tab and it will be
-        // empty.  
-        continue;
-      }
-      s.skipChars(1);
-      String line = s.line(true);
-      annotation.appendLineInfo(commit.date, commit.revision, commit.author, line, lineNum);
-    }
-    annotation.addLogEntries(revisions);
+    // the output is parsed while git produces it
+    parser.set(new GitBlameOutputParser(annotation, h, progress));
+    h.addLineListener(parser.get());
+    h.runInCurrentThread(null);
+    parser.get().checkErrors();
     return annotation;
   }
 
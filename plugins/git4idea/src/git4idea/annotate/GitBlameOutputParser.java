@@ -0,0 +1,204 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.VcsException;
+import git4idea.GitRevisionNumber;
+import git4idea.GitUtil;
+import git4idea.commands.GitHandler;
+import git4idea.commands.GitLineHandlerAdapter;
+import git4idea.i18n.GitBundle;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the output of {@code git blame --porcelain} line by line while Git writes it, and appends the annotated lines
+ * to the annotation, so the whole output is never kept in memory.
+ * <p/>
+ * The output is split into lines by '\n' only, and the lines of the file keep their separators: a line may end with "\r\n"
+ * or contain a stray '\r', which must stay in the annotated content.
+ */
+class GitBlameOutputParser extends GitLineHandlerAdapter {
+  private static final Logger LOG = Logger.getInstance(GitBlameOutputParser.class);
+  @NonNls private static final String AUTHOR_KEY = "author";
+  @NonNls private static final String COMMITTER_TIME_KEY = "committer-time";
+  private static final int PROGRESS_STEP = 100;
+  private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-fA-F]{40}");
+
+  @NotNull private final GitFileAnnotation myAnnotation;
+  @NotNull private final GitHandler myHandler;
+  @Nullable private final ProgressIndicator myProgress;
+  private final Map<String, CommitInfo> myCommits = new HashMap<String, CommitInfo>();
+  private final StringBuilder myErrorOutput = new StringBuilder();
+  // the beginning of the output line which hasn't been terminated yet
+  private final StringBuilder myPartialLine = new StringBuilder();
+
+  // the header of the current line: null if the next line is expected to be a header
+  @Nullable private CommitInfo myCommit;
+  private boolean myNewCommit;
+  private int myLineNumber;
+  @Nullable private VcsException myException;
+
+  GitBlameOutputParser(@NotNull GitFileAnnotation annotation, @NotNull GitHandler handler, @Nullable ProgressIndicator progress) {
+    myAnnotation = annotation;
+    myHandler = handler;
+    myProgress = progress;
+  }
+
+  /**
+   * Receives the output as it is read from Git, in arbitrary pieces.
+   */
+  void onTextAvailable(@NotNull String text, @NotNull Key outputType) {
+    if (outputType == ProcessOutputTypes.STDERR) {
+      myErrorOutput.append(text);
+      return;
+    }
+    if (outputType != ProcessOutputTypes.STDOUT) return;
+    int start = 0;
+    for (int end = text.indexOf('\n'); end >= 0; end = text.indexOf('\n', start)) {
+      myPartialLine.append(text, start, end + 1);
+      onLineAvailable(myPartialLine.toString());
+      myPartialLine.setLength(0);
+      start = end + 1;
+    }
+    myPartialLine.append(text, start, text.length());
+  }
+
+  private void onLineAvailable(@NotNull String line) {
+    if (myException != null) return;
+    try {
+      parseLine(line);
+    }
+    catch (VcsException e) {
+      myException = e;
+    }
+  }
+
+  @Override
+  public void processTerminated(int exitCode) {
+    if (myPartialLine.length() > 0) {
+      onLineAvailable(myPartialLine.toString());
+      myPartialLine.setLength(0);
+    }
+    if (exitCode != 0 && !myHandler.isIgnoredErrorCode(exitCode)) {
+      String message = myErrorOutput.length() > 0 ? myErrorOutput.toString().trim() : GitBundle.message("git.error.exit", exitCode);
+      myException = new VcsException(message);
+    }
+  }
+
+  @Override
+  public void startFailed(Throwable exception) {
+    myException = new VcsException(exception);
+  }
+
+  /**
+   * @throws VcsException if the output couldn't be parsed
+   */
+  void checkErrors() throws VcsException {
+    if (myException != null) {
+      throw myException;
+    }
+  }
+
+  /**
+   * @param line a line of the output with its separator
+   */
+  private void parseLine(@NotNull String line) throws VcsException {
+    if (myCommit != null && line.startsWith("\t")) {
+      // the line itself ends the information about it
+      myAnnotation.appendLineInfo(myCommit.myDate, myCommit.myRevision, myCommit.myAuthor, line.substring(1), myLineNumber);
+      myCommit = null;
+      if (myProgress != null && myLineNumber % PROGRESS_STEP == 0) {
+        myProgress.setText2(GitBundle.message("annotation.progress.lines", myLineNumber));
+      }
+      return;
+    }
+    line = StringUtil.trimEnd(StringUtil.trimEnd(line, "\n"), "\r");
+    if (myCommit == null) {
+      parseHeader(line);
+    }
+    else if (myNewCommit && myCommit.myHash != null) {
+      int space = line.indexOf(' ');
+      String key = space < 0 ? line : line.substring(0, space);
+      String value = space < 0 ? "" : line.substring(space + 1);
+      if (AUTHOR_KEY.equals(key)) {
+        myCommit.myAuthor = value;
+      }
+      else if (COMMITTER_TIME_KEY.equals(key)) {
+        myCommit.myDate = GitUtil.parseTimestampWithNFEReport(value, myHandler, line);
+        myCommit.myRevision = new GitRevisionNumber(myCommit.myHash, myCommit.myDate);
+      }
+    }
+  }
+
+  private void parseHeader(@NotNull String line) throws VcsException {
+    // <hash> <line number in the original file> <line number in the final file> [<number of lines in the group>]
+    String[] tokens = line.split(" ");
+    int lineNumber = tokens.length < 3 ? -1 : parseLineNumber(tokens[2]);
+    if (lineNumber < 0) {
+      // the output for an empty file
+      LOG.debug("Unexpected blame output line: " + line);
+      return;
+    }
+    String hash = tokens[0];
+    if (!isHash(hash)) {
+      throw new VcsException("Unexpected git blame output: " + line);
+    }
+    CommitInfo commit = myCommits.get(hash);
+    myNewCommit = commit == null;
+    if (commit == null) {
+      commit = new CommitInfo(hash.equals(GitRevisionNumber.NOT_COMMITTED_HASH) ? null : hash);
+      myCommits.put(hash, commit);
+    }
+    myLineNumber = lineNumber;
+    myCommit = commit;
+  }
+
+  static boolean isHash(@NotNull String value) {
+    return HASH_PATTERN.matcher(value).matches();
+  }
+
+  private static int parseLineNumber(@NotNull String token) {
+    try {
+      return Integer.parseInt(token);
+    }
+    catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static class CommitInfo {
+    @Nullable private final String myHash;
+    private Date myDate;
+    private String myAuthor;
+    private GitRevisionNumber myRevision;
+
+    private CommitInfo(@Nullable String hash) {
+      myHash = hash;
+    }
+  }
+}
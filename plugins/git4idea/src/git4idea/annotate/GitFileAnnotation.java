@@ -206,6 +206,14 @@ public class GitFileAnnotation extends FileAnnotation {
     return lineInfo == null ? null : lineInfo.getDate();
   }
 
+  @Nullable
+  String getLineAuthor(int lineNumber) {
+    if (lineNumberCheck(lineNumber)) {
+      return null;
+    }
+    return myLines.get(lineNumber).getAuthor();
+  }
+
   /**
    * Get revision number for the line.
    */
@@ -33,10 +33,12 @@ import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionDescription;
 import com.intellij.openapi.vcs.history.VcsRevisionDescriptionImpl;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.openapi.vfs.CharsetToolkit;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.util.AsynchConsumer;
 import com.intellij.util.Consumer;
 import com.intellij.util.Function;
+import com.intellij.util.Processor;
 import com.intellij.util.SmartList;
 import com.intellij.util.concurrency.Semaphore;
 import com.intellij.util.containers.ContainerUtil;
@@ -299,6 +301,16 @@ public class GitHistoryUtils {
    */
   public static void history(final Project project, FilePath path, @Nullable VirtualFile root, final Consumer<GitFileRevision> consumer,
                              final Consumer<VcsException> exceptionConsumer, String... parameters) {
+    history(project, path, root, consumer, exceptionConsumer, (Getter<Boolean>)null, parameters);
+  }
+
+  /**
+   * The same as {@link #history(Project, FilePath, VirtualFile, Consumer, Consumer, String...)}, but stops git and returns
+   * as soon as {@code isCanceled} returns true.
+   */
+  public static void history(final Project project, FilePath path, @Nullable VirtualFile root, final Consumer<GitFileRevision> consumer,
+                             final Consumer<VcsException> exceptionConsumer, @Nullable final Getter<Boolean> isCanceled,
+                             String... parameters) {
     // adjust path using change manager
     final FilePath filePath = getLastCommitName(project, path);
     final VirtualFile finalRoot;
@@ -381,6 +393,10 @@ public class GitHistoryUtils {
       logHandler.get().addLineListener(new GitLineHandlerAdapter() {
         @Override
         public void onLineAvailable(String line, Key outputType) {
+          if (isCanceled != null && isCanceled.get()) {
+            logHandler.get().cancel();
+            return;
+          }
           final GitLogRecord record = accumulator.acceptLine(line);
           if (record != null) {
             resultAdapter.consume(record);
@@ -420,7 +436,7 @@ public class GitHistoryUtils {
       semaphore.down();
       logHandler.get().start();
       semaphore.waitFor();
-      if (criticalFailure.get()) {
+      if (criticalFailure.get() || isCanceled != null && isCanceled.get()) {
         return;
       }
 
@@ -515,7 +531,7 @@ public class GitHistoryUtils {
     // git show can show either -p, or --name-status, or --name-only, but we need nothing, just details => using git log --no-walk
     h.addParameters("--no-walk");
     h.addParameters(parser.getPretty(), "--encoding=UTF-8");
-    h.addParameters(new ArrayList<String>(hashes));
+    passHashesViaStdin(h, hashes);
 
     String output = h.run();
     List<GitLogRecord> records = parser.parse(output);
@@ -699,6 +715,16 @@ public class GitHistoryUtils {
    * @throws VcsException if there is problem with running git
    */
   public static List<VcsFileRevision> history(final Project project, FilePath path, final VirtualFile root, final String... parameters) throws VcsException {
+    return history(project, path, root, (Getter<Boolean>)null, parameters);
+  }
+
+  /**
+   * Get history for the file unless it is canceled
+   *
+   * @param isCanceled stops reading the history when it returns true, the revisions read by then are returned
+   */
+  public static List<VcsFileRevision> history(final Project project, FilePath path, final VirtualFile root,
+                                              @Nullable Getter<Boolean> isCanceled, final String... parameters) throws VcsException {
     final List<VcsFileRevision> rc = new ArrayList<VcsFileRevision>();
     final List<VcsException> exceptions = new ArrayList<VcsException>();
 
@@ -710,7 +736,7 @@ public class GitHistoryUtils {
       @Override public void consume(VcsException e) {
         exceptions.add(e);
       }
-    }, parameters);
+    }, isCanceled, parameters);
     if (!exceptions.isEmpty()) {
       throw exceptions.get(0);
     }
@@ -1049,7 +1075,7 @@ public class GitHistoryUtils {
                                            COMMITTER_EMAIL, PARENTS, REF_NAMES, SUBJECT, BODY, RAW_BODY);
     h.setStdoutSuppressed(true);
     h.addParameters("--name-status", "-M", parser.getPretty(), "--encoding=UTF-8");
-    h.addParameters(new ArrayList<String>(hashes));
+    passHashesViaStdin(h, hashes);
 
     String output = h.run();
     final List<GitCommit> rc = new ArrayList<GitCommit>();
@@ -1059,6 +1085,35 @@ public class GitHistoryUtils {
     return rc;
   }
 
+  /**
+   * Passes the hashes to Git via the standard input instead of the command line, which would exceed the length limit
+   * of the command line for big batches of commits.
+   */
+  private static void passHashesViaStdin(@NotNull GitHandler handler, @NotNull final Collection<String> hashes) {
+    handler.addParameters("--stdin");
+    handler.setInputProcessor(new Processor<OutputStream>() {
+      @Override
+      public boolean process(OutputStream stream) {
+        try {
+          Writer writer = new OutputStreamWriter(stream, CharsetToolkit.UTF8_CHARSET);
+          try {
+            for (String hash : hashes) {
+              writer.write(hash);
+              writer.write("\n");
+            }
+          }
+          finally {
+            writer.close();
+          }
+        }
+        catch (IOException e) {
+          LOG.warn("Couldn't pass hashes to Git", e);
+        }
+        return true;
+      }
+    });
+  }
+
   @NotNull
   public static List<GitCommit> getAllDetails(@NotNull Project project, @NotNull VirtualFile root,
                                               @NotNull List<String> parameters) throws VcsException {
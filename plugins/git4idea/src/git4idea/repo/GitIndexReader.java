@@ -0,0 +1,197 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.repo;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileAttributes;
+import com.intellij.openapi.util.io.FileSystemUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads entries of the Git index file ({@code .git/index}), versions 2 to 4. Only the fields needed to tell whether a working tree
+ * file may differ from its index entry are read; extensions are ignored.
+ * See <a href="https://github.com/git/git/blob/master/Documentation/technical/index-format.txt">index-format.txt</a> for details.
+ */
+public class GitIndexReader {
+  private static final int SIGNATURE = 0x44495243; // "DIRC"
+  private static final int EXTENDED_FLAG = 0x4000;
+  private static final int ASSUME_VALID_FLAG = 0x8000;
+  private static final int SKIP_WORKTREE_FLAG = 0x4000;
+  private static final int INTENT_TO_ADD_FLAG = 0x2000;
+  private static final int ENTRY_FIXED_SIZE = 62;
+
+  private GitIndexReader() {
+  }
+
+  /**
+   * @param paths paths relative to the repository root, '/'-separated
+   * @return entries for those of the given paths which are present in the index
+   */
+  @NotNull
+  public static Map<String, Entry> readEntries(@NotNull File indexFile, @NotNull Collection<String> paths) throws IOException {
+    Map<String, Entry> result = new HashMap<String, Entry>();
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024));
+    try {
+      if (in.readInt() != SIGNATURE) {
+        throw new IOException("Not a Git index file: " + indexFile);
+      }
+      int version = in.readInt();
+      if (version < 2 || version > 4) {
+        throw new IOException("Unsupported Git index version " + version + ": " + indexFile);
+      }
+      int count = in.readInt();
+
+      byte[] name = new byte[256];
+      int nameLength = 0;
+      for (int i = 0; i < count; i++) {
+        in.readInt(); // ctime seconds
+        in.readInt(); // ctime nanoseconds
+        int mtimeSeconds = in.readInt();
+        in.readInt(); // mtime nanoseconds
+        in.readInt(); // dev
+        in.readInt(); // ino
+        int mode = in.readInt();
+        in.readInt(); // uid
+        in.readInt(); // gid
+        int size = in.readInt();
+        skipFully(in, 20); // sha-1
+        int flags = in.readUnsignedShort();
+        int extendedFlags = 0;
+        int headerSize = ENTRY_FIXED_SIZE;
+        if (version >= 3 && (flags & EXTENDED_FLAG) != 0) {
+          extendedFlags = in.readUnsignedShort();
+          headerSize += 2;
+        }
+
+        if (version == 4) {
+          // the name is stored as a number of bytes to remove from the previous name and a suffix to append
+          int strip = readOffset(in);
+          if (strip > nameLength) {
+            throw new IOException("Incorrect path compression in Git index: " + indexFile);
+          }
+          nameLength -= strip;
+        }
+        else {
+          nameLength = 0;
+        }
+        int b;
+        while ((b = in.readUnsignedByte()) != 0) {
+          if (nameLength == name.length) {
+            byte[] newName = new byte[name.length * 2];
+            System.arraycopy(name, 0, newName, 0, nameLength);
+            name = newName;
+          }
+          name[nameLength++] = (byte)b;
+        }
+        if (version < 4) {
+          // entries are padded with 1-8 NUL bytes to a multiple of 8 bytes, the first one is already read
+          int entrySize = (headerSize + nameLength + 8) & ~7;
+          skipFully(in, entrySize - headerSize - nameLength - 1);
+        }
+
+        String path = new String(name, 0, nameLength, CharsetToolkit.UTF8_CHARSET);
+        if (paths.contains(path)) {
+          int stage = (flags >> 12) & 3;
+          boolean ignoresWorkingTree = (flags & ASSUME_VALID_FLAG) != 0 ||
+                                       (extendedFlags & (SKIP_WORKTREE_FLAG | INTENT_TO_ADD_FLAG)) != 0;
+          Entry previous = result.get(path);
+          // an unmerged path has several entries, one per stage
+          result.put(path, new Entry(mode, mtimeSeconds, size, previous != null ? Math.max(stage, previous.getStage()) : stage,
+                                     ignoresWorkingTree));
+        }
+      }
+    }
+    catch (EOFException e) {
+      throw new IOException("Unexpected end of Git index file: " + indexFile);
+    }
+    finally {
+      in.close();
+    }
+    return result;
+  }
+
+  private static int readOffset(@NotNull DataInputStream in) throws IOException {
+    int c = in.readUnsignedByte();
+    int value = c & 127;
+    while ((c & 128) != 0) {
+      c = in.readUnsignedByte();
+      value = ((value + 1) << 7) + (c & 127);
+    }
+    return value;
+  }
+
+  private static void skipFully(@NotNull DataInputStream in, int count) throws IOException {
+    if (in.skipBytes(count) != count) {
+      throw new EOFException();
+    }
+  }
+
+  public static class Entry {
+    private static final int TYPE_MASK = 0170000;
+    private static final int REGULAR_FILE = 0100000;
+    private static final int EXECUTABLE = 0100;
+
+    private final int myMode;
+    private final int myMtimeSeconds;
+    private final int mySize;
+    private final int myStage;
+    private final boolean myIgnoresWorkingTree;
+
+    Entry(int mode, int mtimeSeconds, int size, int stage, boolean ignoresWorkingTree) {
+      myMode = mode;
+      myMtimeSeconds = mtimeSeconds;
+      mySize = size;
+      myStage = stage;
+      myIgnoresWorkingTree = ignoresWorkingTree;
+    }
+
+    public int getStage() {
+      return myStage;
+    }
+
+    /**
+     * Git updates the cached stat data of an entry when it knows that the file content matches the entry, so a regular file having
+     * the same size and modification time has the indexed content, unless it was modified in the same second the index was written.
+     * <p/>
+     * Like Git, the file is also compared by its mode: it must be a regular file, not a symbolic link, and have the same executable
+     * bit (except on Windows, where the bit is not tracked). The change time and the inode Git compares as well can't be read here,
+     * so a file replaced by another one of the same size and modification time is not detected.
+     * A {@code false} result only means that {@code git status} has to check the file.
+     *
+     * @param indexTimestamp modification time of the index file, in milliseconds
+     */
+    public boolean isUnmodified(@NotNull File file, long indexTimestamp) {
+      if (myStage != 0 || myIgnoresWorkingTree || (myMode & TYPE_MASK) != REGULAR_FILE) {
+        return false;
+      }
+      FileAttributes attributes = FileSystemUtil.getAttributes(file);
+      if (attributes == null || !attributes.isFile() || attributes.isSymLink() || attributes.lastModified == 0) {
+        return false;
+      }
+      if (!SystemInfo.isWindows && ((myMode & EXECUTABLE) != 0) != file.canExecute()) {
+        return false;
+      }
+      long seconds = attributes.lastModified / 1000;
+      return (int)seconds == myMtimeSeconds && (int)attributes.length == mySize && seconds < indexTimestamp / 1000;
+    }
+  }
+}
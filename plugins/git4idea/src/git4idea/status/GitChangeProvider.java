@@ -50,6 +50,7 @@ public class GitChangeProvider implements ChangeProvider {
   @NotNull private final ChangeListManager myChangeListManager;
   @NotNull private final FileDocumentManager myFileDocumentManager;
   @NotNull private final ProjectLevelVcsManager myVcsManager;
+  @NotNull private final GitIndexStatusCache myIndexStatusCache = new GitIndexStatusCache();
 
   public GitChangeProvider(@NotNull Project project, @NotNull Git git, ChangeListManager changeListManager,
                            @NotNull FileDocumentManager fileDocumentManager, @NotNull ProjectLevelVcsManager vcsManager) {
@@ -83,7 +84,7 @@ public class GitChangeProvider implements ChangeProvider {
         debug("checking root: " + root.getPath());
         GitChangesCollector collector = isNewGitChangeProviderAvailable()
                                         ? GitNewChangesCollector.collect(myProject, myGit, myChangeListManager, myVcsManager,
-                                                                         vcs, dirtyScope, root)
+                                                                         vcs, dirtyScope, root, myIndexStatusCache)
                                         : GitOldChangesCollector.collect(myProject, myChangeListManager, myVcsManager,
                                                                          vcs, dirtyScope, root);
         final Collection<Change> changes = collector.getChanges();
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.status;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which files had no staged changes according to the last {@code 'git status'} calls made while the index and HEAD stayed
+ * the same. Together with the stat data from the index this allows {@link GitNewChangesCollector} to tell that a dirty file is
+ * unchanged without calling Git.
+ */
+class GitIndexStatusCache {
+  private final Map<VirtualFile, RootState> myStates = ContainerUtil.newHashMap();
+
+  /**
+   * @return stamp of the current index and HEAD of the repository, or {@code null} if there is no index
+   */
+  @Nullable
+  static IndexStamp getStamp(@NotNull File indexFile, @Nullable String head) {
+    long timestamp = indexFile.lastModified();
+    return timestamp == 0 || head == null ? null : new IndexStamp(indexFile.length(), timestamp, head);
+  }
+
+  /**
+   * @return whether the path was checked by Git under this stamp and had no staged changes
+   */
+  synchronized boolean isKnownUnstaged(@NotNull VirtualFile root, @NotNull IndexStamp stamp, @NotNull String path) {
+    RootState state = myStates.get(root);
+    return state != null && state.myStamp.equals(stamp) && state.myUnstagedPaths.contains(path);
+  }
+
+  /**
+   * Records the result of {@code 'git status'} called for the given file paths.
+   */
+  synchronized void statusCollected(@NotNull VirtualFile root,
+                                    @NotNull IndexStamp stamp,
+                                    @NotNull Collection<String> checkedPaths,
+                                    @NotNull Collection<String> stagedPaths) {
+    RootState state = myStates.get(root);
+    if (state == null || !state.myStamp.equals(stamp)) {
+      state = new RootState(stamp);
+      myStates.put(root, state);
+    }
+    for (String path : checkedPaths) {
+      if (!stagedPaths.contains(path)) {
+        state.myUnstagedPaths.add(path);
+      }
+    }
+    state.myUnstagedPaths.removeAll(stagedPaths);
+  }
+
+  private static class RootState {
+    private final IndexStamp myStamp;
+    private final Set<String> myUnstagedPaths = ContainerUtil.newHashSet();
+
+    private RootState(@NotNull IndexStamp stamp) {
+      myStamp = stamp;
+    }
+  }
+
+  static class IndexStamp {
+    private final long myLength;
+    private final long myTimestamp;
+    @NotNull private final String myHead;
+
+    private IndexStamp(long length, long timestamp, @NotNull String head) {
+      myLength = length;
+      myTimestamp = timestamp;
+      myHead = head;
+    }
+
+    long getTimestamp() {
+      return myTimestamp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      IndexStamp stamp = (IndexStamp)o;
+      return myLength == stamp.myLength && myTimestamp == stamp.myTimestamp && myHead.equals(stamp.myHead);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = (int)(myLength ^ (myLength >>> 32));
+      result = 31 * result + (int)(myTimestamp ^ (myTimestamp >>> 32));
+      result = 31 * result + myHead.hashCode();
+      return result;
+    }
+  }
+}
@@ -17,6 +17,7 @@ package git4idea.status;
 
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.*;
 import com.intellij.openapi.vcs.changes.Change;
@@ -24,7 +25,9 @@ import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.changes.VcsDirtyScope;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.openapi.vfs.VfsUtilCore;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.containers.ContainerUtil;
 import git4idea.GitContentRevision;
 import git4idea.GitFormatException;
 import git4idea.GitRevisionNumber;
@@ -34,18 +37,21 @@ import git4idea.commands.Git;
 import git4idea.commands.GitCommand;
 import git4idea.commands.GitHandler;
 import git4idea.commands.GitSimpleHandler;
+import git4idea.repo.GitIndexReader;
 import git4idea.repo.GitRepository;
+import git4idea.repo.GitRepositoryFiles;
 import git4idea.repo.GitUntrackedFilesHolder;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Set;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
 
 /**
  * <p>
  *   Collects changes from the Git repository in the given {@link com.intellij.openapi.vcs.changes.VcsDirtyScope}
  *   by calling {@code 'git status --porcelain -z'} on it.
+ *   Dirty files which are known to be unchanged from the index and {@link GitIndexStatusCache} are not passed to Git.
  *   Works only on Git 1.7.0 and later.
  * </p>
  * <p>
@@ -61,6 +67,7 @@ class GitNewChangesCollector extends GitChangesCollector {
   private final Collection<Change> myChanges = new HashSet<Change>();
   private final Set<VirtualFile> myUnversionedFiles = new HashSet<VirtualFile>();
   @NotNull private final Git myGit;
+  @NotNull private final GitIndexStatusCache myIndexStatusCache;
 
   /**
    * Collects the changes from git command line and returns the instance of GitNewChangesCollector from which these changes can be retrieved.
@@ -69,8 +76,9 @@ class GitNewChangesCollector extends GitChangesCollector {
   @NotNull
   static GitNewChangesCollector collect(@NotNull Project project, @NotNull Git git, @NotNull ChangeListManager changeListManager,
                                         @NotNull ProjectLevelVcsManager vcsManager, @NotNull AbstractVcs vcs,
-                                        @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot) throws VcsException {
-    return new GitNewChangesCollector(project, git, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot);
+                                        @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot,
+                                        @NotNull GitIndexStatusCache indexStatusCache) throws VcsException {
+    return new GitNewChangesCollector(project, git, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot, indexStatusCache);
   }
 
   @Override
@@ -87,10 +95,12 @@ class GitNewChangesCollector extends GitChangesCollector {
 
   private GitNewChangesCollector(@NotNull Project project, @NotNull Git git, @NotNull ChangeListManager changeListManager,
                                  @NotNull ProjectLevelVcsManager vcsManager, @NotNull AbstractVcs vcs,
-                                 @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot) throws VcsException
+                                 @NotNull VcsDirtyScope dirtyScope, @NotNull VirtualFile vcsRoot,
+                                 @NotNull GitIndexStatusCache indexStatusCache) throws VcsException
   {
     super(project, changeListManager, vcsManager, vcs, dirtyScope, vcsRoot);
     myGit = git;
+    myIndexStatusCache = indexStatusCache;
     myRepository = GitUtil.getRepositoryManager(myProject).getRepositoryForRoot(vcsRoot);
 
     Collection<FilePath> dirtyPaths = dirtyPaths(true);
@@ -102,9 +112,82 @@ class GitNewChangesCollector extends GitChangesCollector {
 
   // calls 'git status' and parses the output, feeding myChanges.
   private void collectChanges(Collection<FilePath> dirtyPaths) throws VcsException {
-    GitSimpleHandler handler = statusHandler(dirtyPaths);
+    VcsRevisionNumber head = getHead();
+    File indexFile = myRepository == null ? null : new File(VfsUtilCore.virtualToIoFile(myRepository.getGitDir()), GitRepositoryFiles.INDEX);
+    String headString = head == VcsRevisionNumber.NULL ? null : head.asString();
+    GitIndexStatusCache.IndexStamp stamp = indexFile == null ? null : GitIndexStatusCache.getStamp(indexFile, headString);
+
+    Map<FilePath, String> relativeFilePaths = new HashMap<FilePath, String>();
+    for (FilePath path : dirtyPaths) {
+      String relativePath = path.isDirectory() ? null : FileUtil.getRelativePath(myVcsRoot.getPath(), path.getPath(), '/');
+      if (relativePath != null) {
+        relativeFilePaths.put(path, relativePath);
+      }
+    }
+
+    Collection<FilePath> pathsToCheck = stamp == null ? dirtyPaths : removeUnchangedFiles(dirtyPaths, relativeFilePaths, indexFile, stamp);
+    if (pathsToCheck.isEmpty()) {
+      return;
+    }
+
+    GitSimpleHandler handler = statusHandler(pathsToCheck);
     String output = handler.run();
-    parseOutput(output, handler);
+    Set<String> stagedPaths = new HashSet<String>();
+    parseOutput(output, handler, head, stagedPaths);
+
+    // if the index has been changed meanwhile, the output may correspond to either state
+    if (stamp != null && stamp.equals(GitIndexStatusCache.getStamp(indexFile, headString))) {
+      List<String> checkedPaths = new ArrayList<String>(pathsToCheck.size());
+      for (FilePath path : pathsToCheck) {
+        ContainerUtil.addIfNotNull(relativeFilePaths.get(path), checkedPaths);
+      }
+      myIndexStatusCache.statusCollected(myVcsRoot, stamp, checkedPaths, stagedPaths);
+    }
+  }
+
+  /**
+   * A file having the content of its index entry, which had no staged changes when Git was last asked about it with the same index
+   * and HEAD, is unchanged: there is no need to call 'git status' for it.
+   */
+  @NotNull
+  private Collection<FilePath> removeUnchangedFiles(@NotNull Collection<FilePath> dirtyPaths,
+                                                    @NotNull Map<FilePath, String> relativeFilePaths,
+                                                    @NotNull File indexFile,
+                                                    @NotNull GitIndexStatusCache.IndexStamp stamp) {
+    Set<String> candidates = new HashSet<String>();
+    for (String path : relativeFilePaths.values()) {
+      if (myIndexStatusCache.isKnownUnstaged(myVcsRoot, stamp, path)) {
+        candidates.add(path);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return dirtyPaths;
+    }
+
+    Map<String, GitIndexReader.Entry> entries;
+    try {
+      entries = GitIndexReader.readEntries(indexFile, candidates);
+    }
+    catch (IOException e) {
+      LOG.info("Couldn't read the Git index, calling git status instead", e);
+      return dirtyPaths;
+    }
+    if (!stamp.equals(GitIndexStatusCache.getStamp(indexFile, myRepository == null ? null : myRepository.getCurrentRevision()))) {
+      return dirtyPaths;
+    }
+
+    List<FilePath> result = new ArrayList<FilePath>(dirtyPaths.size());
+    for (FilePath path : dirtyPaths) {
+      String relativePath = relativeFilePaths.get(path);
+      GitIndexReader.Entry entry = relativePath == null || !candidates.contains(relativePath) ? null : entries.get(relativePath);
+      if (entry == null || !entry.isUnmodified(path.getIOFile(), stamp.getTimestamp())) {
+        result.add(path);
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Unchanged according to the index: " + (dirtyPaths.size() - result.size()) + " of " + dirtyPaths.size() + " paths");
+    }
+    return result;
   }
 
   private void collectUnversionedFiles() throws VcsException {
@@ -141,9 +224,10 @@ class GitNewChangesCollector extends GitChangesCollector {
    * See <a href=http://www.kernel.org/pub/software/scm/git/docs/git-status.html#_output">Git man</a> for details.
    */
   // handler is here for debugging purposes in the case of parse error
-  private void parseOutput(@NotNull String output, @NotNull GitHandler handler) throws VcsException {
-    VcsRevisionNumber head = getHead();
-
+  private void parseOutput(@NotNull String output,
+                           @NotNull GitHandler handler,
+                           @NotNull VcsRevisionNumber head,
+                           @NotNull Set<String> stagedPaths) throws VcsException {
     final String[] split = output.split("\u0000");
 
     for (int pos = 0; pos < split.length; pos++) {
@@ -160,6 +244,9 @@ class GitNewChangesCollector extends GitChangesCollector {
       final String filepath = line.substring(3); // skipping the space
       final char xStatus = xyStatus.charAt(0);
       final char yStatus = xyStatus.charAt(1);
+      if (xStatus != ' ') {
+        stagedPaths.add(filepath);
+      }
 
       switch (xStatus) {
         case ' ':
@@ -189,6 +276,7 @@ class GitNewChangesCollector extends GitChangesCollector {
         case 'C':
           //noinspection AssignmentToForLoopParameter
           pos += 1;  // read the "from" filepath which is separated also by NUL character.
+          stagedPaths.add(split[pos]);
           // NB: no "break" here!
           // we treat "Copy" as "Added", but we still have to read the old path not to break the format parsing.
         case 'A':
@@ -230,6 +318,7 @@ class GitNewChangesCollector extends GitChangesCollector {
           //noinspection AssignmentToForLoopParameter
           pos += 1;  // read the "from" filepath which is separated also by NUL character.
           String oldFilename = split[pos];
+          stagedPaths.add(oldFilename);
 
           if (yStatus == 'D') {
             reportDeleted(filepath, head);
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.history.VcsFileRevision;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsUtil;
+import git4idea.GitFileRevision;
+import git4idea.GitRevisionNumber;
+import git4idea.test.GitTest;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+public class GitAnnotationCacheTest extends GitTest {
+  private static final String FIRST = "1111111111111111111111111111111111111111";
+  private static final String SECOND = "2222222222222222222222222222222222222222";
+
+  private VirtualFile myFile;
+  private GitAnnotationCache myCache;
+
+  @BeforeMethod
+  @Override
+  protected void setUp(Method testMethod) throws Exception {
+    super.setUp(testMethod);
+    myFile = myRepo.createVFile("a.txt", "init");
+    myRepo.addCommit("init");
+    myCache = new GitAnnotationCache(myProject);
+    myCache.activate();
+  }
+
+  @AfterMethod
+  @Override
+  protected void tearDown() throws Exception {
+    myCache.deactivate();
+    super.tearDown();
+  }
+
+  @Test
+  public void testRoundTrip() throws VcsException {
+    Date firstDate = new Date(1300000000000L);
+    Date secondDate = new Date(1300000100000L);
+    GitFileAnnotation annotation = new GitFileAnnotation(myProject, myFile, true, null);
+    annotation.appendLineInfo(firstDate, new GitRevisionNumber(FIRST, firstDate), "John Smith", "line 1\n", 1);
+    annotation.appendLineInfo(secondDate, new GitRevisionNumber(SECOND, secondDate), "Jane Doe", "line 2\n", 2);
+    annotation.appendLineInfo(null, null, null, "edited\n", 3);
+    annotation.appendLineInfo(firstDate, new GitRevisionNumber(FIRST, firstDate), "John Smith", "line 4", 4);
+    List<VcsFileRevision> revisions = Arrays.<VcsFileRevision>asList(revision(SECOND, secondDate, "second", FIRST),
+                                                                     revision(FIRST, firstDate, "first"));
+
+    String key = GitAnnotationCache.getKey(myFile, SECOND, null);
+    myCache.put(key, annotation, revisions);
+    // the annotation is read from the disk
+    myCache.deactivate();
+    myCache.activate();
+
+    GitFileAnnotation restored = myCache.get(key, myFile, null);
+    assertNotNull(restored);
+    assertEquals(restored.getAnnotatedContent(), "line 1\nline 2\nedited\nline 4");
+    assertEquals(restored.getNumLines(), 4);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(restored.getLineRevisionNumber(i), annotation.getLineRevisionNumber(i));
+      assertEquals(restored.getLineDate(i), annotation.getLineDate(i));
+      assertEquals(restored.getLineAuthor(i), annotation.getLineAuthor(i));
+    }
+
+    List<VcsFileRevision> restoredRevisions = restored.getRevisions();
+    assertEquals(restoredRevisions.size(), 2);
+    GitFileRevision second = (GitFileRevision)restoredRevisions.get(0);
+    assertEquals(second.getHash(), SECOND);
+    assertEquals(second.getRevisionDate(), secondDate);
+    assertEquals(second.getAuthor(), "John Smith");
+    assertEquals(second.getCommitMessage(), "second");
+    assertEquals(second.getParents(), Collections.singletonList(FIRST));
+  }
+
+  @Test
+  public void testOtherKey() throws VcsException {
+    Date date = new Date(1300000000000L);
+    GitFileAnnotation annotation = new GitFileAnnotation(myProject, myFile, true, null);
+    annotation.appendLineInfo(date, new GitRevisionNumber(FIRST, date), "John Smith", "line 1\n", 1);
+    myCache.put(GitAnnotationCache.getKey(myFile, FIRST, null), annotation, Collections.<VcsFileRevision>emptyList());
+
+    assertNull(myCache.get(GitAnnotationCache.getKey(myFile, SECOND, null), myFile, null));
+  }
+
+  private GitFileRevision revision(String hash, Date date, String message, String... parents) {
+    Pair<String, String> author = Pair.create("John Smith", "john@example.com");
+    return new GitFileRevision(myProject, VcsUtil.getFilePath(myFile.getPath()), new GitRevisionNumber(hash, date),
+                               Pair.create(author, author), message, null, date, Arrays.asList(parents));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.annotate;
+
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.GitRevisionNumber;
+import git4idea.commands.GitCommand;
+import git4idea.commands.GitLineHandler;
+import git4idea.test.GitTest;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Method;
+import java.util.Date;
+
+import static org.testng.Assert.*;
+
+public class GitBlameOutputParserTest extends GitTest {
+  private static final String FIRST = "1111111111111111111111111111111111111111";
+  private static final String SECOND = "2222222222222222222222222222222222222222";
+
+  private VirtualFile myFile;
+
+  @BeforeMethod
+  @Override
+  protected void setUp(Method testMethod) throws Exception {
+    super.setUp(testMethod);
+    myFile = myRepo.createVFile("a.txt", "init");
+    myRepo.addCommit("init");
+  }
+
+  @Test
+  public void testRepeatedCommits() throws VcsException {
+    GitFileAnnotation annotation = parse(commit(FIRST, 1, 1, "John Smith", 1300000000) + "\tline 1\n" +
+                                         FIRST + " 2 2\n" + "\tline 2\n" +
+                                         commit(SECOND, 3, 3, "Jane Doe", 1300000100) + "\tline 3\n" +
+                                         FIRST + " 3 4 1\n" + "\tline 4\n");
+
+    assertEquals(annotation.getNumLines(), 4);
+    assertEquals(annotation.getAnnotatedContent(), "line 1\nline 2\nline 3\nline 4\n");
+    assertLine(annotation, 0, FIRST, "John Smith", 1300000000);
+    assertLine(annotation, 1, FIRST, "John Smith", 1300000000);
+    assertLine(annotation, 2, SECOND, "Jane Doe", 1300000100);
+    assertLine(annotation, 3, FIRST, "John Smith", 1300000000);
+  }
+
+  @Test
+  public void testUncommittedLine() throws VcsException {
+    GitFileAnnotation annotation = parse(commit(FIRST, 1, 1, "John Smith", 1300000000) + "\tline 1\n" +
+                                         commit(GitRevisionNumber.NOT_COMMITTED_HASH, 2, 2, "Not Committed Yet", 1300000200) +
+                                         "\tedited\n");
+
+    assertEquals(annotation.getNumLines(), 2);
+    assertEquals(annotation.getAnnotatedContent(), "line 1\nedited\n");
+    assertLine(annotation, 0, FIRST, "John Smith", 1300000000);
+    assertNull(annotation.getLineRevisionNumber(1));
+    assertNull(annotation.getLineDate(1));
+    assertNull(annotation.getLineAuthor(1));
+  }
+
+  @Test
+  public void testEmptyFile() throws VcsException {
+    GitFileAnnotation annotation = parse("");
+    assertEquals(annotation.getNumLines(), 0);
+    assertEquals(annotation.getAnnotatedContent(), "");
+  }
+
+  @Test
+  public void testCrlf() throws VcsException {
+    String output = commit(FIRST, 1, 1, "John Smith", 1300000000) + "\tline 1\n" + FIRST + " 2 2\n" + "\t\n";
+    GitFileAnnotation annotation = parse(StringUtil.convertLineSeparators(output, "\r\n"));
+
+    assertEquals(annotation.getNumLines(), 2);
+    // the line separators of the file are kept
+    assertEquals(annotation.getAnnotatedContent(), "line 1\r\n\r\n");
+    assertLine(annotation, 0, FIRST, "John Smith", 1300000000);
+    assertLine(annotation, 1, FIRST, "John Smith", 1300000000);
+  }
+
+  @Test
+  public void testStrayCarriageReturn() throws VcsException {
+    GitFileAnnotation annotation = parse(commit(FIRST, 1, 1, "John Smith", 1300000000) + "\tline\r1\n" +
+                                         FIRST + " 2 2\n" + "\tline 2\r\n" +
+                                         FIRST + " 3 3\n" + "\tline 3\n");
+
+    assertEquals(annotation.getNumLines(), 3);
+    assertEquals(annotation.getAnnotatedContent(), "line\r1\nline 2\r\nline 3\n");
+    assertLine(annotation, 2, FIRST, "John Smith", 1300000000);
+  }
+
+  @Test(expectedExceptions = VcsException.class)
+  public void testInvalidHash() throws VcsException {
+    parse(commit("HEAD", 1, 1, "John Smith", 1300000000) + "\tline 1\n");
+  }
+
+  private GitFileAnnotation parse(String output) throws VcsException {
+    GitFileAnnotation annotation = new GitFileAnnotation(myProject, myFile, false, new GitRevisionNumber(FIRST));
+    GitLineHandler handler = new GitLineHandler(myProject, myRepo.getVFRootDir(), GitCommand.BLAME);
+    GitBlameOutputParser parser = new GitBlameOutputParser(annotation, handler, null);
+    // the output comes in pieces which don't match the lines
+    for (int i = 0; i < output.length(); i += 7) {
+      parser.onTextAvailable(output.substring(i, Math.min(i + 7, output.length())), ProcessOutputTypes.STDOUT);
+    }
+    parser.processTerminated(0);
+    parser.checkErrors();
+    return annotation;
+  }
+
+  private static String commit(String hash, int originalLine, int line, String author, long time) {
+    return hash + " " + originalLine + " " + line + " 1\n" +
+           "author " + author + "\n" +
+           "author-mail <" + author + "@example.com>\n" +
+           "author-time " + time + "\n" +
+           "author-tz +0100\n" +
+           "committer " + author + "\n" +
+           "committer-mail <" + author + "@example.com>\n" +
+           "committer-time " + time + "\n" +
+           "committer-tz +0100\n" +
+           "summary commit\n" +
+           "filename a.txt\n";
+  }
+
+  private static void assertLine(GitFileAnnotation annotation, int line, String hash, String author, long time) {
+    assertEquals(annotation.getLineRevisionNumber(line).asString(), hash);
+    assertEquals(annotation.getLineAuthor(line), author);
+    assertEquals(annotation.getLineDate(line), new Date(time * 1000));
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package git4idea.repo;
+
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.util.io.IoTestUtil;
+import com.intellij.openapi.vfs.CharsetToolkit;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+public class GitIndexReaderTest {
+
+  @Test
+  public void testVersion2() throws IOException {
+    File dir = FileUtil.createTempDirectory("gitIndex", null);
+    File file = new File(dir, "a.txt");
+    FileUtil.writeToFile(file, "content");
+    file.setLastModified(1000000000000L);
+
+    File index = writeIndex(2, dir, new String[]{"a.txt", "dir/b.txt", "dir/c.txt"}, new int[]{0, 0, 2});
+    Map<String, GitIndexReader.Entry> entries = GitIndexReader.readEntries(index, Arrays.asList("a.txt", "dir/c.txt", "missing.txt"));
+
+    assertEquals(entries.size(), 2);
+    assertTrue(entries.get("a.txt").isUnmodified(file, index.lastModified()));
+    assertEquals(entries.get("dir/c.txt").getStage(), 2);
+
+    FileUtil.writeToFile(file, "changed content");
+    file.setLastModified(1000000000000L);
+    assertFalse(entries.get("a.txt").isUnmodified(file, index.lastModified()));
+  }
+
+  @Test
+  public void testMode() throws IOException {
+    if (SystemInfo.isWindows) return;
+    File dir = FileUtil.createTempDirectory("gitIndex", null);
+    File file = new File(dir, "a.txt");
+    FileUtil.writeToFile(file, "content");
+    file.setLastModified(1000000000000L);
+
+    File index = writeIndex(2, dir, new String[]{"a.txt"}, new int[]{0}, 0100755);
+    GitIndexReader.Entry executable = GitIndexReader.readEntries(index, Arrays.asList("a.txt")).get("a.txt");
+    assertFalse(executable.isUnmodified(file, index.lastModified()));
+    assertTrue(file.setExecutable(true));
+    assertTrue(executable.isUnmodified(file, index.lastModified()));
+
+    index = writeIndex(2, dir, new String[]{"a.txt"}, new int[]{0}, 0120000);
+    GitIndexReader.Entry symlink = GitIndexReader.readEntries(index, Arrays.asList("a.txt")).get("a.txt");
+    assertFalse(symlink.isUnmodified(file, index.lastModified()));
+  }
+
+  @Test
+  public void testSymlinkInWorkingTree() throws Exception {
+    if (SystemInfo.isWindows) return;
+    File dir = FileUtil.createTempDirectory("gitIndex", null);
+    File target = new File(dir, "target.txt");
+    FileUtil.writeToFile(target, "content");
+    File link = IoTestUtil.createSymLink(target.getPath(), new File(dir, "a.txt").getPath());
+    target.setLastModified(1000000000000L);
+
+    File index = writeIndex(2, dir, new String[]{"a.txt"}, new int[]{0});
+    GitIndexReader.Entry entry = GitIndexReader.readEntries(index, Arrays.asList("a.txt")).get("a.txt");
+    assertFalse(entry.isUnmodified(link, index.lastModified()));
+    assertTrue(entry.isUnmodified(target, index.lastModified()));
+  }
+
+  @Test
+  public void testVersion4PathCompression() throws IOException {
+    File dir = FileUtil.createTempDirectory("gitIndex", null);
+    File index = writeIndex(4, dir, new String[]{"dir/b.txt", "dir/bc.txt", "e.txt"}, new int[]{0, 0, 0});
+    Map<String, GitIndexReader.Entry> entries = GitIndexReader.readEntries(index, Arrays.asList("dir/bc.txt", "e.txt"));
+    assertEquals(entries.keySet().size(), 2);
+  }
+
+  private static File writeIndex(int version, File dir, String[] paths, int[] stages) throws IOException {
+    return writeIndex(version, dir, paths, stages, 0100644);
+  }
+
+  private static File writeIndex(int version, File dir, String[] paths, int[] stages, int mode) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0x44495243);
+    out.writeInt(version);
+    out.writeInt(paths.length);
+    String previous = "";
+    for (int i = 0; i < paths.length; i++) {
+      byte[] name = paths[i].getBytes(CharsetToolkit.UTF8_CHARSET);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeInt(1000000000); // mtime
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeInt(mode);
+      out.writeInt(0);
+      out.writeInt(0);
+      out.writeInt("content".length());
+      out.write(new byte[20]);
+      out.writeShort((stages[i] << 12) | Math.min(name.length, 0xFFF));
+      if (version == 4) {
+        int common = 0;
+        while (common < previous.length() && common < paths[i].length() && previous.charAt(common) == paths[i].charAt(common)) {
+          common++;
+        }
+        out.write(previous.length() - common); // single-byte offsets are enough here
+        out.write(paths[i].substring(common).getBytes(CharsetToolkit.UTF8_CHARSET));
+        out.write(0);
+        previous = paths[i];
+      }
+      else {
+        out.write(name);
+        int entrySize = (62 + name.length + 8) & ~7;
+        out.write(new byte[entrySize - 62 - name.length]);
+      }
+    }
+    out.close();
+
+    File index = new File(dir, "index");
+    FileUtil.writeToFile(index, bytes.toByteArray());
+    return index;
+  }
+}
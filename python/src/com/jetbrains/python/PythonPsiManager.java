@@ -21,10 +21,10 @@ import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiFileSystemItem;
+import com.intellij.psi.impl.CodeBlockChangePreprocessor;
 import com.intellij.psi.impl.PsiManagerImpl;
 import com.intellij.psi.impl.PsiModificationTrackerImpl;
 import com.intellij.psi.impl.PsiTreeChangeEventImpl;
-import com.intellij.psi.impl.PsiTreeChangePreprocessor;
 import com.jetbrains.python.psi.PyFile;
 import com.jetbrains.python.psi.PyFunction;
 import org.jetbrains.annotations.NotNull;
@@ -32,7 +32,7 @@ import org.jetbrains.annotations.NotNull;
 /**
  * @author yole
  */
-public class PythonPsiManager extends AbstractProjectComponent implements PsiTreeChangePreprocessor {
+public class PythonPsiManager extends AbstractProjectComponent implements CodeBlockChangePreprocessor {
   private final PsiManagerImpl myPsiManager;
   private PsiModificationTrackerImpl myModificationTracker;
 
@@ -46,6 +46,11 @@ public class PythonPsiManager extends AbstractProjectComponent implements PsiTre
     myPsiManager.addTreeChangePreprocessor(this);
   }
 
+  public boolean tracksOutOfCodeBlockChanges(@NotNull PsiFile file) {
+    // elements of other files are considered to be inside code blocks
+    return file instanceof PyFile;
+  }
+
   public void treeChanged(@NotNull PsiTreeChangeEventImpl event) {
     if (!(event.getFile() instanceof PyFile)) return;
     boolean changedInsideCodeBlock = false;